@@ -17,7 +17,7 @@ import com.github.iusmac.sevensim.telephony.SubscriptionsDao;
 @Database(
     entities = {Subscription.class, SubscriptionScheduleEntity.class},
     exportSchema = false,
-    version = 2
+    version = 3
 )
 @TypeConverters({RoomTypeConverters.class})
 public abstract class AppDatabaseDE extends RoomDatabase {
@@ -31,4 +31,12 @@ public abstract class AppDatabaseDE extends RoomDatabase {
                     + " ADD COLUMN label TEXT");
         }
     };
+
+    public static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(final SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE subscription_schedules"
+                    + " ADD COLUMN critical INTEGER NOT NULL DEFAULT 1");
+        }
+    };
 }
@@ -0,0 +1,217 @@
+package com.github.iusmac.sevensim;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * <p>This class is responsible for retaining the history of the most recent business events in
+ * memory, regardless of whether logging is enabled, so that they can be inspected via dumpsys.
+ *
+ * <p>Events are stored in fixed-size slots preallocated in a ring buffer, as an {@link Event} ID,
+ * a timestamp and up to three primitive arguments. Recording an event doesn't allocate, nor
+ * formats anything. The oldest events are overwritten once the ring is full. The events are only
+ * turned into text when dumped.
+ */
+@Singleton
+public final class EventRing {
+    /** The maximum number of events retained. */
+    private static final int CAPACITY = 512;
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+        DateTimeFormatter.ofPattern("MM-dd HH:mm:ss.SSS");
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({
+        Event.SUBSCRIPTION_SYNCED,
+        Event.SUBSCRIPTION_SYNC_DEFERRED,
+        Event.NEXT_ITER_SCHEDULED,
+        Event.NEXT_ITER_CANCELLED,
+        Event.SIM_POWER_REQUEST_DISPATCHED,
+        Event.SIM_POWER_REQUEST_FINISHED,
+        Event.TASK_QUEUED,
+        Event.TASK_COALESCED,
+        Event.TASK_FINISHED,
+        Event.SERVICE_TIMEOUT,
+        Event.WAKE_LOCK_RELEASED
+    })
+    public @interface Event {
+        /** The SIM subscription enabled state has been synced with its schedules. */
+        int SUBSCRIPTION_SYNCED = 0;
+
+        /** The SIM subscription enabled state sync has been deferred until the phone call ends. */
+        int SUBSCRIPTION_SYNC_DEFERRED = 1;
+
+        /** The next schedule processing iteration has been (re-)scheduled. */
+        int NEXT_ITER_SCHEDULED = 2;
+
+        /** The next schedule processing iteration has been cancelled. */
+        int NEXT_ITER_CANCELLED = 3;
+
+        /** A SIM power state change request has been sent to the modem. */
+        int SIM_POWER_REQUEST_DISPATCHED = 4;
+
+        /** A SIM power state change request has finished. */
+        int SIM_POWER_REQUEST_FINISHED = 5;
+
+        /** A task has been queued in the foreground service. */
+        int TASK_QUEUED = 6;
+
+        /** A queued task has been superseded by a newer one in the foreground service. */
+        int TASK_COALESCED = 7;
+
+        /** A task has finished in the foreground service. */
+        int TASK_FINISHED = 8;
+
+        /** The foreground service reached its timeout. */
+        int SERVICE_TIMEOUT = 9;
+
+        /** The wake lock of the foreground service has been released. */
+        int WAKE_LOCK_RELEASED = 10;
+    }
+
+    /** The names of the events, indexed by {@link Event} ID. */
+    private static final String[] EVENT_NAMES = {
+        "SUBSCRIPTION_SYNCED",
+        "SUBSCRIPTION_SYNC_DEFERRED",
+        "NEXT_ITER_SCHEDULED",
+        "NEXT_ITER_CANCELLED",
+        "SIM_POWER_REQUEST_DISPATCHED",
+        "SIM_POWER_REQUEST_FINISHED",
+        "TASK_QUEUED",
+        "TASK_COALESCED",
+        "TASK_FINISHED",
+        "SERVICE_TIMEOUT",
+        "WAKE_LOCK_RELEASED"
+    };
+
+    /** The names of the arguments of the events, indexed by {@link Event} ID. */
+    private static final String[][] EVENT_ARG_NAMES = {
+        { "subId", "currentEnabled", "expectedEnabled" },
+        { "subId" },
+        { "epochMillis", "windowMillis" },
+        {},
+        { "slotIndex", "enabled" },
+        { "slotIndex", "resCode", "latencyMillis" },
+        { "taskId", "queueSize" },
+        { "taskId", "supersededTaskId" },
+        { "taskId", "durationMillis" },
+        { "timeoutMillis" },
+        { "heldMillis" }
+    };
+
+    private final int[] mEventIds = new int[CAPACITY];
+    private final long[] mTimestamps = new long[CAPACITY];
+    private final long[] mArgs0 = new long[CAPACITY];
+    private final long[] mArgs1 = new long[CAPACITY];
+    private final long[] mArgs2 = new long[CAPACITY];
+
+    /** The total number of events ever recorded. */
+    private long mCount;
+
+    @Inject
+    public EventRing() {}
+
+    /**
+     * Record an event without arguments.
+     *
+     * @param event Any of {@link Event} values.
+     */
+    public void record(final @Event int event) {
+        record(event, 0, 0, 0);
+    }
+
+    /**
+     * Record an event with one argument.
+     *
+     * @param event Any of {@link Event} values.
+     * @param arg0 The first argument.
+     */
+    public void record(final @Event int event, final long arg0) {
+        record(event, arg0, 0, 0);
+    }
+
+    /**
+     * Record an event with two arguments.
+     *
+     * @param event Any of {@link Event} values.
+     * @param arg0 The first argument.
+     * @param arg1 The second argument.
+     */
+    public void record(final @Event int event, final long arg0, final long arg1) {
+        record(event, arg0, arg1, 0);
+    }
+
+    /**
+     * Record an event with three arguments.
+     *
+     * @param event Any of {@link Event} values.
+     * @param arg0 The first argument.
+     * @param arg1 The second argument.
+     * @param arg2 The third argument.
+     */
+    public synchronized void record(final @Event int event, final long arg0, final long arg1,
+            final long arg2) {
+
+        final int slot = (int) (mCount % CAPACITY);
+        mEventIds[slot] = event;
+        mTimestamps[slot] = System.currentTimeMillis();
+        mArgs0[slot] = arg0;
+        mArgs1[slot] = arg1;
+        mArgs2[slot] = arg2;
+        mCount++;
+    }
+
+    /**
+     * Print the retained events, from the oldest to the newest.
+     *
+     * @param pw The writer to print to.
+     * @param prefix The string to prefix each line with.
+     */
+    public void dump(final @NonNull PrintWriter pw, final @NonNull String prefix) {
+        // Copy the events out of the ring first, to not block the recording while formatting
+        final int[] eventIds;
+        final long[] timestamps, args0, args1, args2;
+        final long count;
+        synchronized (this) {
+            eventIds = mEventIds.clone();
+            timestamps = mTimestamps.clone();
+            args0 = mArgs0.clone();
+            args1 = mArgs1.clone();
+            args2 = mArgs2.clone();
+            count = mCount;
+        }
+
+        final int size = (int) Math.min(count, CAPACITY);
+        pw.print(prefix);
+        pw.println("Events (" + size + " of " + count + "):");
+
+        final ZoneId zoneId = ZoneId.systemDefault();
+        final StringBuilder sb = new StringBuilder();
+        for (long i = count - size; i < count; i++) {
+            final int slot = (int) (i % CAPACITY);
+            final int event = eventIds[slot];
+            final long[] args = { args0[slot], args1[slot], args2[slot] };
+
+            sb.setLength(0);
+            sb.append(prefix).append("  ")
+                .append(TIMESTAMP_FORMATTER.format(Instant.ofEpochMilli(timestamps[slot])
+                            .atZone(zoneId)))
+                .append(' ').append(EVENT_NAMES[event]);
+            final String[] argNames = EVENT_ARG_NAMES[event];
+            for (int j = 0; j < argNames.length; j++) {
+                sb.append(' ').append(argNames[j]).append('=').append(args[j]);
+            }
+            pw.println(sb);
+        }
+    }
+}
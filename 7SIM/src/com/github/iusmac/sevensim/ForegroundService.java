@@ -16,6 +16,7 @@ import android.telephony.SubscriptionManager;
 import android.os.UserHandle;
 
 import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 
 import com.github.iusmac.sevensim.scheduler.SubscriptionScheduler;
@@ -23,15 +24,22 @@ import com.github.iusmac.sevensim.telephony.PinEntity;
 import com.github.iusmac.sevensim.telephony.PinStorage;
 import com.github.iusmac.sevensim.telephony.SimPinFeeder;
 import com.github.iusmac.sevensim.telephony.Subscriptions;
+import com.github.iusmac.sevensim.telephony.TelephonyController;
+import com.github.iusmac.sevensim.telephony.TelephonyUtils;
 
 import dagger.Lazy;
 import dagger.hilt.android.AndroidEntryPoint;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalLong;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
@@ -53,6 +61,14 @@ public final class ForegroundService extends Hilt_ForegroundService {
     @GuardedBy("sWakeLockSyncLock")
     private static WakeLock sWakeLock;
 
+    /** The time, in {@link SystemClock#elapsedRealtime()}, since the wake lock is held. */
+    @GuardedBy("sWakeLockSyncLock")
+    private static long sWakeLockHeldSinceMillis;
+
+    /** The total time, in milliseconds, the wake lock has been held and released. */
+    @GuardedBy("sWakeLockSyncLock")
+    private static long sWakeLockTotalHeldMillis;
+
     /**
      * Action to update the next weekly repeat schedule processing iteration to a different time.
      */
@@ -125,6 +141,9 @@ public final class ForegroundService extends Hilt_ForegroundService {
     @Inject
     Logger.Factory mLoggerFactory;
 
+    @Inject
+    EventRing mEventRing;
+
     @Inject
     Lazy<SubscriptionScheduler> mSubscriptionSchedulerLazy;
 
@@ -143,6 +162,12 @@ public final class ForegroundService extends Hilt_ForegroundService {
     @Inject
     SimPinFeeder.Factory mSimPinFeederFactory;
 
+    @Inject
+    Lazy<TelephonyUtils> mTelephonyUtilsLazy;
+
+    @Inject
+    Lazy<TelephonyController> mTelephonyControllerLazy;
+
     private Logger mLogger;
     private Worker mWorker;
 
@@ -292,29 +317,27 @@ public final class ForegroundService extends Hilt_ForegroundService {
             case ACTION_UPDATE_NEXT_WEEKLY_REPEAT_SCHEDULE_PROCESSING_ITER:
                 mWorker.execute(() -> dateTime.ifPresent((ldt) -> {
                     List<PinEntity> pinEntities = null;
-                    if (decryptPinStorage || clearPinCodes != null) {
+                    if (decryptPinStorage) {
+                        pinEntities = mPinStorageLazy.get().getDecryptedPinEntities();
+                    } else if (clearPinCodes != null) {
                         pinEntities = mPinStorageLazy.get().getPinEntities();
                         for (final PinEntity pinEntity : pinEntities) {
-                            if (decryptPinStorage) {
-                                mPinStorageLazy.get().decrypt(pinEntity);
-                            } else if (clearPinCodes != null) {
-                                final String clearPin = clearPinCodes.getString(String.valueOf(
-                                            pinEntity.getSubscriptionId()));
-                                if (clearPin != null) {
-                                    pinEntity.setClearPin(clearPin);
-                                }
+                            final String clearPin = clearPinCodes.getString(String.valueOf(
+                                        pinEntity.getSubscriptionId()));
+                            if (clearPin != null) {
+                                pinEntity.setClearPin(clearPin);
                             }
                         }
                     }
                     mSubscriptionSchedulerLazy.get()
                         .updateNextWeeklyRepeatScheduleProcessingIter(ldt, pinEntities);
-                }), startId);
+                }), startId, action, decryptPinStorage || clearPinCodes != null ? null : action);
                 break;
 
             case ACTION_SYNC_ALL_SUBSCRIPTIONS_ENABLED_STATE:
                 mWorker.execute(() -> dateTime.ifPresent((ldt) -> mSubscriptionSchedulerLazy.get()
                             .syncAllSubscriptionsEnabledState(ldt, overrideUserPreference)),
-                        startId);
+                        startId, action, action + ":" + overrideUserPreference);
                 break;
 
             case ACTION_SYNC_SUBSCRIPTION_ENABLED_STATE:
@@ -323,12 +346,13 @@ public final class ForegroundService extends Hilt_ForegroundService {
                         mSubscriptionSchedulerLazy.get().syncSubscriptionEnabledState(subId, ldt,
                                 overrideUserPreference);
                     }
-                }), startId);
+                }), startId, action, action + ":" + subId + ":" + overrideUserPreference);
                 break;
 
             case ACTION_SUBSCRIPTIONS_CHANGED:
                 mWorker.execute(() -> dateTime.ifPresent((ldt) ->
-                            mSubscriptionsLazy.get().syncSubscriptions(ldt)), startId);
+                            mSubscriptionsLazy.get().syncSubscriptions(ldt)), startId, action,
+                        action);
                 break;
 
             case ACTION_UNLOCK_SIM_CARDS:
@@ -358,7 +382,7 @@ public final class ForegroundService extends Hilt_ForegroundService {
                             simPinFeeder.cancel();
                         }
                     }
-                }, startId);
+                }, startId, action, /*coalescingKey=*/ null);
                 break;
 
             default:
@@ -384,10 +408,12 @@ public final class ForegroundService extends Hilt_ForegroundService {
             }
             stopForeground(STOP_FOREGROUND_REMOVE);
         } finally {
+            final long heldMillis;
             synchronized (sWakeLockSyncLock) {
-                if (sWakeLock != null && sWakeLock.isHeld()) {
-                    sWakeLock.release();
-                }
+                heldMillis = release();
+            }
+            if (heldMillis >= 0) {
+                mEventRing.record(EventRing.Event.WAKE_LOCK_RELEASED, heldMillis);
             }
         }
     }
@@ -397,6 +423,33 @@ public final class ForegroundService extends Hilt_ForegroundService {
         return null;
     }
 
+    @Override
+    protected void dump(final FileDescriptor fd, final PrintWriter pw, final String[] args) {
+        pw.println("ForegroundService:");
+        if (mWorker != null) {
+            mWorker.dump(pw, "  ");
+        }
+
+        synchronized (sWakeLockSyncLock) {
+            final boolean isHeld = sWakeLock != null && sWakeLock.isHeld();
+            pw.println("  Wake lock: held=" + isHeld
+                    + " heldMillis=" + (isHeld ? SystemClock.elapsedRealtime() -
+                        sWakeLockHeldSinceMillis : 0)
+                    + " totalHeldMillis=" + sWakeLockTotalHeldMillis);
+        }
+
+        // The SIM power state change requests are only used on devices with the legacy RIL
+        if (!mTelephonyUtilsLazy.get().canDisableUiccSubscription()) {
+            final TelephonyController telephonyController = mTelephonyControllerLazy.get();
+            pw.println("  SIM enable request latency: " +
+                    telephonyController.getLatencyHistogram(/*enabled=*/ true));
+            pw.println("  SIM disable request latency: " +
+                    telephonyController.getLatencyHistogram(/*enabled=*/ false));
+        }
+
+        mEventRing.dump(pw, "  ");
+    }
+
     /** Set the timeout to initiate an unsafe termination of this service at the stated time. */
     private void updateServiceTimeout(final long uptimeMillis) {
         getMainThreadHandler().removeCallbacksAndMessages(mServiceTimeoutToken);
@@ -404,6 +457,8 @@ public final class ForegroundService extends Hilt_ForegroundService {
             mIsServiceTerminatedSafely = false;
             stopSelf();
 
+            mEventRing.record(EventRing.Event.SERVICE_TIMEOUT, SERVICE_TIMEOUT_MS_DEFAULT);
+
             mLogger.w("Service reached timeout of %dms. Starting an unsafe service termination.",
                     SERVICE_TIMEOUT_MS_DEFAULT);
         }, mServiceTimeoutToken, uptimeMillis);
@@ -425,7 +480,7 @@ public final class ForegroundService extends Hilt_ForegroundService {
                 intent.setClass(context, ForegroundService.class);
                 context.startForegroundServiceAsUser(intent, UserHandle.CURRENT);
             } catch (Exception e) {
-                sWakeLock.release();
+                release();
                 throw e;
             }
         }
@@ -446,6 +501,9 @@ public final class ForegroundService extends Hilt_ForegroundService {
                     BuildConfig.APPLICATION_ID + ":" + ForegroundService.class.getSimpleName());
             sWakeLock.setReferenceCounted(false);
         }
+        if (!sWakeLock.isHeld()) {
+            sWakeLockHeldSinceMillis = SystemClock.elapsedRealtime();
+        }
         // Make sure we don't indefinitely hold the wake lock under any circumstances. Note
         // that, for reliability, we add an extra time span of 30s to ensure that we don't fall
         // asleep along the way when terminating this service
@@ -455,7 +513,28 @@ public final class ForegroundService extends Hilt_ForegroundService {
     }
 
     /**
-     * A simple worker that offloads work onto separate thread.
+     * Helper function to release the wake lock, if held.
+     *
+     * @return The time, in milliseconds, the wake lock has been held, or -1 if it wasn't held.
+     */
+    @GuardedBy("sWakeLockSyncLock")
+    private static long release() {
+        if (sWakeLock == null || !sWakeLock.isHeld()) {
+            return -1;
+        }
+        sWakeLock.release();
+        final long heldMillis = SystemClock.elapsedRealtime() - sWakeLockHeldSinceMillis;
+        sWakeLockTotalHeldMillis += heldMillis;
+        return heldMillis;
+    }
+
+    /**
+     * <p>A simple worker that offloads work onto separate thread.
+     *
+     * <p>Tasks sharing the same coalescing key are expected to produce the same outcome when run
+     * consecutively, thus a pending task is dropped in favor of a newer one with the same key. This
+     * avoids running the same full sync many times on bursts of identical requests, e.g., on SIM
+     * hot-plug, time changes or boot.
      */
     private final class Worker {
         final Handler mHandler;
@@ -469,31 +548,51 @@ public final class ForegroundService extends Hilt_ForegroundService {
 
         final AtomicInteger mQueueSize = new AtomicInteger();
 
+        /** The pending tasks that can be coalesced, keyed by their coalescing key. */
+        @GuardedBy("mPendingTasks")
+        final Map<String, Task> mPendingTasks = new HashMap<>();
+
+        /** The total number of tasks dropped in favor of a newer one. */
+        @GuardedBy("mPendingTasks")
+        int mCoalescedCount;
+
+        /** The duration, in milliseconds, of the last completed task, keyed by action. */
+        @GuardedBy("mLastTaskDurationsMillis")
+        final Map<String, Long> mLastTaskDurationsMillis = new TreeMap<>();
+
         /**
          * @param callback The task callback to offload onto separate thread.
          * @param taskId The task ID for which to call {@link #stopSelfResult(int)} on completion.
+         * @param action The action the task is performing.
+         * @param coalescingKey The key identifying tasks that can be coalesced, or {@code null} if
+         * the task must always run.
          */
-        void execute(final Runnable callback, final int taskId) {
-            mLogger.d("Worker.execute(taskId=%d) Add : mQueueSize=%d.", taskId,
-                    mQueueSize.getAndIncrement());
-
-            mHandler.post(() -> {
-                mLogger.d("Worker.execute(taskId=%d) Start : mQueueSize=%d.", taskId,
-                        mQueueSize.get());
+        void execute(final Runnable callback, final int taskId, final String action,
+                final @Nullable String coalescingKey) {
+
+            final Task task = new Task(callback, taskId, action, coalescingKey);
+            if (coalescingKey != null) {
+                synchronized (mPendingTasks) {
+                    final Task supersededTask = mPendingTasks.put(coalescingKey, task);
+                    if (supersededTask != null) {
+                        supersededTask.mSuperseded = true;
+                        mCoalescedCount++;
+                        mEventRing.record(EventRing.Event.TASK_COALESCED, taskId,
+                                supersededTask.mTaskId);
+
+                        mLogger.d("Worker.execute(taskId=%d) Coalesce taskId=%d : key=%s," +
+                                "mCoalescedCount=%d.", taskId, supersededTask.mTaskId,
+                                coalescingKey, mCoalescedCount);
+                    }
+                }
+            }
 
-                callback.run();
+            final int queueSize = mQueueSize.getAndIncrement();
+            mEventRing.record(EventRing.Event.TASK_QUEUED, taskId, queueSize + 1);
 
-                mLogger.d("Worker.execute(taskId=%d) Finish : mQueueSize=%d.", taskId,
-                        mQueueSize.decrementAndGet());
+            mLogger.d("Worker.execute(taskId=%d) Add : mQueueSize=%d.", taskId, queueSize);
 
-                // Since we return the START_REDELIVER_INTENT flag, we have to mark this task as
-                // completed to prevent its potential re-delivery in case another parallel task has
-                // been scheduled and killed before completing. This will prevent from delivering
-                // again all completed tasks, and ensure that only the most recent uncompleted tasks
-                // are re-scheduled. Otherwise, an orderly termination of the service will be
-                // initiated if this is the last task
-                stopSelfResult(taskId);
-            });
+            mHandler.post(task);
         }
 
         /**
@@ -503,6 +602,23 @@ public final class ForegroundService extends Hilt_ForegroundService {
             return mQueueSize.get();
         }
 
+        /**
+         * Print the live statistics of the worker.
+         *
+         * @param pw The writer to print to.
+         * @param prefix The string to prefix each line with.
+         */
+        void dump(final PrintWriter pw, final String prefix) {
+            synchronized (mPendingTasks) {
+                pw.println(prefix + "Worker: queueSize=" + mQueueSize.get()
+                        + " pendingCoalescableTasks=" + mPendingTasks.size()
+                        + " coalescedCount=" + mCoalescedCount);
+            }
+            synchronized (mLastTaskDurationsMillis) {
+                pw.println(prefix + "Last task durations (ms): " + mLastTaskDurationsMillis);
+            }
+        }
+
         /**
          * Shutdown the worker. No new tasks will be accepted.
          *
@@ -516,6 +632,73 @@ public final class ForegroundService extends Hilt_ForegroundService {
                 mHandler.getLooper().getThread().interrupt();
             }
             mQueueSize.set(0);
+
+            synchronized (mPendingTasks) {
+                mLogger.d("Worker.shutdown(safe=%s) : mCoalescedCount=%d.", safe,
+                        mCoalescedCount);
+            }
+        }
+
+        /** A task posted to the worker thread. */
+        private final class Task implements Runnable {
+            final Runnable mCallback;
+            final int mTaskId;
+            final String mAction;
+            final String mCoalescingKey;
+
+            /** Whether a newer task with the same coalescing key replaced this one. */
+            @GuardedBy("mPendingTasks")
+            boolean mSuperseded;
+
+            Task(final Runnable callback, final int taskId, final String action,
+                    final String coalescingKey) {
+
+                mCallback = callback;
+                mTaskId = taskId;
+                mAction = action;
+                mCoalescingKey = coalescingKey;
+            }
+
+            @Override
+            public void run() {
+                if (mCoalescingKey != null) {
+                    synchronized (mPendingTasks) {
+                        if (mSuperseded) {
+                            mLogger.d("Worker.execute(taskId=%d) Skip : mQueueSize=%d.", mTaskId,
+                                    mQueueSize.decrementAndGet());
+
+                            // The newer task will do the job, but this task's intent must still be
+                            // marked as completed to prevent its re-delivery
+                            stopSelfResult(mTaskId);
+                            return;
+                        }
+                        mPendingTasks.remove(mCoalescingKey);
+                    }
+                }
+
+                mLogger.d("Worker.execute(taskId=%d) Start : mQueueSize=%d.", mTaskId,
+                        mQueueSize.get());
+
+                final long startMillis = SystemClock.elapsedRealtime();
+                mCallback.run();
+                final long durationMillis = SystemClock.elapsedRealtime() - startMillis;
+
+                mEventRing.record(EventRing.Event.TASK_FINISHED, mTaskId, durationMillis);
+                synchronized (mLastTaskDurationsMillis) {
+                    mLastTaskDurationsMillis.put(mAction, durationMillis);
+                }
+
+                mLogger.d("Worker.execute(taskId=%d) Finish : mQueueSize=%d.", mTaskId,
+                        mQueueSize.decrementAndGet());
+
+                // Since we return the START_REDELIVER_INTENT flag, we have to mark this task as
+                // completed to prevent its potential re-delivery in case another parallel task has
+                // been scheduled and killed before completing. This will prevent from delivering
+                // again all completed tasks, and ensure that only the most recent uncompleted tasks
+                // are re-scheduled. Otherwise, an orderly termination of the service will be
+                // initiated if this is the last task
+                stopSelfResult(mTaskId);
+            }
         }
     }
 }
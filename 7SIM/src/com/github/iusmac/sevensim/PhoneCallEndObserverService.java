@@ -9,9 +9,13 @@ import android.os.PowerManager;
 import android.os.UserHandle;
 import android.os.PowerManager.WakeLock;
 import android.telephony.CarrierConfigManager;
+import android.telephony.PhoneStateListener;
 import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyCallback;
+import android.telephony.TelephonyManager;
 
 import androidx.annotation.GuardedBy;
+import androidx.annotation.MainThread;
 import androidx.core.content.ContextCompat;
 
 import com.github.iusmac.sevensim.scheduler.SubscriptionScheduler;
@@ -20,7 +24,10 @@ import com.github.iusmac.sevensim.telephony.TelephonyUtils;
 import dagger.hilt.android.AndroidEntryPoint;
 
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.function.IntConsumer;
 
 import javax.inject.Inject;
 
@@ -29,6 +36,9 @@ import javax.inject.Inject;
  * the same order it receives them, but only after the phone call ended, and die as soon as there
  * are no more tasks left.
  *
+ * <p>While there are tasks waiting, the service listens to the call state changes instead of
+ * polling, and holds the {@link WakeLock} only while processing them.
+ *
  * <p>This service will also show a sticky notification to inform the user that the app is working
  * in the background and is consuming system resources.
  */
@@ -55,8 +65,15 @@ public final class PhoneCallEndObserverService extends Hilt_PhoneCallEndObserver
     private static final String ACTION_UPDATE_NEXT_WEEKLY_REPEAT_SCHEDULE_PROCESSING_ITER =
         "ACTION_UPDATE_NEXT_WEEKLY_REPEAT_SCHEDULE_PROCESSING_ITER";
 
-    /** The polling interval, in milliseconds, when checking the phone "in call" state. */
-    private static final long PHONE_IN_CALL_STATE_POLL_INTERVAL_MS = 15 * 1000L;
+    /**
+     * The polling interval, in milliseconds, when checking the phone "in call" state after the
+     * telephony call ended, but some app is still using voice communication, since such calls
+     * aren't reported via call state changes.
+     */
+    private static final long VOICE_COMMUNICATION_POLL_INTERVAL_MS = 15 * 1000L;
+
+    /** The maximum time, in milliseconds, to hold the {@link WakeLock} while processing tasks. */
+    private static final long WAKE_LOCK_TIMEOUT_MS = 30 * 1000L;
 
     /** Key holding the stringified value of the {@link LocalDateTime} in the Intent's payload. */
     private static final String EXTRA_TIME_KEY = "time";
@@ -69,6 +86,15 @@ public final class PhoneCallEndObserverService extends Hilt_PhoneCallEndObserver
 
     private final Object mPhoneCallEndedPollToken = new Object();
 
+    /** The tasks waiting for the phone call to end, in the same order they were received. */
+    private final Queue<Runnable> mPendingTasks = new ArrayDeque<>();
+
+    /**
+     * The {@link TelephonyCallback} or the legacy {@link PhoneStateListener} registered while there
+     * are tasks waiting for the phone call to end, if any.
+     */
+    private Object mCallStateListener;
+
     @Inject
     Logger.Factory mLoggerFactory;
 
@@ -81,6 +107,9 @@ public final class PhoneCallEndObserverService extends Hilt_PhoneCallEndObserver
     @Inject
     TelephonyUtils mTelephonyUtils;
 
+    @Inject
+    TelephonyManager mTelephonyManager;
+
     private Logger mLogger;
 
     /** {@link SubscriptionScheduler#syncSubscriptionEnabledState(int,LocalDateTime,boolean)}. */
@@ -182,39 +211,123 @@ public final class PhoneCallEndObserverService extends Hilt_PhoneCallEndObserver
      * @param callback The callback to invoke on the main thread when the phone call ended.
      * @param taskId The task ID for which to call {@link #stopSelfResult(int)} on completion.
      */
+    @MainThread
     private void onCallEnded(final Runnable callback, final int taskId) {
+        mPendingTasks.add(() -> {
+            callback.run();
+            stopSelfResult(taskId);
+        });
+
+        // Tasks that are already waiting will run as soon as we're notified about the call end
+        if (mPendingTasks.size() > 1) {
+            mLogger.v("onCallEnded(taskId=%d) : Queued, pendingTasks=%d.", taskId,
+                    mPendingTasks.size());
+            return;
+        }
+        runPendingTasks();
+    }
+
+    /**
+     * Run all pending tasks if there's no ongoing phone call, otherwise listen to the call state
+     * changes and release the {@link WakeLock} until the phone call ends.
+     */
+    @MainThread
+    private void runPendingTasks() {
+        getMainThreadHandler().removeCallbacksAndMessages(mPhoneCallEndedPollToken);
+
         synchronized (sWakeLockSyncLock) {
-            // Re-acquire wake lock until the phone call ended
             acquire(this);
         }
+        try {
+            final boolean isInCall = mTelephonyUtils.isInCall();
+
+            mLogger.v("runPendingTasks() : isInCall=%s,pendingTasks=%d.", isInCall,
+                    mPendingTasks.size());
+
+            if (isInCall) {
+                if (mCallStateListener == null) {
+                    registerCallStateListener();
+                } else {
+                    // The telephony call ended, but some app is still using voice communication,
+                    // so check back later. Note that, we don't keep the system awake for this
+                    getMainThreadHandler().postDelayed(this::runPendingTasks,
+                            mPhoneCallEndedPollToken, VOICE_COMMUNICATION_POLL_INTERVAL_MS);
+                }
+                return;
+            }
 
-        final boolean isInCall = mTelephonyUtils.isInCall();
+            unregisterCallStateListener();
 
-        mLogger.v("onCallEnded(taskId=%d) : isInCall=%s.", taskId, isInCall);
+            Runnable task;
+            while ((task = mPendingTasks.poll()) != null) {
+                task.run();
+            }
+        } finally {
+            synchronized (sWakeLockSyncLock) {
+                release();
+            }
+        }
+    }
 
-        if (!isInCall) {
-            callback.run();
-            stopSelfResult(taskId);
+    /**
+     * @param state The new call state, which is any of the {@code TelephonyManager#CALL_STATE_*}
+     * constants.
+     */
+    @MainThread
+    private void onCallStateChanged(final int state) {
+        mLogger.v("onCallStateChanged(state=%d).", state);
+
+        if (state == TelephonyManager.CALL_STATE_IDLE && !mPendingTasks.isEmpty()) {
+            runPendingTasks();
+        }
+    }
+
+    /**
+     * Start listening to the call state changes. Note that, the current call state is reported
+     * right after registration, so a phone call that ended in the meantime won't go unnoticed.
+     */
+    @MainThread
+    private void registerCallStateListener() {
+        if (Utils.IS_AT_LEAST_S) {
+            final CallStateCallback callback = new CallStateCallback();
+            mTelephonyManager.registerTelephonyCallback(getMainExecutor(), callback);
+            mCallStateListener = callback;
         } else {
-            // Poll the call state within the interval
-            getMainThreadHandler().postDelayed(() -> onCallEnded(callback, taskId),
-                    mPhoneCallEndedPollToken, PHONE_IN_CALL_STATE_POLL_INTERVAL_MS);
+            mCallStateListener = ApiDeprecated.listenCallState(mTelephonyManager,
+                    this::onCallStateChanged);
         }
     }
 
+    /**
+     * Stop listening to the call state changes, if listening.
+     */
+    @MainThread
+    private void unregisterCallStateListener() {
+        if (mCallStateListener == null) {
+            return;
+        }
+        if (Utils.IS_AT_LEAST_S) {
+            mTelephonyManager.unregisterTelephonyCallback((TelephonyCallback) mCallStateListener);
+        } else {
+            ApiDeprecated.unlistenCallState(mTelephonyManager,
+                    (PhoneStateListener) mCallStateListener);
+        }
+        mCallStateListener = null;
+    }
+
     @Override
     public void onDestroy() {
         try {
             mLogger.d("onDestroy().");
 
             getMainThreadHandler().removeCallbacksAndMessages(mPhoneCallEndedPollToken);
+            unregisterCallStateListener();
+            mPendingTasks.clear();
 
             stopForeground(STOP_FOREGROUND_REMOVE);
         } finally {
             synchronized (sWakeLockSyncLock) {
-                if (sWakeLock != null && sWakeLock.isHeld()) {
-                    sWakeLock.release();
-                }
+                release();
             }
         }
     }
@@ -247,8 +360,8 @@ public final class PhoneCallEndObserverService extends Hilt_PhoneCallEndObserver
     }
 
     /**
-     * <p>Helper function to acquire a partial wake lock that timeouts after approximately
-     * {@link #PHONE_IN_CALL_STATE_POLL_INTERVAL_MS}.
+     * <p>Helper function to acquire a partial wake lock that timeouts after
+     * {@link #WAKE_LOCK_TIMEOUT_MS}.
      *
      * <p>You can call this function multiple times to re-acquire the wake lock, thus update the
      * timeout; it won't increment reference counter.
@@ -262,9 +375,54 @@ public final class PhoneCallEndObserverService extends Hilt_PhoneCallEndObserver
                     PhoneCallEndObserverService.class.getSimpleName());
             sWakeLock.setReferenceCounted(false);
         }
-        // Make sure we don't indefinitely hold the wake lock under any circumstances. Note that,
-        // for reliability, we add an extra time span of 10s to ensure that we don't fall asleep
-        // when scheduling a new phone call state poll request
-        sWakeLock.acquire(PHONE_IN_CALL_STATE_POLL_INTERVAL_MS + 10 * 1000L);
+        // Make sure we don't indefinitely hold the wake lock under any circumstances
+        sWakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
+    }
+
+    /**
+     * Helper function to release the wake lock, if held.
+     */
+    @GuardedBy("sWakeLockSyncLock")
+    private static void release() {
+        if (sWakeLock != null && sWakeLock.isHeld()) {
+            sWakeLock.release();
+        }
+    }
+
+    /**
+     * The call state listener used on Android 12 (API 31) and newer.
+     */
+    private final class CallStateCallback extends TelephonyCallback implements
+            TelephonyCallback.CallStateListener {
+
+        @Override
+        public void onCallStateChanged(final int state) {
+            PhoneCallEndObserverService.this.onCallStateChanged(state);
+        }
+    }
+
+    /**
+     * Nested class to suppress warnings only for API methods annotated as Deprecated.
+     */
+    @SuppressWarnings("deprecation")
+    private static final class ApiDeprecated {
+        static PhoneStateListener listenCallState(final TelephonyManager telephonyManager,
+                final IntConsumer callback) {
+
+            final PhoneStateListener listener = new PhoneStateListener() {
+                @Override
+                public void onCallStateChanged(final int state, final String phoneNumber) {
+                    callback.accept(state);
+                }
+            };
+            telephonyManager.listen(listener, PhoneStateListener.LISTEN_CALL_STATE);
+            return listener;
+        }
+
+        static void unlistenCallState(final TelephonyManager telephonyManager,
+                final PhoneStateListener listener) {
+
+            telephonyManager.listen(listener, PhoneStateListener.LISTEN_NONE);
+        }
     }
 }
@@ -50,7 +50,7 @@ public final class SevenSimModule {
             Room.databaseBuilder(context.createDeviceProtectedStorageContext(),
                     AppDatabaseDE.class, "app_database.sqlite");
 
-        builder.addMigrations(AppDatabaseDE.MIGRATION_1_2);
+        builder.addMigrations(AppDatabaseDE.MIGRATION_1_2, AppDatabaseDE.MIGRATION_2_3);
 
         return builder.addTypeConverter(typeConverter).build();
     }
@@ -96,7 +96,22 @@ public final class TelephonyModule {
     }
 
     /**
-     * The system property that maintains the state of a SIM subscription.
+     * The system property that maintains the volatile state of all SIM subscriptions.
+     *
+     * @see com.github.iusmac.sevensim.telephony.SubscriptionStateStore
+     */
+    @Named("Telephony/SubStates")
+    @Singleton
+    @Provides
+    static SysProp provideSubscriptionStatesSysProp() {
+        return new SysProp("sub_states", /*isPersistent=*/ false);
+    }
+
+    /**
+     * <p>The system property that maintains the state of a SIM subscription.
+     *
+     * <p>Superseded by the "Telephony/SubStates" system property. This is only read to migrate the
+     * state kept by previous versions of the app.
      *
      * @see SimState
      */
@@ -108,7 +123,10 @@ public final class TelephonyModule {
     }
 
     /**
-     * The system property that maintains a comma-separated list of usable SIM subscription IDs.
+     * <p>The system property that maintains a comma-separated list of usable SIM subscription IDs.
+     *
+     * <p>Superseded by the "Telephony/SubStates" system property. This is only read to migrate the
+     * state kept by previous versions of the app.
      */
     @Named("Telephony/UsableSubIds")
     @Singleton
@@ -0,0 +1,121 @@
+package com.github.iusmac.sevensim.scheduler;
+
+import androidx.annotation.NonNull;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * <p>This class is responsible for planning the device wake-ups needed to process the upcoming
+ * enabled state changes of the SIM subscriptions, so that nearby state changes share the same
+ * wake-up.
+ *
+ * <p>Non-critical state changes occurring within the coalescing window of the earliest one are
+ * deferred to the latest of them, so that they're all processed in a single sync pass. A critical
+ * state change is never deferred, but takes along the non-critical ones preceding it within the
+ * window. When only non-critical state changes are involved, the wake-up is allowed to happen
+ * anywhere in the remaining part of the window, so that the system can batch it with other
+ * wake-ups.
+ *
+ * <p>While the device is awake, no state change is processed later than the coalescing window.
+ * However, the windowed wake-ups planned for non-critical state changes aren't allowed to fire
+ * while the device is idle (Doze), so they may be deferred until the next maintenance window.
+ * Only wake-ups involving a critical state change fire at their exact time in any case.
+ */
+final class AlarmPlanner {
+    /** The default time span within which the state changes are coalesced. */
+    static final Duration DEFAULT_COALESCING_WINDOW = Duration.ofMinutes(5);
+
+    private final Duration mCoalescingWindow;
+
+    /**
+     * @param coalescingWindow The time span within which the state changes are coalesced.
+     */
+    AlarmPlanner(final @NonNull Duration coalescingWindow) {
+        mCoalescingWindow = coalescingWindow;
+    }
+
+    /**
+     * Plan the next wake-up for the given upcoming state changes.
+     *
+     * @param transitions The upcoming state changes, in any order.
+     * @return An Optional containing the next wake-up, if there are any state changes.
+     */
+    Optional<Wakeup> plan(final @NonNull Collection<Transition> transitions) {
+        if (transitions.isEmpty()) {
+            return Optional.empty();
+        }
+
+        final List<Transition> sortedTransitions = new ArrayList<>(transitions);
+        sortedTransitions.sort(Comparator.comparing((transition) -> transition.mDateTime));
+
+        final LocalDateTime windowEnd = sortedTransitions.get(0).mDateTime.plus(mCoalescingWindow);
+        LocalDateTime dateTime = null;
+        boolean critical = false;
+        for (Transition transition : sortedTransitions) {
+            if (transition.mDateTime.isAfter(windowEnd)) {
+                break;
+            }
+            dateTime = transition.mDateTime;
+            if (transition.mCritical) {
+                critical = true;
+                break;
+            }
+        }
+
+        return Optional.of(new Wakeup(dateTime, critical ? Duration.ZERO :
+                    Duration.between(dateTime, windowEnd)));
+    }
+
+    /** An upcoming enabled state change of a SIM subscription. */
+    static final class Transition {
+        final LocalDateTime mDateTime;
+        final boolean mCritical;
+
+        /**
+         * @param dateTime The date-time of the state change.
+         * @param critical Whether the state change must be processed at its exact time.
+         */
+        Transition(final @NonNull LocalDateTime dateTime, final boolean critical) {
+            mDateTime = dateTime;
+            mCritical = critical;
+        }
+
+        @Override
+        public String toString() {
+            return "Transition {"
+                + " dateTime=" + mDateTime
+                + " critical=" + mCritical
+                + " }";
+        }
+    }
+
+    /** A planned device wake-up. */
+    static final class Wakeup {
+        final LocalDateTime mDateTime;
+        final Duration mWindowLength;
+
+        /**
+         * @param dateTime The earliest date-time of the wake-up.
+         * @param windowLength The time span after the earliest date-time within which the wake-up
+         * may happen, or zero if it must happen at the exact time.
+         */
+        Wakeup(final @NonNull LocalDateTime dateTime, final @NonNull Duration windowLength) {
+            mDateTime = dateTime;
+            mWindowLength = windowLength;
+        }
+
+        @Override
+        public String toString() {
+            return "Wakeup {"
+                + " dateTime=" + mDateTime
+                + " windowLength=" + mWindowLength
+                + " }";
+        }
+    }
+}
@@ -32,7 +32,6 @@ import dagger.assisted.AssistedInject;
 import dagger.hilt.android.qualifiers.ApplicationContext;
 
 import java.time.LocalDateTime;
-import java.time.temporal.WeekFields;
 import java.util.Calendar;
 import java.util.Iterator;
 import java.util.Locale;
@@ -67,6 +66,27 @@ public final class DaysOfWeek implements Iterable<Integer>, Comparable<DaysOfWee
     /** The sum of all days of the week bit masks. */
     private static final int ALL_DAYS_OF_WEEK_BITS = 0x7f;
 
+    /**
+     * The distances returned by {@link #getDistanceToNextDayOfWeek(int,int)} and
+     * {@link #getDistanceToPreviousDayOfWeek(int,int)}, precomputed for every combination of days
+     * of the week bits (first index) and zero-based day of the week (second index).
+     */
+    private static final byte[][] NEXT_DAY_OF_WEEK_DISTANCES =
+        new byte[ALL_DAYS_OF_WEEK_BITS + 1][7];
+    private static final byte[][] PREVIOUS_DAY_OF_WEEK_DISTANCES =
+        new byte[ALL_DAYS_OF_WEEK_BITS + 1][7];
+
+    static {
+        for (int bits = 0; bits <= ALL_DAYS_OF_WEEK_BITS; bits++) {
+            for (int dayOfWeek = DayOfWeek.SUNDAY; dayOfWeek <= DayOfWeek.SATURDAY; dayOfWeek++) {
+                NEXT_DAY_OF_WEEK_DISTANCES[bits][dayOfWeek - DayOfWeek.SUNDAY] =
+                    (byte) computeDistanceToNextDayOfWeek(bits, dayOfWeek);
+                PREVIOUS_DAY_OF_WEEK_DISTANCES[bits][dayOfWeek - DayOfWeek.SUNDAY] =
+                    (byte) computeDistanceToPreviousDayOfWeek(bits, dayOfWeek);
+            }
+        }
+    }
+
     @GuardedBy("DaysOfWeek.class")
     private static Locale sDefaultLocaleCache;
 
@@ -120,8 +140,14 @@ public final class DaysOfWeek implements Iterable<Integer>, Comparable<DaysOfWee
      * @param dayOfWeek Any of {@link DayOfWeek} values.
      */
     public boolean isBitOn(final @DayOfWeek int dayOfWeek) {
-        final int bit = DAYS_OF_WEEK_BITS[dayOfWeek];
-        return (mBits & bit) > 0;
+        return isBitOn(mBits, dayOfWeek);
+    }
+
+    /**
+     * Like {@link #isBitOn(int)}, but for the given {@link #getBits()} values.
+     */
+    static boolean isBitOn(final int bits, final @DayOfWeek int dayOfWeek) {
+        return (bits & DAYS_OF_WEEK_BITS[dayOfWeek]) > 0;
     }
 
     /**
@@ -145,9 +171,7 @@ public final class DaysOfWeek implements Iterable<Integer>, Comparable<DaysOfWee
      * Return the total number of days of the week enabled in this weekly repeat schedule.
      */
     public int getCount() {
-        return (int) IntStream
-            .rangeClosed(DayOfWeek.SUNDAY, DayOfWeek.SATURDAY)
-            .filter(this::isBitOn).count();
+        return Integer.bitCount(mBits);
     }
 
     /**
@@ -159,9 +183,25 @@ public final class DaysOfWeek implements Iterable<Integer>, Comparable<DaysOfWee
      * previous enabled day of the week, if any.
      */
     public OptionalInt getDistanceToPreviousDayOfWeek(final @DayOfWeek int compareDayOfWeek) {
-        if (!isRepeating()) {
-            return OptionalInt.empty();
-        }
+        final int distance = getDistanceToPreviousDayOfWeek(mBits, compareDayOfWeek);
+        return distance < 0 ? OptionalInt.empty() : OptionalInt.of(distance);
+    }
+
+    /**
+     * Like {@link #getDistanceToPreviousDayOfWeek(int)}, but for the given {@link #getBits()}
+     * values using a lookup table.
+     *
+     * @return The distance, or -1 if no day of the week is enabled.
+     */
+    static int getDistanceToPreviousDayOfWeek(final int bits,
+            final @DayOfWeek int compareDayOfWeek) {
+
+        return PREVIOUS_DAY_OF_WEEK_DISTANCES[bits & ALL_DAYS_OF_WEEK_BITS]
+            [compareDayOfWeek - DayOfWeek.SUNDAY];
+    }
+
+    private static int computeDistanceToPreviousDayOfWeek(final int bits,
+            final @DayOfWeek int compareDayOfWeek) {
 
         int count = 1, previousDayOfWeek = compareDayOfWeek;
         do {
@@ -169,12 +209,12 @@ public final class DaysOfWeek implements Iterable<Integer>, Comparable<DaysOfWee
             if (previousDayOfWeek < DayOfWeek.SUNDAY) {
                 previousDayOfWeek = DayOfWeek.SATURDAY;
             }
-            if (isBitOn(previousDayOfWeek)) {
-                return OptionalInt.of(count);
+            if (isBitOn(bits, previousDayOfWeek)) {
+                return count;
             }
         } while (count++ < 7);
 
-        return OptionalInt.empty();
+        return -1;
     }
 
     /**
@@ -186,14 +226,28 @@ public final class DaysOfWeek implements Iterable<Integer>, Comparable<DaysOfWee
      * next enabled day of the week, if any.
      */
     public OptionalInt getDistanceToNextDayOfWeek(final @DayOfWeek int compareDayOfWeek) {
-        if (!isRepeating()) {
-            return OptionalInt.empty();
-        }
+        final int distance = getDistanceToNextDayOfWeek(mBits, compareDayOfWeek);
+        return distance < 0 ? OptionalInt.empty() : OptionalInt.of(distance);
+    }
+
+    /**
+     * Like {@link #getDistanceToNextDayOfWeek(int)}, but for the given {@link #getBits()} values
+     * using a lookup table.
+     *
+     * @return The distance, or -1 if no day of the week is enabled.
+     */
+    static int getDistanceToNextDayOfWeek(final int bits, final @DayOfWeek int compareDayOfWeek) {
+        return NEXT_DAY_OF_WEEK_DISTANCES[bits & ALL_DAYS_OF_WEEK_BITS]
+            [compareDayOfWeek - DayOfWeek.SUNDAY];
+    }
+
+    private static int computeDistanceToNextDayOfWeek(final int bits,
+            final @DayOfWeek int compareDayOfWeek) {
 
         int count = 0, nextDayOfWeek = compareDayOfWeek;
         do {
-            if (isBitOn(nextDayOfWeek)) {
-                return OptionalInt.of(count);
+            if (isBitOn(bits, nextDayOfWeek)) {
+                return count;
             }
             nextDayOfWeek++;
             if (nextDayOfWeek > DayOfWeek.SATURDAY) {
@@ -201,7 +255,7 @@ public final class DaysOfWeek implements Iterable<Integer>, Comparable<DaysOfWee
             }
         } while (++count < 7);
 
-        return OptionalInt.empty();
+        return -1;
     }
 
     /**
@@ -327,7 +381,8 @@ public final class DaysOfWeek implements Iterable<Integer>, Comparable<DaysOfWee
      * @param ldt The date-time to get the corresponding {@link DayOfWeek} value from.
      */
     public static @DayOfWeek int getDayOfWeekFrom(final @NonNull LocalDateTime ldt) {
-        return ldt.get(WeekFields.SUNDAY_START.dayOfWeek());
+        // ISO days of the week start from Monday (1), whereas ours start from Sunday (1)
+        return ldt.getDayOfWeek().getValue() % 7 + DayOfWeek.SUNDAY;
     }
 
     /**
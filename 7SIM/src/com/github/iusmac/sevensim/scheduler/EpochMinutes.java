@@ -0,0 +1,138 @@
+package com.github.iusmac.sevensim.scheduler;
+
+import androidx.annotation.NonNull;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * <p>This class is responsible for the primitive time arithmetic of the weekly repeat schedules.
+ *
+ * <p>A wall clock date-time is represented by the number of minutes since 1970-01-01T00:00 of the
+ * same wall clock, i.e. as if it was in UTC, so that no time zone rules are involved, and a time
+ * within the week by its minute of the week, i.e. a value between 0 (Sunday 00:00) and
+ * {@link #MINUTES_PER_WEEK} - 1 (Saturday 23:59). Since schedules don't support seconds and
+ * milliseconds, they are dropped off when converting date-time objects.
+ *
+ * <p>None of the methods allocate, except for the conversion to {@link LocalDateTime}.
+ */
+final class EpochMinutes {
+    /** The number of minutes in a day. */
+    static final int MINUTES_PER_DAY = 24 * 60;
+
+    /** The number of minutes in a week. */
+    static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    /** The value representing the absence of an epoch minute. */
+    static final long NONE = Long.MIN_VALUE;
+
+    /** The minute of the week at the epoch, which was on Thursday. */
+    private static final int EPOCH_MINUTE_OF_WEEK =
+        (DayOfWeek.THURSDAY - DayOfWeek.SUNDAY) * MINUTES_PER_DAY;
+
+    /** No instances. */
+    private EpochMinutes() {}
+
+    /**
+     * Get the epoch minute of a date-time object.
+     *
+     * @param dateTime The date-time object to convert.
+     */
+    static long of(final @NonNull LocalDateTime dateTime) {
+        return Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    /**
+     * Get the date-time object of an epoch minute.
+     *
+     * @param epochMinute The epoch minute to convert.
+     */
+    static @NonNull LocalDateTime toLocalDateTime(final long epochMinute) {
+        return LocalDateTime.ofEpochSecond(epochMinute * 60, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Get the minute of the week of an epoch minute.
+     *
+     * @param epochMinute The epoch minute.
+     */
+    static int getMinuteOfWeek(final long epochMinute) {
+        return (int) Math.floorMod(epochMinute + EPOCH_MINUTE_OF_WEEK, MINUTES_PER_WEEK);
+    }
+
+    /**
+     * Get the minute of the week of a time on a day of the week.
+     *
+     * @param dayOfWeek Any of {@link DayOfWeek} values.
+     * @param minutesSinceMidnight The time of the day in minutes.
+     */
+    static int getMinuteOfWeek(final @DayOfWeek int dayOfWeek, final int minutesSinceMidnight) {
+        return (dayOfWeek - DayOfWeek.SUNDAY) * MINUTES_PER_DAY + minutesSinceMidnight;
+    }
+
+    /**
+     * Get the {@link DayOfWeek} value of an epoch minute.
+     *
+     * @param epochMinute The epoch minute.
+     */
+    static @DayOfWeek int getDayOfWeek(final long epochMinute) {
+        return getMinuteOfWeek(epochMinute) / MINUTES_PER_DAY + DayOfWeek.SUNDAY;
+    }
+
+    /**
+     * Get the first occurrence of a weekly repeat schedule on or before an epoch minute.
+     *
+     * @param daysOfWeekBits The {@link DaysOfWeek#getBits()} of the schedule.
+     * @param minutesSinceMidnight The time of the schedule in minutes.
+     * @param epochMinute The epoch minute to compare against.
+     * @return The epoch minute of the occurrence, or {@link #NONE} if the schedule isn't repeating.
+     */
+    static long getOccurrenceOnOrBefore(final int daysOfWeekBits, final int minutesSinceMidnight,
+            final long epochMinute) {
+
+        final int minuteOfDay = (int) Math.floorMod(epochMinute, MINUTES_PER_DAY);
+        final @DayOfWeek int dayOfWeek = getDayOfWeek(epochMinute);
+        final int days;
+        // Check if the schedule is occurring on the same day
+        if (minutesSinceMidnight <= minuteOfDay && DaysOfWeek.isBitOn(daysOfWeekBits, dayOfWeek)) {
+            days = 0;
+        } else {
+            days = DaysOfWeek.getDistanceToPreviousDayOfWeek(daysOfWeekBits, dayOfWeek);
+            if (days < 0) {
+                return NONE;
+            }
+        }
+        return epochMinute - minuteOfDay - (long) days * MINUTES_PER_DAY + minutesSinceMidnight;
+    }
+
+    /**
+     * Get the first occurrence of a weekly repeat schedule on or after an epoch minute.
+     *
+     * @param daysOfWeekBits The {@link DaysOfWeek#getBits()} of the schedule.
+     * @param minutesSinceMidnight The time of the schedule in minutes.
+     * @param epochMinute The epoch minute to compare against.
+     * @return The epoch minute of the occurrence, or {@link #NONE} if the schedule isn't repeating.
+     */
+    static long getOccurrenceOnOrAfter(final int daysOfWeekBits, final int minutesSinceMidnight,
+            final long epochMinute) {
+
+        final int minuteOfDay = (int) Math.floorMod(epochMinute, MINUTES_PER_DAY);
+        final @DayOfWeek int dayOfWeek = getDayOfWeek(epochMinute);
+        int days;
+        if (minutesSinceMidnight >= minuteOfDay) {
+            // The schedule can still occur on the same day
+            days = DaysOfWeek.getDistanceToNextDayOfWeek(daysOfWeekBits, dayOfWeek);
+        } else {
+            // Start seeking from the next day of the week
+            days = DaysOfWeek.getDistanceToNextDayOfWeek(daysOfWeekBits,
+                    dayOfWeek == DayOfWeek.SATURDAY ? DayOfWeek.SUNDAY : dayOfWeek + 1);
+            if (days >= 0) {
+                days++;
+            }
+        }
+        if (days < 0) {
+            return NONE;
+        }
+        return epochMinute - minuteOfDay + (long) days * MINUTES_PER_DAY + minutesSinceMidnight;
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.iusmac.sevensim.scheduler;
+
+import androidx.annotation.NonNull;
+
+/**
+ * <p>This class represents a SIM subscription weekly repeat schedule that occurs at the same
+ * minute of the week as another schedule of the same SIM subscription.
+ *
+ * <p>The other schedule is either <em>conflicting</em>, when it schedules the opposite SIM
+ * subscription enabled state, in which case disabling takes precedence, or <em>redundant</em>,
+ * when it schedules the same enabled state, in which case one of them has no effect.
+ */
+public final class ScheduleConflict {
+    private final SubscriptionScheduleEntity mSchedule;
+    private final SubscriptionScheduleEntity mOtherSchedule;
+
+    /**
+     * @param schedule The schedule that has been checked.
+     * @param otherSchedule The schedule occurring at the same minute of the week.
+     */
+    ScheduleConflict(final @NonNull SubscriptionScheduleEntity schedule,
+            final @NonNull SubscriptionScheduleEntity otherSchedule) {
+
+        mSchedule = schedule;
+        mOtherSchedule = otherSchedule;
+    }
+
+    /**
+     * Return the schedule that has been checked.
+     */
+    public @NonNull SubscriptionScheduleEntity getSchedule() {
+        return mSchedule;
+    }
+
+    /**
+     * Return the schedule occurring at the same minute of the week.
+     */
+    public @NonNull SubscriptionScheduleEntity getOtherSchedule() {
+        return mOtherSchedule;
+    }
+
+    /**
+     * Return {@code true} if both schedules set the same SIM subscription enabled state,
+     * {@code false} if they contradict each other.
+     */
+    public boolean isRedundant() {
+        return mSchedule.getSubscriptionEnabled() == mOtherSchedule.getSubscriptionEnabled();
+    }
+
+    @Override
+    public String toString() {
+        return "ScheduleConflict {"
+            + " schedule=" + mSchedule
+            + " otherSchedule=" + mOtherSchedule
+            + " redundant=" + isRedundant()
+            + " }";
+    }
+}
@@ -0,0 +1,226 @@
+package com.github.iusmac.sevensim.scheduler;
+
+import android.os.SystemClock;
+import android.telephony.TelephonyManager;
+import android.util.SparseLongArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.WorkerThread;
+
+import com.github.iusmac.sevensim.Logger;
+import com.github.iusmac.sevensim.telephony.Subscriptions;
+
+import dagger.Lazy;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import static android.telephony.SubscriptionManager.INVALID_SIM_SLOT_INDEX;
+
+/**
+ * <p>This class is responsible for pacing consecutive SIM power state changes.
+ *
+ * <p>The modem may hang when rapidly toggling one SIM card after another, which requires manually
+ * removing/re-inserting the SIM. Practice shows that this happens *very* rarely and only when the
+ * next SIM power state change is requested while the previous SIM card is still transitioning.
+ * Hence, instead of waiting for a fixed amount of time, we wait until the previous SIM card reports
+ * that it has settled in its new state via {@link Subscriptions.OnSimStatusChangedListener}, or
+ * until {@link #SETTLE_TIMEOUT_MILLIS}, plus a minimum gap that adapts to how long the transitions
+ * on this device usually take.
+ *
+ * <p>This class is <strong>thread-safe</strong>.
+ */
+@Singleton
+final class SimStateChangePacer {
+    /**
+     * The maximum time to wait for a SIM card to settle in its new state, which is the fixed delay
+     * we used to wait unconditionally between consecutive SIM power state changes.
+     */
+    private static final long SETTLE_TIMEOUT_MILLIS = 2_000;
+
+    /** The lower and upper bound of the adaptive gap between consecutive SIM transitions. */
+    private static final long MIN_GAP_FLOOR_MILLIS = 250;
+    private static final long MIN_GAP_CEILING_MILLIS = 1_000;
+
+    private final Logger mLogger;
+    private final Lazy<Subscriptions> mSubscriptionsLazy;
+
+    private final Object mLock = new Object();
+
+    /**
+     * The last time, in {@link SystemClock#elapsedRealtime()} millis, at which the SIM card in a
+     * slot reported a state in which it's settled as enabled or disabled, keyed by slot index.
+     */
+    @GuardedBy("mLock")
+    private final SparseLongArray mLastEnabledSettleMillis = new SparseLongArray();
+    @GuardedBy("mLock")
+    private final SparseLongArray mLastDisabledSettleMillis = new SparseLongArray();
+
+    /** The transition of the SIM card we need to wait for, if any. */
+    @GuardedBy("mLock")
+    private int mPendingSlotIndex = INVALID_SIM_SLOT_INDEX;
+    @GuardedBy("mLock")
+    private boolean mPendingEnabled;
+    @GuardedBy("mLock")
+    private long mPendingRequestMillis;
+
+    /** The exponential moving average of the observed SIM transition durations, if any. */
+    @GuardedBy("mLock")
+    private long mAverageTransitionMillis = -1;
+
+    private final Subscriptions.OnSimStatusChangedListener mSimStatusChangedListener =
+        this::onSimStatusChanged;
+
+    @Inject
+    SimStateChangePacer(final Logger.Factory loggerFactory,
+            final Lazy<Subscriptions> subscriptionsLazy) {
+
+        mLogger = loggerFactory.create(getClass().getSimpleName());
+        mSubscriptionsLazy = subscriptionsLazy;
+    }
+
+    /**
+     * Start listening to SIM status changes. This must be called before requesting the first SIM
+     * power state change to pace, and must be paired with {@link #stop()}.
+     */
+    void start() {
+        mSubscriptionsLazy.get().addOnSimStatusChangedListener(mSimStatusChangedListener);
+    }
+
+    /**
+     * Stop listening to SIM status changes and forget about the pending transition, if any.
+     */
+    void stop() {
+        mSubscriptionsLazy.get().removeOnSimStatusChangedListener(mSimStatusChangedListener);
+
+        synchronized (mLock) {
+            mPendingSlotIndex = INVALID_SIM_SLOT_INDEX;
+            mLastEnabledSettleMillis.clear();
+            mLastDisabledSettleMillis.clear();
+        }
+    }
+
+    /**
+     * Record that a SIM power state change has been requested.
+     *
+     * @param slotIndex The slot index of the SIM card whose state has been changed.
+     * @param enabled The requested enabled state of the SIM card.
+     * @param requestMillis The {@link SystemClock#elapsedRealtime()} millis right before the
+     * request has been made.
+     */
+    void onSimStateChangeRequested(final int slotIndex, final boolean enabled,
+            final long requestMillis) {
+
+        synchronized (mLock) {
+            mPendingSlotIndex = slotIndex;
+            mPendingEnabled = enabled;
+            mPendingRequestMillis = requestMillis;
+        }
+    }
+
+    /**
+     * Block until the SIM card whose power state change was last requested has settled or timed
+     * out, and the minimum gap between consecutive SIM transitions has elapsed. Return immediately
+     * if there's no such request. If the calling thread is interrupted, return early with its
+     * interrupt status set, so that the caller can stop requesting SIM power state changes.
+     */
+    @WorkerThread
+    void awaitReady() {
+        synchronized (mLock) {
+            if (mPendingSlotIndex == INVALID_SIM_SLOT_INDEX) {
+                return;
+            }
+
+            final long deadlineMillis = mPendingRequestMillis + SETTLE_TIMEOUT_MILLIS;
+            long nowMillis = SystemClock.elapsedRealtime();
+            long settleMillis;
+            while ((settleMillis = getPendingSettleMillis()) < 0 && nowMillis < deadlineMillis) {
+                try {
+                    mLock.wait(deadlineMillis - nowMillis);
+                } catch (InterruptedException e) {
+                    mLogger.w("awaitReady() : Wait interrupted.");
+                    mPendingSlotIndex = INVALID_SIM_SLOT_INDEX;
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                nowMillis = SystemClock.elapsedRealtime();
+            }
+
+            final boolean timedOut = settleMillis < 0;
+            if (timedOut) {
+                settleMillis = nowMillis;
+            }
+            final long transitionMillis = settleMillis - mPendingRequestMillis;
+            // Weight the new duration at 1/4 to smooth out occasional slow transitions
+            mAverageTransitionMillis = mAverageTransitionMillis < 0 ? transitionMillis :
+                (3 * mAverageTransitionMillis + transitionMillis) / 4;
+            final long minGapMillis = Math.max(MIN_GAP_FLOOR_MILLIS,
+                    Math.min(MIN_GAP_CEILING_MILLIS, mAverageTransitionMillis / 2));
+
+            mLogger.d("awaitReady() : slotIndex=%d,enabled=%s,transitionMillis=%d,timedOut=%s," +
+                    "averageTransitionMillis=%d,minGapMillis=%d.", mPendingSlotIndex,
+                    mPendingEnabled, transitionMillis, timedOut, mAverageTransitionMillis,
+                    minGapMillis);
+
+            mPendingSlotIndex = INVALID_SIM_SLOT_INDEX;
+
+            final long gapDeadlineMillis = settleMillis + minGapMillis;
+            while ((nowMillis = SystemClock.elapsedRealtime()) < gapDeadlineMillis) {
+                try {
+                    mLock.wait(gapDeadlineMillis - nowMillis);
+                } catch (InterruptedException e) {
+                    mLogger.w("awaitReady() : Gap wait interrupted.");
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The time at which the SIM card of the pending transition has settled, or -1 if it
+     * didn't yet.
+     */
+    @GuardedBy("mLock")
+    private long getPendingSettleMillis() {
+        final long settleMillis = (mPendingEnabled ? mLastEnabledSettleMillis :
+                mLastDisabledSettleMillis).get(mPendingSlotIndex, -1);
+        return settleMillis >= mPendingRequestMillis ? settleMillis : -1;
+    }
+
+    private void onSimStatusChanged(final int slotIndex,
+            final @TelephonyManager.SimState int state) {
+
+        final long nowMillis = SystemClock.elapsedRealtime();
+        synchronized (mLock) {
+            switch (state) {
+                // The SIM card has been powered up and its applications are loaded, or the SIM is
+                // waiting for the user, either way the modem is done with it
+                case TelephonyManager.SIM_STATE_READY:
+                case TelephonyManager.SIM_STATE_LOADED:
+                case TelephonyManager.SIM_STATE_PIN_REQUIRED:
+                case TelephonyManager.SIM_STATE_PUK_REQUIRED:
+                case TelephonyManager.SIM_STATE_NETWORK_LOCKED:
+                case TelephonyManager.SIM_STATE_PERM_DISABLED:
+                    mLastEnabledSettleMillis.put(slotIndex, nowMillis);
+                    break;
+
+                // The SIM card has been powered down
+                case TelephonyManager.SIM_STATE_ABSENT:
+                case TelephonyManager.SIM_STATE_NOT_READY:
+                    mLastDisabledSettleMillis.put(slotIndex, nowMillis);
+                    break;
+
+                // The SIM card won't go any further regardless of the requested state
+                case TelephonyManager.SIM_STATE_CARD_IO_ERROR:
+                case TelephonyManager.SIM_STATE_CARD_RESTRICTED:
+                    mLastEnabledSettleMillis.put(slotIndex, nowMillis);
+                    mLastDisabledSettleMillis.put(slotIndex, nowMillis);
+                    break;
+
+                default: return;
+            }
+            mLock.notifyAll();
+        }
+    }
+}
@@ -45,6 +45,13 @@ public final class SubscriptionScheduleEntity {
     @ColumnInfo(name = "minutes_since_midnight")
     private LocalTime mTime;
 
+    /**
+     * Whether the schedule must be processed at its exact time, otherwise it can be deferred a
+     * little to save device wake-ups.
+     */
+    @ColumnInfo(name = "critical", defaultValue = "1")
+    private boolean mCritical = true;
+
     public long getId() {
         return mId;
     }
@@ -101,6 +108,14 @@ public final class SubscriptionScheduleEntity {
         mTime = time;
     }
 
+    public boolean getCritical() {
+        return mCritical;
+    }
+
+    public void setCritical(final boolean critical) {
+        mCritical = critical;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
@@ -113,13 +128,14 @@ public final class SubscriptionScheduleEntity {
             && TextUtils.equals(compareTo.mLabel, mLabel)
             && compareTo.mEnabled == mEnabled
             && compareTo.mDaysOfWeek.equals(mDaysOfWeek)
-            && compareTo.mTime.equals(mTime);
+            && compareTo.mTime.equals(mTime)
+            && compareTo.mCritical == mCritical;
     }
 
     @Override
     public int hashCode() {
         return Objects.hash(mId, mSubscriptionId, mSubscriptionEnabled, mLabel, mEnabled,
-                mDaysOfWeek, mTime);
+                mDaysOfWeek, mTime, mCritical);
     }
 
     @Override
@@ -131,6 +147,7 @@ public final class SubscriptionScheduleEntity {
         + " enabled=" + mEnabled
         + " daysOfWeek=" + mDaysOfWeek
         + " time=" + mTime
+        + " critical=" + mCritical
         + " }";
     }
 }
@@ -4,13 +4,18 @@ import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.os.UserManager;
+import android.util.SparseIntArray;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
+import androidx.lifecycle.LiveData;
 
 import com.github.iusmac.sevensim.AppDatabaseDE;
+import com.github.iusmac.sevensim.EventRing;
 import com.github.iusmac.sevensim.Logger;
 import com.github.iusmac.sevensim.PhoneCallEndObserverService;
 import com.github.iusmac.sevensim.telephony.PinEntity;
@@ -24,11 +29,16 @@ import com.github.iusmac.sevensim.telephony.TelephonyUtils;
 import dagger.Lazy;
 import dagger.hilt.android.qualifiers.ApplicationContext;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import javax.inject.Inject;
@@ -50,20 +60,34 @@ public final class SubscriptionScheduler {
     private enum ScheduleDatabaseOperationType { ADD, UPDATE, DELETE }
 
     private final Logger mLogger;
+    private final EventRing mEventRing;
     private final Context mContext;
     private final Lazy<AlarmManager> mAlarmManagerLazy;
     private final SubscriptionSchedulesDao mSubscriptionSchedulesDao;
+    private final WeeklyScheduleIndex mWeeklyScheduleIndex;
+    private final AlarmPlanner mAlarmPlanner;
     private final Lazy<Subscriptions> mSubscriptionsLazy;
     private final Lazy<SubscriptionController> mSubscriptionControllerLazy;
     private final Lazy<TelephonyController> mTelephonyControllerLazy;
     private final Provider<TelephonyUtils> mTelephonyUtilsProvider;
     private final Lazy<PinStorage> mPinStorageLazy;
     private final Lazy<UserManager> mUserManagerLazy;
+    private final SimStateChangePacer mSimStateChangePacer;
 
     private final Intent mAlarmIntent;
 
+    /**
+     * The lock held while requesting SIM power state changes, so that they never overlap, as the
+     * modem may hang otherwise.
+     */
+    private final Object mSimStateChangeLock = new Object();
+
+    /** The number of times the schedules have been mutated, keyed by SIM subscription ID. */
+    @GuardedBy("mScheduleSetVersions")
+    private final SparseIntArray mScheduleSetVersions = new SparseIntArray();
+
     @Inject
-    public SubscriptionScheduler(final Logger.Factory loggerFactory,
+    public SubscriptionScheduler(final Logger.Factory loggerFactory, final EventRing eventRing,
             final @ApplicationContext Context context, final Lazy<AlarmManager> alarmManagerLazy,
             final AppDatabaseDE appDatabaseDE,
             final Lazy<Subscriptions> subscriptionsLazy,
@@ -71,18 +95,23 @@ public final class SubscriptionScheduler {
             final Lazy<TelephonyController> telephonyControllerLazy,
             final Provider<TelephonyUtils> telephonyUtilsProvider,
             final Lazy<PinStorage> pinStorageLazy,
-            final Lazy<UserManager> userManagerLazy) {
+            final Lazy<UserManager> userManagerLazy,
+            final SimStateChangePacer simStateChangePacer) {
 
         mLogger = loggerFactory.create(getClass().getSimpleName());
+        mEventRing = eventRing;
         mContext = context;
         mAlarmManagerLazy = alarmManagerLazy;
         mSubscriptionSchedulesDao = appDatabaseDE.subscriptionSchedulerDao();
+        mWeeklyScheduleIndex = new WeeklyScheduleIndex(mSubscriptionSchedulesDao);
+        mAlarmPlanner = new AlarmPlanner(AlarmPlanner.DEFAULT_COALESCING_WINDOW);
         mSubscriptionsLazy = subscriptionsLazy;
         mSubscriptionControllerLazy = subscriptionControllerLazy;
         mTelephonyControllerLazy = telephonyControllerLazy;
         mTelephonyUtilsProvider = telephonyUtilsProvider;
         mPinStorageLazy = pinStorageLazy;
         mUserManagerLazy = userManagerLazy;
+        mSimStateChangePacer = simStateChangePacer;
 
         mAlarmIntent = new Intent(context, AlarmReceiver.class);
     }
@@ -93,7 +122,18 @@ public final class SubscriptionScheduler {
      * @param schedule The schedule entity to add.
      */
     public void add(final @NonNull SubscriptionScheduleEntity schedule) {
-        doScheduleDatabaseRequest(schedule, ScheduleDatabaseOperationType.ADD);
+        doScheduleDatabaseRequest(Collections.singletonList(schedule),
+                ScheduleDatabaseOperationType.ADD);
+    }
+
+    /**
+     * Add multiple new SIM subscription weekly repeat schedules at once. The affected SIM
+     * subscriptions are synced and the alarm re-scheduled only once.
+     *
+     * @param schedules The schedule entities to add.
+     */
+    public void add(final @NonNull List<SubscriptionScheduleEntity> schedules) {
+        doScheduleDatabaseRequest(schedules, ScheduleDatabaseOperationType.ADD);
     }
 
     /**
@@ -102,7 +142,18 @@ public final class SubscriptionScheduler {
      * @param schedule The schedule entity to update.
      */
     public void update(final @NonNull SubscriptionScheduleEntity schedule) {
-        doScheduleDatabaseRequest(schedule, ScheduleDatabaseOperationType.UPDATE);
+        doScheduleDatabaseRequest(Collections.singletonList(schedule),
+                ScheduleDatabaseOperationType.UPDATE);
+    }
+
+    /**
+     * Update multiple existing SIM subscription weekly repeat schedules at once. The affected SIM
+     * subscriptions are synced and the alarm re-scheduled only once.
+     *
+     * @param schedules The schedule entities to update.
+     */
+    public void update(final @NonNull List<SubscriptionScheduleEntity> schedules) {
+        doScheduleDatabaseRequest(schedules, ScheduleDatabaseOperationType.UPDATE);
     }
 
     /**
@@ -111,7 +162,18 @@ public final class SubscriptionScheduler {
      * @param schedule The schedule entity to delete.
      */
     public void delete(final @NonNull SubscriptionScheduleEntity schedule) {
-        doScheduleDatabaseRequest(schedule, ScheduleDatabaseOperationType.DELETE);
+        doScheduleDatabaseRequest(Collections.singletonList(schedule),
+                ScheduleDatabaseOperationType.DELETE);
+    }
+
+    /**
+     * Delete multiple SIM subscription weekly repeat schedules at once. The affected SIM
+     * subscriptions are synced and the alarm re-scheduled only once.
+     *
+     * @param schedules The schedule entities to delete.
+     */
+    public void delete(final @NonNull List<SubscriptionScheduleEntity> schedules) {
+        doScheduleDatabaseRequest(schedules, ScheduleDatabaseOperationType.DELETE);
     }
 
     /**
@@ -125,19 +187,16 @@ public final class SubscriptionScheduler {
     }
 
     /**
-     * Find a SIM subscription weekly repeat schedule that occurs on or before the given date-time.
+     * Like {@link #findAllBySubscriptionId(int)}, but observe the schedules as they are added,
+     * updated or deleted, no matter from where.
      *
      * @param subId The ID of the subscription.
-     * @param subEnabled The scheduled enabled of the subscription.
-     * @param dateTime The date-time object used for finding the nearest schedule.
-     * @return An Optional containing the schedule, if found.
+     * @return An observable list of schedules associated with the subscription ID.
      */
-    public Optional<SubscriptionScheduleEntity> findNearestBeforeDateTime(final int subId,
-            final boolean subEnabled, final @NonNull LocalDateTime dateTime) {
+    public @NonNull LiveData<List<SubscriptionScheduleEntity>> getObservableAllBySubscriptionId(
+            final int subId) {
 
-        return mSubscriptionSchedulesDao.findNearestByDayOfWeekAndTime(subId, subEnabled,
-                DaysOfWeek.getDayOfWeekFrom(dateTime), dateTime.toLocalTime(),
-                /*reverseSearch=*/ true);
+        return mSubscriptionSchedulesDao.findObservableAllBySubscriptionId(subId);
     }
 
     /**
@@ -151,9 +210,53 @@ public final class SubscriptionScheduler {
     public Optional<SubscriptionScheduleEntity> findNearestAfterDateTime(final int subId,
             final boolean subEnabled, final @NonNull LocalDateTime dateTime) {
 
-        return mSubscriptionSchedulesDao.findNearestByDayOfWeekAndTime(subId,
-                    subEnabled, DaysOfWeek.getDayOfWeekFrom(dateTime), dateTime.toLocalTime(),
-                    /*reverseSearch=*/ false);
+        return mWeeklyScheduleIndex.findNearest(subId, subEnabled, dateTime,
+                /*reverseSearch=*/ false);
+    }
+
+    /**
+     * Find the schedules of the same SIM subscription that occur at the same time as the given
+     * schedule on any of its days of the week, which would either contradict or duplicate it.
+     *
+     * @param schedule The schedule entity to check, which may or may not be already stored.
+     * @return The conflicting and redundant schedules.
+     */
+    @WorkerThread
+    public @NonNull List<ScheduleConflict> findConflicts(
+            final @NonNull SubscriptionScheduleEntity schedule) {
+
+        return mWeeklyScheduleIndex.findConflicts(schedule);
+    }
+
+    /**
+     * Find, for each of the given SIM subscriptions, the nearest weekly repeat schedule that will
+     * invert its enabled state on or after the given date-time, along with whether the state change
+     * must be processed at its exact time. All schedules are evaluated in one pass, loading those
+     * not yet in memory using a single database query.
+     *
+     * @param subEnabledStates The current enabled state of the subscriptions, keyed by their IDs.
+     * @param dateTime The date-time object used for finding the nearest schedules.
+     * @return The state changes keyed by subscription ID. Subscriptions without a schedule that
+     * will invert their enabled state are not included.
+     */
+    private Map<Integer, AlarmPlanner.Transition> findNextEnabledStateChanges(
+            final Map<Integer, Boolean> subEnabledStates, final LocalDateTime dateTime) {
+
+        mWeeklyScheduleIndex.preload(subEnabledStates.keySet().stream()
+                .mapToInt(Integer::intValue).toArray());
+
+        final long epochMinute = EpochMinutes.of(dateTime);
+        final Map<Integer, AlarmPlanner.Transition> transitions = new HashMap<>();
+        subEnabledStates.forEach((subId, subEnabled) ->
+                findNearestAfterDateTime(subId, !subEnabled, dateTime).ifPresent((schedule) -> {
+                    final long occurrence = getOccurrenceOnOrAfter(schedule, epochMinute);
+                    if (occurrence != EpochMinutes.NONE) {
+                        transitions.put(subId, new AlarmPlanner.Transition(
+                                    EpochMinutes.toLocalDateTime(occurrence),
+                                    schedule.getCritical()));
+                    }
+                }));
+        return transitions;
     }
 
     /**
@@ -168,28 +271,55 @@ public final class SubscriptionScheduler {
     public void syncAllSubscriptionsEnabledState(final @NonNull LocalDateTime compareTime,
             final boolean overrideUserPreference) {
 
-        boolean needSleep = false;
-        for (final Subscription sub : mSubscriptionsLazy.get()) {
-            if (sub.getSlotIndex() != INVALID_SIM_SLOT_INDEX) {
-                // For reliability, we need to wait when performing multiple SIM power state
-                // change requests consecutively, as the modem may hang, which requires manually
-                // removing/re-inserting the SIM. Practice shows that this happens *very* rarely
-                // and only when rapidly toggling one SIM after another
-                if (needSleep) {
-                    try {
-                        Thread.sleep(2_000);
-                    } catch (InterruptedException ignored) { /* @SuppressWarnings("EmptyCatch") */ }
-                }
-            }
+        syncSubscriptionsEnabledState(mSubscriptionsLazy.get(), compareTime,
+                overrideUserPreference);
+    }
 
-            mLogger.d("syncAllSubscriptionsEnabledState(compareTime=%s,overrideUserPreference=%s) "
-                    + ": Syncing %s.", compareTime, overrideUserPreference, sub);
+    /**
+     * Sync the enabled state of multiple SIM subscriptions with their existing weekly repeat
+     * schedules, one after another.
+     *
+     * @param subs The subscriptions to sync.
+     * @param compareTime The date-time object used for finding the eligible schedules.
+     * @param overrideUserPreference Whether the user's preference should NOT take precedence over
+     * schedules.
+     */
+    private void syncSubscriptionsEnabledState(final @NonNull Iterable<Subscription> subs,
+            final @NonNull LocalDateTime compareTime, final boolean overrideUserPreference) {
+
+        synchronized (mSimStateChangeLock) {
+            mSimStateChangePacer.start();
+            try {
+                for (final Subscription sub : subs) {
+                    if (sub.getSlotIndex() != INVALID_SIM_SLOT_INDEX) {
+                        // For reliability, we need to wait when performing multiple SIM power state
+                        // change requests consecutively, as the modem may hang, which requires
+                        // manually removing/re-inserting the SIM
+                        mSimStateChangePacer.awaitReady();
+                    }
+                    if (Thread.currentThread().isInterrupted()) {
+                        // Don't send the remaining requests without waiting in between
+                        mLogger.w("syncSubscriptionsEnabledState() : Interrupted, skipping the " +
+                                "remaining subscriptions.");
+                        break;
+                    }
 
-            final Optional<Boolean> newEnabledState = syncSubscriptionEnabledState(sub.getId(),
-                    compareTime, overrideUserPreference);
+                    mLogger.d("syncSubscriptionsEnabledState(compareTime=%s," +
+                            "overrideUserPreference=%s) : Syncing %s.", compareTime,
+                            overrideUserPreference, sub);
 
-            if (sub.getSlotIndex() != INVALID_SIM_SLOT_INDEX) {
-                needSleep = newEnabledState.map((v) -> v != sub.isSimEnabled()).orElse(false);
+                    final long requestMillis = SystemClock.elapsedRealtime();
+                    final Optional<Boolean> newEnabledState = syncSubscriptionEnabledState(
+                            sub.getId(), compareTime, overrideUserPreference);
+
+                    if (sub.getSlotIndex() != INVALID_SIM_SLOT_INDEX) {
+                        newEnabledState.filter((v) -> v != sub.isSimEnabled()).ifPresent((v) ->
+                                mSimStateChangePacer.onSimStateChangeRequested(sub.getSlotIndex(),
+                                    v, requestMillis));
+                    }
+                }
+            } finally {
+                mSimStateChangePacer.stop();
             }
         }
     }
@@ -202,7 +332,8 @@ public final class SubscriptionScheduler {
      * @param overrideUserPreference Whether the user's preference should NOT take precedence over
      * schedules. For instance, if the SIM subscription is expected to be disabled, but the user
      * manually enabled it, then pass {@code false} to keep the SIM state within the allowed period.
-     * @return The new enabled state of the SIM subscription if changed.
+     * @return The new enabled state of the SIM subscription if changed. The SIM power state change
+     * request, if any, has been processed by the modem by the time this returns.
      */
     public Optional<Boolean> syncSubscriptionEnabledState(final int subId,
             final @NonNull LocalDateTime compareTime, final boolean overrideUserPreference) {
@@ -210,17 +341,17 @@ public final class SubscriptionScheduler {
         // Since we don't support seconds and milliseconds, drop them off to don't miss a sync
         final LocalDateTime compareTime2 = compareTime.truncatedTo(ChronoUnit.MINUTES);
 
+        final long compareEpochMinute = EpochMinutes.of(compareTime2);
+
         return mSubscriptionsLazy.get().getSubscriptionForSubId(subId).map((sub) -> {
-            // Try to find the date-time of the nearest weekly repeat schedule that should have
+            // Try to find the epoch minute of the nearest weekly repeat schedule that should have
             // enabled or actually enabled the SIM subscription on or before the stated time
-            final Optional<LocalDateTime> nearestEnableTime = findNearestBeforeDateTime(subId,
-                    /*subEnabled=*/ true, compareTime2).flatMap((schedule) ->
-                    getDateTimeBefore(schedule, compareTime2));
-            // Try to find the date-time of the nearest weekly repeat schedule that should have
+            final long nearestEnableTime = mWeeklyScheduleIndex.findNearestEpochMinute(subId,
+                    /*subEnabled=*/ true, compareEpochMinute, /*reverseSearch=*/ true);
+            // Try to find the epoch minute of the nearest weekly repeat schedule that should have
             // disabled or actually disabled the SIM subscription on or before the stated time
-            final Optional<LocalDateTime> nearestDisableTime = findNearestBeforeDateTime(subId,
-                    /*subEnabled=*/ false, compareTime2).flatMap((schedule) ->
-                    getDateTimeBefore(schedule, compareTime2));
+            final long nearestDisableTime = mWeeklyScheduleIndex.findNearestEpochMinute(subId,
+                    /*subEnabled=*/ false, compareEpochMinute, /*reverseSearch=*/ true);
 
             final boolean currentEnabled = sub.isSimEnabled();
             // Figure out the expected SIM subscription state using schedules from the past, if any
@@ -228,10 +359,16 @@ public final class SubscriptionScheduler {
                     nearestEnableTime, nearestDisableTime, overrideUserPreference);
             final boolean isInCall = mTelephonyUtilsProvider.get().isInCall();
 
-            mLogger.d("syncSubscriptionEnabledState(subId=%d,compareTime=%s," +
-                    "overrideUserPreference=%s) : %s,nearestEnableTime=%s,nearestDisableTime=%s," +
-                    "expectedEnabled=%s,isInCall=%s.", subId, compareTime, overrideUserPreference,
-                    sub, nearestEnableTime, nearestDisableTime, expectedEnabled, isInCall);
+            if (mLogger.isDebugLoggable()) {
+                mLogger.d("syncSubscriptionEnabledState(subId=%d,compareTime=%s," +
+                        "overrideUserPreference=%s) : %s,nearestEnableTime=%s," +
+                        "nearestDisableTime=%s,expectedEnabled=%s,isInCall=%s.", subId,
+                        compareTime, overrideUserPreference, sub,
+                        toLoggableDateTime(nearestEnableTime),
+                        toLoggableDateTime(nearestDisableTime), expectedEnabled, isInCall);
+            }
+            mEventRing.record(EventRing.Event.SUBSCRIPTION_SYNCED, subId, currentEnabled ? 1 : 0,
+                    expectedEnabled ? 1 : 0);
 
             // Sync the enabled state of the SIM subscription if it differs
             if (currentEnabled != expectedEnabled) {
@@ -243,6 +380,7 @@ public final class SubscriptionScheduler {
                     // at all during a phone call. One can make a plausible case, for instance, the
                     // phone can bridge a VoIP call, and use both the cellular phone services of
                     // SIM1 and mobile data of SIM2
+                    mEventRing.record(EventRing.Event.SUBSCRIPTION_SYNC_DEFERRED, subId);
                     PhoneCallEndObserverService.syncSubscriptionEnabledState(mContext, subId,
                             compareTime, overrideUserPreference);
                     PhoneCallEndObserverService
@@ -257,8 +395,18 @@ public final class SubscriptionScheduler {
                     boolean keepDisabledAcrossBoots =
                         Optional.ofNullable(sub.getKeepDisabledAcrossBoots()).orElse(false);
                     keepDisabledAcrossBoots &= !overrideUserPreference;
-                    mTelephonyControllerLazy.get().setSimState(sub.getSlotIndex(), expectedEnabled,
-                            keepDisabledAcrossBoots);
+                    final boolean applied;
+                    // Block until the modem has processed the request, so that the next one
+                    // never overlaps with it
+                    synchronized (mSimStateChangeLock) {
+                        applied = mTelephonyControllerLazy.get().setSimState(sub.getSlotIndex(),
+                                expectedEnabled, keepDisabledAcrossBoots);
+                    }
+                    if (!applied) {
+                        mLogger.w("syncSubscriptionEnabledState(subId=%d) : Failed to set SIM " +
+                                "state to enabled=%s.", subId, expectedEnabled);
+                        return null;
+                    }
                 }
                 return expectedEnabled;
             }
@@ -276,6 +424,20 @@ public final class SubscriptionScheduler {
         return mSubscriptionSchedulesDao.getCount(subId);
     }
 
+    /**
+     * Get the version of the schedule set of a SIM subscription, which changes every time any of
+     * its schedules is added, updated or deleted. This is meant to be used as a cache key for data
+     * derived from the schedules. The version isn't persisted across process restarts.
+     *
+     * @param subId The ID of the subscription.
+     * @return The version of the schedule set.
+     */
+    public int getScheduleSetVersion(final int subId) {
+        synchronized (mScheduleSetVersions) {
+            return mScheduleSetVersions.get(subId);
+        }
+    }
+
     /**
      * Re-schedule or schedule a new execution iteration in which the scheduler will process the
      * enabled state of SIM subscriptions through weekly repeat schedules at the time of the nearest
@@ -293,33 +455,22 @@ public final class SubscriptionScheduler {
         // even more alarm accuracy
         final LocalDateTime compareTime2 = compareTime.truncatedTo(ChronoUnit.MINUTES);
 
-        Optional<LocalDateTime> nextProcessingTime = Optional.empty();
         // Scan schedules only from currently active SIM subscriptions found on the device
+        final Map<Integer, Boolean> subEnabledStates = new HashMap<>();
         for (Subscription sub : mSubscriptionsLazy.get()) {
-            // Try to find the date-time of the next weekly repeat schedule that will invert the
-            // current enabled state of the subscription on or after the provided date-time
-            final Optional<SubscriptionScheduleEntity> nearestSchedule =
-                findNearestAfterDateTime(sub.getId(), !sub.isSimEnabled(), compareTime2);
-            final Optional<LocalDateTime> nearestDateTime = nearestSchedule.flatMap((schedule) ->
-                    getDateTimeAfter(schedule, compareTime2));
-
-            mLogger.d("updateNextWeeklyRepeatScheduleProcessingIter(compareTime=%s," +
-                    "pinEntities=%s) : Found %s, %s", compareTime, pinEntities, sub,
-                    nearestSchedule);
-
-            if (nearestDateTime.isPresent()) {
-                if (nextProcessingTime.isPresent()) {
-                    if (nearestDateTime.get().isBefore(nextProcessingTime.get())) {
-                        nextProcessingTime = nearestDateTime;
-                    }
-                } else {
-                    nextProcessingTime = nearestDateTime;
-                }
-            }
+            subEnabledStates.put(sub.getId(), sub.isSimEnabled());
         }
+        // Find the next weekly repeat schedule that will invert the current enabled state of each
+        // subscription on or after the provided date-time, then plan a single wake-up for as many
+        // of them as possible
+        final Map<Integer, AlarmPlanner.Transition> nextEnabledStateChanges =
+            findNextEnabledStateChanges(subEnabledStates, compareTime2);
+        final Optional<AlarmPlanner.Wakeup> nextWakeup =
+            mAlarmPlanner.plan(nextEnabledStateChanges.values());
 
         mLogger.d("updateNextWeeklyRepeatScheduleProcessingIter(compareTime=%s,pinEntities=%s) : " +
-                "nextProcessingTime=%s.", compareTime, pinEntities, nextProcessingTime);
+                "subEnabledStates=%s,nextEnabledStateChanges=%s,nextWakeup=%s.", compareTime,
+                pinEntities, subEnabledStates, nextEnabledStateChanges, nextWakeup);
 
         // Since the SIM subscription PIN codes are encrypted using the user authentication bound
         // secret key, for convenience, we want to pass all clear SIM subscription PIN codes to the
@@ -341,8 +492,9 @@ public final class SubscriptionScheduler {
 
         // If found an eligible schedule, then re-schedule the old alarm or schedule a new one,
         // otherwise, cancel the old alarm
-        if (nextProcessingTime.isPresent()) {
-            rescheduleNextScheduleProcessingIter(nextProcessingTime.get());
+        if (nextWakeup.isPresent()) {
+            rescheduleNextScheduleProcessingIter(nextWakeup.get().mDateTime,
+                    nextWakeup.get().mWindowLength);
         } else if (mSubscriptionSchedulesDao.getCount() > 0 &&
                 // Ensure user is unlocked before accessing PIN storage that is backed by CE storage
                 mUserManagerLazy.get().isUserUnlocked() && mPinStorageLazy.get().getCount() > 0) {
@@ -369,55 +521,85 @@ public final class SubscriptionScheduler {
     }
 
     /**
-     * Undo the {@link #rescheduleNextScheduleProcessingIter(LocalDateTime)}.
+     * Undo the {@link #rescheduleNextScheduleProcessingIter(LocalDateTime,Duration)}.
      */
     private void cancelNextScheduleProcessingIter() {
         mLogger.d("cancelNextScheduleProcessingIter().");
+        mEventRing.record(EventRing.Event.NEXT_ITER_CANCELLED);
 
         mAlarmManagerLazy.get().cancel(getPendingIntent());
     }
 
     /**
-     * Perform a database operation on a schedule entity.
+     * Perform a database operation on schedule entities within a single transaction, then sync the
+     * enabled state of each affected SIM subscription and re-schedule the alarm only once, no
+     * matter how many schedule entities are involved.
      *
-     * @param schedule The schedule entity to persist.
-     * @param opType The operation name that is performed on the provided schedule entity.
+     * @param schedules The schedule entities to persist.
+     * @param opType The operation name that is performed on the provided schedule entities.
      */
-    private void doScheduleDatabaseRequest(final SubscriptionScheduleEntity schedule,
+    private void doScheduleDatabaseRequest(final List<SubscriptionScheduleEntity> schedules,
             final ScheduleDatabaseOperationType opType) {
 
+        if (schedules.isEmpty()) {
+            return;
+        }
+
         switch (opType) {
             case ADD:
-                final long id = mSubscriptionSchedulesDao.insert(schedule);
-                schedule.setId(id);
+                final long[] ids = mSubscriptionSchedulesDao.insert(schedules);
+                for (int i = 0; i < ids.length; i++) {
+                    schedules.get(i).setId(ids[i]);
+                }
                 break;
 
             case UPDATE:
-                mSubscriptionSchedulesDao.update(schedule);
+                mSubscriptionSchedulesDao.update(schedules);
                 break;
 
             case DELETE:
-                mSubscriptionSchedulesDao.delete(schedule);
+                mSubscriptionSchedulesDao.delete(schedules);
                 break;
 
             default: throw new RuntimeException("Unhandled operation type: " + opType);
         }
 
-        mLogger.d("doScheduleDatabaseRequest(schedule=%s,opType=%s).", schedule, opType);
+        mLogger.d("doScheduleDatabaseRequest(schedules=%s,opType=%s).", schedules, opType);
+
+        onSchedulesMutated(schedules.stream()
+                .mapToInt(SubscriptionScheduleEntity::getSubscriptionId).distinct().toArray());
+    }
+
+    /**
+     * Apply the mutated schedules of the SIM subscriptions, i.e. sync their enabled state and
+     * re-schedule the next iteration processing.
+     *
+     * @param subIds The IDs of the subscriptions whose schedules have been mutated.
+     */
+    private void onSchedulesMutated(final int[] subIds) {
+        for (int subId : subIds) {
+            mWeeklyScheduleIndex.invalidate(subId);
+            synchronized (mScheduleSetVersions) {
+                mScheduleSetVersions.put(subId, mScheduleSetVersions.get(subId) + 1);
+            }
+        }
 
         final LocalDateTime now = LocalDateTime.now(ZoneId.systemDefault());
         // We expect the schedules to take precedence over the user's preference when schedules
         // are explicitly mutated by the user
         final boolean overrideUserPreference = true;
-        syncSubscriptionEnabledState(schedule.getSubscriptionId(), now, overrideUserPreference);
+        final List<Subscription> subs = new ArrayList<>(subIds.length);
+        for (int subId : subIds) {
+            mSubscriptionsLazy.get().getSubscriptionForSubId(subId).ifPresent(subs::add);
+        }
+        syncSubscriptionsEnabledState(subs, now, overrideUserPreference);
 
         // In order to supply the SIM subscription PIN codes to the active SIM subscriptions found
         // on the device when processing schedules at the stated time, we need to re-schedule using
         // the list, if possible, of all decrypted SIM PIN entities
         List<PinEntity> pinEntities = null;
         if (!mPinStorageLazy.get().isAuthenticationRequired()) {
-            pinEntities = mPinStorageLazy.get().getPinEntities();
-            pinEntities.forEach((pinEntity) -> mPinStorageLazy.get().decrypt(pinEntity));
+            pinEntities = mPinStorageLazy.get().getDecryptedPinEntities();
         }
 
         updateNextWeeklyRepeatScheduleProcessingIter(now.plusMinutes(1), pinEntities);
@@ -429,11 +611,34 @@ public final class SubscriptionScheduler {
      * @param dateTime A date-time object containing the exact time for the alarm to fire.
      */
     private void rescheduleNextScheduleProcessingIter(final LocalDateTime dateTime) {
-        mLogger.d("rescheduleNextScheduleProcessingIter(dateTime=%s).", dateTime);
+        rescheduleNextScheduleProcessingIter(dateTime, Duration.ZERO);
+    }
+
+    /**
+     * (Re-)schedule the next iteration processing of SIM subscription weekly repeat schedules.
+     *
+     * @param dateTime A date-time object containing the earliest time for the alarm to fire.
+     * @param windowLength The time span after the earliest time within which the alarm is allowed
+     * to fire, or zero if the alarm must fire at the exact time.
+     */
+    private void rescheduleNextScheduleProcessingIter(final LocalDateTime dateTime,
+            final Duration windowLength) {
+
+        mLogger.d("rescheduleNextScheduleProcessingIter(dateTime=%s,windowLength=%s).", dateTime,
+                windowLength);
 
         final long millis = dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
-        mAlarmManagerLazy.get().setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, millis,
-                getPendingIntent());
+        mEventRing.record(EventRing.Event.NEXT_ITER_SCHEDULED, millis, windowLength.toMillis());
+        if (windowLength.isZero()) {
+            mAlarmManagerLazy.get().setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, millis,
+                    getPendingIntent());
+        } else {
+            // Let the system batch the alarm with other wake-ups, since none of the state changes
+            // to process is critical. Note that, unlike the exact alarm, this one may be deferred
+            // past the window while the device is idle
+            mAlarmManagerLazy.get().setWindow(AlarmManager.RTC_WAKEUP, millis,
+                    windowLength.toMillis(), getPendingIntent());
+        }
     }
 
     /**
@@ -458,10 +663,12 @@ public final class SubscriptionScheduler {
      * ({@code a<=x<=b}) of two opposite schedules.
      *
      * @param sub The subscription for which to determine the expected enabled state.
-     * @param startDateTime The interval start date-time value. This is expected to be date-time of
-     * the weekly repeat schedule, if any, that should enable the SIM subscription.
-     * @param endDateTime The interval end date-time value. This is expected to be the date-time of
-     * the weekly repeat schedule, if any, that should disable the SIM subscription.
+     * @param startEpochMinute The interval start epoch minute. This is expected to be the epoch
+     * minute of the weekly repeat schedule, if any, that should enable the SIM subscription, or
+     * {@link EpochMinutes#NONE}.
+     * @param endEpochMinute The interval end epoch minute. This is expected to be the epoch minute
+     * of the weekly repeat schedule, if any, that should disable the SIM subscription, or
+     * {@link EpochMinutes#NONE}.
      * @param overrideUserPreference Whether the user's preference should NOT take precedence over
      * schedule intervals. For instance, if the SIM subscription is expected to be disabled, but the
      * user enabled it manually, then pass {@code false} to keep the state within the allowed
@@ -471,111 +678,74 @@ public final class SubscriptionScheduler {
      * otherwise.
      */
     private static boolean getSubscriptionExpectedEnabledState(final Subscription sub,
-            final Optional<LocalDateTime> startDateTime, final Optional<LocalDateTime> endDateTime,
+            final long startEpochMinute, final long endEpochMinute,
             final boolean overrideUserPreference) {
 
+        final boolean hasStart = startEpochMinute != EpochMinutes.NONE;
+        final boolean hasEnd = endEpochMinute != EpochMinutes.NONE;
+        // Note that, as per TelephonyController specs, turning off a SIM card on a device using
+        // legacy RIL won't persist across boots. On reboot, SIM will turn on normally, but the user
+        // may want it to be turned off until turned on again manually or through a weekly repeat
+        // schedule, if any
+        final boolean keepDisabledAcrossBoots =
+            Boolean.TRUE.equals(sub.getKeepDisabledAcrossBoots());
+        final long lastDeactivatedEpochMinute = EpochMinutes.of(sub.getLastDeactivatedTime());
+
         if (sub.isSimEnabled()) {
-            return endDateTime.map((end) -> {
-                if (!overrideUserPreference && (sub.getLastActivatedTime().equals(end) ||
-                            sub.getLastActivatedTime().isAfter(end))) {
+            if (hasEnd) {
+                if (!overrideUserPreference &&
+                        EpochMinutes.of(sub.getLastActivatedTime()) >= endEpochMinute) {
                     return true;
                 }
-
-                // Note that, as per TelephonyController specs, turning off a SIM card on a device
-                // using legacy RIL won't persist across boots. On reboot, SIM will turn on
-                // normally, but the user may want it to be turned off until turned on again
-                // manually or through a weekly repeat schedule, if any
-                final boolean keepDisabledAcrossBoots =
-                    Optional.ofNullable(sub.getKeepDisabledAcrossBoots()).orElse(false);
-
-                return startDateTime.map((start) -> start.isAfter(end) &&
-                        sub.getLastDeactivatedTime().isBefore(start) &&
-                        !keepDisabledAcrossBoots).orElse(false);
-            }).orElseGet(() -> {
-                return Optional.ofNullable(sub.getKeepDisabledAcrossBoots()).filter((v) -> v)
-                    .map((v) -> startDateTime.map((start) ->
-                            sub.getLastDeactivatedTime().isBefore(start)).orElse(false))
-                    .orElse(true);
-            });
+                return hasStart && startEpochMinute > endEpochMinute &&
+                    lastDeactivatedEpochMinute < startEpochMinute && !keepDisabledAcrossBoots;
+            }
+            if (keepDisabledAcrossBoots) {
+                return hasStart && lastDeactivatedEpochMinute < startEpochMinute;
+            }
+            return true;
         }
-        return startDateTime.map((start) -> {
-            if (!overrideUserPreference && (sub.getLastDeactivatedTime().equals(start) ||
-                        sub.getLastDeactivatedTime().isAfter(start))) {
+        if (hasStart) {
+            if (!overrideUserPreference && lastDeactivatedEpochMinute >= startEpochMinute) {
                 return false;
             }
-            return endDateTime.map((end) -> end.isBefore(start)).orElse(true);
-        }).orElse(false);
+            return !hasEnd || endEpochMinute < startEpochMinute;
+        }
+        return false;
     }
 
     /**
-     * Get the first date-time of a SIM subscription weekly repeat schedule that occurs on or before
+     * Get the first date-time of a SIM subscription weekly repeat schedule that occurs on or after
      * the provided date-time.
      *
      * @param schedule The schedule to get the first date-time from.
      * @param compareTime The date-time object to compare against.
      * @return An Optional containing the date-time object if the provided schedule is not empty.
      */
-    private static Optional<LocalDateTime> getDateTimeBefore(
+    public static Optional<LocalDateTime> getDateTimeAfter(
             final @NonNull SubscriptionScheduleEntity schedule,
             final @NonNull LocalDateTime compareTime) {
 
-        if (!schedule.getDaysOfWeek().isRepeating()) {
-            return Optional.empty();
-        }
-
-        final @DayOfWeek int compareDayOfWeek = DaysOfWeek.getDayOfWeekFrom(compareTime);
-        final int distanceToPreviousDay;
-        // Check if the schedule is occurring on the same day
-        if (schedule.getDaysOfWeek().isBitOn(compareDayOfWeek) &&
-                (schedule.getTime().equals(compareTime.toLocalTime()) ||
-                 schedule.getTime().isBefore(compareTime.toLocalTime()))) {
-            distanceToPreviousDay = 0;
-        } else {
-            // Start seeking from the previous day of the week when there's no schedule occurring on
-            // the same day
-            distanceToPreviousDay = schedule.getDaysOfWeek()
-                .getDistanceToPreviousDayOfWeek(compareDayOfWeek)
-                .getAsInt();
-        }
-        return Optional.of(compareTime.minusDays(distanceToPreviousDay)
-                .withHour(schedule.getTime().getHour()).withMinute(schedule.getTime().getMinute()));
+        final long epochMinute = getOccurrenceOnOrAfter(schedule, EpochMinutes.of(compareTime));
+        return epochMinute == EpochMinutes.NONE ? Optional.empty() :
+            Optional.of(EpochMinutes.toLocalDateTime(epochMinute));
     }
 
     /**
-     * Get the first date-time of a SIM subscription weekly repeat schedule that occurs on or after
-     * the provided date-time.
+     * Like {@link #getDateTimeAfter(SubscriptionScheduleEntity,LocalDateTime)}, but using epoch
+     * minutes.
      *
-     * @param schedule The schedule to get the first date-time from.
-     * @param compareTime The date-time object to compare against.
-     * @return An Optional containing the date-time object if the provided schedule is not empty.
+     * @return The epoch minute, or {@link EpochMinutes#NONE} if the provided schedule is empty.
      */
-    public static Optional<LocalDateTime> getDateTimeAfter(
-            final @NonNull SubscriptionScheduleEntity schedule,
-            final @NonNull LocalDateTime compareTime) {
+    private static long getOccurrenceOnOrAfter(final SubscriptionScheduleEntity schedule,
+            final long epochMinute) {
 
-        if (!schedule.getDaysOfWeek().isRepeating()) {
-            return Optional.empty();
-        }
+        return EpochMinutes.getOccurrenceOnOrAfter(schedule.getDaysOfWeek().getBits(),
+                schedule.getTime().getHour() * 60 + schedule.getTime().getMinute(), epochMinute);
+    }
 
-        @DayOfWeek int compareDayOfWeek = DaysOfWeek.getDayOfWeekFrom(compareTime);
-        final int distanceToNextDay;
-        // Check if the schedule is occurring on the same day
-        if (schedule.getDaysOfWeek().isBitOn(compareDayOfWeek) &&
-                (schedule.getTime().equals(compareTime.toLocalTime()) ||
-                 schedule.getTime().isAfter(compareTime.toLocalTime()))) {
-            distanceToNextDay = 0;
-        } else {
-            compareDayOfWeek++; // skip the current day
-            if (compareDayOfWeek > DayOfWeek.SATURDAY) {
-                compareDayOfWeek = DayOfWeek.SUNDAY;
-            }
-            // Start seeking from the next day of the week when there's no schedule occurring on the
-            // same day
-            distanceToNextDay = schedule.getDaysOfWeek()
-                .getDistanceToNextDayOfWeek(compareDayOfWeek)
-                .getAsInt() + 1;
-        }
-        return Optional.of(compareTime.plusDays(distanceToNextDay)
-                .withHour(schedule.getTime().getHour()).withMinute(schedule.getTime().getMinute()));
+    private static Object toLoggableDateTime(final long epochMinute) {
+        return epochMinute == EpochMinutes.NONE ? "none" :
+            EpochMinutes.toLocalDateTime(epochMinute);
     }
 }
@@ -5,6 +5,9 @@ import android.content.res.Resources;
 import android.icu.text.DisplayContext;
 import android.icu.text.RelativeDateTimeFormatter;
 import android.icu.util.ULocale;
+import android.text.SpannedString;
+import android.text.format.DateFormat;
+import android.util.SparseArray;
 
 import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
@@ -31,6 +34,12 @@ import javax.inject.Singleton;
  * <p>This class encapsulates the building process of a human-readable string summarizing the next
  * upcoming weekly repeat schedule for a particular SIM subscription.
  *
+ * <p>The most recent summary of each SIM subscription is cached, and served again as long as the
+ * schedule set version of the subscription, the minute of the target date-time, the SIM enabled
+ * state, the locale and the 12/24-hour time format setting remain the same. Thus, schedule
+ * mutations, as well as time, time zone, locale and time format changes invalidate it on their
+ * own.
+ *
  * <p>This class is <strong>thread-safe</strong>.
  */
 @Singleton
@@ -47,6 +56,10 @@ public final class SubscriptionSchedulerSummaryBuilder {
     @GuardedBy("this")
     private Locale mRelativeFormatterLocale;
 
+    /** The most recently built summaries keyed by SIM subscription ID. */
+    @GuardedBy("mSummaryCache")
+    private final SparseArray<CachedSummary> mSummaryCache = new SparseArray<>();
+
     private final Context mContext;
     private final SubscriptionScheduler mSubscriptionScheduler;
 
@@ -74,6 +87,46 @@ public final class SubscriptionSchedulerSummaryBuilder {
     public @NonNull CharSequence buildNextUpcomingSubscriptionScheduleSummary(
             final @NonNull Subscription sub, @NonNull LocalDateTime dateTime) {
 
+        // Since we don't support seconds and milliseconds, drop them off to avoid inexact summaries
+        dateTime = dateTime.truncatedTo(ChronoUnit.MINUTES);
+
+        // NOTE: the version must be read before querying the schedules, so that a concurrent
+        // mutation will result in a cache miss next time rather than in a stale summary
+        final int version = mSubscriptionScheduler.getScheduleSetVersion(sub.getId());
+        final long epochMinute = EpochMinutes.of(dateTime);
+        final boolean stateJustChanged = sub.getLastActivatedTime().equals(dateTime) ||
+            sub.getLastDeactivatedTime().equals(dateTime);
+        final Locale locale = Locale.getDefault();
+        final boolean is24HourFormat = DateFormat.is24HourFormat(mContext);
+        synchronized (mSummaryCache) {
+            final CachedSummary cachedSummary = mSummaryCache.get(sub.getId());
+            if (cachedSummary != null && cachedSummary.matches(version, epochMinute,
+                        sub.isSimEnabled(), stateJustChanged, locale, is24HourFormat)) {
+                return cachedSummary.summary;
+            }
+        }
+
+        final CharSequence summary = new SpannedString(buildSummary(sub, dateTime,
+                    stateJustChanged, locale));
+        synchronized (mSummaryCache) {
+            mSummaryCache.put(sub.getId(), new CachedSummary(version, epochMinute,
+                        sub.isSimEnabled(), stateJustChanged, locale, is24HourFormat, summary));
+        }
+        return summary;
+    }
+
+    /**
+     * @param sub The subscription for which to create the summary.
+     * @param dateTime The date-time object truncated to minutes used for finding the nearest
+     * schedule.
+     * @param stateJustChanged Whether the SIM subscription state has changed at the target
+     * date-time.
+     * @param locale The locale to format the summary for.
+     * @return The string containing the summary for the target subscription and date-time.
+     */
+    private CharSequence buildSummary(final Subscription sub, final LocalDateTime dateTime,
+            final boolean stateJustChanged, final Locale locale) {
+
         // Find the nearest weekly repeat schedule for the subscription that will invert its current
         // enabled state on or after the given date-time
         final Optional<SubscriptionScheduleEntity> nearestSchedule =
@@ -98,15 +151,11 @@ public final class SubscriptionSchedulerSummaryBuilder {
             customTimeStringResId = R.string.scheduler_end_time_custom_summary;
         }
 
-        // Since we don't support seconds and milliseconds, drop them off to avoid inexact summaries
-        dateTime = dateTime.truncatedTo(ChronoUnit.MINUTES);
-
         // NOTE: if the SIM subscription state change time matches the target date-time, then we'll
         // start seeking for the next weekly repeat schedule date-time that happens no earlier than
         // one minute from the target date-time. This to avoid showing a summary for the schedule
         // that just happened
-        final LocalDateTime dateTime2 = sub.getLastActivatedTime().equals(dateTime) ||
-                sub.getLastDeactivatedTime().equals(dateTime) ? dateTime.plusMinutes(1) : dateTime;
+        final LocalDateTime dateTime2 = stateJustChanged ? dateTime.plusMinutes(1) : dateTime;
         final LocalDateTime nearestScheduleDateTime =
             SubscriptionScheduler.getDateTimeAfter(nearestSchedule.get(), dateTime2).get();
 
@@ -114,7 +163,7 @@ public final class SubscriptionSchedulerSummaryBuilder {
         // concurrent threads, also protect the StringBuilder length resetting
         synchronized (this) {
             final CharSequence str = DateTimeUtils.getRelativeDateTimeSpanString(mContext,
-                    getFormatter(Locale.getDefault()), getRelativeFormatter(Locale.getDefault()),
+                    getFormatter(locale), getRelativeFormatter(locale),
                     nearestScheduleDateTime, dateTime);
             return HtmlCompat.fromHtml(mResources.getString(customTimeStringResId, str),
                     HtmlCompat.FROM_HTML_MODE_COMPACT);
@@ -160,4 +209,39 @@ public final class SubscriptionSchedulerSummaryBuilder {
         }
         return mRelativeFormatter;
     }
+
+    /**
+     * A built summary along with the inputs it depends on.
+     */
+    private static final class CachedSummary {
+        final int version;
+        final long epochMinute;
+        final boolean simEnabled;
+        final boolean stateJustChanged;
+        final Locale locale;
+        final boolean is24HourFormat;
+        final CharSequence summary;
+
+        CachedSummary(final int version, final long epochMinute, final boolean simEnabled,
+                final boolean stateJustChanged, final Locale locale, final boolean is24HourFormat,
+                final CharSequence summary) {
+
+            this.version = version;
+            this.epochMinute = epochMinute;
+            this.simEnabled = simEnabled;
+            this.stateJustChanged = stateJustChanged;
+            this.locale = locale;
+            this.is24HourFormat = is24HourFormat;
+            this.summary = summary;
+        }
+
+        boolean matches(final int version, final long epochMinute, final boolean simEnabled,
+                final boolean stateJustChanged, final Locale locale,
+                final boolean is24HourFormat) {
+
+            return this.version == version && this.epochMinute == epochMinute &&
+                this.simEnabled == simEnabled && this.stateJustChanged == stateJustChanged &&
+                this.locale.equals(locale) && this.is24HourFormat == is24HourFormat;
+        }
+    }
 }
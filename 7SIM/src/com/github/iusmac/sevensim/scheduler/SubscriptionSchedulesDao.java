@@ -1,86 +1,66 @@
 package com.github.iusmac.sevensim.scheduler;
 
+import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.Query;
-import androidx.room.RewriteQueriesToDropUnusedColumns;
 import androidx.room.Update;
 
-import java.time.LocalTime;
 import java.util.List;
-import java.util.Optional;
 
 @Dao
 public interface SubscriptionSchedulesDao {
+    /**
+     * Insert multiple SIM subscription weekly repeat schedules within a single transaction.
+     *
+     * @param scheduleEntities The schedules to insert.
+     * @return The row IDs of the inserted schedules, in the same order.
+     */
     @Insert
-    long insert(SubscriptionScheduleEntity scheduleEntity);
+    long[] insert(List<SubscriptionScheduleEntity> scheduleEntities);
 
+    /**
+     * Update multiple SIM subscription weekly repeat schedules within a single transaction.
+     *
+     * @param scheduleEntities The schedules to update.
+     */
     @Update
-    void update(SubscriptionScheduleEntity scheduleEntity);
+    void update(List<SubscriptionScheduleEntity> scheduleEntities);
 
+    /**
+     * Delete multiple SIM subscription weekly repeat schedules within a single transaction.
+     *
+     * @param scheduleEntities The schedules to delete.
+     */
     @Delete
-    void delete(SubscriptionScheduleEntity scheduleEntity);
+    void delete(List<SubscriptionScheduleEntity> scheduleEntities);
+
+    @Query("SELECT * FROM subscription_schedules")
+    List<SubscriptionScheduleEntity> findAll();
 
     @Query("SELECT * FROM subscription_schedules WHERE sub_id = :subId")
     List<SubscriptionScheduleEntity> findAllBySubscriptionId(int subId);
 
     /**
-     * Search for the nearest SIM subscription weekly repeat schedule that occurs on or after the
-     * given day of the week and time.
+     * Find all SIM subscription weekly repeat schedules associated with a SIM subscription ID, and
+     * re-run the query whenever the schedules change.
      *
      * @param subId The ID of the subscription.
-     * @param subEnabled The scheduled enabled state of the subscription.
-     * @param dayOfWeek Any of {@link DayOfWeek} values.
-     * @param time Time as seen on a wall clock.
-     * @param reverseSearch Whether to search for the nearest schedule that occurs on or before the
-     * given day of the week and time.
-     * @return An Optional containing the {@link SubscriptionScheduleEntity} instance, if any.
+     * @return An observable list of schedules associated with the subscription ID.
+     */
+    @Query("SELECT * FROM subscription_schedules WHERE sub_id = :subId")
+    LiveData<List<SubscriptionScheduleEntity>> findObservableAllBySubscriptionId(int subId);
+
+    /**
+     * Find all SIM subscription weekly repeat schedules associated with any of the SIM
+     * subscription IDs in a single query.
+     *
+     * @param subIds The IDs of the subscriptions.
+     * @return A list of schedules associated with the subscription IDs.
      */
-    @RewriteQueriesToDropUnusedColumns
-    @Query("SELECT *,"
-            // Auxiliary fields to make the placeholder substitution easier for the Room lib
-            + ":dayOfWeek AS day_of_week, :time AS time "
-        + "FROM subscription_schedules "
-        + "WHERE "
-            // Include only schedules corresponding to a particular subscription and enabled state
-            + "sub_id = :subId AND sub_enabled = :subEnabled "
-            // Include only enabled schedules
-            + "AND enabled = TRUE "
-            // Include only schedules having at least one day of the week enabled
-            + "AND days_of_week_bits > 0 "
-        // Calculate the time gap in minutes to the nearest schedule that will occur on or after the
-        // given day of the week and time, sorting all in ascending order to appear the nearest one
-        // (with the smallest time gap) at the top of the list
-        + "ORDER BY ABS(CASE WHEN NOT :reverseSearch THEN "
-            + "CASE "
-                + "WHEN days_of_week_bits & (1 << day_of_week - 1) > 0 " // wanted day of the week
-                    // Check if the schedule is occurring on the same day
-                    + "AND minutes_since_midnight >= time THEN 0 "
-                + "WHEN days_of_week_bits & (1 << day_of_week % 7) > 0 THEN 1 " // +1 day
-                + "WHEN days_of_week_bits & (1 << (day_of_week + 1) % 7) > 0 THEN 2 " // +2 days
-                + "WHEN days_of_week_bits & (1 << (day_of_week + 2) % 7) > 0 THEN 3 " // +3 days
-                + "WHEN days_of_week_bits & (1 << (day_of_week + 3) % 7) > 0 THEN 4 " // +4 days
-                + "WHEN days_of_week_bits & (1 << (day_of_week + 4) % 7) > 0 THEN 5 " // +5 days
-                + "WHEN days_of_week_bits & (1 << (day_of_week + 5) % 7) > 0 THEN 6 " // +6 days
-                + "WHEN days_of_week_bits & (1 << (day_of_week + 6) % 7) > 0 THEN 7 " // +7 days
-            + "END "
-        + "ELSE "
-            + "CASE "
-                + "WHEN days_of_week_bits & (1 << day_of_week - 1) > 0 "
-                    + "AND minutes_since_midnight <= time THEN 0 "
-                + "WHEN days_of_week_bits & (1 << (day_of_week + 5) % 7) > 0 THEN -1 " // -1 day
-                + "WHEN days_of_week_bits & (1 << (day_of_week + 4) % 7) > 0 THEN -2 " // -2 days
-                + "WHEN days_of_week_bits & (1 << (day_of_week + 3) % 7) > 0 THEN -3 " // -3 days
-                + "WHEN days_of_week_bits & (1 << (day_of_week + 2) % 7) > 0 THEN -4 " // -4 days
-                + "WHEN days_of_week_bits & (1 << (day_of_week + 1) % 7) > 0 THEN -5 " // -5 days
-                + "WHEN days_of_week_bits & (1 << day_of_week % 7) > 0 THEN -6 " // -6 days
-                + "WHEN days_of_week_bits & (1 << (day_of_week + 6) % 7) > 0 THEN -7 " // -7 days
-            + "END "
-        + "END * 24 * 60 + minutes_since_midnight - time) "
-    + "LIMIT 1")
-    Optional<SubscriptionScheduleEntity> findNearestByDayOfWeekAndTime(int subId,
-            boolean subEnabled, @DayOfWeek int dayOfWeek, LocalTime time, boolean reverseSearch);
+    @Query("SELECT * FROM subscription_schedules WHERE sub_id IN (:subIds)")
+    List<SubscriptionScheduleEntity> findAllBySubscriptionIds(int[] subIds);
 
     /**
      * Get the total number of weekly repeat schedules for a particular SIM subscription.
@@ -0,0 +1,187 @@
+package com.github.iusmac.sevensim.scheduler;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.github.iusmac.sevensim.AppDatabaseDE;
+import com.github.iusmac.sevensim.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import static android.telephony.SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+
+/**
+ * <p>This class is responsible for exporting and importing the SIM subscription weekly repeat
+ * schedules, so that they can be moved between devices or SIM subscriptions.
+ *
+ * <p>The schedules are stored in a compact line-oriented text format. The first line is the
+ * {@link #HEADER} followed by the format version, then each line describes a schedule as
+ * space-separated fields in the following order: the subscription ID, the scheduled subscription
+ * enabled state, the schedule enabled state, the critical state, the days of the week bits, the
+ * minutes since midnight and the URI-encoded label, which is empty if not set. Boolean fields are
+ * either 0 or 1.
+ *
+ * <p>Both exporting and importing are streaming, i.e. the text is never held in memory as a whole,
+ * and the imported schedules are added at once.
+ */
+@Singleton
+public final class SubscriptionSchedulesTransfer {
+    /** The first token of the first line in an exported file. */
+    private static final String HEADER = "7SIM-SCHEDULES";
+
+    /** The version of the format written by this class. */
+    private static final int VERSION = 1;
+
+    private static final int FIELD_COUNT = 7;
+
+    private final Logger mLogger;
+    private final DaysOfWeek.Factory mDaysOfWeekFactory;
+    private final SubscriptionScheduler mSubscriptionScheduler;
+    private final SubscriptionSchedulesDao mSubscriptionSchedulesDao;
+
+    @Inject
+    public SubscriptionSchedulesTransfer(final Logger.Factory loggerFactory,
+            final DaysOfWeek.Factory daysOfWeekFactory,
+            final SubscriptionScheduler subscriptionScheduler,
+            final AppDatabaseDE appDatabaseDE) {
+
+        mLogger = loggerFactory.create(getClass().getSimpleName());
+        mDaysOfWeekFactory = daysOfWeekFactory;
+        mSubscriptionScheduler = subscriptionScheduler;
+        mSubscriptionSchedulesDao = appDatabaseDE.subscriptionSchedulerDao();
+    }
+
+    /**
+     * Export the weekly repeat schedules of a SIM subscription, or of all SIM subscriptions.
+     *
+     * @param out The stream to write to. The caller is responsible for closing it.
+     * @param subId The ID of the subscription, or {@link
+     * android.telephony.SubscriptionManager#INVALID_SUBSCRIPTION_ID} to export all schedules.
+     * @return The number of exported schedules.
+     * @throws IOException If an I/O error occurs.
+     */
+    @WorkerThread
+    public int exportSchedules(final @NonNull OutputStream out, final int subId)
+            throws IOException {
+
+        final List<SubscriptionScheduleEntity> schedules = subId == INVALID_SUBSCRIPTION_ID ?
+            mSubscriptionSchedulesDao.findAll() :
+            mSubscriptionSchedulesDao.findAllBySubscriptionId(subId);
+
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+                    StandardCharsets.UTF_8));
+        writer.write(HEADER);
+        writer.write(' ');
+        writer.write(String.valueOf(VERSION));
+        writer.write('\n');
+        for (SubscriptionScheduleEntity schedule : schedules) {
+            writer.write(String.valueOf(schedule.getSubscriptionId()));
+            writer.write(schedule.getSubscriptionEnabled() ? " 1" : " 0");
+            writer.write(schedule.getEnabled() ? " 1" : " 0");
+            writer.write(schedule.getCritical() ? " 1 " : " 0 ");
+            writer.write(String.valueOf(schedule.getDaysOfWeek().getBits()));
+            writer.write(' ');
+            writer.write(String.valueOf(schedule.getTime().getHour() * 60 +
+                        schedule.getTime().getMinute()));
+            writer.write(' ');
+            if (schedule.getLabel() != null) {
+                writer.write(Uri.encode(schedule.getLabel()));
+            }
+            writer.write('\n');
+        }
+        writer.flush();
+
+        mLogger.d("exportSchedules(subId=%d) : count=%d.", subId, schedules.size());
+
+        return schedules.size();
+    }
+
+    /**
+     * Import weekly repeat schedules previously exported via
+     * {@link #exportSchedules(OutputStream,int)}. The schedules are added at once, so that the
+     * affected SIM subscriptions are synced and the alarm re-scheduled only once. Nothing is
+     * imported if the input is malformed.
+     *
+     * @param in The stream to read from. The caller is responsible for closing it.
+     * @param subId The ID of the subscription to assign the schedules to, or {@link
+     * android.telephony.SubscriptionManager#INVALID_SUBSCRIPTION_ID} to keep the exported ones.
+     * @return The imported schedules.
+     * @throws IOException If an I/O error occurs or the input is malformed.
+     */
+    @WorkerThread
+    public @NonNull List<SubscriptionScheduleEntity> importSchedules(final @NonNull InputStream in,
+            final int subId) throws IOException {
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+                    StandardCharsets.UTF_8));
+        final String header = reader.readLine();
+        if (header == null || !header.equals(HEADER + " " + VERSION)) {
+            throw new IOException("Unsupported header: " + header);
+        }
+
+        final List<SubscriptionScheduleEntity> schedules = new ArrayList<>();
+        String line;
+        for (int lineNumber = 2; (line = reader.readLine()) != null; lineNumber++) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                schedules.add(parseSchedule(line, subId));
+            } catch (IllegalArgumentException | DateTimeException e) {
+                throw new IOException("Malformed line " + lineNumber + ": " + line, e);
+            }
+        }
+
+        mSubscriptionScheduler.add(schedules);
+
+        mLogger.d("importSchedules(subId=%d) : count=%d.", subId, schedules.size());
+
+        return schedules;
+    }
+
+    private SubscriptionScheduleEntity parseSchedule(final String line, final int subId) {
+        final String[] fields = line.split(" ", -1);
+        if (fields.length != FIELD_COUNT) {
+            throw new IllegalArgumentException("Expected " + FIELD_COUNT + " fields");
+        }
+
+        final int daysOfWeekBits = Integer.parseInt(fields[4]);
+        final int minutesSinceMidnight = Integer.parseInt(fields[5]);
+
+        final SubscriptionScheduleEntity schedule = new SubscriptionScheduleEntity();
+        schedule.setSubscriptionId(subId == INVALID_SUBSCRIPTION_ID ?
+                Integer.parseInt(fields[0]) : subId);
+        schedule.setSubscriptionEnabled(parseBoolean(fields[1]));
+        schedule.setEnabled(parseBoolean(fields[2]));
+        schedule.setCritical(parseBoolean(fields[3]));
+        schedule.setDaysOfWeek(mDaysOfWeekFactory.create(daysOfWeekBits));
+        schedule.setTime(LocalTime.of(minutesSinceMidnight / 60, minutesSinceMidnight % 60));
+        schedule.setLabel(fields[6].isEmpty() ? null : Uri.decode(fields[6]));
+        return schedule;
+    }
+
+    private static boolean parseBoolean(final String field) {
+        switch (field) {
+            case "0": return false;
+            case "1": return true;
+            default: throw new IllegalArgumentException("Invalid boolean: " + field);
+        }
+    }
+}
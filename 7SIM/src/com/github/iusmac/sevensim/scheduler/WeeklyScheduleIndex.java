@@ -0,0 +1,334 @@
+package com.github.iusmac.sevensim.scheduler;
+
+import android.util.SparseArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+/**
+ * <p>This class is responsible for keeping an in-memory index of the SIM subscription weekly
+ * repeat schedules, so that finding the nearest schedule doesn't require a database query.
+ *
+ * <p>For each SIM subscription, every weekly occurrence of its enabled schedules is stored as a
+ * minute of the week, i.e. a value between 0 (Sunday 00:00) and
+ * {@link EpochMinutes#MINUTES_PER_WEEK} - 1 (Saturday 23:59), in two sorted arrays, one for each
+ * scheduled enabled state. Finding the nearest schedule then boils down to a binary search that
+ * wraps around the end of the week.
+ *
+ * <p>The same arrays are used to find the schedules occurring at the same minute of the week as a
+ * given schedule, and the enabled state a SIM subscription is scheduled to be in at a given time.
+ *
+ * <p>The index of a SIM subscription is loaded from the database on first access and must be
+ * invalidated via {@link #invalidate(int)} whenever its schedules are mutated.
+ */
+final class WeeklyScheduleIndex {
+    private final SubscriptionSchedulesDao mSubscriptionSchedulesDao;
+
+    @GuardedBy("this")
+    private final SparseArray<Timeline[]> mTimelines = new SparseArray<>();
+
+    WeeklyScheduleIndex(final @NonNull SubscriptionSchedulesDao subscriptionSchedulesDao) {
+        mSubscriptionSchedulesDao = subscriptionSchedulesDao;
+    }
+
+    /**
+     * Find the SIM subscription weekly repeat schedule that occurs nearest to the given date-time.
+     *
+     * @param subId The ID of the subscription.
+     * @param subEnabled The scheduled enabled state of the subscription.
+     * @param dateTime The date-time object used for finding the nearest schedule.
+     * @param reverseSearch Whether to search for the nearest schedule that occurs on or before the
+     * given date-time, rather than on or after.
+     * @return An Optional containing the schedule, if found.
+     */
+    @WorkerThread
+    Optional<SubscriptionScheduleEntity> findNearest(final int subId, final boolean subEnabled,
+            final @NonNull LocalDateTime dateTime, final boolean reverseSearch) {
+
+        final Timeline timeline = getTimelines(subId)[subEnabled ? 1 : 0];
+        final int minuteOfWeek = getMinuteOfWeek(dateTime);
+        return Optional.ofNullable(reverseSearch ? timeline.findOnOrBefore(minuteOfWeek) :
+                timeline.findOnOrAfter(minuteOfWeek));
+    }
+
+    /**
+     * Like {@link #findNearest(int,boolean,LocalDateTime,boolean)}, but return the epoch minute of
+     * the nearest occurrence instead of the schedule, without allocating.
+     *
+     * @param subId The ID of the subscription.
+     * @param subEnabled The scheduled enabled state of the subscription.
+     * @param epochMinute The epoch minute used for finding the nearest occurrence.
+     * @param reverseSearch Whether to search for the nearest occurrence on or before the given
+     * epoch minute, rather than on or after.
+     * @return The epoch minute of the occurrence, or {@link EpochMinutes#NONE} if not found.
+     */
+    @WorkerThread
+    long findNearestEpochMinute(final int subId, final boolean subEnabled, final long epochMinute,
+            final boolean reverseSearch) {
+
+        final Timeline timeline = getTimelines(subId)[subEnabled ? 1 : 0];
+        final int minuteOfWeek = EpochMinutes.getMinuteOfWeek(epochMinute);
+        final int distance = reverseSearch ? timeline.getDistanceOnOrBefore(minuteOfWeek) :
+            timeline.getDistanceOnOrAfter(minuteOfWeek);
+        if (distance < 0) {
+            return EpochMinutes.NONE;
+        }
+        return reverseSearch ? epochMinute - distance : epochMinute + distance;
+    }
+
+    /**
+     * Find the schedules of the same SIM subscription that occur at the same minute of the week as
+     * the given schedule on any of its days of the week. Only enabled schedules are considered.
+     *
+     * @param schedule The schedule to check, which may or may not be already stored.
+     * @return The conflicting and redundant schedules, each reported once.
+     */
+    @WorkerThread
+    List<ScheduleConflict> findConflicts(final @NonNull SubscriptionScheduleEntity schedule) {
+        final List<ScheduleConflict> conflicts = new ArrayList<>();
+        if (!schedule.getEnabled() || !schedule.getDaysOfWeek().isRepeating()) {
+            return conflicts;
+        }
+
+        final Timeline[] timelines = getTimelines(schedule.getSubscriptionId());
+        final int minutesSinceMidnight = schedule.getTime().getHour() * 60 +
+            schedule.getTime().getMinute();
+        // A schedule may collide with another one on multiple days of the week
+        final Map<Long, SubscriptionScheduleEntity> otherSchedules = new LinkedHashMap<>();
+        for (int dayOfWeek = DayOfWeek.SUNDAY; dayOfWeek <= DayOfWeek.SATURDAY; dayOfWeek++) {
+            if (schedule.getDaysOfWeek().isBitOn(dayOfWeek)) {
+                final int minuteOfWeek = EpochMinutes.getMinuteOfWeek(dayOfWeek,
+                        minutesSinceMidnight);
+                for (Timeline timeline : timelines) {
+                    timeline.collectAt(minuteOfWeek, schedule.getId(), otherSchedules);
+                }
+            }
+        }
+        for (SubscriptionScheduleEntity otherSchedule : otherSchedules.values()) {
+            conflicts.add(new ScheduleConflict(schedule, otherSchedule));
+        }
+        return conflicts;
+    }
+
+    /**
+     * Load the index of all SIM subscriptions that aren't indexed yet using a single database
+     * query, so that subsequent lookups for any of them don't touch the database.
+     *
+     * @param subIds The IDs of the subscriptions.
+     */
+    @WorkerThread
+    synchronized void preload(final @NonNull int[] subIds) {
+        final int[] missingSubIds = IntStream.of(subIds)
+            .filter((subId) -> mTimelines.get(subId) == null).distinct().toArray();
+        if (missingSubIds.length == 0) {
+            return;
+        }
+
+        final SparseArray<List<SubscriptionScheduleEntity>> schedulesBySubId =
+            new SparseArray<>(missingSubIds.length);
+        for (int subId : missingSubIds) {
+            schedulesBySubId.put(subId, new ArrayList<>());
+        }
+        for (SubscriptionScheduleEntity schedule :
+                mSubscriptionSchedulesDao.findAllBySubscriptionIds(missingSubIds)) {
+            schedulesBySubId.get(schedule.getSubscriptionId()).add(schedule);
+        }
+        for (int i = 0; i < schedulesBySubId.size(); i++) {
+            mTimelines.put(schedulesBySubId.keyAt(i), buildTimelines(schedulesBySubId.valueAt(i)));
+        }
+    }
+
+    /**
+     * Drop the index of a SIM subscription, so that it will be re-loaded from the database on next
+     * access.
+     *
+     * @param subId The ID of the subscription.
+     */
+    synchronized void invalidate(final int subId) {
+        mTimelines.remove(subId);
+    }
+
+    /**
+     * Get the index of a SIM subscription, loading it from the database if needed.
+     *
+     * @param subId The ID of the subscription.
+     * @return The disabling (index 0) and the enabling (index 1) schedule timelines.
+     */
+    private synchronized Timeline[] getTimelines(final int subId) {
+        Timeline[] timelines = mTimelines.get(subId);
+        if (timelines == null) {
+            timelines = buildTimelines(mSubscriptionSchedulesDao.findAllBySubscriptionId(subId));
+            mTimelines.put(subId, timelines);
+        }
+        return timelines;
+    }
+
+    private static Timeline[] buildTimelines(final List<SubscriptionScheduleEntity> schedules) {
+        return new Timeline[] {
+            Timeline.build(schedules, /*subEnabled=*/ false),
+            Timeline.build(schedules, /*subEnabled=*/ true),
+        };
+    }
+
+    /**
+     * Get the minute of the week of a date-time object, where 0 is Sunday 00:00.
+     *
+     * @param dateTime The date-time to get the minute of the week from.
+     */
+    private static int getMinuteOfWeek(final LocalDateTime dateTime) {
+        return EpochMinutes.getMinuteOfWeek(EpochMinutes.of(dateTime));
+    }
+
+    /**
+     * The weekly occurrences of the enabled schedules of a SIM subscription that share the same
+     * scheduled enabled state, sorted by minute of the week.
+     */
+    private static final class Timeline {
+        private final int[] mMinutesOfWeek;
+        private final SubscriptionScheduleEntity[] mSchedules;
+
+        private Timeline(final int[] minutesOfWeek, final SubscriptionScheduleEntity[] schedules) {
+            mMinutesOfWeek = minutesOfWeek;
+            mSchedules = schedules;
+        }
+
+        static Timeline build(final List<SubscriptionScheduleEntity> schedules,
+                final boolean subEnabled) {
+
+            final List<SubscriptionScheduleEntity> occurrences = new ArrayList<>();
+            final List<Integer> minutesOfWeek = new ArrayList<>();
+            for (SubscriptionScheduleEntity schedule : schedules) {
+                if (!schedule.getEnabled() || schedule.getSubscriptionEnabled() != subEnabled ||
+                        !schedule.getDaysOfWeek().isRepeating()) {
+                    continue;
+                }
+                final int minutesSinceMidnight = schedule.getTime().getHour() * 60 +
+                    schedule.getTime().getMinute();
+                for (int dayOfWeek = DayOfWeek.SUNDAY; dayOfWeek <= DayOfWeek.SATURDAY;
+                        dayOfWeek++) {
+                    if (schedule.getDaysOfWeek().isBitOn(dayOfWeek)) {
+                        occurrences.add(schedule);
+                        minutesOfWeek.add(EpochMinutes.getMinuteOfWeek(dayOfWeek,
+                                    minutesSinceMidnight));
+                    }
+                }
+            }
+
+            // Sort by minute of the week, then by ID to pick the same schedule on ties
+            final Integer[] order = new Integer[occurrences.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.<Integer>comparingInt(minutesOfWeek::get)
+                    .thenComparingLong((i) -> occurrences.get(i).getId()));
+
+            final int[] sortedMinutesOfWeek = new int[order.length];
+            final SubscriptionScheduleEntity[] sortedSchedules =
+                new SubscriptionScheduleEntity[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sortedMinutesOfWeek[i] = minutesOfWeek.get(order[i]);
+                sortedSchedules[i] = occurrences.get(order[i]);
+            }
+            return new Timeline(sortedMinutesOfWeek, sortedSchedules);
+        }
+
+        /**
+         * @return The schedule occurring on or after the minute of the week, wrapping around to the
+         * beginning of the week if needed, or {@code null} if there are no occurrences.
+         */
+        SubscriptionScheduleEntity findOnOrAfter(final int minuteOfWeek) {
+            if (mSchedules.length == 0) {
+                return null;
+            }
+            final int i = lowerBound(minuteOfWeek);
+            return mSchedules[i == mSchedules.length ? 0 : i];
+        }
+
+        /**
+         * @return The schedule occurring on or before the minute of the week, wrapping around to the
+         * end of the week if needed, or {@code null} if there are no occurrences.
+         */
+        SubscriptionScheduleEntity findOnOrBefore(final int minuteOfWeek) {
+            if (mSchedules.length == 0) {
+                return null;
+            }
+            // The nearest occurrence is the one right before the first occurrence after the minute
+            final int i = lowerBound(minuteOfWeek + 1) - 1;
+            return mSchedules[i < 0 ? mSchedules.length - 1 : i];
+        }
+
+        /**
+         * Collect the schedules occurring exactly at the minute of the week.
+         *
+         * @param minuteOfWeek The minute of the week.
+         * @param excludedId The ID of the schedule to skip.
+         * @param out The map to put the schedules into, keyed by their IDs.
+         */
+        void collectAt(final int minuteOfWeek, final long excludedId,
+                final Map<Long, SubscriptionScheduleEntity> out) {
+
+            for (int i = lowerBound(minuteOfWeek);
+                    i < mMinutesOfWeek.length && mMinutesOfWeek[i] == minuteOfWeek; i++) {
+                if (mSchedules[i].getId() != excludedId) {
+                    out.putIfAbsent(mSchedules[i].getId(), mSchedules[i]);
+                }
+            }
+        }
+
+        /**
+         * @return The number of minutes elapsed since the occurrence on or before the minute of the
+         * week, wrapping around to the end of the week if needed, or -1 if there are no
+         * occurrences.
+         */
+        int getDistanceOnOrBefore(final int minuteOfWeek) {
+            if (mMinutesOfWeek.length == 0) {
+                return -1;
+            }
+            final int i = lowerBound(minuteOfWeek + 1) - 1;
+            final int occurrence = mMinutesOfWeek[i < 0 ? mMinutesOfWeek.length - 1 : i];
+            return Math.floorMod(minuteOfWeek - occurrence, EpochMinutes.MINUTES_PER_WEEK);
+        }
+
+        /**
+         * @return The number of minutes left until the occurrence on or after the minute of the
+         * week, wrapping around to the beginning of the week if needed, or -1 if there are no
+         * occurrences.
+         */
+        int getDistanceOnOrAfter(final int minuteOfWeek) {
+            if (mMinutesOfWeek.length == 0) {
+                return -1;
+            }
+            final int i = lowerBound(minuteOfWeek);
+            final int occurrence = mMinutesOfWeek[i == mMinutesOfWeek.length ? 0 : i];
+            return Math.floorMod(occurrence - minuteOfWeek, EpochMinutes.MINUTES_PER_WEEK);
+        }
+
+        /**
+         * @return The index of the first occurrence on or after the minute of the week, or the
+         * number of occurrences if there's none.
+         */
+        private int lowerBound(final int minuteOfWeek) {
+            int low = 0, high = mMinutesOfWeek.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (mMinutesOfWeek[mid] < minuteOfWeek) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
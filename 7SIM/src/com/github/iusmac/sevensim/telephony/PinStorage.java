@@ -1,10 +1,13 @@
 package com.github.iusmac.sevensim.telephony;
 
 import android.app.KeyguardManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyProperties;
 import android.text.TextUtils;
+import android.util.SparseArray;
 
 import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
@@ -23,6 +26,7 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -65,6 +69,34 @@ public final class PinStorage {
     private final Lazy<Subscriptions> mSubscriptionsLazy;
     private final Lazy<NotificationManager> mNotificationManagerLazy;
 
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The token of the pending callback that will wipe the session cache once it expires.
+     */
+    private final Object mSessionCacheExpiryToken = new Object();
+
+    /**
+     * The clear PIN codes decrypted during the current user authentication session, keyed by
+     * subscription ID.
+     */
+    @GuardedBy("this")
+    private final SparseArray<CachedPin> mSessionCache = new SparseArray<>();
+
+    /**
+     * The {@link SystemClock#elapsedRealtime()}-based time, when the session cache expires.
+     */
+    @GuardedBy("this")
+    private long mSessionCacheExpiryMillis;
+
+    /** The secret key handle loaded from the {@link KeyStore}, if any. */
+    @GuardedBy("this")
+    private SecretKey mSecretKey;
+
+    /** The cipher instance reused across crypto operations, if any. */
+    @GuardedBy("this")
+    private Cipher mCipher;
+
     @Inject
     public PinStorage(final Logger.Factory loggerFactory, final AppDatabaseCE database,
             final Lazy<KeyguardManager> keyguardManagerLazy, final Lazy<KeyStore> keyStoreLazy,
@@ -89,6 +121,48 @@ public final class PinStorage {
         return mPinStorageDao.loadAll();
     }
 
+    /**
+     * <p>Retrieve the list containing decrypted SIM subscription PIN entities.
+     *
+     * <p>The clear PIN codes are served from an in-memory cache scoped to the user authentication
+     * validity window, so that consecutive calls don't need to go through the hardware-backed
+     * KeyStore. The entities missing from the cache are decrypted in a single batch, sharing the
+     * same secret key and cipher instance.
+     *
+     * @see #decrypt(PinEntity)
+     *
+     * @return The list of SIM subscription PIN entities, otherwise empty if no entities in the PIN
+     * storage. Entities that couldn't be decrypted are flagged as corrupted.
+     */
+    public synchronized @NonNull List<PinEntity> getDecryptedPinEntities() {
+        final List<PinEntity> pinEntities = getPinEntities();
+
+        final long nowMillis = SystemClock.elapsedRealtime();
+        if (nowMillis >= mSessionCacheExpiryMillis) {
+            clearSessionCache();
+        }
+
+        int cacheHits = 0;
+        for (PinEntity pinEntity : pinEntities) {
+            final CachedPin cachedPin = mSessionCache.get(pinEntity.getSubscriptionId());
+            if (cachedPin != null && cachedPin.matches(pinEntity)) {
+                pinEntity.setClearPin(new String(cachedPin.mClearPin, StandardCharsets.US_ASCII));
+                cacheHits++;
+            } else {
+                // Decryption replaces the ciphertext, so keep it for matching on next lookups
+                final byte[] data = pinEntity.getData();
+                if (decrypt(pinEntity)) {
+                    putInSessionCache(pinEntity, data, nowMillis);
+                }
+            }
+        }
+
+        mLogger.d("getDecryptedPinEntities() : count=%d,cacheHits=%d.", pinEntities.size(),
+                cacheHits);
+
+        return pinEntities;
+    }
+
     /**
      * Retrieve the SIM PIN entity for a SIM subscription ID from the storage.
      *
@@ -135,6 +209,7 @@ public final class PinStorage {
         if (id != -1L) { // -1 is returned when record has been updated
             pinEntity.setId(id);
         }
+        removeFromSessionCache(pinEntity.getSubscriptionId());
 
         mLogger.d("storePin(pinEntity=%s).", pinEntity);
     }
@@ -148,6 +223,7 @@ public final class PinStorage {
         mLogger.d("deletePin(pinEntity=%s).", pinEntity);
 
         mPinStorageDao.delete(pinEntity);
+        removeFromSessionCache(pinEntity.getSubscriptionId());
 
         if (getCount() == 0) {
             mLogger.d("deletePin() : No more PIN entities left - deleting the secret key...");
@@ -170,7 +246,7 @@ public final class PinStorage {
      * @param pinEntity The SIM PIN entity to be encrypted.
      * @return Whether the PIN entity instance has been successfully encrypted.
      */
-    public boolean encrypt(final PinEntity pinEntity) {
+    public synchronized boolean encrypt(final PinEntity pinEntity) {
         final String clearPin = pinEntity.getClearPin();
         if (TextUtils.isEmpty(clearPin)) {
             mLogger.e("encrypt(pinEntity=%s) : Clear PIN code is empty. Nothing to encrypt!",
@@ -183,12 +259,14 @@ public final class PinStorage {
             return false;
         }
         try {
-            final Cipher cipher = Cipher.getInstance(AES_TRANSFORMATION);
+            final Cipher cipher = getCipher();
             cipher.init(Cipher.ENCRYPT_MODE, secretKey);
             pinEntity.setData(cipher.doFinal(clearPin.getBytes(StandardCharsets.US_ASCII)));
             pinEntity.setIV(cipher.getIV());
         } catch (Exception e) {
             mLogger.e("encrypt(pinEntity=%s) : %s", pinEntity, e);
+            // Reload the secret key next time, as it may have been invalidated
+            mSecretKey = null;
             return false;
         }
         return true;
@@ -209,7 +287,7 @@ public final class PinStorage {
      * @param pinEntity The SIM PIN entity to be decrypted.
      * @return Whether the PIN entity has been successfully decrypted.
      */
-    public boolean decrypt(final @NonNull PinEntity pinEntity) {
+    public synchronized boolean decrypt(final @NonNull PinEntity pinEntity) {
         if (!pinEntity.isEncrypted()) {
             throw new RuntimeException("Attempting to decrypt an unencrypted entity!");
         }
@@ -225,7 +303,7 @@ public final class PinStorage {
             return false;
         }
         try {
-            final Cipher cipher = Cipher.getInstance(AES_TRANSFORMATION);
+            final Cipher cipher = getCipher();
             final GCMParameterSpec spec = new GCMParameterSpec(GCM_PARAMETER_TAG_BIT_LEN,
                     pinEntity.getIV());
             cipher.init(Cipher.DECRYPT_MODE, secretKey, spec);
@@ -233,6 +311,8 @@ public final class PinStorage {
                         StandardCharsets.US_ASCII));
         } catch (Exception e) {
             mLogger.e("decrypt(pinEntity=%s) : %s", pinEntity, e);
+            // Reload the secret key next time, as it may have been invalidated
+            mSecretKey = null;
             return false;
         }
         pinEntity.setCorrupted(false);
@@ -277,11 +357,90 @@ public final class PinStorage {
     }
 
     /**
-     * Return the existing, or create a new instance of the {@link SecretKey}.
+     * @return The cipher instance reused across crypto operations. Callers are expected to
+     * (re-)initialize it before use.
+     */
+    @GuardedBy("this")
+    private Cipher getCipher() throws Exception {
+        if (mCipher == null) {
+            mCipher = Cipher.getInstance(AES_TRANSFORMATION);
+        }
+        return mCipher;
+    }
+
+    /**
+     * Cache the clear PIN code of a decrypted SIM PIN entity until the end of the current user
+     * authentication session.
+     *
+     * @param pinEntity The decrypted SIM PIN entity.
+     * @param data The ciphertext the SIM PIN entity has been decrypted from.
+     * @param nowMillis The current {@link SystemClock#elapsedRealtime()}-based time.
+     */
+    @GuardedBy("this")
+    private void putInSessionCache(final PinEntity pinEntity, final byte[] data,
+            final long nowMillis) {
+
+        if (mSessionCache.size() == 0) {
+            // When the device isn't secured, there's no authentication session, so we bound the
+            // cache lifetime to the same validity duration starting from now
+            final long validityMillis = DEFAULT_AUTHENTICATION_VALIDITY_DURATION_SECONDS * 1000L;
+            if (mKeyguardManagerLazy.get().isDeviceSecure()) {
+                synchronized (PinStorage.class) {
+                    mSessionCacheExpiryMillis = sLastKeystoreAuthTimestamp + validityMillis;
+                }
+            } else {
+                mSessionCacheExpiryMillis = nowMillis + validityMillis;
+            }
+            if (mSessionCacheExpiryMillis <= nowMillis) {
+                return;
+            }
+            mHandler.postDelayed(this::clearSessionCache, mSessionCacheExpiryToken,
+                    mSessionCacheExpiryMillis - nowMillis);
+        }
+        removeFromSessionCache(pinEntity.getSubscriptionId());
+        mSessionCache.put(pinEntity.getSubscriptionId(), new CachedPin(data,
+                    pinEntity.getClearPin()));
+    }
+
+    /**
+     * Wipe the cached clear PIN code of a SIM subscription, if any.
+     *
+     * @param subId The subscription ID.
+     */
+    private synchronized void removeFromSessionCache(final int subId) {
+        final CachedPin cachedPin = mSessionCache.get(subId);
+        if (cachedPin != null) {
+            cachedPin.wipe();
+            mSessionCache.remove(subId);
+        }
+    }
+
+    /**
+     * Wipe all cached clear PIN codes.
+     */
+    private synchronized void clearSessionCache() {
+        mHandler.removeCallbacksAndMessages(mSessionCacheExpiryToken);
+        for (int i = 0; i < mSessionCache.size(); i++) {
+            mSessionCache.valueAt(i).wipe();
+        }
+        mSessionCache.clear();
+    }
+
+    /**
+     * Return the existing, or create a new instance of the {@link SecretKey}. The key handle is
+     * reused across calls until the key gets deleted or fails to be used.
      *
      * @return An instance of {@link SecretKey}.
      */
-    private SecretKey getOrCreateSecretKey() {
+    private synchronized SecretKey getOrCreateSecretKey() {
+        if (mSecretKey != null) {
+            return mSecretKey;
+        }
+        mSecretKey = getOrCreateSecretKeyInternal();
+        return mSecretKey;
+    }
+
+    private SecretKey getOrCreateSecretKeyInternal() {
         try {
             final SecretKey secretKey = loadSecretKey();
             if (secretKey != null) {
@@ -365,9 +524,12 @@ public final class PinStorage {
     /**
      * Delete the secret key entry in the Android's {@link KeyStore}.
      */
-    private void deleteSecretKey() {
+    private synchronized void deleteSecretKey() {
         mLogger.d("deleteSecretKey().");
 
+        mSecretKey = null;
+        clearSessionCache();
+
         try {
             mKeyStoreLazy.get().deleteEntry(KEYSTORE_ALIAS);
         } catch (KeyStoreException e) {
@@ -398,6 +560,28 @@ public final class PinStorage {
         sLastKeystoreAuthTimestamp = timestamp;
     }
 
+    /** The clear PIN code of a SIM PIN entity along with the ciphertext it was decrypted from. */
+    private static final class CachedPin {
+        final byte[] mData;
+        final byte[] mClearPin;
+
+        CachedPin(final byte[] data, final String clearPin) {
+            mData = data;
+            mClearPin = clearPin.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * @return Whether the cached clear PIN code still belongs to the encrypted SIM PIN entity.
+         */
+        boolean matches(final PinEntity pinEntity) {
+            return !pinEntity.isCorrupted() && Arrays.equals(mData, pinEntity.getData());
+        }
+
+        void wipe() {
+            Arrays.fill(mClearPin, (byte) 0);
+        }
+    }
+
     /** Nested class to suppress warning only for API methods annotated as Deprecated. */
     @SuppressWarnings("deprecation")
     private static final class ApiDeprecated {
@@ -27,15 +27,28 @@ import java.util.List;
  * <p>This class will attempt to unlock all enabled SIM cards currently available in the system
  * using {@link PinEntity}s passed in when constructing this class via {@link Factory#create(List)}.
  *
- * <p>The work will be offloaded onto a separate thread after invoking the {@link #start()} method.
- * It's possible to start slightly before the SIM cards are in {@code PIN_REQUIRED} state; if
- * necessary, we'll wait a maximum of 10 seconds for them to enter into the PIN state.
+ * <p>The work will be offloaded onto a separate thread after invoking the {@link #start()} method,
+ * which in turn processes each SIM card independently and concurrently on its own thread, so that
+ * the whole work lasts as long as the slowest SIM card. It's possible to start slightly before the
+ * SIM cards are in {@code PIN_REQUIRED} state; if necessary, we'll wait a maximum of 10 seconds
+ * since the last state change of each SIM card for it to enter into the PIN state.
  */
 public final class SimPinFeeder extends Thread {
-    private boolean mSimStatusChanged;
+    /**
+     * The maximum time to wait for more state change events of a SIM card before giving up on it.
+     * Normally, these events are delivered within a second, but in some edge cases, such as under
+     * high memory pressure, delivery may be delayed even by 2-3 seconds. This also serves as a
+     * "window" to give time to the SIM card to enter the PIN state in case we started slightly
+     * earlier.
+     */
+    private static final long SIM_STATUS_CHANGE_TIMEOUT_MILLIS = 10_000L;
+
+    /** The outcome of unlocking a single SIM card. */
+    private enum Result { PENDING, UNLOCKED, INCORRECT_PIN, ABORTED, FAILED, TIMED_OUT, CANCELLED }
+
     private volatile boolean mReleased;
     private final SparseArrayCompat<PinEntity> mPinEntities;
-    private final SparseArrayCompat<SimCard> mSimCardsCache = new SparseArrayCompat<>();
+    private final SlotFeeder[] mSlotFeeders;
 
     private final Logger mLogger;
     private final Subscriptions mSubscriptions;
@@ -43,6 +56,8 @@ public final class SimPinFeeder extends Thread {
     private final Lazy<PinStorage> mPinStorageLazy;
     private final Lazy<NotificationManager> mNotificationManagerLazy;
 
+    private final OnSimStatusChangedListener mSimStatusChangedListener = this::onSimStatusChanged;
+
     @AssistedInject
     SimPinFeeder(final Logger.Factory loggerFactory, final Subscriptions subscriptions,
             final TelephonyUtils telephonyUtils, final TelephonyManager telephonyManager,
@@ -56,7 +71,7 @@ public final class SimPinFeeder extends Thread {
         mPinStorageLazy = pinStorageLazy;
         mNotificationManagerLazy = notificationManagerLazy;
 
-        // Convert to a sparse array for easier mutation and querying by subscription ID
+        // Convert to a sparse array for easier querying by subscription ID
         mPinEntities = new SparseArrayCompat<>(decryptedPinEntities.size());
         for (final PinEntity pinEntity : decryptedPinEntities) {
             if (pinEntity.isCorrupted() || pinEntity.isEncrypted()) {
@@ -64,6 +79,11 @@ public final class SimPinFeeder extends Thread {
             }
             mPinEntities.put(pinEntity.getSubscriptionId(), pinEntity);
         }
+
+        mSlotFeeders = new SlotFeeder[mPinEntities.size()];
+        for (int i = 0; i < mSlotFeeders.length; i++) {
+            mSlotFeeders[i] = new SlotFeeder(mPinEntities.valueAt(i));
+        }
     }
 
     @Override
@@ -77,156 +97,192 @@ public final class SimPinFeeder extends Thread {
 
         mLogger.d("mPinEntities: %s", mPinEntities);
 
-        final SimStatusChangedListener simStatusChangedListener = new SimStatusChangedListener();
-        mSubscriptions.addOnSimStatusChangedListener(simStatusChangedListener);
-
-        threadLoop:
-        while (!mReleased) {
-            refreshSimCardCacheList();
-
-            unlockAllSimCardsLoop:
-            for (int i = 0, size = mSimCardsCache.size(); !mReleased && i < size &&
-                    mPinEntities.size() > 0; i++) {
-                final SimCard simCard = mSimCardsCache.valueAt(i);
-                PinEntity pinEntity = mPinEntities.get(simCard.getSubId());
-
-                mLogger.v("Processing %s with PIN: %s.", simCard, pinEntity);
-
-                if (pinEntity != null && simCard.isPinRequired()) {
-                    // The SIM card is locked and requires the user's SIM PIN to unlock, but the
-                    // remaining PIN attempt counter doesn't equal to 3, which means the user is
-                    // racing with us and may have already tried to unlock the SIM card and made a
-                    // mistake, or this could be another request to unlock all SIM cards that had
-                    // previously failed, possibly due to an incorrect SIM PIN the user has provided
-                    // to us. In any case, we absolutely want to *STOP* here in order to prevent
-                    // things from getting critical, like putting the device into the PUK state
-                    if (simCard.getPinAttemptsRemaining() < 3) {
-                        mLogger.w("Aborting SIM unlock to avoid blocking SIM PIN for: %s.",
-                                simCard);
-                        pinEntity = null;
-                        mPinEntities.remove(simCard.getSubId());
-                        continue unlockAllSimCardsLoop;
-                    }
+        mSubscriptions.addOnSimStatusChangedListener(mSimStatusChangedListener);
+        try {
+            for (final SlotFeeder slotFeeder : mSlotFeeders) {
+                slotFeeder.start();
+            }
+            for (final SlotFeeder slotFeeder : mSlotFeeders) {
+                slotFeeder.join();
+            }
+        } catch (InterruptedException ignored) {
+            mLogger.w("Interrupted while waiting for the SIM cards to be processed.");
+        } finally {
+            mSubscriptions.removeOnSimStatusChangedListener(mSimStatusChangedListener);
+        }
 
-                    retrySupplyPinLoop:
-                    for (int retries = 1; retries <= 3; retries++) {
-                        final PinResultWrapper result = simCard.supplyPin(pinEntity.getClearPin());
-
-                        mLogger.d("Attempted to unlock %s with %s.", simCard, result);
-
-                        switch (result.getResult()) {
-                            case PinResultWrapper.PIN_RESULT_TYPE_SUCCESS:
-                                // Persist on disk the PIN that was marked as invalid the last time
-                                // it was used, which is now valid
-                                if (pinEntity.isInvalid()) {
-                                    mPinStorageLazy.get().getPin(pinEntity.getSubscriptionId())
-                                        .ifPresent((encryptedPin) -> {
-                                            encryptedPin.setInvalid(false);
-                                            mPinStorageLazy.get().storePin(encryptedPin);
-                                        });
-                                }
-                                break;
+        final StringBuilder results = new StringBuilder();
+        for (final SlotFeeder slotFeeder : mSlotFeeders) {
+            results.append(' ').append(slotFeeder.mPinEntity.getSubscriptionId()).append('=')
+                .append(slotFeeder.mResult);
+        }
+        mLogger.d("Finished. Results:%s.", results);
+    }
 
-                            case PinResultWrapper.PIN_RESULT_TYPE_INCORRECT:
-                                // Detected an incorrect SIM PIN code. Mark it as such and delegate
-                                // to the PIN storage to do its job
-                                pinEntity.setInvalid(true);
-                                mPinStorageLazy.get().handleBadPinEntity(pinEntity);
-                                break;
+    /** Gracefully stop unlocking the remaining SIM cards. */
+    public void cancel() {
+        mLogger.d("cancel().");
 
-                            default:
-                                mLogger.w("Retry attempt %d of 3 failed to unlock SIM card: %s.",
-                                        retries, simCard);
-                                // No idea what this was and no way to find out. Retrying... :/
-                                continue retrySupplyPinLoop;
-                        }
+        mReleased = true;
+        for (final SlotFeeder slotFeeder : mSlotFeeders) {
+            slotFeeder.interrupt();
+        }
+        interrupt();
+    }
 
-                        // PIN entity has been successfully supplied -- dropping it
-                        pinEntity = null;
-                        mPinEntities.remove(simCard.getSubId());
-                        break retrySupplyPinLoop;
-                    }
+    private void onSimStatusChanged(final int slotIndex,
+            final @TelephonyManager.SimState int state) {
 
-                    // For unknown reasons, the SIM card unlock failed -- at least notify the user
-                    if (pinEntity != null) {
-                        mLogger.e("Failed to unlock SIM card %s with PIN %s.", simCard, pinEntity);
+        mLogger.v("onSimStatusChanged(slotIndex=%d,state=%d).", slotIndex, state);
 
-                        mNotificationManagerLazy.get()
-                            .showSimPinOperationFailedNotification(simCard.getSubscription());
-                        mPinEntities.remove(simCard.getSubId());
-                    }
-                }
+        for (final SlotFeeder slotFeeder : mSlotFeeders) {
+            // Also wake up the SIM cards whose slot we don't know yet, as it could be theirs
+            final int feederSlotIndex = slotFeeder.mSlotIndex;
+            if (feederSlotIndex == slotIndex ||
+                    feederSlotIndex == SubscriptionManager.INVALID_SIM_SLOT_INDEX) {
+                slotFeeder.onSimStatusChanged();
             }
+        }
+    }
 
-            // We finish at this point since we've consumed all the usable PIN entities we had, and
-            // no more SIM cards can be unlocked
-            if (mPinEntities.isEmpty()) {
-                break threadLoop;
-            }
+    /**
+     * The thread supplying the SIM PIN code to the SIM card of a single subscription, i.e. a
+     * single SIM slot, as soon as it requires it.
+     */
+    private final class SlotFeeder extends Thread {
+        final PinEntity mPinEntity;
+        volatile int mSlotIndex = SubscriptionManager.INVALID_SIM_SLOT_INDEX;
+        volatile Result mResult = Result.PENDING;
 
-            if (!mReleased) {
-                // Wait to be notified about new SIM state changes or finish on timeout
-                synchronized (simStatusChangedListener) {
-                    if (!mSimStatusChanged) {
-                        long nowMillis = System.currentTimeMillis();
-                        // Note that for reliability, we want to wait a maximum of 10 seconds for
-                        // more SIM card state change events before finishing. Normally, these
-                        // events are delivered within a second, but in some edge cases, such as
-                        // under high memory pressure, delivery may be delayed even by 2-3 seconds.
-                        // This also serves as a "window" to give time to the SIM cards to enter the
-                        // PIN state in case we started slightly earlier
-                        final long deltaMillis = nowMillis + 10_000L;
-                        do {
-                            try {
-                                simStatusChangedListener.wait(deltaMillis - nowMillis);
-                            } catch (InterruptedException ignored) {
-                                if (mReleased) {
-                                    break threadLoop;
-                                }
-                            }
-                            nowMillis = System.currentTimeMillis();
-                        } while (!mSimStatusChanged && nowMillis < deltaMillis);
+        private SimCard mSimCard;
+        private boolean mSimStatusChanged;
+
+        SlotFeeder(final PinEntity pinEntity) {
+            super(SimPinFeeder.class.getSimpleName() + "-" + pinEntity.getSubscriptionId());
+            mPinEntity = pinEntity;
+        }
+
+        @Override
+        public void run() {
+            long deadlineMillis = System.currentTimeMillis() + SIM_STATUS_CHANGE_TIMEOUT_MILLIS;
+            while (!mReleased) {
+                synchronized (this) {
+                    mSimStatusChanged = false;
+                }
+
+                final SimCard simCard = refreshSimCard();
+
+                mLogger.v("Processing %s with PIN: %s.", simCard, mPinEntity);
 
-                        if (!mSimStatusChanged) {
-                            // Timed out. No more events
-                            break threadLoop;
+                if (simCard != null && simCard.isPinRequired()) {
+                    mResult = unlock(simCard);
+                    return;
+                }
+
+                // Wait to be notified about new state changes of this SIM card or finish on timeout
+                synchronized (this) {
+                    long nowMillis = System.currentTimeMillis();
+                    while (!mSimStatusChanged && nowMillis < deadlineMillis) {
+                        try {
+                            wait(deadlineMillis - nowMillis);
+                        } catch (InterruptedException ignored) {
+                            if (mReleased) {
+                                break;
+                            }
                         }
+                        nowMillis = System.currentTimeMillis();
+                    }
+
+                    if (!mSimStatusChanged && !mReleased) {
+                        // Timed out. No more events
+                        mResult = Result.TIMED_OUT;
+                        return;
                     }
-                    mSimStatusChanged = false;
                 }
+                deadlineMillis = System.currentTimeMillis() + SIM_STATUS_CHANGE_TIMEOUT_MILLIS;
             }
+            mResult = Result.CANCELLED;
         }
 
-        mSubscriptions.removeOnSimStatusChangedListener(simStatusChangedListener);
-
-        mLogger.d("Finished.");
-    }
-
-    /** Gracefully stop unlocking the remaining SIM cards. */
-    public void cancel() {
-        mLogger.d("cancel().");
+        synchronized void onSimStatusChanged() {
+            mSimStatusChanged = true;
+            notify();
+        }
 
-        mReleased = true;
-        interrupt();
-    }
+        /**
+         * @return The SIM card of the subscription if currently enabled, otherwise {@code null}.
+         */
+        private SimCard refreshSimCard() {
+            final int subId = mPinEntity.getSubscriptionId();
+            final Subscription sub = mSubscriptions.getSubscriptionForSubId(subId).orElse(null);
+            if (sub == null || !sub.isSimEnabled()) {
+                mSimCard = null;
+                return null;
+            }
+            mSlotIndex = sub.getSlotIndex();
+            if (mSimCard == null) {
+                mSimCard = new SimCard(sub, mTelephonyManager.createForSubscriptionId(subId));
+            }
+            return mSimCard;
+        }
 
-    /** Refresh the list of currently enabled SIM cards in the system. */
-    private void refreshSimCardCacheList() {
-        mLogger.d("refreshSimCardCacheList().");
+        /**
+         * Supply the SIM PIN code to the SIM card that requires it.
+         *
+         * @param simCard The locked SIM card.
+         * @return The outcome of the unlock attempt.
+         */
+        private Result unlock(final SimCard simCard) {
+            // The SIM card is locked and requires the user's SIM PIN to unlock, but the remaining
+            // PIN attempt counter doesn't equal to 3, which means the user is racing with us and
+            // may have already tried to unlock the SIM card and made a mistake, or this could be
+            // another request to unlock all SIM cards that had previously failed, possibly due to
+            // an incorrect SIM PIN the user has provided to us. In any case, we absolutely want to
+            // *STOP* here in order to prevent things from getting critical, like putting the
+            // device into the PUK state
+            if (simCard.getPinAttemptsRemaining() < 3) {
+                mLogger.w("Aborting SIM unlock to avoid blocking SIM PIN for: %s.", simCard);
+                return Result.ABORTED;
+            }
 
-        for (final Subscription sub : mSubscriptions) {
-            final int subId = sub.getId();
+            for (int retries = 1; retries <= 3; retries++) {
+                final PinResultWrapper result = simCard.supplyPin(mPinEntity.getClearPin());
+
+                mLogger.d("Attempted to unlock %s with %s.", simCard, result);
+
+                switch (result.getResult()) {
+                    case PinResultWrapper.PIN_RESULT_TYPE_SUCCESS:
+                        // Persist on disk the PIN that was marked as invalid the last time it was
+                        // used, which is now valid
+                        if (mPinEntity.isInvalid()) {
+                            mPinStorageLazy.get().getPin(mPinEntity.getSubscriptionId())
+                                .ifPresent((encryptedPin) -> {
+                                    encryptedPin.setInvalid(false);
+                                    mPinStorageLazy.get().storePin(encryptedPin);
+                                });
+                        }
+                        return Result.UNLOCKED;
 
-            mLogger.v("refreshSimCardCacheList() : Processing %s.", sub);
+                    case PinResultWrapper.PIN_RESULT_TYPE_INCORRECT:
+                        // Detected an incorrect SIM PIN code. Mark it as such and delegate to the
+                        // PIN storage to do its job
+                        mPinEntity.setInvalid(true);
+                        mPinStorageLazy.get().handleBadPinEntity(mPinEntity);
+                        return Result.INCORRECT_PIN;
 
-            if (sub.isSimEnabled()) {
-                if (!mSimCardsCache.containsKey(subId)) {
-                    final TelephonyManager tm = mTelephonyManager.createForSubscriptionId(subId);
-                    mSimCardsCache.put(subId, new SimCard(sub, tm));
+                    default:
+                        mLogger.w("Retry attempt %d of 3 failed to unlock SIM card: %s.", retries,
+                                simCard);
+                        // No idea what this was and no way to find out. Retrying... :/
                 }
-            } else {
-                mSimCardsCache.remove(subId);
             }
+
+            // For unknown reasons, the SIM card unlock failed -- at least notify the user
+            mLogger.e("Failed to unlock SIM card %s with PIN %s.", simCard, mPinEntity);
+
+            mNotificationManagerLazy.get()
+                .showSimPinOperationFailedNotification(simCard.getSubscription());
+            return Result.FAILED;
         }
     }
 
@@ -316,24 +372,6 @@ public final class SimPinFeeder extends Thread {
         }
     }
 
-    /**
-     * The callback listener that will notify of changes to the {@link TelephonyManager.SimState}
-     * for all available SIM cards when waiting on the instance of this object's monitor.
-     */
-    private final class SimStatusChangedListener implements OnSimStatusChangedListener {
-        @Override
-        public void onSimStatusChanged(final int slotIndex,
-                final @TelephonyManager.SimState int state) {
-
-            mLogger.v("onSimStatusChanged(slotIndex=%d,state=%d).", slotIndex, state);
-
-            synchronized (this) {
-                mSimStatusChanged = true;
-                notify();
-            }
-        }
-    }
-
     /**
      * Factory to create {@link SimPinFeeder} instances via the {@link AssistedInject} constructor.
      */
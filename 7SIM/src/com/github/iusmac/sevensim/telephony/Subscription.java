@@ -127,6 +127,22 @@ public final class Subscription implements Parcelable {
         return mSimState == SimState.ENABLED;
     }
 
+    /**
+     * @return A new instance holding the same data as this subscription.
+     */
+    public @NonNull Subscription copy() {
+        final Subscription sub = new Subscription();
+        sub.mId = mId;
+        sub.mSlotIndex = mSlotIndex;
+        sub.mSimState = mSimState;
+        sub.mIconTint = mIconTint;
+        sub.mName = mName;
+        sub.mLastActivatedTime = mLastActivatedTime;
+        sub.mLastDeactivatedTime = mLastDeactivatedTime;
+        sub.mKeepDisabledAcrossBoots = mKeepDisabledAcrossBoots;
+        return sub;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
@@ -0,0 +1,317 @@
+package com.github.iusmac.sevensim.telephony;
+
+import android.text.TextUtils;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+
+import androidx.annotation.NonNull;
+
+import com.github.iusmac.sevensim.Logger;
+import com.github.iusmac.sevensim.SysProp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * <p>This class is responsible for keeping the volatile state of all SIM subscriptions, i.e. their
+ * last known {@link SimState} and whether they are usable, which is used to detect alterations
+ * made from outside the app.
+ *
+ * <p>The whole state is packed in a single non-persistent system property, so that it survives the
+ * process death, but not the device reboot. The system property is read once and then served from
+ * memory, while changes are written back with a single write, skipped if nothing has changed.
+ * Multiple changes can be written at once using {@link #beginBatch()} and {@link #endBatch()}.
+ *
+ * <p>The record has the form "{@value #RECORD_VERSION};{subId}:{state}[:u],...", where the "u"
+ * flag marks a usable SIM subscription.
+ */
+@Singleton
+public final class SubscriptionStateStore {
+    /** The version of the record format. */
+    private static final String RECORD_VERSION = "1";
+
+    /**
+     * The maximum length of a system property value, as per PROP_VALUE_MAX in
+     * system_properties.h, excluding the terminating null character.
+     */
+    private static final int PROP_VALUE_MAX_LENGTH = 91;
+
+    /** The flag marking a usable SIM subscription. */
+    private static final String USABLE_FLAG = "u";
+
+    private final Logger mLogger;
+    private final SysProp mSubscriptionStatesSysProp;
+    private final SysProp mLegacySubscriptionStateSysProp;
+    private final SysProp mLegacyUsableSubIdsSysProp;
+
+    /** The SIM subscription states other than {@link SimState#UNKNOWN}, keyed by ID. */
+    private final SparseIntArray mStates = new SparseIntArray();
+
+    /** The usable SIM subscription IDs. */
+    private final SparseBooleanArray mUsableSubIds = new SparseBooleanArray();
+
+    /** The record as it was last read or written, if any. */
+    private String mRecord;
+
+    private boolean mLoaded;
+    private int mBatchDepth;
+    private int mWriteCount;
+    private int mSkippedWriteCount;
+
+    @Inject
+    public SubscriptionStateStore(final Logger.Factory loggerFactory,
+            final @Named("Telephony/SubStates") SysProp subStatesSysProp,
+            final @Named("Telephony/SubState") SysProp legacySubStateSysProp,
+            final @Named("Telephony/UsableSubIds") SysProp legacyUsableSubIdsSysProp) {
+
+        mLogger = loggerFactory.create(getClass().getSimpleName());
+        mSubscriptionStatesSysProp = subStatesSysProp;
+        mLegacySubscriptionStateSysProp = legacySubStateSysProp;
+        mLegacyUsableSubIdsSysProp = legacyUsableSubIdsSysProp;
+    }
+
+    /**
+     * Get the SIM subscription state.
+     *
+     * @param subId The corresponding SIM subscription ID.
+     * @return The SIM subscription state or {@link SimState#UNKNOWN}.
+     */
+    public synchronized @SimState int getSubscriptionState(final int subId) {
+        load();
+        return mStates.get(subId, SimState.UNKNOWN);
+    }
+
+    /**
+     * Set the SIM subscription state.
+     *
+     * @param subId The corresponding SIM subscription ID.
+     * @param state One of {@link SimState}s.
+     */
+    public synchronized void setSubscriptionState(final int subId, final @SimState int state) {
+        load();
+        if (state == SimState.UNKNOWN) {
+            mStates.delete(subId);
+        } else {
+            mStates.put(subId, state);
+        }
+        commit();
+    }
+
+    /**
+     * Get the usable SIM subscription IDs.
+     *
+     * @return A list of usable SIM subscription IDs in ascending order.
+     */
+    public synchronized @NonNull List<Integer> getUsableSubscriptionIds() {
+        load();
+        final List<Integer> subIds = new ArrayList<>(mUsableSubIds.size());
+        for (int i = 0, size = mUsableSubIds.size(); i < size; i++) {
+            subIds.add(mUsableSubIds.keyAt(i));
+        }
+        return subIds;
+    }
+
+    /**
+     * Set the usable SIM subscription IDs.
+     *
+     * @param subIds The usable SIM subscription IDs.
+     */
+    public synchronized void setUsableSubscriptionIds(final @NonNull Collection<Integer> subIds) {
+        load();
+        mUsableSubIds.clear();
+        for (int subId : subIds) {
+            mUsableSubIds.put(subId, true);
+        }
+        commit();
+    }
+
+    /**
+     * Defer writing changes until the matching {@link #endBatch()}. Batches can be nested.
+     */
+    public synchronized void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Write all changes made since the matching {@link #beginBatch()}, unless nested into another
+     * batch.
+     */
+    public synchronized void endBatch() {
+        if (mBatchDepth == 0) {
+            throw new IllegalStateException("endBatch() called without beginBatch()");
+        }
+        mBatchDepth--;
+        commit();
+    }
+
+    /**
+     * Read the record, if not already done.
+     */
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        final Optional<String> record = mSubscriptionStatesSysProp.get(Optional.empty());
+        if (record.isPresent()) {
+            mRecord = record.get();
+            if (!parse(mRecord)) {
+                mLogger.e("load() : Invalid record: %s.", mRecord);
+                mStates.clear();
+                mUsableSubIds.clear();
+            }
+        } else {
+            migrateLegacyState();
+        }
+
+        mLogger.d("load() : states=%s,usableSubIds=%s.", mStates, mUsableSubIds);
+    }
+
+    /**
+     * Parse the record into memory.
+     *
+     * @param record The record to parse.
+     * @return {@code true} if the record is valid, {@code false} otherwise.
+     */
+    private boolean parse(final String record) {
+        final String[] parts = TextUtils.split(record, ";");
+        if (parts.length != 2 || !RECORD_VERSION.equals(parts[0])) {
+            return false;
+        }
+        if (parts[1].isEmpty()) {
+            return true;
+        }
+        try {
+            for (String entry : TextUtils.split(parts[1], ",")) {
+                final String[] fields = TextUtils.split(entry, ":");
+                if (fields.length < 2 || fields.length > 3) {
+                    return false;
+                }
+                final int subId = Integer.parseInt(fields[0]);
+                final int state = Integer.parseInt(fields[1]);
+                switch (state) {
+                    case SimState.ENABLED:
+                    case SimState.DISABLED:
+                        mStates.put(subId, state);
+                        break;
+
+                    case SimState.UNKNOWN:
+                        break;
+
+                    default:
+                        return false;
+                }
+                if (fields.length == 3) {
+                    if (!USABLE_FLAG.equals(fields[2])) {
+                        return false;
+                    }
+                    mUsableSubIds.put(subId, true);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Take over the state persisted in the per-subscription system properties used by previous
+     * versions of the app, so that an app update without a reboot won't lose track of it.
+     */
+    private void migrateLegacyState() {
+        final String[] subIds = mLegacyUsableSubIdsSysProp.get(Optional.empty()).map((str) ->
+                TextUtils.split(str, ",")).orElseGet(() -> new String[]{});
+        for (String subId : subIds) {
+            try {
+                final int subIdInt = Integer.parseInt(subId);
+                mUsableSubIds.put(subIdInt, true);
+
+                mLegacySubscriptionStateSysProp.get(Optional.empty(), subIdInt).ifPresent((val) -> {
+                    final int state = Integer.parseInt(val);
+                    if (state == SimState.ENABLED || state == SimState.DISABLED) {
+                        mStates.put(subIdInt, state);
+                    }
+                });
+            } catch (NumberFormatException e) {
+                mLogger.e("migrateLegacyState() : Invalid legacy state for subscription ID: %s.",
+                        subId);
+            }
+        }
+    }
+
+    /**
+     * Write the record, unless batching or nothing has changed.
+     */
+    private void commit() {
+        if (mBatchDepth > 0) {
+            return;
+        }
+
+        String record = serialize(/*includeUnusable=*/ true);
+        if (record.length() > PROP_VALUE_MAX_LENGTH) {
+            // Keeping track of the usable SIM subscriptions matters the most
+            record = serialize(/*includeUnusable=*/ false);
+            if (record.length() > PROP_VALUE_MAX_LENGTH) {
+                mLogger.e("commit() : Record is too long: %s.", record);
+                return;
+            }
+        }
+
+        if (record.equals(mRecord)) {
+            mSkippedWriteCount++;
+            return;
+        }
+
+        mSubscriptionStatesSysProp.set(Optional.of(record));
+        mRecord = record;
+        mWriteCount++;
+
+        mLogger.d("commit() : Wrote %s (writes=%d,skippedWrites=%d).", record, mWriteCount,
+                mSkippedWriteCount);
+    }
+
+    /**
+     * Serialize the state into a record.
+     *
+     * @param includeUnusable Whether to include the unusable SIM subscriptions.
+     */
+    private String serialize(final boolean includeUnusable) {
+        final StringBuilder builder = new StringBuilder(PROP_VALUE_MAX_LENGTH);
+        builder.append(RECORD_VERSION).append(';');
+
+        // Both arrays are sorted by ID, so merge them into a single sorted list of entries
+        int i = 0, j = 0;
+        boolean first = true;
+        while (i < mStates.size() || j < mUsableSubIds.size()) {
+            final int stateSubId = i < mStates.size() ? mStates.keyAt(i) : Integer.MAX_VALUE;
+            final int usableSubId = j < mUsableSubIds.size() ? mUsableSubIds.keyAt(j) :
+                Integer.MAX_VALUE;
+            final int subId = Math.min(stateSubId, usableSubId);
+            final int state = subId == stateSubId ? mStates.valueAt(i++) : SimState.UNKNOWN;
+            final boolean isUsable = subId == usableSubId;
+            if (isUsable) {
+                j++;
+            }
+            if (!isUsable && !includeUnusable) {
+                continue;
+            }
+
+            if (!first) {
+                builder.append(',');
+            }
+            first = false;
+            builder.append(subId).append(':').append(state);
+            if (isUsable) {
+                builder.append(':').append(USABLE_FLAG);
+            }
+        }
+        return builder.toString();
+    }
+}
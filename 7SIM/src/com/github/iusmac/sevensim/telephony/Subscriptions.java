@@ -4,10 +4,12 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
-import android.text.TextUtils;
 
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
@@ -18,23 +20,21 @@ import com.android.internal.telephony.PhoneConstants;
 
 import com.github.iusmac.sevensim.AppDatabaseDE;
 import com.github.iusmac.sevensim.Logger;
-import com.github.iusmac.sevensim.SysProp;
 import com.github.iusmac.sevensim.Utils;
 
 import dagger.hilt.android.qualifiers.ApplicationContext;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
-import javax.inject.Named;
-
 /**
  * <p>Basic implementation used to provide all business-related information about available
  * subscriptions found on the device using {@link SubscriptionManager}.
@@ -48,10 +48,26 @@ import javax.inject.Named;
  * iterating over this class, which provides an {@link Iterable} interface, or by calling
  * appropriate public APIs.
  *
+ * <p>All events are dispatched to the listeners on a dedicated background thread. Bursts of
+ * subscription changes, like those emitted during boot or SIM hot-swap, are coalesced into a single
+ * {@link SubscriptionsDiff}.
+ *
  * @see SubscriptionsImpl
  * @see SubscriptionsImplLegacy
  */
 public abstract class Subscriptions implements Iterable<Subscription> {
+    /** The time window within which the subscription changes are coalesced. */
+    private static final long SUBSCRIPTIONS_CHANGED_COALESCING_WINDOW_MILLIS = 300;
+
+    /** The handler of the thread on which all events are dispatched to the listeners. */
+    private static final Handler sDispatchHandler;
+    static {
+        final HandlerThread handlerThread = new HandlerThread(Subscriptions.class.getSimpleName()
+                + "DispatchThread", Process.THREAD_PRIORITY_BACKGROUND);
+        handlerThread.start();
+        sDispatchHandler = new Handler(handlerThread.getLooper());
+    }
+
     /**
      * The list of interested clients that are notified of changes to the subscriptions data.
      */
@@ -105,29 +121,70 @@ public abstract class Subscriptions implements Iterable<Subscription> {
      */
     final AtomicBoolean mBlockSubscriptionsSyncFlag = new AtomicBoolean();
 
+    /**
+     * The version of the subscription data, which is incremented whenever subscriptions may have
+     * changed, thus invalidating the {@link #mSnapshot}.
+     */
+    private final AtomicLong mSnapshotVersion = new AtomicLong();
+
+    /** The last built snapshot of all available subscriptions, if any. */
+    private volatile Snapshot mSnapshot;
+
+    /** The lock guarding the start and stop of the {@link #mSnapshot} tracking. */
+    private final Object mSnapshotTrackingLock = new Object();
+
+    /**
+     * Whether we're tracking the events that invalidate the {@link #mSnapshot}, which we only do
+     * while there's at least one external listener. Otherwise, the snapshot is rebuilt on every
+     * access.
+     */
+    private volatile boolean mSnapshotTracking;
+
+    /**
+     * The internal listeners keeping the event sources registered while the {@link #mSnapshot} is
+     * being tracked. Note that the snapshot is invalidated as soon as the events arrive, rather
+     * than when the coalesced subscription changes are dispatched.
+     */
+    private final OnSubscriptionsChangedListener mSnapshotSubscriptionsChangedListener =
+        (diff) -> {};
+    private final OnSimStatusChangedListener mSnapshotSimStatusChangedListener =
+        (slotIndex, state) -> invalidateSnapshot();
+
+    /**
+     * Atomic flag indicating whether the next subscription changes dispatch should notify the
+     * listeners even if no subscription has changed.
+     */
+    private final AtomicBoolean mForceSubscriptionsChangedDispatch = new AtomicBoolean();
+
+    /**
+     * The subscriptions as of the last dispatch, against which the next {@link SubscriptionsDiff}
+     * is computed. This is only accessed on the dispatch thread.
+     */
+    private List<Subscription> mLastDispatchedSubscriptions = Collections.emptyList();
+
+    private final Runnable mSubscriptionsChangedDispatchRunnable =
+        this::dispatchOnSubscriptionsChanged;
+
     private final Context mContext;
     protected final Logger mLogger;
     protected final SubscriptionManager mSubscriptionManager;
-    private final SysProp mSubscriptionStateSysProp;
-    private final SysProp mUsableSubIdsSysProp;
+    private final SubscriptionStateStore mSubscriptionStateStore;
     protected final SubscriptionsDao mSubscriptionsDao;
 
     public Subscriptions(final @ApplicationContext Context context,
             final Logger.Factory loggerFactory, final AppDatabaseDE appDatabase,
             final SubscriptionManager subscriptionManager,
-            final @Named("Telephony/SubState") SysProp subStateSysProp,
-            final @Named("Telephony/UsableSubIds") SysProp usableSimSubIdsSysProp) {
+            final SubscriptionStateStore subscriptionStateStore) {
 
         mContext = context;
         mLogger = loggerFactory.create(getClass().getSimpleName());
         mSubscriptionManager = subscriptionManager;
-        mSubscriptionStateSysProp = subStateSysProp;
-        mUsableSubIdsSysProp = usableSimSubIdsSysProp;
+        mSubscriptionStateStore = subscriptionStateStore;
         mSubscriptionsDao = appDatabase.subscriptionsDao();
 
         // We use hidden API to create listener with a custom looper before Android 11.0 (R), on
         // newer versions, we can register the listener with a custom executor via
-        // SubscriptionsImpl#addOnSubscriptionsChangedListener()
+        // SubscriptionManager#addOnSubscriptionsChangedListener()
         if (Utils.IS_AT_LEAST_R) {
             mSubscriptionManagerListener =
             new SubscriptionManager.OnSubscriptionsChangedListener() {
@@ -138,7 +195,8 @@ public abstract class Subscriptions implements Iterable<Subscription> {
             };
         } else {
             mSubscriptionManagerListener =
-                new SubscriptionManager.OnSubscriptionsChangedListener(mContext.getMainLooper()) {
+                new SubscriptionManager.OnSubscriptionsChangedListener(
+                        sDispatchHandler.getLooper()) {
                     @Override
                     public void onSubscriptionsChanged() {
                         dispatchOnSubscriptionInfoRecordsChanged();
@@ -148,11 +206,47 @@ public abstract class Subscriptions implements Iterable<Subscription> {
     }
 
     /**
-     * Return an iterator allowing iteration over all available subscriptions found on the device
+     * <p>Return an iterator allowing iteration over all available subscriptions found on the device
      * using {@link SubscriptionManager}.
+     *
+     * <p>While any listener is registered, the subscriptions are served from an immutable snapshot
+     * that is only rebuilt when subscription information, SIM status or internal subscription data
+     * change, so that iterating doesn't query the {@link SubscriptionManager} and the database
+     * every time. Each
+     * {@link Subscription} returned is a copy that the caller is free to mutate.
      */
     @Override
-    public abstract Iterator<Subscription> iterator();
+    @WorkerThread
+    public final Iterator<Subscription> iterator() {
+        final Iterator<Subscription> it = getSnapshot().mSubscriptions.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Subscription next() {
+                return it.next().copy();
+            }
+        };
+    }
+
+    /**
+     * Get the version of the subscription data, which changes whenever any of the subscriptions
+     * may have changed. Clients can use it to tell whether data derived from subscriptions is
+     * outdated.
+     */
+    public long getSnapshotVersion() {
+        return mSnapshotVersion.get();
+    }
+
+    /**
+     * Query all available subscriptions found on the device using {@link SubscriptionManager}.
+     * This is used to (re-)build the snapshot of subscriptions returned by {@link #iterator()}.
+     */
+    @WorkerThread
+    protected abstract Iterator<Subscription> querySubscriptions();
 
     /**
      * Get a subscription satisfying the custom predicate.
@@ -220,9 +314,11 @@ public abstract class Subscriptions implements Iterable<Subscription> {
 
         // Persist the SIM subscription enabled state in volatile memory to be able to detect
         // alterations from outside
-        persistSubscriptionState(sub.getId(), sub.getSimState());
+        mSubscriptionStateStore.setSubscriptionState(sub.getId(), sub.getSimState());
 
         mSubscriptionsDao.upsert(sub);
+
+        invalidateSnapshot();
     }
 
     /**
@@ -235,7 +331,8 @@ public abstract class Subscriptions implements Iterable<Subscription> {
      * <li>internal subscription-related information produced by business-logic.</li>
      * </ul>
      *
-     * <p>The listener method will also be triggered once initially when calling this function.
+     * <p>The listener method will also be triggered once initially when calling this function,
+     * reporting all available subscriptions as added.
      *
      * <p>To remove, use {@link #removeOnSubscriptionsChangedListener(OnSubscriptionsChangedListener)}.
      *
@@ -254,10 +351,22 @@ public abstract class Subscriptions implements Iterable<Subscription> {
             mOnSubscriptionsChangedListeners.add(listener);
 
             if (!mSubscriptionManagerListenerRegistered.getAndSet(true)) {
+                // Start computing the differences from now on, so that the initial triggering by
+                // the SubscriptionManager won't be dispatched as changes
+                sDispatchHandler.post(() ->
+                        mLastDispatchedSubscriptions = getSnapshot().mSubscriptions);
                 registerSubscriptionManagerListener();
-            } else {
-                // Follow SubscriptionManager behavior on initial triggering once per client
-                listener.onSubscriptionsChanged();
+            }
+            // Follow SubscriptionManager behavior on initial triggering once per client
+            sDispatchHandler.post(() -> {
+                if (mOnSubscriptionsChangedListeners.contains(listener)) {
+                    listener.onSubscriptionsChanged(SubscriptionsDiff.compute(
+                                Collections.emptyList(), getSnapshot().mSubscriptions));
+                }
+            });
+
+            if (listener != mSnapshotSubscriptionsChangedListener) {
+                updateSnapshotTracking();
             }
         }
     }
@@ -282,6 +391,10 @@ public abstract class Subscriptions implements Iterable<Subscription> {
         if (mOnSubscriptionsChangedListeners.isEmpty()) {
             unregisterSubscriptionManagerListener();
         }
+
+        if (listener != mSnapshotSubscriptionsChangedListener) {
+            updateSnapshotTracking();
+        }
     }
 
     /**
@@ -306,14 +419,27 @@ public abstract class Subscriptions implements Iterable<Subscription> {
             return;
         }
 
-        final List<String> removedSubIds = new ArrayList<>(getPersistedUsableSubIds());
-        final List<String> usableSubIds = new ArrayList<>();
+        // Write all changes to the volatile state at once
+        mSubscriptionStateStore.beginBatch();
+        try {
+            syncSubscriptionsInternal(dateTime);
+        } finally {
+            mSubscriptionStateStore.endBatch();
+        }
+    }
+
+    @WorkerThread
+    private void syncSubscriptionsInternal(final LocalDateTime dateTime) {
+        final List<Integer> removedSubIds =
+            new ArrayList<>(mSubscriptionStateStore.getUsableSubscriptionIds());
+        final List<Integer> usableSubIds = new ArrayList<>();
 
         // Process SIM subscriptions available on the device
         for (final Subscription sub : this) {
             final @SimState int currentSubState = sub.getSimState();
-            final @SimState int expectedSubState = getPersistedSubscriptionState(sub.getId());
-            final String subId = String.valueOf(sub.getId());
+            final @SimState int expectedSubState =
+                mSubscriptionStateStore.getSubscriptionState(sub.getId());
+            final Integer subId = sub.getId();
             final boolean existsInUsableList = removedSubIds.remove(subId);
 
             mLogger.d("syncSubscriptions(dateTime=%s) : %s,currentSubState=%s," +
@@ -334,7 +460,7 @@ public abstract class Subscriptions implements Iterable<Subscription> {
                 } else {
                     // Persist the actual SIM subscription enabled state in volatile memory to be
                     // able to detect alterations from outside
-                    persistSubscriptionState(sub.getId(), sub.getSimState());
+                    mSubscriptionStateStore.setSubscriptionState(sub.getId(), sub.getSimState());
                 }
             }
 
@@ -342,34 +468,28 @@ public abstract class Subscriptions implements Iterable<Subscription> {
         }
 
         // Persist the updated the list of usable SIM subscription IDs in volatile memory
-        persistUsableSubIds(usableSubIds);
+        mSubscriptionStateStore.setUsableSubscriptionIds(usableSubIds);
 
         // Process the list of SIM subscription IDs that doesn't exist anymore in the system
-        for (final String subId : removedSubIds) {
-            try {
-                final int subIdInt = Integer.parseInt(subId);
-                final Optional<Subscription> sub = mSubscriptionsDao.findBySubscriptionId(subIdInt);
-
-                sub.ifPresent((sub1) -> {
-                    mLogger.d("syncSubscriptions(dateTime=%s) : %s.", dateTime, sub1);
-
-                    // Reset the last activated/deactivated times on SIM subscription removal. This
-                    // is because we expect the schedules to take precedence over user preference
-                    // when re-inserted
-                    sub1.setLastActivatedTime(LocalDateTime.MIN);
-                    sub1.setLastDeactivatedTime(LocalDateTime.MIN);
-                    sub1.setSimState(SimState.UNKNOWN);
-                    persistSubscription(sub1);
-                });
-
-                if (!sub.isPresent()) {
-                    // Reset the SIM subscription enabled state in volatile memory to be able to
-                    // detect alterations from outside when re-inserted
-                    persistSubscriptionState(subIdInt, SimState.UNKNOWN);
-                }
-            } catch (NumberFormatException e) {
-                mLogger.e("syncSubscriptions(dateTime=%s) : Invalid subscription ID: %s.",
-                        dateTime, subId);
+        for (final int subId : removedSubIds) {
+            final Optional<Subscription> sub = mSubscriptionsDao.findBySubscriptionId(subId);
+
+            sub.ifPresent((sub1) -> {
+                mLogger.d("syncSubscriptions(dateTime=%s) : %s.", dateTime, sub1);
+
+                // Reset the last activated/deactivated times on SIM subscription removal. This
+                // is because we expect the schedules to take precedence over user preference
+                // when re-inserted
+                sub1.setLastActivatedTime(LocalDateTime.MIN);
+                sub1.setLastDeactivatedTime(LocalDateTime.MIN);
+                sub1.setSimState(SimState.UNKNOWN);
+                persistSubscription(sub1);
+            });
+
+            if (!sub.isPresent()) {
+                // Reset the SIM subscription enabled state in volatile memory to be able to
+                // detect alterations from outside when re-inserted
+                mSubscriptionStateStore.setSubscriptionState(subId, SimState.UNKNOWN);
             }
         }
     }
@@ -385,7 +505,7 @@ public abstract class Subscriptions implements Iterable<Subscription> {
         mLogger.v("registerSubscriptionManagerListener().");
 
         if (Utils.IS_AT_LEAST_R) {
-            mSubscriptionManager.addOnSubscriptionsChangedListener(mContext.getMainExecutor(),
+            mSubscriptionManager.addOnSubscriptionsChangedListener(sDispatchHandler::post,
                     mSubscriptionManagerListener);
         } else {
             ApiDeprecated.addOnSubscriptionsChangedListener(mSubscriptionManager,
@@ -411,7 +531,8 @@ public abstract class Subscriptions implements Iterable<Subscription> {
     private void dispatchOnSubscriptionInfoRecordsChanged() {
         mLogger.v("dispatchOnSubscriptionInfoRecordsChanged().");
 
-        notifyAllListeners();
+        invalidateSnapshot();
+        scheduleOnSubscriptionsChangedDispatch();
     }
 
     /**
@@ -419,6 +540,9 @@ public abstract class Subscriptions implements Iterable<Subscription> {
      * {@link #addOnSubscriptionsChangedListener(OnSubscriptionsChangedListener)} about changes to
      * subscription information.
      *
+     * <p>The clients are notified even if no subscription has changed, so that they can revert
+     * the changes they anticipated, e.g. when a SIM power state change request has been aborted.
+     *
      * <p>The client can obtain all relevant subscription data as {@link Subscription} DTOs directly
      * by iterating over this class, which provides an {@link Iterable} interface, or by calling
      * appropriate public APIs.
@@ -426,13 +550,47 @@ public abstract class Subscriptions implements Iterable<Subscription> {
     protected void notifyAllListeners() {
         mLogger.v("notifyAllListeners().");
 
+        invalidateSnapshot();
+        mForceSubscriptionsChangedDispatch.set(true);
+        scheduleOnSubscriptionsChangedDispatch();
+    }
+
+    /**
+     * Schedule the dispatch of the subscription changes, unless already scheduled, in which case
+     * the changes will be dispatched along with those already pending.
+     */
+    private void scheduleOnSubscriptionsChangedDispatch() {
+        if (!sDispatchHandler.hasCallbacks(mSubscriptionsChangedDispatchRunnable)) {
+            sDispatchHandler.postDelayed(mSubscriptionsChangedDispatchRunnable,
+                    SUBSCRIPTIONS_CHANGED_COALESCING_WINDOW_MILLIS);
+        }
+    }
+
+    /**
+     * Dispatch the subscription changes since the last dispatch to all listeners. This runs on the
+     * dispatch thread.
+     */
+    @WorkerThread
+    private void dispatchOnSubscriptionsChanged() {
+        final boolean forced = mForceSubscriptionsChangedDispatch.getAndSet(false);
+        final List<Subscription> subscriptions = getSnapshot().mSubscriptions;
+        final SubscriptionsDiff diff = SubscriptionsDiff.compute(mLastDispatchedSubscriptions,
+                subscriptions);
+        mLastDispatchedSubscriptions = subscriptions;
+
+        mLogger.v("dispatchOnSubscriptionsChanged() : forced=%s,%s.", forced, diff);
+
+        if (diff.isEmpty() && !forced) {
+            return;
+        }
+
         // Note, because of the use of CopyOnWriteArrayList, we *must* use an iterator to perform
         // the subscription data change dispatching. The iterator is a safe guard against listeners
         // that could mutate the list by calling the various add/remove methods. This prevents the
         // array from being modified while we iterate it
         for (OnSubscriptionsChangedListener listener : mOnSubscriptionsChangedListeners) {
             if (listener != null) {
-                listener.onSubscriptionsChanged();
+                listener.onSubscriptionsChanged(diff);
             }
         }
     }
@@ -448,6 +606,8 @@ public abstract class Subscriptions implements Iterable<Subscription> {
 
         mLogger.v("dispatchOnSimStatusChanged(slotIndex=%d,state=%d).", slotIndex, state);
 
+        invalidateSnapshot();
+
         // Note, because of the use of CopyOnWriteArrayList, we *must* use an iterator to perform
         // the subscriptions data change dispatching. The iterator is a safe guard against
         // listeners that could mutate the list by calling the various add/remove methods. This
@@ -480,6 +640,10 @@ public abstract class Subscriptions implements Iterable<Subscription> {
             if (!mCarrierConfigChangedReceiverRegistered.getAndSet(true)) {
                 registerCarrierConfigChangedReceiver();
             }
+
+            if (listener != mSnapshotSimStatusChangedListener) {
+                updateSnapshotTracking();
+            }
         }
     }
 
@@ -502,6 +666,10 @@ public abstract class Subscriptions implements Iterable<Subscription> {
         if (mOnSimStatusChangedListeners.isEmpty()) {
             unregisterCarrierConfigChangedReceiver();
         }
+
+        if (listener != mSnapshotSimStatusChangedListener) {
+            updateSnapshotTracking();
+        }
     }
 
     /**
@@ -513,8 +681,10 @@ public abstract class Subscriptions implements Iterable<Subscription> {
         final IntentFilter filter = new IntentFilter();
         filter.addAction(TelephonyManager.ACTION_SIM_CARD_STATE_CHANGED);
         filter.addAction(TelephonyManager.ACTION_SIM_APPLICATION_STATE_CHANGED);
+        // Note that, unlike the subscription changes, the SIM status changes are dispatched one by
+        // one, as the listeners are interested in the individual SIM state transitions
         ContextCompat.registerReceiver(mContext, mCarrierConfigChangedReceiver, filter,
-                ContextCompat.RECEIVER_EXPORTED);
+                /*broadcastPermission=*/ null, sDispatchHandler, ContextCompat.RECEIVER_EXPORTED);
     }
 
     /**
@@ -529,62 +699,94 @@ public abstract class Subscriptions implements Iterable<Subscription> {
     }
 
     /**
-     * Get the SIM subscription state previously persisted in volatile memory.
-     *
-     * @param subId The corresponding SIM subscription ID.
-     * @return The SIM subscription state or {@link SimState.UNKNOWN}.
-     */
-    private @SimState int getPersistedSubscriptionState(final int subId) {
-        return mSubscriptionStateSysProp.get(Optional.empty(), subId).map((value) -> {
-            try {
-                final int state = Integer.parseInt(value);
-                switch (state) {
-                    case SimState.ENABLED:
-                    case SimState.DISABLED:
-                    case SimState.UNKNOWN:
-                        return state;
-                }
-            } catch (NumberFormatException e) { /* @SuppressWarnings("EmptyCatch") */ }
+     * Get the snapshot of all available subscriptions, (re-)building it if outdated.
+     */
+    @WorkerThread
+    private Snapshot getSnapshot() {
+        final boolean tracking = mSnapshotTracking;
+        Snapshot snapshot = mSnapshot;
+        if (tracking && snapshot != null && snapshot.mVersion == mSnapshotVersion.get()) {
+            return snapshot;
+        }
+
+        // Note that, if the version changes while querying, the snapshot is considered outdated
+        // on next access
+        final long version = mSnapshotVersion.get();
+        final List<Subscription> subscriptions = new ArrayList<>();
+        querySubscriptions().forEachRemaining(subscriptions::add);
+        snapshot = new Snapshot(version, Collections.unmodifiableList(subscriptions));
+        // Without the events invalidating it, the snapshot cannot be reused
+        if (tracking) {
+            mSnapshot = snapshot;
+        }
 
-            mLogger.e("getPersistedSubscriptionState(subId=%d) : Invalid subscription state: %s.",
-                    subId, value);
+        mLogger.v("getSnapshot() : Rebuilt snapshot version=%d.", version);
 
-            return null;
-        }).orElse(SimState.UNKNOWN);
+        return snapshot;
     }
 
     /**
-     * Persist the SIM subscription state in volatile memory.
-     *
-     * @param subId The corresponding SIM subscription ID.
-     * @param state One of {@link SimState}s.
+     * Start tracking the events that invalidate the snapshot of all available subscriptions when
+     * the first external listener is added, and stop tracking them, dropping the snapshot, when
+     * the last one is removed. Thus, the internal listeners never keep the event sources
+     * registered on their own.
      */
-    private void persistSubscriptionState(final int subId, final @SimState int state) {
-        mLogger.d("persistSubscriptionState(subId=%d,state=%s).", subId,
-                TelephonyUtils.simStateToString(state));
+    private void updateSnapshotTracking() {
+        synchronized (mSnapshotTrackingLock) {
+            final boolean track = hasExternalListeners();
+            if (track == mSnapshotTracking) {
+                return;
+            }
 
-        mSubscriptionStateSysProp.set(Optional.of(Integer.toString(state)), subId);
+            if (track) {
+                addOnSubscriptionsChangedListener(mSnapshotSubscriptionsChangedListener);
+                addOnSimStatusChangedListener(mSnapshotSimStatusChangedListener);
+            } else {
+                removeOnSubscriptionsChangedListener(mSnapshotSubscriptionsChangedListener);
+                removeOnSimStatusChangedListener(mSnapshotSimStatusChangedListener);
+                mSnapshot = null;
+            }
+            // A snapshot built while the events weren't tracked, if any, must not be reused
+            invalidateSnapshot();
+            mSnapshotTracking = track;
+        }
     }
 
     /**
-     * Get the list of SIM subscription IDs previously persisted in volatile memory.
-     *
-     * @return An immutable list of usable SIM subscription IDs.
+     * @return Whether there's any listener other than the internal snapshot tracking ones.
+     */
+    private boolean hasExternalListeners() {
+        for (OnSubscriptionsChangedListener listener : mOnSubscriptionsChangedListeners) {
+            if (listener != mSnapshotSubscriptionsChangedListener) {
+                return true;
+            }
+        }
+        for (OnSimStatusChangedListener listener : mOnSimStatusChangedListeners) {
+            if (listener != mSnapshotSimStatusChangedListener) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mark the snapshot of all available subscriptions as outdated.
      */
-    private List<String> getPersistedUsableSubIds() {
-        final String[] subIds = mUsableSubIdsSysProp.get(Optional.empty()).map((str) ->
-                TextUtils.split(str, ",")).orElseGet(() -> new String[]{});
-        return Arrays.asList(subIds);
+    private void invalidateSnapshot() {
+        mSnapshotVersion.incrementAndGet();
     }
 
     /**
-     * Persist the comma-separated list of usable SIM subscriptions IDs in volatile memory.
-     *
-     * @param usableSubIds The list of usable SIM subscription IDs.
+     * An immutable snapshot of all available subscriptions at a particular version.
      */
-    private void persistUsableSubIds(final List<String> usableSubIds) {
-        mUsableSubIdsSysProp.set(Optional.ofNullable(usableSubIds.isEmpty() ? null :
-                    String.join(",", usableSubIds)));
+    private static final class Snapshot {
+        final long mVersion;
+        final List<Subscription> mSubscriptions;
+
+        Snapshot(final long version, final List<Subscription> subscriptions) {
+            mVersion = version;
+            mSubscriptions = subscriptions;
+        }
     }
 
     /**
@@ -592,18 +794,23 @@ public abstract class Subscriptions implements Iterable<Subscription> {
      * subscription information. The onSubscriptionsChanged method will also be triggered once
      * initially when calling this function.
      *
+     * <p>The method is called on a background thread, at most once per coalescing window, with the
+     * differences since the previous call. The differences are empty when the clients are notified
+     * although no subscription has changed, see {@link #notifyAllListeners()}.
+     *
      * <p>The client can obtain all relevant subscription data as {@link Subscription} DTOs directly
      * by iterating over this class, which provides an {@link Iterable} interface, or by calling
      * appropriate public APIs.
      */
     @FunctionalInterface
     public interface OnSubscriptionsChangedListener {
-        public void onSubscriptionsChanged();
+        public void onSubscriptionsChanged(@NonNull SubscriptionsDiff diff);
     }
 
     /**
      * The functional interface through which interested clients are notified of
-     * {@link TelephonyManager.SimState} changes to a particular SIM card.
+     * {@link TelephonyManager.SimState} changes to a particular SIM card. The method is called on a
+     * background thread.
      */
     @FunctionalInterface
     public interface OnSimStatusChangedListener {
@@ -0,0 +1,124 @@
+package com.github.iusmac.sevensim.telephony;
+
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>The differences between two consecutive states of all available subscriptions, as delivered
+ * to the {@link Subscriptions.OnSubscriptionsChangedListener}.
+ *
+ * <p>Subscriptions are matched by their ID. A subscription is reported as changed when any of its
+ * business-related information differs, e.g. its SIM state or last activated time.
+ *
+ * <p>This class is <strong>immutable</strong>, but the {@link Subscription} objects it holds are
+ * copies that the caller is free to mutate.
+ */
+public final class SubscriptionsDiff {
+    private final List<Subscription> mAdded;
+    private final List<Subscription> mRemoved;
+    private final List<Subscription> mChanged;
+
+    private SubscriptionsDiff(final List<Subscription> added, final List<Subscription> removed,
+            final List<Subscription> changed) {
+
+        mAdded = Collections.unmodifiableList(added);
+        mRemoved = Collections.unmodifiableList(removed);
+        mChanged = Collections.unmodifiableList(changed);
+    }
+
+    /**
+     * Compute the differences between two states of all available subscriptions.
+     *
+     * @param oldSubs The previous subscriptions.
+     * @param newSubs The current subscriptions.
+     */
+    static @NonNull SubscriptionsDiff compute(final @NonNull List<Subscription> oldSubs,
+            final @NonNull List<Subscription> newSubs) {
+
+        final SparseArray<Subscription> oldSubsById = new SparseArray<>(oldSubs.size());
+        for (Subscription sub : oldSubs) {
+            oldSubsById.put(sub.getId(), sub);
+        }
+
+        final List<Subscription> added = new ArrayList<>();
+        final List<Subscription> changed = new ArrayList<>();
+        for (Subscription sub : newSubs) {
+            final Subscription oldSub = oldSubsById.get(sub.getId());
+            if (oldSub == null) {
+                added.add(sub.copy());
+            } else {
+                oldSubsById.remove(sub.getId());
+                if (!oldSub.equals(sub)) {
+                    changed.add(sub.copy());
+                }
+            }
+        }
+
+        final List<Subscription> removed = new ArrayList<>(oldSubsById.size());
+        for (int i = 0; i < oldSubsById.size(); i++) {
+            removed.add(oldSubsById.valueAt(i).copy());
+        }
+        return new SubscriptionsDiff(added, removed, changed);
+    }
+
+    /**
+     * Return the subscriptions that have appeared.
+     */
+    public @NonNull List<Subscription> getAdded() {
+        return mAdded;
+    }
+
+    /**
+     * Return the subscriptions that have disappeared, in their last known state.
+     */
+    public @NonNull List<Subscription> getRemoved() {
+        return mRemoved;
+    }
+
+    /**
+     * Return the subscriptions whose information has changed, in their current state.
+     */
+    public @NonNull List<Subscription> getChanged() {
+        return mChanged;
+    }
+
+    /**
+     * Return {@code true} if no subscription has been added, removed or changed.
+     */
+    public boolean isEmpty() {
+        return mAdded.isEmpty() && mRemoved.isEmpty() && mChanged.isEmpty();
+    }
+
+    /**
+     * Return {@code true} if the subscription has been added, removed or changed.
+     *
+     * @param subId The ID of the subscription.
+     */
+    public boolean contains(final int subId) {
+        return indexOf(mAdded, subId) >= 0 || indexOf(mRemoved, subId) >= 0 ||
+            indexOf(mChanged, subId) >= 0;
+    }
+
+    private static int indexOf(final List<Subscription> subs, final int subId) {
+        for (int i = 0; i < subs.size(); i++) {
+            if (subs.get(i).getId() == subId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriptionsDiff {"
+            + " added=" + mAdded
+            + " removed=" + mRemoved
+            + " changed=" + mChanged
+            + " }";
+    }
+}
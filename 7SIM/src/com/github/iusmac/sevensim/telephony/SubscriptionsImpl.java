@@ -8,14 +8,12 @@ import androidx.annotation.WorkerThread;
 
 import com.github.iusmac.sevensim.AppDatabaseDE;
 import com.github.iusmac.sevensim.Logger;
-import com.github.iusmac.sevensim.SysProp;
 
 import dagger.hilt.android.qualifiers.ApplicationContext;
 
 import java.util.Iterator;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Singleton;
 
 /**
@@ -35,11 +33,9 @@ public final class SubscriptionsImpl extends Subscriptions {
     public SubscriptionsImpl(final @ApplicationContext Context context,
             final Logger.Factory loggerFactory, final AppDatabaseDE appDatabase,
             final SubscriptionManager subscriptionManager,
-            final @Named("Telephony/SubState") SysProp subStateSysProp,
-            final @Named("Telephony/UsableSubIds") SysProp usableSimSubIdsSysProp) {
+            final SubscriptionStateStore subscriptionStateStore) {
 
-        super(context, loggerFactory, appDatabase, subscriptionManager, subStateSysProp,
-                usableSimSubIdsSysProp);
+        super(context, loggerFactory, appDatabase, subscriptionManager, subscriptionStateStore);
     }
 
     /**
@@ -47,7 +43,7 @@ public final class SubscriptionsImpl extends Subscriptions {
      */
     @Override
     @WorkerThread
-    public Iterator<Subscription> iterator() {
+    protected Iterator<Subscription> querySubscriptions() {
         return new SubscriptionList(mSubscriptionManager) {
             /**
              * {@inheritDoc}
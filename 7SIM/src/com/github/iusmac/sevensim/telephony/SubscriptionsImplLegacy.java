@@ -64,11 +64,9 @@ public final class SubscriptionsImplLegacy extends Subscriptions {
             final @Named("Telephony/SimState") SysProp simStateSysProp,
             final @Named("Telephony/SimIconTint") SysProp simIconTintSysProp,
             final @Named("Telephony/SimName") SysProp simNameSysProp,
-            final @Named("Telephony/SubState") SysProp subNameSysProp,
-            final @Named("Telephony/UsableSubIds") SysProp usableSimSubIdsSysProp) {
+            final SubscriptionStateStore subscriptionStateStore) {
 
-        super(context, loggerFactory, appDatabase, subscriptionManager, subNameSysProp,
-                usableSimSubIdsSysProp);
+        super(context, loggerFactory, appDatabase, subscriptionManager, subscriptionStateStore);
 
         mSimSubIdSysProp = simSubIdSysProp;
         mSimStateSysProp = simStateSysProp;
@@ -87,7 +85,7 @@ public final class SubscriptionsImplLegacy extends Subscriptions {
      */
     @Override
     @WorkerThread
-    public Iterator<Subscription> iterator() {
+    protected Iterator<Subscription> querySubscriptions() {
         return new SubscriptionList(mSubscriptionManager) {
             /**
              * {@inheritDoc}
@@ -1,13 +1,15 @@
 package com.github.iusmac.sevensim.telephony;
 
 import android.content.Context;
-import android.os.Bundle;
+import android.os.SystemClock;
 import android.telephony.TelephonyManager;
+import android.util.SparseArray;
 
 import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
-import androidx.core.os.BundleCompat;
 
+import com.github.iusmac.sevensim.EventRing;
 import com.github.iusmac.sevensim.Logger;
 import com.github.iusmac.sevensim.R;
 import com.github.iusmac.sevensim.Utils;
@@ -16,7 +18,13 @@ import dagger.hilt.android.qualifiers.ApplicationContext;
 
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayDeque;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import javax.inject.Inject;
@@ -35,6 +43,10 @@ import javax.inject.Singleton;
  * <p>A device is considered to be using the legacy RIL when the response of
  * {@link TelephonyUtils#canDisableUiccSubscription()} is {@code false}.
  *
+ * <p>SIM power state change requests are processed asynchronously on a dedicated thread. Requests
+ * for different slots may be in flight at the same time, whereas requests for the same slot are
+ * serialized in the order they were issued.
+ *
  * <p>This class is <strong>thread-safe</strong>.
  *
  * @see SubscriptionsImplLegacy
@@ -56,39 +68,56 @@ public final class TelephonyController {
     private static final int SET_SIM_POWER_STATE_SIM_ABSENT = -1;
     private static final int SET_SIM_POWER_STATE_MODEM_TIMEOUT = -2;
 
-    /** For request metadata fields. */
-    private static final String KEY_SUBSCRIPTION = "subscription";
-    private static final String KEY_LAST_ACTIVATED_TIME = "last_activated_time";
-    private static final String KEY_LAST_DEACTIVATED_TIME = "last_deactivated_time";
-    private static final String KEY_KEEP_DISABLED_ACROSS_BOOTS = "keep_disabled_across_boots";
-    private static final String KEY_REQUEST_RESPONSE_CODE = "request_response_code";
+    /** The time after which the idle request processing thread is terminated. */
+    private static final long EXECUTOR_KEEP_ALIVE_SECONDS = 30;
 
-    /** The globally accessible request metadata used when performing SIM power state mutations. */
-    @GuardedBy("mRequestMetadata")
-    private final Bundle mRequestMetadata = new Bundle(5);
+    /**
+     * The single thread on which all SIM power state change requests are dispatched and finalized.
+     * The request bookkeeping below is confined to it.
+     */
+    private final ScheduledThreadPoolExecutor mExecutor;
+
+    /** The requests waiting for the in-flight request of the same slot to finish, keyed by slot. */
+    private final SparseArray<ArrayDeque<Request>> mPendingRequests = new SparseArray<>();
+
+    /** The requests waiting for the modem response, keyed by slot index. */
+    private final SparseArray<Request> mInFlightRequests = new SparseArray<>();
 
-    @GuardedBy("this")
     private SimStatusChangedListener mSimStatusChangedListener;
 
+    /** The latency of the SIM power state change requests, by requested enabled state. */
+    @GuardedBy("this")
+    private final LatencyHistogram mEnableLatencyHistogram = new LatencyHistogram();
+    @GuardedBy("this")
+    private final LatencyHistogram mDisableLatencyHistogram = new LatencyHistogram();
+
     private final Context mContext;
     private final Logger mLogger;
+    private final EventRing mEventRing;
     private final TelephonyManager mTelephonyManager;
     private final SubscriptionsImplLegacy mSubscriptions;
 
     @Inject
     public TelephonyController(final @ApplicationContext Context context,
-            final Logger.Factory loggerFactory,
+            final Logger.Factory loggerFactory, final EventRing eventRing,
             final TelephonyManager telephonyManager,
             final SubscriptionsImplLegacy subscriptions) {
 
         mContext = context;
         mLogger = loggerFactory.create(getClass().getSimpleName());
+        mEventRing = eventRing;
         mTelephonyManager = telephonyManager;
         mSubscriptions = subscriptions;
+
+        mExecutor = new ScheduledThreadPoolExecutor(1,
+                (runnable) -> new Thread(runnable, getClass().getSimpleName()));
+        mExecutor.setKeepAliveTime(EXECUTOR_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        mExecutor.allowCoreThreadTimeOut(true);
+        mExecutor.setRemoveOnCancelPolicy(true);
     }
 
     /**
-     * <p>Disable or re-enable a SIM card.
+     * <p>Disable or re-enable a SIM card, and block until the request finishes.
      *
      * <p>In order to be notified when the setting for the SIM card is applied, the callers must
      * monitor the {@link Subscriptions}.
@@ -97,141 +126,196 @@ public final class TelephonyController {
      * @param enabled {@code true} if SIM card should be enabled, {@code false} otherwise.
      * @param keepDisabledAcrossBoots Whether the disabled state of the SIM card should persist
      * across boots.
+     * @return {@code true} if the SIM card is in the requested state, or {@code false} if the
+     * request has been aborted or failed, or the wait has been interrupted.
+     *
+     * @see #setSimStateAsync(int,boolean,boolean)
      */
     @WorkerThread
-    public void setSimState(final int slotIndex, final boolean enabled,
+    public boolean setSimState(final int slotIndex, final boolean enabled,
             final boolean keepDisabledAcrossBoots) {
 
-        final String logPrefix = String.format(Locale.getDefault(), "setSimState(slotIndex=%d," +
-                "enabled=%s,keepDisabledAcrossBoots=%s) : ", slotIndex, enabled,
-                keepDisabledAcrossBoots);
+        try {
+            return setSimStateAsync(slotIndex, enabled, keepDisabledAcrossBoots).get();
+        } catch (InterruptedException e) {
+            mLogger.w("setSimState(slotIndex=%d) : Wait interrupted.", slotIndex);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            mLogger.e("setSimState(slotIndex=%d) : %s", slotIndex, e);
+        }
+        return false;
+    }
 
-        // From testing, it turned out that SIM power state change request ignores Airplane mode,
-        // so we can allow disabling but not enabling request
-        if (enabled && TelephonyUtils.isAirplaneModeOn(mContext)) {
-            mLogger.w(logPrefix + "Aborting due to Airplane mode.");
+    /**
+     * <p>Disable or re-enable a SIM card asynchronously.
+     *
+     * <p>Requests for different slots are processed concurrently, whereas requests for the same
+     * slot are processed one after another in the order they were issued. A request that is still
+     * waiting for its turn can be dropped by cancelling the returned future. Cancelling a request
+     * that is already in flight only stops the caller from waiting, as the modem request cannot be
+     * aborted.
+     *
+     * <p>In order to be notified when the setting for the SIM card is applied, the callers must
+     * monitor the {@link Subscriptions}.
+     *
+     * @param slotIndex The slot index to identify a SIM card whose state is being changed.
+     * @param enabled {@code true} if SIM card should be enabled, {@code false} otherwise.
+     * @param keepDisabledAcrossBoots Whether the disabled state of the SIM card should persist
+     * across boots.
+     * @return A future completing with {@code true} if the SIM card is in the requested state, or
+     * {@code false} if the request has been aborted or failed.
+     */
+    public @NonNull CompletableFuture<Boolean> setSimStateAsync(final int slotIndex,
+            final boolean enabled, final boolean keepDisabledAcrossBoots) {
 
-            Utils.makeToast(mContext, mContext.getString(R.string.airplane_mode_enabled));
+        final Request request = new Request(slotIndex, enabled, keepDisabledAcrossBoots);
+        mExecutor.execute(() -> enqueueRequest(request));
+        return request.mFuture;
+    }
 
-            mSubscriptions.notifyAllListeners();
-            return;
-        }
+    /**
+     * Get a snapshot of the latency histogram of the completed SIM power state change requests.
+     *
+     * @param enabled The requested enabled state to get the latency histogram for.
+     */
+    public synchronized @NonNull LatencyHistogram getLatencyHistogram(final boolean enabled) {
+        return (enabled ? mEnableLatencyHistogram : mDisableLatencyHistogram).copy();
+    }
 
-        synchronized (this) {
-            mLogger.d(logPrefix + "In sync block.");
+    /**
+     * Queue the request behind the in-flight request of the same slot, if any.
+     */
+    private void enqueueRequest(final Request request) {
+        ArrayDeque<Request> pendingRequests = mPendingRequests.get(request.mSlotIndex);
+        if (pendingRequests == null) {
+            pendingRequests = new ArrayDeque<>();
+            mPendingRequests.put(request.mSlotIndex, pendingRequests);
+        }
+        pendingRequests.add(request);
 
-            final Subscription sub =
-                mSubscriptions.getSubscriptionForSimSlotIndex(slotIndex).orElse(null);
+        if (mInFlightRequests.get(request.mSlotIndex) == null) {
+            dispatchNextRequest(request.mSlotIndex);
+        }
+    }
 
-            if (sub == null) {
-                mLogger.e(logPrefix + "Aborting due to missing subscription.");
-                mSubscriptions.notifyAllListeners();
-                return;
+    /**
+     * Dispatch the next pending request of a slot, skipping those cancelled by the callers.
+     */
+    private void dispatchNextRequest(final int slotIndex) {
+        final ArrayDeque<Request> pendingRequests = mPendingRequests.get(slotIndex);
+        if (pendingRequests == null) {
+            return;
+        }
+        Request request;
+        while ((request = pendingRequests.poll()) != null) {
+            if (request.mFuture.isCancelled()) {
+                mLogger.d("dispatchNextRequest() : Skipping cancelled %s.", request);
+                continue;
             }
-
-            if (enabled == sub.isSimEnabled()) {
-                mLogger.w(logPrefix + "Already in state.");
-                mSubscriptions.notifyAllListeners();
+            if (dispatchRequest(request)) {
                 return;
             }
+        }
+        mPendingRequests.remove(slotIndex);
+    }
 
-            // Ensure SIM subscription syncing cannot start in parallel during this operation
-            mSubscriptions.mBlockSubscriptionsSyncFlag.set(true);
-
-            // Keep track of SIM state whenever it's mutated. This will be persisted in a volatile
-            // memory, so that we can further restore all relevant data. This because when powering
-            // down the SIM is the same as removing it, which means the SIM will completely
-            // disappear from the system and we won't be able to grab the subscription data from
-            // SubscriptionManager anymore, even though the SIM is still present in the slot
-            sub.setSimState(TelephonyUtils.simStateInt(enabled));
-
-            sub.setLastActivatedTime(enabled ? LocalDateTime.now(ZoneId.systemDefault()) :
-                    LocalDateTime.MIN);
-            sub.setLastDeactivatedTime(!enabled ? LocalDateTime.now(ZoneId.systemDefault()) :
-                    LocalDateTime.MIN);
-
-            sub.keepDisabledAcrossBoots(keepDisabledAcrossBoots);
-
-            // Globally save metadata needed when handling SIM power change request termination
-            synchronized (mRequestMetadata) {
-                mRequestMetadata.putParcelable(KEY_SUBSCRIPTION, sub);
-                mRequestMetadata.putString(KEY_LAST_ACTIVATED_TIME,
-                        sub.getLastActivatedTime().toString());
-                mRequestMetadata.putString(KEY_LAST_DEACTIVATED_TIME,
-                        sub.getLastDeactivatedTime().toString());
-                if (sub.getKeepDisabledAcrossBoots() != null) {
-                    mRequestMetadata.putBoolean(KEY_KEEP_DISABLED_ACROSS_BOOTS,
-                            sub.getKeepDisabledAcrossBoots());
-                }
-            }
+    /**
+     * @return Whether the request is in flight, otherwise it has been completed straight away.
+     */
+    private boolean dispatchRequest(final Request request) {
+        final int slotIndex = request.mSlotIndex;
+        final boolean enabled = request.mEnabled;
+        final String logPrefix = String.format(Locale.getDefault(), "dispatchRequest(slotIndex=%d," +
+                "enabled=%s,keepDisabledAcrossBoots=%s) : ", slotIndex, enabled,
+                request.mKeepDisabledAcrossBoots);
 
-            // Before making any request, persist the subscription associated with the SIM whose
-            // power state we're going to change, to immediately reflect the changes on the callers
-            // side, since this request is generally successful and pretty fast. In case the SIM
-            // power change request fails, everything will be reverted to the actual state and the
-            // callers will be notified again
-            mSubscriptions.persistSubscription(sub);
+        // From testing, it turned out that SIM power state change request ignores Airplane mode,
+        // so we can allow disabling but not enabling request
+        if (enabled && TelephonyUtils.isAirplaneModeOn(mContext)) {
+            mLogger.w(logPrefix + "Aborting due to Airplane mode.");
 
-            // Start to listen to the state mutations of all available SIM cards on versions prior
-            // to Android 12 (API 31). On newer versions we have an executor+callback API to handle
-            // the response
-            if (Utils.IS_OLDER_THAN_S) {
-                mSimStatusChangedListener = new SimStatusChangedListener();
-                mSubscriptions.addOnSimStatusChangedListener(mSimStatusChangedListener);
-            }
+            Utils.makeToast(mContext, mContext.getString(R.string.airplane_mode_enabled));
 
-            setSimPowerStateForSlot(slotIndex, simStateInt(enabled));
-
-            // Wait for the SIM power request to complete or timeout
-            long nowMillis = System.currentTimeMillis();
-            final long deadlineMillis = nowMillis + SET_SIM_POWER_STATE_REQUEST_TIMEOUT_MILLIS;
-            do {
-                synchronized (mRequestMetadata) {
-                    try {
-                        mRequestMetadata.wait(deadlineMillis - nowMillis);
-                    } catch (InterruptedException e) {
-                        mLogger.w(logPrefix + "Acquire wait interrupted.");
-                        break;
-                    }
-                    if (mRequestMetadata.containsKey(KEY_REQUEST_RESPONSE_CODE)) {
-                        // SIM power request finished, so we break here as this wasn't a spurious
-                        // wakeup nor a timeout
-                        break;
-                    }
-                }
-                nowMillis = System.currentTimeMillis();
-            } while (nowMillis < deadlineMillis);
+            mSubscriptions.notifyAllListeners();
+            request.mFuture.complete(false);
+            return false;
+        }
 
-            if (Utils.IS_OLDER_THAN_S) {
-                mSubscriptions.removeOnSimStatusChangedListener(mSimStatusChangedListener);
-                mSimStatusChangedListener = null;
-            }
+        final Subscription sub =
+            mSubscriptions.getSubscriptionForSimSlotIndex(slotIndex).orElse(null);
 
-            synchronized (mRequestMetadata) {
-                final int resCode;
-                if (!mRequestMetadata.containsKey(KEY_REQUEST_RESPONSE_CODE)) { // Timed out
-                    if (enabled) {
-                        // When trying to enable SIM, but the response from modem timeouts, then we
-                        // know there's no SIM card in the slot. This is an implicit edge case that
-                        // needs to be handled manually, because by Android telephony design, a
-                        // powered up modem won't respond if there's no SIM card
-                        resCode = SET_SIM_POWER_STATE_SIM_ABSENT;
-                    } else {
-                        // When trying to disable SIM, but the response from modem timeouts, then
-                        // most likely the device modem does not support
-                        // TelephonyManager#setSimPowerStateForSlot call. So far, this can occur on
-                        // non-QCOM SoCs
-                        resCode = SET_SIM_POWER_STATE_MODEM_TIMEOUT;
-                    }
-                } else {
-                    resCode = mRequestMetadata.getInt(KEY_REQUEST_RESPONSE_CODE);
-                    mRequestMetadata.remove(KEY_REQUEST_RESPONSE_CODE);
-                }
-                handleOnSetSimPowerStateForSlotFinished(resCode);
-            }
+        if (sub == null) {
+            mLogger.e(logPrefix + "Aborting due to missing subscription.");
+            mSubscriptions.notifyAllListeners();
+            request.mFuture.complete(false);
+            return false;
+        }
 
-            mSubscriptions.mBlockSubscriptionsSyncFlag.set(false);
+        if (enabled == sub.isSimEnabled()) {
+            mLogger.w(logPrefix + "Already in state.");
+            mSubscriptions.notifyAllListeners();
+            request.mFuture.complete(true);
+            return false;
+        }
+
+        mLogger.d(logPrefix + "Dispatching.");
+
+        // Ensure SIM subscription syncing cannot start in parallel during this operation
+        mSubscriptions.mBlockSubscriptionsSyncFlag.set(true);
+
+        // Keep track of SIM state whenever it's mutated. This will be persisted in a volatile
+        // memory, so that we can further restore all relevant data. This because when powering
+        // down the SIM is the same as removing it, which means the SIM will completely
+        // disappear from the system and we won't be able to grab the subscription data from
+        // SubscriptionManager anymore, even though the SIM is still present in the slot
+        sub.setSimState(TelephonyUtils.simStateInt(enabled));
+
+        sub.setLastActivatedTime(enabled ? LocalDateTime.now(ZoneId.systemDefault()) :
+                LocalDateTime.MIN);
+        sub.setLastDeactivatedTime(!enabled ? LocalDateTime.now(ZoneId.systemDefault()) :
+                LocalDateTime.MIN);
+
+        sub.keepDisabledAcrossBoots(request.mKeepDisabledAcrossBoots);
+
+        // Save metadata needed when handling SIM power change request termination
+        request.mSubscription = sub;
+        request.mLastActivatedTime = sub.getLastActivatedTime();
+        request.mLastDeactivatedTime = sub.getLastDeactivatedTime();
+        request.mKeepDisabledAcrossBootsMetadata = sub.getKeepDisabledAcrossBoots();
+
+        // Before making any request, persist the subscription associated with the SIM whose
+        // power state we're going to change, to immediately reflect the changes on the callers
+        // side, since this request is generally successful and pretty fast. In case the SIM
+        // power change request fails, everything will be reverted to the actual state and the
+        // callers will be notified again
+        mSubscriptions.persistSubscription(sub);
+
+        // Start to listen to the state mutations of all available SIM cards on versions prior
+        // to Android 12 (API 31). On newer versions we have an executor+callback API to handle
+        // the response
+        if (Utils.IS_OLDER_THAN_S && mSimStatusChangedListener == null) {
+            mSimStatusChangedListener = new SimStatusChangedListener();
+            mSubscriptions.addOnSimStatusChangedListener(mSimStatusChangedListener);
         }
+
+        mInFlightRequests.put(slotIndex, request);
+        request.mStartMillis = SystemClock.elapsedRealtime();
+        mEventRing.record(EventRing.Event.SIM_POWER_REQUEST_DISPATCHED, slotIndex, enabled ? 1 : 0);
+        setSimPowerStateForSlot(slotIndex, simStateInt(enabled),
+                (resCode) -> onRequestFinished(request, resCode));
+
+        request.mTimeout = mExecutor.schedule(() -> {
+            // When trying to enable SIM, but the response from modem timeouts, then we know
+            // there's no SIM card in the slot. This is an implicit edge case that needs to be
+            // handled manually, because by Android telephony design, a powered up modem won't
+            // respond if there's no SIM card. When trying to disable SIM, but the response from
+            // modem timeouts, then most likely the device modem does not support
+            // TelephonyManager#setSimPowerStateForSlot call. So far, this can occur on non-QCOM
+            // SoCs
+            onRequestFinished(request, enabled ? SET_SIM_POWER_STATE_SIM_ABSENT :
+                    SET_SIM_POWER_STATE_MODEM_TIMEOUT);
+        }, SET_SIM_POWER_STATE_REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        return true;
     }
 
     /**
@@ -241,30 +325,74 @@ public final class TelephonyController {
      * @param state One of the following SIM states:
      * {@link TelephonyManager#CARD_POWER_UP}
      * {@link TelephonyManager#CARD_POWER_DOWN}
+     * @param callback The callback to invoke on the request processing thread with the response
+     * code, on Android 12 (API 31) and newer. On older versions, the response is delivered via the
+     * {@link SimStatusChangedListener}.
      */
-    private void setSimPowerStateForSlot(final int slotIndex, final int state) {
+    private void setSimPowerStateForSlot(final int slotIndex, final int state,
+            final Consumer<Integer> callback) {
+
         if (Utils.IS_AT_LEAST_S) {
-            final Consumer<Integer> callback = (resCode) -> {
-                synchronized (mRequestMetadata) {
-                    mRequestMetadata.putInt(KEY_REQUEST_RESPONSE_CODE, resCode);
-                    mRequestMetadata.notifyAll();
-                }
-            };
-            mTelephonyManager.setSimPowerStateForSlot(slotIndex, state, Runnable::run, callback);
+            mTelephonyManager.setSimPowerStateForSlot(slotIndex, state, mExecutor, callback);
         } else {
             ApiDeprecated.setSimPowerStateForSlot(mTelephonyManager, slotIndex, state);
         }
     }
 
     /**
+     * Finalize an in-flight request once the modem responded or timed out, and dispatch the next
+     * pending request of the same slot, if any.
+     *
+     * @param request The in-flight request.
      * @param resCode The response code from the modem.
      */
-    @WorkerThread
-    @GuardedBy("mRequestMetadata")
-    private void handleOnSetSimPowerStateForSlotFinished(final int resCode) {
+    private void onRequestFinished(final Request request, final int resCode) {
+        if (mInFlightRequests.get(request.mSlotIndex) != request) {
+            // Already finished, e.g. the modem responded right after the timeout
+            return;
+        }
+        mInFlightRequests.remove(request.mSlotIndex);
+        request.mTimeout.cancel(/*mayInterruptIfRunning=*/ false);
+
+        final long latencyMillis = SystemClock.elapsedRealtime() - request.mStartMillis;
+        synchronized (this) {
+            (request.mEnabled ? mEnableLatencyHistogram : mDisableLatencyHistogram)
+                .record(latencyMillis);
+        }
+        mEventRing.record(EventRing.Event.SIM_POWER_REQUEST_FINISHED, request.mSlotIndex, resCode,
+                latencyMillis);
+
+        if (mInFlightRequests.size() == 0) {
+            if (mSimStatusChangedListener != null) {
+                mSubscriptions.removeOnSimStatusChangedListener(mSimStatusChangedListener);
+                mSimStatusChangedListener = null;
+            }
+        }
+
+        final boolean requestFailed = handleOnSetSimPowerStateForSlotFinished(request, resCode,
+                latencyMillis);
+
+        if (mInFlightRequests.size() == 0) {
+            mSubscriptions.mBlockSubscriptionsSyncFlag.set(false);
+        }
+
+        request.mFuture.complete(!requestFailed);
+
+        dispatchNextRequest(request.mSlotIndex);
+    }
+
+    /**
+     * @param request The finished request.
+     * @param resCode The response code from the modem.
+     * @param latencyMillis The time the request took to finish.
+     * @return Whether the request failed.
+     */
+    private boolean handleOnSetSimPowerStateForSlotFinished(final Request request,
+            final int resCode, final long latencyMillis) {
+
         final String logPrefix = String.format(Locale.getDefault(),
-                "handleOnSetSimPowerStateForSlotFinished(resCode=%d) : requestMetadata=%s",
-                resCode, mRequestMetadata);
+                "handleOnSetSimPowerStateForSlotFinished(resCode=%d) : request=%s," +
+                "latencyMillis=%d", resCode, request, latencyMillis);
 
         boolean shouldNotifyAllListeners = false;
         boolean requestFailed = false;
@@ -306,8 +434,7 @@ public final class TelephonyController {
             }
         }
 
-        final Subscription sub = BundleCompat.getParcelable(mRequestMetadata, KEY_SUBSCRIPTION,
-                Subscription.class);
+        final Subscription sub = request.mSubscription;
 
         final boolean expectedEnabled = sub.isSimEnabled();
 
@@ -317,13 +444,9 @@ public final class TelephonyController {
                         resCode));
 
             sub.setSimState(TelephonyUtils.simStateInt(!expectedEnabled));
-            sub.setLastActivatedTime(LocalDateTime.parse(mRequestMetadata.getString(
-                            KEY_LAST_ACTIVATED_TIME)));
-            sub.setLastDeactivatedTime(LocalDateTime.parse(mRequestMetadata.getString(
-                            KEY_LAST_DEACTIVATED_TIME)));
-            sub.keepDisabledAcrossBoots(
-                mRequestMetadata.containsKey(KEY_KEEP_DISABLED_ACROSS_BOOTS) ?
-                mRequestMetadata.getBoolean(KEY_KEEP_DISABLED_ACROSS_BOOTS) : null);
+            sub.setLastActivatedTime(request.mLastActivatedTime);
+            sub.setLastDeactivatedTime(request.mLastDeactivatedTime);
+            sub.keepDisabledAcrossBoots(request.mKeepDisabledAcrossBootsMetadata);
 
             mSubscriptions.persistSubscription(sub);
 
@@ -334,12 +457,7 @@ public final class TelephonyController {
             // SIM is operational but Android telephony layer (e.g SubscriptionManager) believes
             // it's not. This behavior was discovered by manually testing the app on real devices
             // and it's likely to occur on non-QCOM SoCs
-            if (Utils.IS_AT_LEAST_S) {
-                mTelephonyManager.setSimPowerStateForSlot(sub.getSlotIndex(), revertState,
-                        (runnable) -> runnable.run(), (x) -> {});
-            } else {
-                setSimPowerStateForSlot(sub.getSlotIndex(), revertState);
-            }
+            setSimPowerStateForSlot(sub.getSlotIndex(), revertState, (x) -> {});
         }
 
         // If the user pulled out the SIM card while attempting to enable it, there's no guarantee
@@ -359,9 +477,7 @@ public final class TelephonyController {
         if (shouldNotifyAllListeners) {
             mSubscriptions.notifyAllListeners();
         }
-
-        // Nullify all the metadata as we no longer need them
-        mRequestMetadata.clear();
+        return requestFailed;
     }
 
     /**
@@ -375,12 +491,13 @@ public final class TelephonyController {
     /**
      * <p>The callback listener used on versions prior to Android 12 (API 31) that will notify us of
      * changes to the {@link TelephonyManager.SimState} for all available SIM cards. This is needed
-     * to determine success or failure of {@link #setSimPowerStateForSlot(int,int)} request.
+     * to determine success or failure of {@link #setSimPowerStateForSlot(int,int,Consumer)}
+     * request.
      *
      * <p>The listener will react to various carrier config changes, but here we're only interested in
      * some SIM states emitted by {@link TelephonyManager#ACTION_SIM_CARD_STATE_CHANGED} action.
      *
-     * <p>The listener will be unregistered after a timeout.
+     * <p>The listener will be unregistered once there are no more requests in flight.
      */
     private class SimStatusChangedListener implements Subscriptions.OnSimStatusChangedListener {
         @Override
@@ -400,20 +517,105 @@ public final class TelephonyController {
                 default: return;
             }
 
-            synchronized (mRequestMetadata) {
-                final Subscription sub = BundleCompat.getParcelable(mRequestMetadata,
-                        KEY_SUBSCRIPTION, Subscription.class);
-
-                if (sub.getSlotIndex() != slotIndex) {
-                    // Since we're listening to state mutations of all available SIM cards, we can
-                    // hypothetically receive a concurrent update for a different SIM card than the
-                    // one whose SIM power state we expect to change
-                    return;
+            mExecutor.execute(() -> {
+                // Since we're listening to state mutations of all available SIM cards, we can
+                // receive an update for a SIM card whose SIM power state we don't expect to change
+                final Request request = mInFlightRequests.get(slotIndex);
+                if (request != null) {
+                    onRequestFinished(request, state);
                 }
+            });
+        }
+    }
+
+    /** A SIM power state change request along with the metadata needed to finalize it. */
+    private static final class Request {
+        final int mSlotIndex;
+        final boolean mEnabled;
+        final boolean mKeepDisabledAcrossBoots;
+        final CompletableFuture<Boolean> mFuture = new CompletableFuture<>();
+
+        Subscription mSubscription;
+        LocalDateTime mLastActivatedTime;
+        LocalDateTime mLastDeactivatedTime;
+        Boolean mKeepDisabledAcrossBootsMetadata;
+        long mStartMillis;
+        ScheduledFuture<?> mTimeout;
+
+        Request(final int slotIndex, final boolean enabled, final boolean keepDisabledAcrossBoots) {
+            mSlotIndex = slotIndex;
+            mEnabled = enabled;
+            mKeepDisabledAcrossBoots = keepDisabledAcrossBoots;
+        }
+
+        @Override
+        public String toString() {
+            return "Request {"
+                + " slotIndex=" + mSlotIndex
+                + " enabled=" + mEnabled
+                + " keepDisabledAcrossBoots=" + mKeepDisabledAcrossBoots
+                + " subscription=" + mSubscription
+                + " }";
+        }
+    }
 
-                mRequestMetadata.putInt(KEY_REQUEST_RESPONSE_CODE, state);
-                mRequestMetadata.notifyAll();
+    /**
+     * The distribution of the SIM power state change request latencies over fixed buckets, where
+     * the last bucket counts the requests that ran into the timeout.
+     */
+    public static final class LatencyHistogram {
+        private static final long[] BUCKET_UPPER_BOUNDS_MILLIS = {
+            100, 250, 500, 1_000, 2_000, SET_SIM_POWER_STATE_REQUEST_TIMEOUT_MILLIS - 1,
+            Long.MAX_VALUE
+        };
+
+        private final long[] mCounts = new long[BUCKET_UPPER_BOUNDS_MILLIS.length];
+
+        void record(final long latencyMillis) {
+            int i = 0;
+            while (latencyMillis > BUCKET_UPPER_BOUNDS_MILLIS[i]) {
+                i++;
+            }
+            mCounts[i]++;
+        }
+
+        LatencyHistogram copy() {
+            final LatencyHistogram copy = new LatencyHistogram();
+            System.arraycopy(mCounts, 0, copy.mCounts, 0, mCounts.length);
+            return copy;
+        }
+
+        /** Return the number of buckets. */
+        public int getBucketCount() {
+            return mCounts.length;
+        }
+
+        /**
+         * Return the inclusive upper bound, in milliseconds, of a bucket, or
+         * {@link Long#MAX_VALUE} for the last bucket.
+         */
+        public long getBucketUpperBoundMillis(final int bucket) {
+            return BUCKET_UPPER_BOUNDS_MILLIS[bucket];
+        }
+
+        /** Return the number of requests in a bucket. */
+        public long getCount(final int bucket) {
+            return mCounts[bucket];
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("LatencyHistogram {");
+            for (int i = 0; i < mCounts.length; i++) {
+                sb.append(' ');
+                if (i < mCounts.length - 1) {
+                    sb.append("<=").append(BUCKET_UPPER_BOUNDS_MILLIS[i]).append("ms");
+                } else {
+                    sb.append("timeout");
+                }
+                sb.append('=').append(mCounts[i]);
             }
+            return sb.append(" }").toString();
         }
     }
 
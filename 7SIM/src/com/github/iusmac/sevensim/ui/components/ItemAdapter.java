@@ -46,9 +46,12 @@ import androidx.recyclerview.widget.SortedList;
 import androidx.recyclerview.widget.SortedListAdapterCallback;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * Base adapter class for displaying a collection of items. Provides functionality for
@@ -233,6 +236,36 @@ public class ItemAdapter<T extends ItemAdapter.ItemHolder<?>>
         return this;
     }
 
+    /**
+     * Replaces all item holders with the specified ones. Only the item holders that have been
+     * added, removed or whose item has changed are dispatched as changes. Pass the same instances
+     * for the unchanged items to keep their views bound as they are.
+     *
+     * @param itemHolders the item holders to replace the current ones with
+     * @param mayModifyInput if true, {@link ItemAdapter} is allowed to modify and permanently
+     * reference the input array
+     * @return this object, allowing calls to methods in this class to be chained
+     */
+    public ItemAdapter<?> replaceItems(@NonNull T[] itemHolders, boolean mayModifyInput) {
+        final Set<T> newItemHolders = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < itemHolders.length; i++) {
+            itemHolders[i].addOnItemChangedListener(mItemChangedNotifier);
+            newItemHolders.add(itemHolders[i]);
+        }
+        final List<T> oldItemHolders = new ArrayList<>(mItemHolders.size());
+        for (int i = 0, size = mItemHolders.size(); i < size; i++) {
+            oldItemHolders.add(mItemHolders.get(i));
+        }
+        mItemHolders.replaceAll(itemHolders, mayModifyInput);
+        // Detach the item holders that are gone
+        for (T itemHolder : oldItemHolders) {
+            if (!newItemHolders.contains(itemHolder)) {
+                itemHolder.removeOnItemChangedListener(mItemChangedNotifier);
+            }
+        }
+        return this;
+    }
+
     /**
      * Removes the first occurrence of the specified element from this list, if it is present
      * (optional operation). If this list does not contain the element, it is unchanged.
@@ -70,14 +70,20 @@ public final class CollapsedScheduleViewHolder extends ScheduleItemViewHolder {
         mDaysOfWeek = mEllipsizeLayout.findViewById(R.id.days_of_week);
         mHairline = itemView.findViewById(R.id.hairline);
 
-        // Expand handler
-        itemView.setOnClickListener((v) -> getItemHolder().expand());
-        mArrowContainer.setOnClickListener((v) -> getItemHolder().expand());
+        // Expand handler, unless the click is meant to (de)select the schedule
+        itemView.setOnClickListener((v) -> {
+            if (!getScheduleItemViewHolderClickHandler().onItemClicked(getItemHolder().item)) {
+                getItemHolder().expand();
+            }
+        });
+        mArrowContainer.setOnClickListener((v) -> itemView.performClick());
 
         // Edit time handler
         mClock.setOnClickListener((v) -> {
-            getScheduleItemViewHolderClickHandler().onClockClicked(getItemHolder().item);
-            getItemHolder().expand();
+            if (!getScheduleItemViewHolderClickHandler().onItemClicked(getItemHolder().item)) {
+                getScheduleItemViewHolderClickHandler().onClockClicked(getItemHolder().item);
+                getItemHolder().expand();
+            }
         });
     }
 
@@ -145,6 +145,9 @@ public final class ExpandedScheduleViewHolder extends ScheduleItemViewHolder {
                     getScheduleItemViewHolderClickHandler()
                         .onSubscriptionEnabledStateChanged(getItemHolder().item, newEnabled);
                 }
+            } else if (menuItem.getItemId() == R.id.scheduler_action_critical) {
+                getScheduleItemViewHolderClickHandler()
+                    .onCriticalStateChanged(getItemHolder().item, !menuItem.isChecked());
             } else {
                 throw new IllegalArgumentException("Unhandled menu action: " + menuItem);
             }
@@ -198,6 +201,8 @@ public final class ExpandedScheduleViewHolder extends ScheduleItemViewHolder {
         mActionPopupMenu.getMenu().findItem(itemHolder.item.getSubscriptionEnabled() ?
                 R.id.scheduler_action_activate_sim :
                 R.id.scheduler_action_deactivate_sim).setChecked(true);
+        mActionPopupMenu.getMenu().findItem(R.id.scheduler_action_critical)
+            .setChecked(itemHolder.item.getCritical());
 
         if (itemHolder.isActionPopupMenuVisible()) {
             // Ensure the PopupMenu is only shown after the anchor view has been laid out
@@ -45,6 +45,7 @@ public class ScheduleItemHolder extends ItemAdapter.ItemHolder<SubscriptionSched
     private boolean mExpanded;
     private boolean mActionPopupMenuVisible;
     private boolean mDeleteConfirmVisibile;
+    private boolean mSelected;
 
     private final ScheduleItemViewHolderClickHandler mScheduleItemViewHolderClickHandler;
 
@@ -84,6 +85,17 @@ public class ScheduleItemHolder extends ItemAdapter.ItemHolder<SubscriptionSched
         return mExpanded;
     }
 
+    void setSelected(final boolean selected) {
+        if (mSelected != selected) {
+            mSelected = selected;
+            notifyItemChanged();
+        }
+    }
+
+    boolean isSelected() {
+        return mSelected;
+    }
+
     void saveActionPopupMenuVisiblityState(final boolean visible) {
         mActionPopupMenuVisible = visible;
     }
@@ -84,6 +84,10 @@ public abstract class ScheduleItemViewHolder extends ItemAdapter.ItemViewHolder<
                     .onEnabledStateChanged(getItemHolder().item, checked);
             }
         });
+        itemView.setOnLongClickListener((v) -> {
+            getScheduleItemViewHolderClickHandler().onItemLongClicked(getItemHolder().item);
+            return true;
+        });
         itemView.setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_NO);
     }
 
@@ -95,6 +99,7 @@ public abstract class ScheduleItemViewHolder extends ItemAdapter.ItemViewHolder<
         bindClock(schedule);
         bindLabel(schedule);
         bindActionSummary(itemHolder);
+        itemView.setActivated(itemHolder.isSelected());
     }
 
     private void bindOnOffSwitch(final SubscriptionScheduleEntity schedule) {
@@ -7,6 +7,14 @@ import com.github.iusmac.sevensim.scheduler.SubscriptionScheduleEntity;
  * Click handler for a schedule item.
  */
 interface ScheduleItemViewHolderClickHandler {
+    /**
+     * @return {@code true} if the click has been consumed, e.g. to (de)select the schedule,
+     * otherwise {@code false}.
+     */
+    boolean onItemClicked(SubscriptionScheduleEntity schedule);
+
+    void onItemLongClicked(SubscriptionScheduleEntity schedule);
+
     void onClockClicked(SubscriptionScheduleEntity schedule);
 
     void onEditLabelClicked(SubscriptionScheduleEntity schedule);
@@ -18,5 +26,7 @@ interface ScheduleItemViewHolderClickHandler {
 
     void onSubscriptionEnabledStateChanged(SubscriptionScheduleEntity schedule, boolean enabled);
 
+    void onCriticalStateChanged(SubscriptionScheduleEntity schedule, boolean critical);
+
     void onDeleteClicked(SubscriptionScheduleEntity schedule);
 }
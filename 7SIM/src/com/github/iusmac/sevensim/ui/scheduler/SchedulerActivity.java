@@ -5,8 +5,13 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Process;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
 import androidx.core.os.BundleCompat;
 import androidx.lifecycle.ViewModel;
 import androidx.lifecycle.ViewModelProvider;
@@ -16,6 +21,7 @@ import com.github.iusmac.sevensim.R;
 import com.github.iusmac.sevensim.scheduler.SubscriptionScheduler;
 import com.github.iusmac.sevensim.telephony.Subscription;
 import com.github.iusmac.sevensim.telephony.Subscriptions;
+import com.github.iusmac.sevensim.telephony.SubscriptionsDiff;
 import com.github.iusmac.sevensim.ui.UiUtils;
 import com.github.iusmac.sevensim.ui.components.CollapsingToolbarBaseActivity;
 import com.github.iusmac.sevensim.ui.components.toolbar.ToolbarDecorator;
@@ -55,7 +61,20 @@ public final class SchedulerActivity extends Hilt_SchedulerActivity
 
     private Subscription mSubscription;
     private final Object mSubscriptionsChangedToken = new Object();
-    private boolean mSubscriptionsChangedListenerInitialized;
+
+    private final ActivityResultLauncher<String> mExportSchedulesLauncher =
+        registerForActivityResult(new ActivityResultContracts.CreateDocument("text/plain"),
+                (uri) -> {
+                    if (uri != null) {
+                        getViewModel().exportSchedules(uri);
+                    }
+                });
+    private final ActivityResultLauncher<String[]> mImportSchedulesLauncher =
+        registerForActivityResult(new ActivityResultContracts.OpenDocument(), (uri) -> {
+            if (uri != null) {
+                getViewModel().importSchedules(uri);
+            }
+        });
 
     @Override
     public ViewModel onCreateViewModel() {
@@ -114,6 +133,25 @@ public final class SchedulerActivity extends Hilt_SchedulerActivity
         }
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(final Menu menu) {
+        getMenuInflater().inflate(R.menu.scheduler, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(final MenuItem item) {
+        final int itemId = item.getItemId();
+        if (itemId == R.id.scheduler_export) {
+            mExportSchedulesLauncher.launch(getString(R.string.scheduler_export_file_name));
+            return true;
+        } else if (itemId == R.id.scheduler_import) {
+            mImportSchedulesLauncher.launch(new String[] { "text/plain" });
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     private void commitFragment() {
         final int containerViewId = com.android.settingslib.collapsingtoolbar.R.id.content_frame;
         getSupportFragmentManager().beginTransaction().add(containerViewId,
@@ -121,24 +159,21 @@ public final class SchedulerActivity extends Hilt_SchedulerActivity
     }
 
     @Override
-    public void onSubscriptionsChanged() {
-        mLogger.v("onSubscriptionsChanged().");
-
-        // Debouncing
-        final long delayMillis;
-        if (mSubscriptionsChangedListenerInitialized) {
-            delayMillis = 300;
-            sHandler.removeCallbacksAndMessages(mSubscriptionsChangedToken);
-        } else {
-            delayMillis = 0;
-            mSubscriptionsChangedListenerInitialized = true;
+    public void onSubscriptionsChanged(final @NonNull SubscriptionsDiff diff) {
+        mLogger.v("onSubscriptionsChanged(diff=%s).", diff);
+
+        // Nothing to refresh if the changes don't concern this SIM subscription, unless we're asked
+        // to refresh anyway. Note that, the bursts of subscription changes are already coalesced
+        if (!diff.isEmpty() && !diff.contains(mSubscription.getId())) {
+            return;
         }
 
-        sHandler.postDelayed(() -> mSubscriptions.getSubscriptionForSubId(mSubscription.getId())
-                .ifPresent((sub) -> runOnUiThread(() -> super.setTitle(sub.getSimName()))),
-                mSubscriptionsChangedToken, delayMillis);
-        sHandler.postDelayed(() -> getViewModel().refreshNextUpcomingScheduleSummary(),
-                mSubscriptionsChangedToken, delayMillis);
+        final SchedulerViewModel viewModel = getViewModel();
+        sHandler.postDelayed(() -> {
+            mSubscriptions.getSubscriptionForSubId(mSubscription.getId()).ifPresent((sub) ->
+                    runOnUiThread(() -> super.setTitle(sub.getSimName())));
+            viewModel.refreshNextUpcomingScheduleSummary();
+        }, mSubscriptionsChangedToken, /*delayMillis=*/ 0);
     }
 
     @Override
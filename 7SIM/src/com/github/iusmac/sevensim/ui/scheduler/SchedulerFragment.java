@@ -1,14 +1,18 @@
 package com.github.iusmac.sevensim.ui.scheduler;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.os.Bundle;
 import android.text.InputType;
+import android.util.LongSparseArray;
+import android.view.ActionMode;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.Menu;
+import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
@@ -37,6 +41,7 @@ import com.github.iusmac.sevensim.Logger;
 import com.github.iusmac.sevensim.R;
 import com.github.iusmac.sevensim.Utils;
 import com.github.iusmac.sevensim.scheduler.DayOfWeek;
+import com.github.iusmac.sevensim.scheduler.ScheduleConflict;
 import com.github.iusmac.sevensim.scheduler.SubscriptionScheduleEntity;
 import com.github.iusmac.sevensim.telephony.TelephonyUtils;
 import com.github.iusmac.sevensim.ui.AuthenticationPromptActivity;
@@ -53,7 +58,11 @@ import dagger.hilt.android.AndroidEntryPoint;
 
 import java.time.LocalTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -101,17 +110,22 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
     private static final String ACTION_AUTH_HANDLE_ON_SCHEDULE_DELETED =
         "action_auth_handle_on_schedule_deleted";
 
+    private static final String ACTION_AUTH_HANDLE_ON_BULK_ACTION =
+        "action_auth_handle_on_bulk_action";
+
     private static final String EXTRA_PIN = "pin";
     private static final String EXTRA_ENABLED = "enabled";
     private static final String EXTRA_SIM_ENABLED = "sim_enabled";
     private static final String EXTRA_DAY_OF_WEEK = "day_of_week";
     private static final String EXTRA_DAY_OF_WEEK_ENABLED = "day_of_week_enabled";
     private static final String EXTRA_TIME = "time";
+    private static final String EXTRA_BULK_ACTION = "bulk_action";
 
     private static final String SAVED_PIN_POPUP_VISIBLE = "pinPopupVisible";
     private static final String SAVED_EXPANDED_SCHEDULE_ID = "expandedScheduleId";
     private static final String SAVED_EXPANDED_SCHEDULE_STATE = "expandedScheduleState";
     private static final String SAVED_SELECTED_SCHEDULE_ID = "selectedScheduleId";
+    private static final String SAVED_MULTI_SELECTED_SCHEDULE_IDS = "multiSelectedScheduleIds";
 
     private static final String PIN_PROMPT_RESULT_REQUEST_KEY = "pin_prompt_result";
     private static final String EDIT_LABEL_RESULT_REQUEST_KEY = "edit_label_result";
@@ -135,6 +149,12 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
     private Bundle mExpandedScheduleSavedState;
     private SubscriptionScheduleEntity mSelectedSchedule;
 
+    /** The IDs of the schedules selected for a bulk action, in selection order. */
+    private final Set<Long> mMultiSelectedScheduleIds = new LinkedHashSet<>();
+    private ActionMode mMultiSelectionActionMode;
+    private final ActionMode.Callback mMultiSelectionActionModeCallback =
+        new MultiSelectionActionModeCallback();
+
     private RecyclerView mRecyclerView;
     private ConcatAdapter mConcatAdapter;
     private final ItemAdapter<ScheduleItemHolder> mItemAdapter =
@@ -183,6 +203,10 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
                 handleOnScheduleDeleted();
                 break;
 
+            case ACTION_AUTH_HANDLE_ON_BULK_ACTION:
+                handleOnBulkAction(data.getIntExtra(EXTRA_BULK_ACTION, 0));
+                break;
+
             case ACTION_AUTH_HANDLE_ON_PIN_CHANGED:
                 mViewModel.handleOnPinChanged(data.getStringExtra(EXTRA_PIN));
                 break;
@@ -325,17 +349,25 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
         });
         mConcatAdapter.addAdapter(mItemAdapter);
 
-        mViewModel.getSchedules().observe(getViewLifecycleOwner(), (scheduleList) ->
-                scheduleList.ifPresent((schedules) -> {
-                    if (!schedules.isEmpty()) {
-                        final ScheduleItemHolder[] items = schedules.stream()
-                            .map((schedule) -> new ScheduleItemHolder(schedule, this))
-                            .toArray(ScheduleItemHolder[]::new);
-                        addAdapterItems(items);
-                    } else {
-                        mEmptyViewPref.setVisible(true);
-                    }
-                }));
+        mViewModel.getSchedules().observe(getViewLifecycleOwner(), (schedules) -> {
+            final LongSparseArray<ScheduleItemHolder> itemHolders =
+                new LongSparseArray<>(mItemAdapter.getItemCount());
+            for (int i = 0, count = mItemAdapter.getItemCount(); i < count; i++) {
+                final ScheduleItemHolder itemHolder = mItemAdapter.getItemByPosition(i);
+                itemHolders.put(itemHolder.itemId, itemHolder);
+            }
+            final ScheduleItemHolder[] items = new ScheduleItemHolder[schedules.size()];
+            for (int i = 0; i < items.length; i++) {
+                final SubscriptionScheduleEntity schedule = schedules.get(i);
+                final ScheduleItemHolder itemHolder = itemHolders.get(schedule.getId());
+                // Keep the item holders of the unchanged schedules, so that their views won't be
+                // rebound
+                items[i] = itemHolder != null && itemHolder.item == schedule ? itemHolder :
+                    new ScheduleItemHolder(schedule, this);
+            }
+            mEmptyViewPref.setVisible(items.length == 0);
+            setAdapterItems(items);
+        });
 
         mViewModel.getScheduleAddedListener().observe(getViewLifecycleOwner(), (schedule) -> {
             if (schedule != null && mItemAdapter.findItemById(schedule.getId()) == null) {
@@ -345,6 +377,18 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
                 mRecyclerView.post(() -> addAdapterItems(new ScheduleItemHolder(schedule, this)));
             }
         });
+
+        mViewModel.getScheduleConflicts().observe(getViewLifecycleOwner(), (conflicts) -> {
+            if (conflicts.isEmpty()) {
+                return;
+            }
+            // Contradicting schedules deserve a stronger warning than duplicate ones
+            final boolean redundant = conflicts.stream().allMatch(ScheduleConflict::isRedundant);
+            Utils.makeToast(requireContext(), getString(redundant ?
+                        R.string.scheduler_schedule_redundant :
+                        R.string.scheduler_schedule_conflicting));
+            mViewModel.handleOnScheduleConflictsReported();
+        });
     }
 
     private void setupPinFab() {
@@ -434,6 +478,14 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
         refreshScheduleItem(mSelectedSchedule.getId());
     }
 
+    private void handleOnCriticalStateChanged(final boolean critical) {
+        // No authentication is needed, since the wake-up time changes, but the PIN codes that will
+        // be supplied to the SIM subscriptions don't
+        mViewModel.handleOnCriticalStateChanged(mSelectedSchedule, critical);
+        // Reflect the updated critical state in the selected schedule
+        refreshScheduleItem(mSelectedSchedule.getId());
+    }
+
     private void handleOnEnabledStateChanged(final boolean enabled) {
         if (mViewModel.isPinPresent() && mViewModel.isAuthenticationRequired()) {
             final Bundle payload = new Bundle(1);
@@ -491,6 +543,59 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
         }
     }
 
+    /**
+     * @param actionId The menu item ID of the action to perform on all selected schedules.
+     */
+    private void handleOnBulkAction(final int actionId) {
+        if (mViewModel.isPinPresent() && mViewModel.isAuthenticationRequired()) {
+            final Bundle payload = new Bundle(1);
+            payload.putInt(EXTRA_BULK_ACTION, actionId);
+            authenticateAndRunAction(ACTION_AUTH_HANDLE_ON_BULK_ACTION, payload);
+            return;
+        }
+
+        final List<SubscriptionScheduleEntity> schedules =
+            new ArrayList<>(mMultiSelectedScheduleIds.size());
+        for (long scheduleId : mMultiSelectedScheduleIds) {
+            final ScheduleItemHolder itemHolder = mItemAdapter.findItemById(scheduleId);
+            if (itemHolder != null) {
+                schedules.add(itemHolder.item);
+            }
+        }
+        if (schedules.isEmpty()) {
+            return;
+        }
+
+        if (actionId == R.id.scheduler_selection_enable ||
+                actionId == R.id.scheduler_selection_disable) {
+            mViewModel.handleOnBulkEnabledStateChanged(schedules,
+                    actionId == R.id.scheduler_selection_enable);
+            // Refresh the schedules to update the views depended on the enabled state
+            schedules.forEach((schedule) -> refreshScheduleItem(schedule.getId()));
+        } else if (actionId == R.id.scheduler_selection_duplicate) {
+            mViewModel.handleOnBulkDuplicated(schedules);
+        } else if (actionId == R.id.scheduler_selection_delete) {
+            for (SubscriptionScheduleEntity schedule : schedules) {
+                mItemAdapter.removeItemAt(mItemAdapter.getPosition(schedule.getId()));
+                if (mExpandedScheduleId == schedule.getId()) {
+                    mExpandedScheduleId = INVALID_SCHEDULE_ID;
+                }
+                if (mSelectedSchedule != null && mSelectedSchedule.getId() == schedule.getId()) {
+                    mSelectedSchedule = null;
+                }
+            }
+            mMultiSelectedScheduleIds.clear();
+            mViewModel.handleOnBulkDeleted(schedules);
+        } else {
+            mLogger.wtf("handleOnBulkAction(actionId=%d) : Unhandled action.", actionId);
+            return;
+        }
+
+        if (mMultiSelectionActionMode != null) {
+            mMultiSelectionActionMode.finish();
+        }
+    }
+
     private void handleOnPinChanged(final String pin) {
         // Proceed only if PIN string meets the UICC specs
         if (!TelephonyUtils.isValidPin(pin)) {
@@ -519,14 +624,48 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
     private void addAdapterItems(final ScheduleItemHolder... items) {
         mLogger.d("addAdapterItems(items.size=%d).", items.length);
 
+        updateAdapterItems(/*replace=*/ false, items);
+    }
+
+    /**
+     * Replace all adapter items with the given ones, deferring the request the same way as
+     * {@link #addAdapterItems(ScheduleItemHolder...)}. Only the items that have been added,
+     * removed or changed are rebound.
+     *
+     * @param items The array of {@link ScheduleItemHolder} to replace the current items with.
+     */
+    private void setAdapterItems(final ScheduleItemHolder... items) {
+        mLogger.d("setAdapterItems(items.size=%d).", items.length);
+
+        updateAdapterItems(/*replace=*/ true, items);
+    }
+
+    /**
+     * @param replace Whether the items replace the current ones, rather than being added to them.
+     * @param items The array of {@link ScheduleItemHolder} to add or replace with.
+     */
+    private void updateAdapterItems(final boolean replace, final ScheduleItemHolder... items) {
         if (mRecyclerView.isAnimating()) {
             // RecyclerView is currently animating -> defer update
-            mRecyclerView.getItemAnimator().isRunning(() -> addAdapterItems(items));
+            mRecyclerView.getItemAnimator().isRunning(() -> updateAdapterItems(replace, items));
         } else if (mRecyclerView.isComputingLayout()) {
             // RecyclerView is currently computing a layout -> defer update
-            mRecyclerView.post(() -> addAdapterItems(items));
+            mRecyclerView.post(() -> updateAdapterItems(replace, items));
         } else {
-            if (items.length == 1) {
+            if (replace) {
+                mItemAdapter.replaceItems(items, /*mayModifyInput=*/ true);
+
+                // The selected schedule may have been replaced by a fresh instance or be gone
+                if (mSelectedSchedule != null) {
+                    final ScheduleItemHolder itemHolder =
+                        mItemAdapter.findItemById(mSelectedSchedule.getId());
+                    mSelectedSchedule = itemHolder != null ? itemHolder.item : null;
+                }
+                if (mMultiSelectedScheduleIds.removeIf((scheduleId) ->
+                            mItemAdapter.findItemById(scheduleId) == null)) {
+                    updateMultiSelectionActionMode();
+                }
+            } else if (items.length == 1) {
                 mItemAdapter.addItem(items[0]);
             } else if (items.length > 1) {
                 mItemAdapter.addItems(items, /*mayModifyInput=*/ true);
@@ -542,6 +681,17 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
                 mSelectedScheduleId = INVALID_SCHEDULE_ID;
             }
 
+            // Restore the multi-selection, if any
+            if (!mMultiSelectedScheduleIds.isEmpty()) {
+                for (long scheduleId : mMultiSelectedScheduleIds) {
+                    final ScheduleItemHolder itemHolder = mItemAdapter.findItemById(scheduleId);
+                    if (itemHolder != null) {
+                        itemHolder.setSelected(true);
+                    }
+                }
+                updateMultiSelectionActionMode();
+            }
+
             // Expand the schedule before scrolling to it
             if (mScrollToScheduleId != INVALID_SCHEDULE_ID) {
                 final ScheduleItemHolder itemHolder =
@@ -575,6 +725,67 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
         }
     }
 
+    @Override
+    public boolean onItemClicked(final SubscriptionScheduleEntity schedule) {
+        if (mMultiSelectionActionMode == null) {
+            return false;
+        }
+        toggleMultiSelection(schedule.getId());
+        return true;
+    }
+
+    @Override
+    public void onItemLongClicked(final SubscriptionScheduleEntity schedule) {
+        mLogger.d("onItemLongClicked(schedule=%s).", schedule);
+
+        // The expanded schedule only gets in the way while selecting multiple schedules
+        final ScheduleItemHolder expandedItemHolder =
+            mItemAdapter.findItemById(mExpandedScheduleId);
+        if (expandedItemHolder != null) {
+            expandedItemHolder.collapse();
+        }
+        toggleMultiSelection(schedule.getId());
+    }
+
+    /**
+     * @param scheduleId The ID of the schedule to add to or remove from the multi-selection.
+     */
+    private void toggleMultiSelection(final long scheduleId) {
+        final ScheduleItemHolder itemHolder = mItemAdapter.findItemById(scheduleId);
+        if (itemHolder == null) {
+            return;
+        }
+
+        if (mMultiSelectedScheduleIds.remove(scheduleId)) {
+            itemHolder.setSelected(false);
+        } else {
+            mMultiSelectedScheduleIds.add(scheduleId);
+            itemHolder.setSelected(true);
+        }
+        updateMultiSelectionActionMode();
+    }
+
+    /**
+     * Start, update or finish the multi-selection action mode to reflect the selected schedules.
+     */
+    private void updateMultiSelectionActionMode() {
+        if (mMultiSelectedScheduleIds.isEmpty()) {
+            if (mMultiSelectionActionMode != null) {
+                mMultiSelectionActionMode.finish();
+            }
+            return;
+        }
+
+        if (mMultiSelectionActionMode == null) {
+            mMultiSelectionActionMode =
+                requireActivity().startActionMode(mMultiSelectionActionModeCallback);
+        }
+        if (mMultiSelectionActionMode != null) {
+            mMultiSelectionActionMode.setTitle(getString(R.string.scheduler_selection_title,
+                        mMultiSelectedScheduleIds.size()));
+        }
+    }
+
     @Override
     public void onClockClicked(final SubscriptionScheduleEntity schedule) {
         mLogger.d("onClockClicked(schedule=%s).", schedule);
@@ -631,6 +842,16 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
         handleOnSubscriptionEnabledStateChanged(enabled);
     }
 
+    @Override
+    public void onCriticalStateChanged(final SubscriptionScheduleEntity schedule,
+            final boolean critical) {
+
+        mLogger.d("onCriticalStateChanged(schedule=%s,critical=%s).", schedule, critical);
+
+        mSelectedSchedule = schedule;
+        handleOnCriticalStateChanged(critical);
+    }
+
     @Override
     public void onDeleteClicked(final SubscriptionScheduleEntity schedule) {
         mLogger.d("onDeleteClicked(schedule=%s).", schedule);
@@ -779,6 +1000,10 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
         if (mSelectedSchedule != null) {
             outState.putLong(SAVED_SELECTED_SCHEDULE_ID, mSelectedSchedule.getId());
         }
+        if (!mMultiSelectedScheduleIds.isEmpty()) {
+            outState.putLongArray(SAVED_MULTI_SELECTED_SCHEDULE_IDS, mMultiSelectedScheduleIds
+                    .stream().mapToLong(Long::longValue).toArray());
+        }
     }
 
     @Override
@@ -795,9 +1020,24 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
                 savedInstanceState.getBundle(SAVED_EXPANDED_SCHEDULE_STATE);
             mSelectedScheduleId = savedInstanceState.getLong(SAVED_SELECTED_SCHEDULE_ID,
                     INVALID_SCHEDULE_ID);
+            final long[] multiSelectedScheduleIds =
+                savedInstanceState.getLongArray(SAVED_MULTI_SELECTED_SCHEDULE_IDS);
+            if (multiSelectedScheduleIds != null) {
+                for (long scheduleId : multiSelectedScheduleIds) {
+                    mMultiSelectedScheduleIds.add(scheduleId);
+                }
+            }
         }
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        // Apply the schedule edits as soon as the user leaves the screen
+        mViewModel.commitPendingEdits();
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -807,6 +1047,52 @@ public final class SchedulerFragment extends Hilt_SchedulerFragment
         }
     }
 
+    /**
+     * This class is responsible for the contextual action bar offering the bulk actions on the
+     * selected schedules.
+     */
+    private final class MultiSelectionActionModeCallback implements ActionMode.Callback {
+        @Override
+        public boolean onCreateActionMode(final ActionMode mode, final Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.scheduler_selection_options, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(final ActionMode mode, final Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(final ActionMode mode, final MenuItem item) {
+            final int actionId = item.getItemId();
+            if (actionId == R.id.scheduler_selection_delete) {
+                new AlertDialog.Builder(requireContext())
+                    .setTitle(R.string.scheduler_delete)
+                    .setMessage(R.string.scheduler_delete_message)
+                    .setPositiveButton(android.R.string.ok, (dialog, which) ->
+                            handleOnBulkAction(actionId))
+                    .setNegativeButton(android.R.string.cancel, null)
+                    .show();
+            } else {
+                handleOnBulkAction(actionId);
+            }
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(final ActionMode mode) {
+            for (long scheduleId : mMultiSelectedScheduleIds) {
+                final ScheduleItemHolder itemHolder = mItemAdapter.findItemById(scheduleId);
+                if (itemHolder != null) {
+                    itemHolder.setSelected(false);
+                }
+            }
+            mMultiSelectedScheduleIds.clear();
+            mMultiSelectionActionMode = null;
+        }
+    }
+
     /**
      * This class will be used by the {@link RecyclerView} to accomodate more items in the viewport
      * by leveraging the {@link AppBarLayout} expansion. It also aims to handle the RV preemptive
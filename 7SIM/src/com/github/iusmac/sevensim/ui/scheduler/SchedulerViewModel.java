@@ -6,9 +6,11 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 import androidx.core.content.ContextCompat;
@@ -25,9 +27,11 @@ import com.github.iusmac.sevensim.R;
 import com.github.iusmac.sevensim.Utils;
 import com.github.iusmac.sevensim.scheduler.DayOfWeek;
 import com.github.iusmac.sevensim.scheduler.DaysOfWeek;
+import com.github.iusmac.sevensim.scheduler.ScheduleConflict;
 import com.github.iusmac.sevensim.scheduler.SubscriptionScheduleEntity;
 import com.github.iusmac.sevensim.scheduler.SubscriptionScheduler;
 import com.github.iusmac.sevensim.scheduler.SubscriptionSchedulerSummaryBuilder;
+import com.github.iusmac.sevensim.scheduler.SubscriptionSchedulesTransfer;
 import com.github.iusmac.sevensim.telephony.PinEntity;
 import com.github.iusmac.sevensim.telephony.PinStorage;
 import com.github.iusmac.sevensim.telephony.Subscriptions;
@@ -37,14 +41,29 @@ import dagger.assisted.AssistedFactory;
 import dagger.assisted.AssistedInject;
 import dagger.hilt.android.qualifiers.ApplicationContext;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public final class SchedulerViewModel extends ViewModel {
+    /**
+     * The time of inactivity after the last edit, after which the pending schedule edits are
+     * committed.
+     */
+    private static final long EDIT_SESSION_IDLE_TIMEOUT_MILLIS = 1_500;
+
     private final Resources mResources;
     private final Handler mHandler;
     private final IntentReceiver mIntentReceiver = new IntentReceiver();
@@ -58,12 +77,48 @@ public final class SchedulerViewModel extends ViewModel {
     private final MutableLiveData<Boolean> mMutablePinTaskLock = new MutableLiveData<>(false);
     private LiveData<Optional<PinErrorMessage>> mObseravblePinErrorMessage;
 
-    private final MutableLiveData<Optional<List<SubscriptionScheduleEntity>>> mMutableSchedules =
-        new MutableLiveData<>(Optional.empty());
+    private final MediatorLiveData<List<SubscriptionScheduleEntity>> mMediatorSchedules =
+        new MediatorLiveData<>();
 
     private final MutableLiveData<SubscriptionScheduleEntity> mMutableScheduleAddedListener =
             new MutableLiveData<>();
 
+    private final MutableLiveData<List<ScheduleConflict>> mMutableScheduleConflicts =
+        new MutableLiveData<>(Collections.emptyList());
+
+    /**
+     * The existing schedules edited in memory, but not yet committed to the database, keyed by
+     * their IDs.
+     */
+    @GuardedBy("mPendingEdits")
+    private final Map<Long, SubscriptionScheduleEntity> mPendingEdits = new LinkedHashMap<>();
+    private final Runnable mCommitPendingEditsRunnable = this::commitPendingEditsNow;
+
+    /**
+     * The IDs of the schedules deleted in memory, but possibly still present in the database
+     * until the deletion is written.
+     */
+    @GuardedBy("mPendingEdits")
+    private final Set<Long> mDeletedScheduleIds = new HashSet<>();
+
+    /**
+     * The schedules as they were last posted to {@link #mMediatorSchedules}. Only accessed on the
+     * worker thread.
+     */
+    private List<SubscriptionScheduleEntity> mSchedules;
+
+    /**
+     * The instances of {@link #mSchedules} keyed by their IDs. Only accessed on the worker thread.
+     */
+    private Map<Long, SubscriptionScheduleEntity> mSchedulesById = Collections.emptyMap();
+
+    /**
+     * The schedules written to the database, but not yet delivered back by the observable query,
+     * keyed by their IDs. Their instances are the ones already shown to the user, so they take
+     * precedence over stale query results. Only accessed on the worker thread.
+     */
+    private final Map<Long, SubscriptionScheduleEntity> mUnconfirmedSchedules = new HashMap<>();
+
     @SuppressLint("StaticFieldLeak")
     private final Context mContext;
     private final Logger mLogger;
@@ -71,6 +126,7 @@ public final class SchedulerViewModel extends ViewModel {
     private final SubscriptionScheduler mSubscriptionScheduler;
     private final Subscriptions mSubscriptions;
     private final SubscriptionSchedulerSummaryBuilder mSubscriptionSchedulerSummaryBuilder;
+    private final SubscriptionSchedulesTransfer mSubscriptionSchedulesTransfer;
     private final PinStorage mPinStorage;
     private final int mSubscriptionId;
 
@@ -81,6 +137,7 @@ public final class SchedulerViewModel extends ViewModel {
             final SubscriptionScheduler subscriptionScheduler,
             final Subscriptions subscriptions,
             final SubscriptionSchedulerSummaryBuilder subscriptionSchedulerSummaryBuilder,
+            final SubscriptionSchedulesTransfer subscriptionSchedulesTransfer,
             final PinStorage pinStorage,
             final @Assisted int subscriptionId,
             final @Assisted Looper looper) {
@@ -91,6 +148,7 @@ public final class SchedulerViewModel extends ViewModel {
         mSubscriptionScheduler = subscriptionScheduler;
         mSubscriptions = subscriptions;
         mSubscriptionSchedulerSummaryBuilder = subscriptionSchedulerSummaryBuilder;
+        mSubscriptionSchedulesTransfer = subscriptionSchedulesTransfer;
         mPinStorage = pinStorage;
         mSubscriptionId = subscriptionId;
 
@@ -100,9 +158,10 @@ public final class SchedulerViewModel extends ViewModel {
         mMediatorPinEntity.addSource(mPinStorage.getObservablePin(mSubscriptionId), (pinEntity) ->
                 mMediatorPinEntity.setValue(pinEntity));
 
-        // Fetch data from the database
-        mHandler.post(() -> mMutableSchedules.postValue(Optional.of(mSubscriptionScheduler
-                    .findAllBySubscriptionId(subscriptionId))));
+        // Observe the schedules in the database, but process them off the main thread
+        mMediatorSchedules.addSource(mSubscriptionScheduler
+                .getObservableAllBySubscriptionId(mSubscriptionId), (schedules) ->
+                mHandler.post(() -> handleOnSchedulesQueried(schedules)));
 
         final IntentFilter filter = new IntentFilter();
         filter.addAction(Intent.ACTION_LOCALE_CHANGED);
@@ -121,10 +180,11 @@ public final class SchedulerViewModel extends ViewModel {
     }
 
     /**
-     * Return an observable containing the list of schedules, if any.
+     * Return an observable containing the list of schedules. The unchanged schedules keep their
+     * instances across emissions, so they can be matched by identity.
      */
-    LiveData<Optional<List<SubscriptionScheduleEntity>>> getSchedules() {
-        return mMutableSchedules;
+    LiveData<List<SubscriptionScheduleEntity>> getSchedules() {
+        return mMediatorSchedules;
     }
 
     /**
@@ -134,6 +194,14 @@ public final class SchedulerViewModel extends ViewModel {
         return mMutableScheduleAddedListener;
     }
 
+    /**
+     * Return an observable containing the schedules contradicting or duplicating the most recently
+     * edited schedule, which is empty if there are none or they have been already reported.
+     */
+    LiveData<List<ScheduleConflict>> getScheduleConflicts() {
+        return mMutableScheduleConflicts;
+    }
+
     /**
      * Return an observable containing the PIN presence status.
      */
@@ -187,6 +255,7 @@ public final class SchedulerViewModel extends ViewModel {
         mLogger.d("handleOnEnabledStateChanged(schedule=%s,enabled=%s).", schedule, enabled);
 
         schedule.setEnabled(enabled);
+        checkConflicts(schedule);
         persist(schedule);
     }
 
@@ -201,6 +270,7 @@ public final class SchedulerViewModel extends ViewModel {
                 enabled);
 
         schedule.setSubscriptionEnabled(enabled);
+        checkConflicts(schedule);
         persist(schedule);
     }
 
@@ -230,6 +300,7 @@ public final class SchedulerViewModel extends ViewModel {
                 schedule, dayOfWeek, enabled, daysOfWeek);
 
         schedule.setDaysOfWeek(daysOfWeek);
+        checkConflicts(schedule);
         persist(schedule);
     }
 
@@ -244,6 +315,7 @@ public final class SchedulerViewModel extends ViewModel {
         mLogger.d("handleOnTimeChanged(schedule=%s,value=%s).", schedule, value);
 
         schedule.setTime(DateTimeUtils.parseWallClockTime(value));
+        checkConflicts(schedule);
         persist(schedule);
     }
 
@@ -275,20 +347,143 @@ public final class SchedulerViewModel extends ViewModel {
         persist(schedule);
     }
 
+    /**
+     * @param schedule The schedule entity whose critical state has been changed.
+     * @param critical Whether the schedule must be processed at its exact time.
+     */
+    void handleOnCriticalStateChanged(final @NonNull SubscriptionScheduleEntity schedule,
+            final boolean critical) {
+
+        mLogger.d("handleOnCriticalStateChanged(schedule=%s,critical=%s).", schedule, critical);
+
+        schedule.setCritical(critical);
+        persist(schedule);
+    }
+
+    /**
+     * Called once the schedule conflicts have been shown to the user, so that they won't be
+     * reported again, e.g. on configuration change.
+     */
+    void handleOnScheduleConflictsReported() {
+        mMutableScheduleConflicts.setValue(Collections.emptyList());
+    }
+
     /**
      * @param schedule The schedule entity that has been deleted.
      */
     void handleOnDeleted(final @NonNull SubscriptionScheduleEntity schedule) {
         mLogger.d("handleOnDeleted(schedule=%s).", schedule);
 
-        mMutableSchedules.getValue().ifPresent((schedules) -> schedules.remove(schedule));
         // While we're at it, wipe out the added schedule, as it could be the schedule we just
         // removed and we don't want it to appear again
         mMutableScheduleAddedListener.setValue(null);
+        // There's no point in committing the pending edits of a schedule that is being deleted
+        dropPendingEdits(Collections.singletonList(schedule), /*deleted=*/ true);
         mHandler.post(() -> mSubscriptionScheduler.delete(schedule));
         refreshNextUpcomingScheduleSummaryAsync();
     }
 
+    /**
+     * @param schedules The schedule entities whose enabled state has been changed at once.
+     * @param enabled {@code true} if the schedules are being enabled, otherwise {@code false}.
+     */
+    void handleOnBulkEnabledStateChanged(final @NonNull List<SubscriptionScheduleEntity> schedules,
+            final boolean enabled) {
+
+        mLogger.d("handleOnBulkEnabledStateChanged(schedules=%s,enabled=%s).", schedules, enabled);
+
+        schedules.forEach((schedule) -> schedule.setEnabled(enabled));
+        // The batch is written right away along with any other pending edit of these schedules
+        dropPendingEdits(schedules, /*deleted=*/ false);
+        mHandler.post(() -> update(schedules));
+        refreshNextUpcomingScheduleSummaryAsync();
+    }
+
+    /**
+     * Add a copy of each of the given schedules at once. The copies will be delivered via
+     * {@link #getSchedules()} once added.
+     *
+     * @param schedules The schedule entities to duplicate.
+     */
+    void handleOnBulkDuplicated(final @NonNull List<SubscriptionScheduleEntity> schedules) {
+        mLogger.d("handleOnBulkDuplicated(schedules=%s).", schedules);
+
+        final List<SubscriptionScheduleEntity> copies = new ArrayList<>(schedules.size());
+        for (SubscriptionScheduleEntity schedule : schedules) {
+            final SubscriptionScheduleEntity copy = createSchedule(schedule.getTime());
+            copy.setSubscriptionEnabled(schedule.getSubscriptionEnabled());
+            copy.setLabel(schedule.getLabel());
+            copy.setEnabled(schedule.getEnabled());
+            copy.setDaysOfWeek(schedule.getDaysOfWeek());
+            copy.setCritical(schedule.getCritical());
+            copies.add(copy);
+        }
+        mHandler.post(() -> mSubscriptionScheduler.add(copies));
+        refreshNextUpcomingScheduleSummaryAsync();
+    }
+
+    /**
+     * @param schedules The schedule entities that have been deleted at once.
+     */
+    void handleOnBulkDeleted(final @NonNull List<SubscriptionScheduleEntity> schedules) {
+        mLogger.d("handleOnBulkDeleted(schedules=%s).", schedules);
+
+        // While we're at it, wipe out the added schedule, as it could be one of the schedules we
+        // just removed and we don't want it to appear again
+        mMutableScheduleAddedListener.setValue(null);
+        dropPendingEdits(schedules, /*deleted=*/ true);
+        mHandler.post(() -> mSubscriptionScheduler.delete(schedules));
+        refreshNextUpcomingScheduleSummaryAsync();
+    }
+
+    /**
+     * Export the schedules of this scheduler's SIM subscription.
+     *
+     * @param uri The URI of the document to write to.
+     */
+    void exportSchedules(final @NonNull Uri uri) {
+        mLogger.d("exportSchedules(uri=%s).", uri);
+
+        // Ensure the latest edits are part of the export
+        commitPendingEdits();
+        mHandler.post(() -> {
+            try (OutputStream out = mContext.getContentResolver().openOutputStream(uri, "wt")) {
+                final int count = mSubscriptionSchedulesTransfer.exportSchedules(out,
+                        mSubscriptionId);
+                Utils.makeToast(mContext, mResources.getString(R.string.scheduler_export_done,
+                            count));
+            } catch (IOException | RuntimeException e) {
+                mLogger.e("exportSchedules(uri=%s) : %s.", uri, e);
+                Utils.makeToast(mContext,
+                        mResources.getString(R.string.scheduler_transfer_failed));
+            }
+        });
+    }
+
+    /**
+     * Import schedules into this scheduler's SIM subscription. The schedules will be delivered via
+     * {@link #getSchedules()} once added.
+     *
+     * @param uri The URI of the document to read from.
+     */
+    void importSchedules(final @NonNull Uri uri) {
+        mLogger.d("importSchedules(uri=%s).", uri);
+
+        mHandler.post(() -> {
+            try (InputStream in = mContext.getContentResolver().openInputStream(uri)) {
+                final List<SubscriptionScheduleEntity> schedules =
+                    mSubscriptionSchedulesTransfer.importSchedules(in, mSubscriptionId);
+                refreshNextUpcomingScheduleSummary();
+                Utils.makeToast(mContext, mResources.getString(R.string.scheduler_import_done,
+                            schedules.size()));
+            } catch (IOException | RuntimeException e) {
+                mLogger.e("importSchedules(uri=%s) : %s.", uri, e);
+                Utils.makeToast(mContext,
+                        mResources.getString(R.string.scheduler_transfer_failed));
+            }
+        });
+    }
+
     /**
      * @param pin The SIM PIN as string.
      */
@@ -318,8 +513,7 @@ public final class SchedulerViewModel extends ViewModel {
             // In order to supply the SIM subscription PIN codes to the active SIM subscriptions
             // found on the device when processing schedules at the stated time, we need to
             // re-schedule using the list of all decrypted SIM PIN entities
-            final List<PinEntity> pinEntities = mPinStorage.getPinEntities();
-            pinEntities.forEach((pinEntity1) -> mPinStorage.decrypt(pinEntity1));
+            final List<PinEntity> pinEntities = mPinStorage.getDecryptedPinEntities();
             mSubscriptionScheduler.updateNextWeeklyRepeatScheduleProcessingIter(
                     LocalDateTime.now(ZoneId.systemDefault()).plusMinutes(1), pinEntities);
 
@@ -345,6 +539,131 @@ public final class SchedulerViewModel extends ViewModel {
         mMutableNextUpcomingScheduleSummary.postValue(summary);
     }
 
+    /**
+     * Commit the pending schedule edits, if any, without waiting for the user to stop editing.
+     * This is meant to be called when the user leaves the screen.
+     */
+    void commitPendingEdits() {
+        mHandler.removeCallbacks(mCommitPendingEditsRunnable);
+        mHandler.post(mCommitPendingEditsRunnable);
+    }
+
+    /**
+     * Forget about the pending edits of the given schedules, if any.
+     *
+     * @param schedules The schedule entities whose pending edits to drop.
+     * @param deleted Whether the schedules are being deleted, so that they must be hidden from the
+     * query results until the deletion is written.
+     */
+    private void dropPendingEdits(final List<SubscriptionScheduleEntity> schedules,
+            final boolean deleted) {
+
+        synchronized (mPendingEdits) {
+            for (SubscriptionScheduleEntity schedule : schedules) {
+                mPendingEdits.remove(schedule.getId());
+                if (deleted) {
+                    mDeletedScheduleIds.add(schedule.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Called when the observable query delivers the schedules from the database. The schedules
+     * are overlaid with the in-memory edits and deletions not yet written, and the instances of
+     * the unchanged schedules are reused, so that only the schedules that really changed need to
+     * be rebound. Nothing is posted if the list didn't change at all.
+     *
+     * @param queriedSchedules The schedules as stored in the database.
+     */
+    @WorkerThread
+    private void handleOnSchedulesQueried(final List<SubscriptionScheduleEntity> queriedSchedules) {
+        final List<SubscriptionScheduleEntity> schedules =
+            new ArrayList<>(queriedSchedules.size());
+        final Map<Long, SubscriptionScheduleEntity> schedulesById =
+            new HashMap<>(queriedSchedules.size());
+        final Set<Long> queriedIds = new HashSet<>(queriedSchedules.size());
+        synchronized (mPendingEdits) {
+            for (SubscriptionScheduleEntity queriedSchedule : queriedSchedules) {
+                final long id = queriedSchedule.getId();
+                queriedIds.add(id);
+                if (mDeletedScheduleIds.contains(id)) {
+                    continue;
+                }
+
+                SubscriptionScheduleEntity schedule = mPendingEdits.get(id);
+                if (schedule == null) {
+                    schedule = mUnconfirmedSchedules.get(id);
+                    if (schedule != null && schedule.equals(queriedSchedule)) {
+                        mUnconfirmedSchedules.remove(id);
+                    }
+                }
+                if (schedule == null) {
+                    schedule = mSchedulesById.get(id);
+                    if (schedule == null || !schedule.equals(queriedSchedule)) {
+                        schedule = queriedSchedule;
+                    }
+                }
+                schedules.add(schedule);
+                schedulesById.put(id, schedule);
+            }
+            // Once the deletion is written, the schedule won't come up anymore
+            mDeletedScheduleIds.retainAll(queriedIds);
+        }
+        mUnconfirmedSchedules.keySet().retainAll(queriedIds);
+
+        if (mSchedules != null && mSchedules.size() == schedules.size()) {
+            boolean changed = false;
+            for (int i = 0, size = schedules.size(); i < size && !changed; i++) {
+                changed = mSchedules.get(i) != schedules.get(i);
+            }
+            if (!changed) {
+                return;
+            }
+        }
+
+        mLogger.v("handleOnSchedulesQueried() : size=%d.", schedules.size());
+
+        mSchedules = schedules;
+        mSchedulesById = schedulesById;
+        mMediatorSchedules.postValue(Collections.unmodifiableList(schedules));
+    }
+
+    /**
+     * Write the changes of the given schedules to the database, keeping their instances as the
+     * source of truth until the observable query catches up with them.
+     *
+     * @param schedules The schedule entities to update.
+     */
+    @WorkerThread
+    private void update(final List<SubscriptionScheduleEntity> schedules) {
+        mSubscriptionScheduler.update(schedules);
+        for (SubscriptionScheduleEntity schedule : schedules) {
+            mUnconfirmedSchedules.put(schedule.getId(), schedule);
+        }
+    }
+
+    /**
+     * Write the pending schedule edits, if any, to the database in a single batch, then sync the
+     * SIM subscription enabled state and re-schedule the alarm once for all of them.
+     */
+    @WorkerThread
+    private void commitPendingEditsNow() {
+        final List<SubscriptionScheduleEntity> schedules;
+        synchronized (mPendingEdits) {
+            if (mPendingEdits.isEmpty()) {
+                return;
+            }
+            schedules = new ArrayList<>(mPendingEdits.values());
+            mPendingEdits.clear();
+        }
+
+        mLogger.d("commitPendingEditsNow() : schedules=%s.", schedules);
+
+        update(schedules);
+        refreshNextUpcomingScheduleSummary();
+    }
+
     /**
      * Remove the SIM PIN code, if present.
      */
@@ -384,20 +703,48 @@ public final class SchedulerViewModel extends ViewModel {
         return schedule;
     }
 
+    /**
+     * Look for other schedules occurring at the same time as the given schedule before its changes
+     * are persisted, and report them via {@link #getScheduleConflicts()}. Note that the schedules
+     * are compared against their stored state, thus edits still pending commit aren't accounted.
+     *
+     * @param schedule The schedule entity to check.
+     */
+    private void checkConflicts(final SubscriptionScheduleEntity schedule) {
+        mHandler.post(() -> {
+            final List<ScheduleConflict> conflicts = mSubscriptionScheduler.findConflicts(schedule);
+            if (!conflicts.isEmpty()) {
+                mLogger.d("checkConflicts(schedule=%s) : conflicts=%s.", schedule, conflicts);
+                mMutableScheduleConflicts.postValue(conflicts);
+            }
+        });
+    }
+
     /**
      * Add a new or persist the changes for an existing schedule to the database.
+     *
+     * <p>The changes for an existing schedule are part of an edit session, so that rapid edits
+     * don't result in as many database writes, SIM subscription syncs and alarm re-schedules. The
+     * schedule is already up-to-date in memory, and will be committed to the database along with
+     * the other edited schedules once the user stops editing for
+     * {@link #EDIT_SESSION_IDLE_TIMEOUT_MILLIS}, or leaves the screen.
      */
     private void persist(final SubscriptionScheduleEntity schedule) {
         if (schedule.getId() > 0L) {
-            mHandler.post(() -> mSubscriptionScheduler.update(schedule));
+            synchronized (mPendingEdits) {
+                mPendingEdits.put(schedule.getId(), schedule);
+            }
+            mHandler.removeCallbacks(mCommitPendingEditsRunnable);
+            mHandler.postDelayed(mCommitPendingEditsRunnable, EDIT_SESSION_IDLE_TIMEOUT_MILLIS);
         } else {
             mHandler.post(() -> {
                 mSubscriptionScheduler.add(schedule);
-                mMutableSchedules.getValue().ifPresent((schedules) -> schedules.add(schedule));
+                // Let the query deliver the very instance the user is going to interact with
+                mUnconfirmedSchedules.put(schedule.getId(), schedule);
                 mMutableScheduleAddedListener.postValue(schedule);
             });
+            refreshNextUpcomingScheduleSummaryAsync();
         }
-        refreshNextUpcomingScheduleSummaryAsync();
     }
 
     private void refreshNextUpcomingScheduleSummaryAsync() {
@@ -409,6 +756,8 @@ public final class SchedulerViewModel extends ViewModel {
         super.onCleared();
         mContext.unregisterReceiver(mIntentReceiver);
         mHandler.removeCallbacksAndMessages(null);
+        // Don't lose the edits the user made right before leaving
+        mHandler.post(mCommitPendingEditsRunnable);
     }
 
     static final class PinErrorMessage {
@@ -9,7 +9,11 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Process;
 import android.view.Menu;
+import android.view.MenuItem;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
 import androidx.lifecycle.ViewModel;
 import androidx.lifecycle.ViewModelProvider;
@@ -17,6 +21,7 @@ import androidx.lifecycle.ViewModelProvider;
 import com.github.iusmac.sevensim.Logger;
 import com.github.iusmac.sevensim.R;
 import com.github.iusmac.sevensim.telephony.Subscriptions;
+import com.github.iusmac.sevensim.telephony.SubscriptionsDiff;
 import com.github.iusmac.sevensim.ui.components.CollapsingToolbarBaseActivity;
 import com.github.iusmac.sevensim.ui.preferences.PreferenceListActivity;
 
@@ -49,8 +54,19 @@ public class SimListActivity extends Hilt_SimListActivity
 
     private Logger mLogger;
 
-    private final Object mSubscriptionsChangedToken = new Object();
-    private boolean mSubscriptionsChangedListenerInitialized;
+    private final ActivityResultLauncher<String> mExportAllSchedulesLauncher =
+        registerForActivityResult(new ActivityResultContracts.CreateDocument("text/plain"),
+                (uri) -> {
+                    if (uri != null) {
+                        getViewModel().exportAllSchedules(uri);
+                    }
+                });
+    private final ActivityResultLauncher<String[]> mImportAllSchedulesLauncher =
+        registerForActivityResult(new ActivityResultContracts.OpenDocument(), (uri) -> {
+            if (uri != null) {
+                getViewModel().importAllSchedules(uri);
+            }
+        });
 
     @Override
     public boolean onCreateOptionsMenu(final Menu menu) {
@@ -65,6 +81,19 @@ public class SimListActivity extends Hilt_SimListActivity
         return true;
     }
 
+    @Override
+    public boolean onOptionsItemSelected(final MenuItem item) {
+        final int itemId = item.getItemId();
+        if (itemId == R.id.scheduler_export_all) {
+            mExportAllSchedulesLauncher.launch(getString(R.string.scheduler_export_file_name));
+            return true;
+        } else if (itemId == R.id.scheduler_import_all) {
+            mImportAllSchedulesLauncher.launch(new String[] { "text/plain" });
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     @Override
     public ViewModel onCreateViewModel() {
         // Make Dagger instantiate @Inject fields prior to the ViewModel creation
@@ -101,23 +130,13 @@ public class SimListActivity extends Hilt_SimListActivity
     }
 
     @Override
-    public void onSubscriptionsChanged() {
-        mLogger.v("onSubscriptionsChanged().");
-
-        final long delayMillis;
-        if (mSubscriptionsChangedListenerInitialized) {
-            // Calm down the subscriptions changed event a bit, as it may be fired (in bursts) up
-            // to 10x in less than 0.5 second; delay and discard all redundant updates to not
-            // "clog" the UI thread
-            delayMillis = 300;
-            sHandler.removeCallbacksAndMessages(mSubscriptionsChangedToken);
-        } else {
-            delayMillis = 0;
-            mSubscriptionsChangedListenerInitialized = true;
-        }
+    public void onSubscriptionsChanged(final @NonNull SubscriptionsDiff diff) {
+        mLogger.v("onSubscriptionsChanged(diff=%s).", diff);
 
-        sHandler.postDelayed(getViewModel()::refreshSimEntries, mSubscriptionsChangedToken,
-                delayMillis);
+        // Note that, the bursts of subscription changes are already coalesced, so we only need to
+        // refresh the SIM entries of the affected subscriptions
+        final SimListViewModel viewModel = getViewModel();
+        sHandler.post(() -> viewModel.handleOnSubscriptionsChanged(diff));
     }
 
     @Override
@@ -1,8 +1,12 @@
 package com.github.iusmac.sevensim.ui.sim;
 
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 import androidx.collection.SparseArrayCompat;
 import androidx.lifecycle.LiveData;
@@ -11,47 +15,69 @@ import androidx.lifecycle.ViewModel;
 import androidx.lifecycle.ViewModelProvider;
 
 import com.github.iusmac.sevensim.Logger;
+import com.github.iusmac.sevensim.R;
+import com.github.iusmac.sevensim.Utils;
 import com.github.iusmac.sevensim.scheduler.SubscriptionSchedulerSummaryBuilder;
+import com.github.iusmac.sevensim.scheduler.SubscriptionSchedulesTransfer;
 import com.github.iusmac.sevensim.telephony.Subscription;
 import com.github.iusmac.sevensim.telephony.SubscriptionController;
 import com.github.iusmac.sevensim.telephony.Subscriptions;
+import com.github.iusmac.sevensim.telephony.SubscriptionsDiff;
 import com.github.iusmac.sevensim.telephony.TelephonyController;
 
 import dagger.Lazy;
 import dagger.assisted.Assisted;
 import dagger.assisted.AssistedFactory;
 import dagger.assisted.AssistedInject;
+import dagger.hilt.android.qualifiers.ApplicationContext;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 
 import static android.telephony.SubscriptionManager.INVALID_SIM_SLOT_INDEX;
+import static android.telephony.SubscriptionManager.INVALID_SUBSCRIPTION_ID;
 
 public final class SimListViewModel extends ViewModel {
     private final MutableLiveData<SparseArrayCompat<SimEntry>>
         mMutableSimEntries = new MutableLiveData<>();
 
+    @SuppressLint("StaticFieldLeak")
+    private final Context mContext;
     private final Logger mLogger;
     private final Subscriptions mSubscriptions;
     private final Lazy<SubscriptionController> mSubscriptionControllerLazy;
     private final Lazy<TelephonyController> mTelephonyControllerLazy;
     private final SubscriptionSchedulerSummaryBuilder mSubscriptionSchedulerSummaryBuilder;
+    private final Lazy<SubscriptionSchedulesTransfer> mSubscriptionSchedulesTransferLazy;
 
     private final Handler mHandler;
 
+    /**
+     * The SIM entries as of the last refresh, if any. This is only accessed on the worker thread,
+     * and never mutated once posted.
+     */
+    private SparseArrayCompat<SimEntry> mSimEntries;
+
     @AssistedInject
-    public SimListViewModel(final Logger.Factory loggerFactory,
+    public SimListViewModel(final @ApplicationContext Context context,
+            final Logger.Factory loggerFactory,
             final Subscriptions subscriptions,
             final Lazy<SubscriptionController> subscriptionControllerLazy,
             final Lazy<TelephonyController> telephonyControllerLazy,
             final SubscriptionSchedulerSummaryBuilder subscriptionSchedulerSummaryBuilder,
+            final Lazy<SubscriptionSchedulesTransfer> subscriptionSchedulesTransferLazy,
             final @Assisted Looper looper) {
 
+        mContext = context;
         mLogger = loggerFactory.create(getClass().getSimpleName());
         mSubscriptions = subscriptions;
         mSubscriptionControllerLazy = subscriptionControllerLazy;
         mTelephonyControllerLazy = telephonyControllerLazy;
         mSubscriptionSchedulerSummaryBuilder = subscriptionSchedulerSummaryBuilder;
+        mSubscriptionSchedulesTransferLazy = subscriptionSchedulesTransferLazy;
 
         mHandler = Handler.createAsync(looper);
     }
@@ -70,19 +96,69 @@ public final class SimListViewModel extends ViewModel {
         for (Subscription sub : mSubscriptions) {
             mLogger.v("refreshSimEntries() : %s.", sub);
 
-            // Note that, in order to uniquely identify the SIM entry, we use the slot index if
-            // the subscription has one, otherwise we fallback to the subscription ID
-            final int id = sub.getSlotIndex() == INVALID_SIM_SLOT_INDEX ? sub.getId() :
-                sub.getSlotIndex();
+            putSimEntry(simEntries, sub, now);
+        }
+        mSimEntries = simEntries;
+        mMutableSimEntries.postValue(simEntries);
+    }
+
+    /**
+     * Refresh only the SIM entries of the subscriptions that have been added, removed or changed.
+     * When no subscription has changed, the current SIM entries are re-posted as they are, so that
+     * the UI reverts the changes it anticipated.
+     *
+     * @param diff The subscription changes.
+     */
+    @WorkerThread
+    void handleOnSubscriptionsChanged(final @NonNull SubscriptionsDiff diff) {
+        mLogger.d("handleOnSubscriptionsChanged(diff=%s).", diff);
 
-            final CharSequence nextUpcomingScheduleSummary = mSubscriptionSchedulerSummaryBuilder
-                .buildNextUpcomingSubscriptionScheduleSummary(sub, now);
+        if (mSimEntries == null) {
+            refreshSimEntries();
+            return;
+        }
 
-            simEntries.put(id, new SimEntry(sub, nextUpcomingScheduleSummary));
+        final SparseArrayCompat<SimEntry> simEntries = mSimEntries.clone();
+        for (Subscription sub : diff.getRemoved()) {
+            removeSimEntry(simEntries, sub.getId());
+        }
+        final LocalDateTime now = LocalDateTime.now(ZoneId.systemDefault());
+        for (Subscription sub : diff.getAdded()) {
+            putSimEntry(simEntries, sub, now);
         }
+        for (Subscription sub : diff.getChanged()) {
+            // The slot index may have changed as well
+            removeSimEntry(simEntries, sub.getId());
+            putSimEntry(simEntries, sub, now);
+        }
+        mSimEntries = simEntries;
         mMutableSimEntries.postValue(simEntries);
     }
 
+    private void putSimEntry(final SparseArrayCompat<SimEntry> simEntries,
+            final Subscription sub, final LocalDateTime now) {
+
+        // Note that, in order to uniquely identify the SIM entry, we use the slot index if
+        // the subscription has one, otherwise we fallback to the subscription ID
+        final int id = sub.getSlotIndex() == INVALID_SIM_SLOT_INDEX ? sub.getId() :
+            sub.getSlotIndex();
+
+        final CharSequence nextUpcomingScheduleSummary = mSubscriptionSchedulerSummaryBuilder
+            .buildNextUpcomingSubscriptionScheduleSummary(sub, now);
+
+        simEntries.put(id, new SimEntry(sub, nextUpcomingScheduleSummary));
+    }
+
+    private static void removeSimEntry(final SparseArrayCompat<SimEntry> simEntries,
+            final int subId) {
+
+        for (int i = simEntries.size() - 1; i >= 0; i--) {
+            if (simEntries.valueAt(i).getSubscription().getId() == subId) {
+                simEntries.removeAt(i);
+            }
+        }
+    }
+
     /**
      * @param simEntryId The SIM entry ID whose enabled state has been changed.
      * @param enabled {@code true} if SIM card should be enabled, {@code false} otherwise.
@@ -97,8 +173,56 @@ public final class SimListViewModel extends ViewModel {
             if (sub.getSlotIndex() == INVALID_SIM_SLOT_INDEX) {
                 mSubscriptionControllerLazy.get().setUiccApplicationsEnabled(sub.getId(), enabled);
             } else {
-                mTelephonyControllerLazy.get().setSimState(sub.getSlotIndex(), enabled,
-                        /*keepDisabledAcrossBoots=*/ !enabled);
+                // Block the handler until the modem has processed the request, so that toggling
+                // another SIM card right after doesn't overlap with it
+                final boolean applied = mTelephonyControllerLazy.get().setSimState(
+                        sub.getSlotIndex(), enabled, /*keepDisabledAcrossBoots=*/ !enabled);
+                mLogger.d("handleOnSimEnabledStateChanged(simEntryId=%d,enabled=%s) : " +
+                        "applied=%s.", simEntryId, enabled, applied);
+            }
+        });
+    }
+
+    /**
+     * Export the schedules of all SIM subscriptions.
+     *
+     * @param uri The URI of the document to write to.
+     */
+    void exportAllSchedules(final @NonNull Uri uri) {
+        mLogger.d("exportAllSchedules(uri=%s).", uri);
+
+        mHandler.post(() -> {
+            try (OutputStream out = mContext.getContentResolver().openOutputStream(uri, "wt")) {
+                final int count = mSubscriptionSchedulesTransferLazy.get().exportSchedules(out,
+                        INVALID_SUBSCRIPTION_ID);
+                Utils.makeToast(mContext, mContext.getString(R.string.scheduler_export_done,
+                            count));
+            } catch (IOException | RuntimeException e) {
+                mLogger.e("exportAllSchedules(uri=%s) : %s.", uri, e);
+                Utils.makeToast(mContext, mContext.getString(R.string.scheduler_transfer_failed));
+            }
+        });
+    }
+
+    /**
+     * Import schedules keeping the SIM subscriptions they were exported from.
+     *
+     * @param uri The URI of the document to read from.
+     */
+    void importAllSchedules(final @NonNull Uri uri) {
+        mLogger.d("importAllSchedules(uri=%s).", uri);
+
+        mHandler.post(() -> {
+            try (InputStream in = mContext.getContentResolver().openInputStream(uri)) {
+                final int count = mSubscriptionSchedulesTransferLazy.get().importSchedules(in,
+                        INVALID_SUBSCRIPTION_ID).size();
+                // Reflect the new schedules in the next upcoming schedule summaries
+                refreshSimEntries();
+                Utils.makeToast(mContext, mContext.getString(R.string.scheduler_import_done,
+                            count));
+            } catch (IOException | RuntimeException e) {
+                mLogger.e("importAllSchedules(uri=%s) : %s.", uri, e);
+                Utils.makeToast(mContext, mContext.getString(R.string.scheduler_transfer_failed));
             }
         });
     }
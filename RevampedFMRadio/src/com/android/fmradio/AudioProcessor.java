@@ -0,0 +1,512 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+/**
+ * Real-time DSP stage of the FM render path. Runs a 3-band biquad equalizer, a
+ * loudness compensation curve and a look-ahead limiter in place on interleaved
+ * 16-bit little-endian PCM blocks, as read from AudioRecord, without allocating
+ * on the audio thread.
+ *
+ * Setters may be called from any thread, the new parameters are picked up at
+ * the start of the next block. {@link #process} must only be called from the
+ * render thread.
+ */
+public class AudioProcessor {
+    // Effects that can be enabled, combined as a bit mask
+    public static final int EFFECT_EQUALIZER = 1 << 0;
+    public static final int EFFECT_LOUDNESS = 1 << 1;
+    public static final int EFFECT_LIMITER = 1 << 2;
+
+    // Equalizer bands
+    public static final int EQ_BAND_LOW = 0;
+    public static final int EQ_BAND_MID = 1;
+    public static final int EQ_BAND_HIGH = 2;
+    public static final int EQ_BAND_COUNT = 3;
+    // Allowed gain range of a single band, in dB
+    public static final float EQ_MAX_GAIN_DB = 12.0f;
+
+    private static final float EQ_LOW_FREQUENCY = 100.0f;
+    private static final float EQ_MID_FREQUENCY = 1000.0f;
+    private static final float EQ_MID_Q = 0.9f;
+    private static final float EQ_HIGH_FREQUENCY = 8000.0f;
+    private static final float SHELF_SLOPE = 1.0f;
+
+    // Loudness compensation, boost per dB of attenuation below the reference level
+    private static final float LOUDNESS_LOW_FREQUENCY = 100.0f;
+    private static final float LOUDNESS_HIGH_FREQUENCY = 10000.0f;
+    private static final float LOUDNESS_LOW_RATIO = 0.5f;
+    private static final float LOUDNESS_HIGH_RATIO = 0.2f;
+    private static final float LOUDNESS_LOW_MAX_DB = 12.0f;
+    private static final float LOUDNESS_HIGH_MAX_DB = 6.0f;
+
+    // Limiter defaults
+    public static final float LIMITER_DEFAULT_THRESHOLD_DB = -1.0f;
+    private static final float LIMITER_LOOKAHEAD_MS = 5.0f;
+    private static final float LIMITER_RELEASE_MS = 80.0f;
+
+    private static final float SHORT_TO_FLOAT = 1.0f / 32768.0f;
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+
+    private final Biquad[] mEqBands = new Biquad[EQ_BAND_COUNT];
+    private final Biquad mLoudnessLow;
+    private final Biquad mLoudnessHigh;
+    private final Limiter mLimiter;
+    // Per frame scratch, one slot per channel
+    private final float[] mFrame;
+
+    // Active configuration, only touched by the render thread
+    private boolean mEqActive = false;
+    private boolean mLoudnessActive = false;
+    private boolean mLimiterActive = false;
+
+    // Pending configuration, guarded by mConfigLock
+    private final Object mConfigLock = new Object();
+    private final float[] mPendingEqGainDb = new float[EQ_BAND_COUNT];
+    private boolean mPendingEqEnabled = false;
+    private boolean mPendingLoudnessEnabled = false;
+    private float mPendingLoudnessAttenuationDb = 0.0f;
+    private boolean mPendingLimiterEnabled = false;
+    private float mPendingLimiterThresholdDb = LIMITER_DEFAULT_THRESHOLD_DB;
+    private volatile boolean mConfigChanged = false;
+    // Whether any stage is enabled, read by the render thread before every block
+    private volatile boolean mEnabled = false;
+
+    // CPU-time accounting
+    private long mBlockCount = 0;
+    private long mProcessedFrames = 0;
+    private long mTotalProcessNs = 0;
+    private long mMaxProcessNs = 0;
+
+    AudioProcessor(int sampleRate, int channelCount) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mFrame = new float[channelCount];
+        for (int i = 0; i < EQ_BAND_COUNT; i++) {
+            mEqBands[i] = new Biquad(channelCount);
+        }
+        mLoudnessLow = new Biquad(channelCount);
+        mLoudnessHigh = new Biquad(channelCount);
+        mLimiter = new Limiter(channelCount,
+                (int) (sampleRate * LIMITER_LOOKAHEAD_MS / 1000.0f));
+    }
+
+    /**
+     * Whether at least one effect is enabled. When false, the caller should
+     * bypass the stage entirely.
+     */
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Enable or disable the equalizer.
+     *
+     * @param enabled Whether the equalizer is applied
+     * @param gainsDb Gain of each band in dB, indexed by EQ_BAND_*
+     */
+    public void setEqualizer(boolean enabled, float[] gainsDb) {
+        synchronized (mConfigLock) {
+            mPendingEqEnabled = enabled;
+            if (gainsDb != null) {
+                for (int i = 0; i < EQ_BAND_COUNT && i < gainsDb.length; i++) {
+                    mPendingEqGainDb[i] = clamp(gainsDb[i], -EQ_MAX_GAIN_DB, EQ_MAX_GAIN_DB);
+                }
+            }
+            onConfigChangedLocked();
+        }
+    }
+
+    /**
+     * Enable or disable loudness compensation.
+     *
+     * @param enabled Whether loudness compensation is applied
+     * @param attenuationDb How far the playback level is below the reference
+     *            level, in dB (positive value)
+     */
+    public void setLoudness(boolean enabled, float attenuationDb) {
+        synchronized (mConfigLock) {
+            mPendingLoudnessEnabled = enabled;
+            mPendingLoudnessAttenuationDb = Math.max(0.0f, attenuationDb);
+            onConfigChangedLocked();
+        }
+    }
+
+    /**
+     * Enable or disable the look-ahead limiter.
+     *
+     * @param enabled Whether the limiter is applied
+     * @param thresholdDb Output ceiling in dBFS (negative value)
+     */
+    public void setLimiter(boolean enabled, float thresholdDb) {
+        synchronized (mConfigLock) {
+            mPendingLimiterEnabled = enabled;
+            mPendingLimiterThresholdDb = Math.min(0.0f, thresholdDb);
+            onConfigChangedLocked();
+        }
+    }
+
+    /**
+     * Clear filter and limiter history, call when the stream restarts
+     */
+    public void reset() {
+        for (Biquad band : mEqBands) {
+            band.reset();
+        }
+        mLoudnessLow.reset();
+        mLoudnessHigh.reset();
+        mLimiter.reset();
+    }
+
+    /**
+     * Process interleaved 16-bit little-endian PCM in place, so that the same
+     * buffer can be handed to AudioTrack and the recorder afterwards.
+     *
+     * @param buffer The PCM bytes
+     * @param offset Offset of the first byte
+     * @param size Number of bytes, trailing bytes of an incomplete frame are
+     *            left untouched
+     */
+    public void process(byte[] buffer, int offset, int size) {
+        long start = System.nanoTime();
+        applyPendingConfig();
+        float[] frame = mFrame;
+        int frameSize = mChannelCount * 2;
+        int end = offset + size - size % frameSize;
+        for (int i = offset; i < end; i += frameSize) {
+            for (int ch = 0, j = i; ch < mChannelCount; ch++, j += 2) {
+                frame[ch] = (short) ((buffer[j] & 0xff) | (buffer[j + 1] << 8)) * SHORT_TO_FLOAT;
+            }
+            processFrame(frame);
+            for (int ch = 0, j = i; ch < mChannelCount; ch++, j += 2) {
+                short sample = toShort(frame[ch]);
+                buffer[j] = (byte) sample;
+                buffer[j + 1] = (byte) (sample >> 8);
+            }
+        }
+        account(start, size / frameSize);
+    }
+
+    /**
+     * Get the share of real time spent processing since the last reset of the
+     * statistics, e.g. 0.01 means 1% of the audio duration.
+     */
+    public float getCpuLoad() {
+        if (mProcessedFrames == 0) {
+            return 0.0f;
+        }
+        double audioNs = mProcessedFrames * 1e9 / mSampleRate;
+        return (float) (mTotalProcessNs / audioNs);
+    }
+
+    /**
+     * Get the longest time spent processing a single block since the last
+     * reset of the statistics, in nanoseconds.
+     */
+    public long getMaxBlockTimeNs() {
+        return mMaxProcessNs;
+    }
+
+    /**
+     * Get the number of blocks processed since the last reset of the statistics
+     */
+    public long getBlockCount() {
+        return mBlockCount;
+    }
+
+    /**
+     * Reset the CPU-time statistics. Must only be called from the render thread.
+     */
+    public void resetStats() {
+        mBlockCount = 0;
+        mProcessedFrames = 0;
+        mTotalProcessNs = 0;
+        mMaxProcessNs = 0;
+    }
+
+    private void processFrame(float[] frame) {
+        if (mEqActive) {
+            for (Biquad band : mEqBands) {
+                band.process(frame);
+            }
+        }
+        if (mLoudnessActive) {
+            mLoudnessLow.process(frame);
+            mLoudnessHigh.process(frame);
+        }
+        if (mLimiterActive) {
+            mLimiter.process(frame);
+        }
+    }
+
+    private void onConfigChangedLocked() {
+        mEnabled = mPendingEqEnabled || mPendingLoudnessEnabled || mPendingLimiterEnabled;
+        mConfigChanged = true;
+    }
+
+    private void applyPendingConfig() {
+        if (!mConfigChanged) {
+            return;
+        }
+        synchronized (mConfigLock) {
+            mConfigChanged = false;
+
+            boolean wasEqActive = mEqActive;
+            mEqActive = mPendingEqEnabled;
+            if (mEqActive) {
+                mEqBands[EQ_BAND_LOW].setLowShelf(mSampleRate, EQ_LOW_FREQUENCY,
+                        mPendingEqGainDb[EQ_BAND_LOW]);
+                mEqBands[EQ_BAND_MID].setPeaking(mSampleRate, EQ_MID_FREQUENCY, EQ_MID_Q,
+                        mPendingEqGainDb[EQ_BAND_MID]);
+                mEqBands[EQ_BAND_HIGH].setHighShelf(mSampleRate, EQ_HIGH_FREQUENCY,
+                        mPendingEqGainDb[EQ_BAND_HIGH]);
+                if (!wasEqActive) {
+                    for (Biquad band : mEqBands) {
+                        band.reset();
+                    }
+                }
+            }
+
+            boolean wasLoudnessActive = mLoudnessActive;
+            mLoudnessActive = mPendingLoudnessEnabled;
+            if (mLoudnessActive) {
+                float attenuation = mPendingLoudnessAttenuationDb;
+                mLoudnessLow.setLowShelf(mSampleRate, LOUDNESS_LOW_FREQUENCY,
+                        Math.min(attenuation * LOUDNESS_LOW_RATIO, LOUDNESS_LOW_MAX_DB));
+                mLoudnessHigh.setHighShelf(mSampleRate, LOUDNESS_HIGH_FREQUENCY,
+                        Math.min(attenuation * LOUDNESS_HIGH_RATIO, LOUDNESS_HIGH_MAX_DB));
+                if (!wasLoudnessActive) {
+                    mLoudnessLow.reset();
+                    mLoudnessHigh.reset();
+                }
+            }
+
+            boolean wasLimiterActive = mLimiterActive;
+            mLimiterActive = mPendingLimiterEnabled;
+            if (mLimiterActive) {
+                mLimiter.setParameters(dbToLinear(mPendingLimiterThresholdDb),
+                        (float) Math.exp(-1.0 / (mSampleRate * LIMITER_RELEASE_MS / 1000.0f)));
+                if (!wasLimiterActive) {
+                    mLimiter.reset();
+                }
+            }
+        }
+    }
+
+    private void account(long startNs, int frames) {
+        long elapsed = System.nanoTime() - startNs;
+        mTotalProcessNs += elapsed;
+        mProcessedFrames += frames;
+        if (elapsed > mMaxProcessNs) {
+            mMaxProcessNs = elapsed;
+        }
+        mBlockCount++;
+    }
+
+    private static short toShort(float sample) {
+        int value = (int) (sample * 32768.0f);
+        if (value > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (value < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return (short) value;
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static float dbToLinear(float db) {
+        return (float) Math.pow(10.0, db / 20.0);
+    }
+
+    /**
+     * Second-order IIR section in transposed direct form II, with independent
+     * state per channel. Coefficients follow the RBJ audio EQ cookbook.
+     */
+    private static class Biquad {
+        private float mB0 = 1.0f;
+        private float mB1 = 0.0f;
+        private float mB2 = 0.0f;
+        private float mA1 = 0.0f;
+        private float mA2 = 0.0f;
+        private final float[] mZ1;
+        private final float[] mZ2;
+
+        Biquad(int channelCount) {
+            mZ1 = new float[channelCount];
+            mZ2 = new float[channelCount];
+        }
+
+        void reset() {
+            for (int ch = 0; ch < mZ1.length; ch++) {
+                mZ1[ch] = 0.0f;
+                mZ2[ch] = 0.0f;
+            }
+        }
+
+        void setPeaking(int sampleRate, float frequency, float q, float gainDb) {
+            double a = Math.pow(10.0, gainDb / 40.0);
+            double w0 = 2.0 * Math.PI * frequency / sampleRate;
+            double alpha = Math.sin(w0) / (2.0 * q);
+            double cos = Math.cos(w0);
+            setCoefficients(1.0 + alpha * a, -2.0 * cos, 1.0 - alpha * a,
+                    1.0 + alpha / a, -2.0 * cos, 1.0 - alpha / a);
+        }
+
+        void setLowShelf(int sampleRate, float frequency, float gainDb) {
+            double a = Math.pow(10.0, gainDb / 40.0);
+            double w0 = 2.0 * Math.PI * frequency / sampleRate;
+            double cos = Math.cos(w0);
+            double beta = 2.0 * Math.sqrt(a) * shelfAlpha(w0, a);
+            setCoefficients(
+                    a * ((a + 1.0) - (a - 1.0) * cos + beta),
+                    2.0 * a * ((a - 1.0) - (a + 1.0) * cos),
+                    a * ((a + 1.0) - (a - 1.0) * cos - beta),
+                    (a + 1.0) + (a - 1.0) * cos + beta,
+                    -2.0 * ((a - 1.0) + (a + 1.0) * cos),
+                    (a + 1.0) + (a - 1.0) * cos - beta);
+        }
+
+        void setHighShelf(int sampleRate, float frequency, float gainDb) {
+            double a = Math.pow(10.0, gainDb / 40.0);
+            double w0 = 2.0 * Math.PI * frequency / sampleRate;
+            double cos = Math.cos(w0);
+            double beta = 2.0 * Math.sqrt(a) * shelfAlpha(w0, a);
+            setCoefficients(
+                    a * ((a + 1.0) + (a - 1.0) * cos + beta),
+                    -2.0 * a * ((a - 1.0) + (a + 1.0) * cos),
+                    a * ((a + 1.0) + (a - 1.0) * cos - beta),
+                    (a + 1.0) - (a - 1.0) * cos + beta,
+                    2.0 * ((a - 1.0) - (a + 1.0) * cos),
+                    (a + 1.0) - (a - 1.0) * cos - beta);
+        }
+
+        private static double shelfAlpha(double w0, double a) {
+            return Math.sin(w0) / 2.0
+                    * Math.sqrt((a + 1.0 / a) * (1.0 / SHELF_SLOPE - 1.0) + 2.0);
+        }
+
+        private void setCoefficients(double b0, double b1, double b2,
+                double a0, double a1, double a2) {
+            mB0 = (float) (b0 / a0);
+            mB1 = (float) (b1 / a0);
+            mB2 = (float) (b2 / a0);
+            mA1 = (float) (a1 / a0);
+            mA2 = (float) (a2 / a0);
+        }
+
+        void process(float[] frame) {
+            for (int ch = 0; ch < frame.length; ch++) {
+                float x = frame[ch];
+                float y = mB0 * x + mZ1[ch];
+                mZ1[ch] = mB1 * x - mA1 * y + mZ2[ch];
+                mZ2[ch] = mB2 * x - mA2 * y;
+                frame[ch] = y;
+            }
+        }
+    }
+
+    /**
+     * Peak limiter delaying the signal by the look-ahead window, so the gain
+     * reduction is already ramped in when a peak reaches the output. The gain
+     * is held until the last sample above the threshold has left the delay
+     * line, and only released afterwards.
+     */
+    private static class Limiter {
+        private final int mChannelCount;
+        private final int mLookaheadFrames;
+        private final float[] mDelayLine;
+        private int mDelayPosition = 0;
+        private float mThreshold = 1.0f;
+        private float mReleaseCoefficient = 0.0f;
+        private float mGain = 1.0f;
+        private float mTargetGain = 1.0f;
+        // Gain decrease per frame while ramping down to the target gain
+        private float mAttackStep = 0.0f;
+        private int mHoldFramesLeft = 0;
+
+        Limiter(int channelCount, int lookaheadFrames) {
+            mChannelCount = channelCount;
+            mLookaheadFrames = Math.max(1, lookaheadFrames);
+            mDelayLine = new float[mLookaheadFrames * channelCount];
+        }
+
+        void setParameters(float threshold, float releaseCoefficient) {
+            mThreshold = threshold;
+            mReleaseCoefficient = releaseCoefficient;
+        }
+
+        void reset() {
+            for (int i = 0; i < mDelayLine.length; i++) {
+                mDelayLine[i] = 0.0f;
+            }
+            mDelayPosition = 0;
+            mGain = 1.0f;
+            mTargetGain = 1.0f;
+            mAttackStep = 0.0f;
+            mHoldFramesLeft = 0;
+        }
+
+        void process(float[] frame) {
+            float peak = 0.0f;
+            for (int ch = 0; ch < mChannelCount; ch++) {
+                float abs = Math.abs(frame[ch]);
+                if (abs > peak) {
+                    peak = abs;
+                }
+            }
+            if (peak > mThreshold) {
+                float required = mThreshold / peak;
+                if (required < mTargetGain) {
+                    mTargetGain = required;
+                    // Reach the new target within the look-ahead window, without
+                    // slowing down an attack in progress, whose peak is closer
+                    mAttackStep = Math.max(mAttackStep, (mGain - required) / mLookaheadFrames);
+                }
+                // The frame reaches the output after the look-ahead window, this
+                // one included, keep the gain down until then
+                mHoldFramesLeft = mLookaheadFrames + 1;
+            }
+            if (mGain > mTargetGain) {
+                mGain = Math.max(mTargetGain, mGain - mAttackStep);
+                if (mGain == mTargetGain) {
+                    mAttackStep = 0.0f;
+                }
+            } else if (mHoldFramesLeft == 0) {
+                mGain = 1.0f - (1.0f - mGain) * mReleaseCoefficient;
+                mTargetGain = mGain;
+            }
+            if (mHoldFramesLeft > 0) {
+                mHoldFramesLeft--;
+            }
+
+            int position = mDelayPosition;
+            for (int ch = 0; ch < mChannelCount; ch++) {
+                float delayed = mDelayLine[position + ch];
+                mDelayLine[position + ch] = frame[ch];
+                frame[ch] = delayed * mGain;
+            }
+            position += mChannelCount;
+            mDelayPosition = position == mDelayLine.length ? 0 : position;
+        }
+    }
+}
@@ -30,7 +30,6 @@ import android.util.Log;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
 import java.util.concurrent.Semaphore;
 
 class AudioRecorder extends HandlerThread implements Handler.Callback {
@@ -48,12 +47,9 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
     private MediaMuxer mMuxer;
     private MediaCodec mCodec;
     private MediaFormat mRequestedFormat;
-    private LinkedList<Sample> mQueue = new LinkedList<>();
+    private final EncoderInputQueue mInput;
     private MediaFormat mOutFormat;
     private int mMuxerTrack;
-    private float mRate; // bytes per us
-    private long mInputBufferPosition;
-    private int mInputBufferIndex = -1;
     /** This semaphore is initialized when stopRecording() is called and blocks
         until recording is stopped. */
     private Semaphore mFinalSem;
@@ -65,6 +61,8 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
         super("AudioRecorder Thread");
         mFilePath = filePath;
         mInputFormat = format;
+        mInput = new EncoderInputQueue(new CodecInput(), calculateBytesPerSecond(
+                format.getEncoding(), format.getSampleRate(), format.getChannelCount()));
 
         start();
 
@@ -78,18 +76,18 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
     }
 
     /**
-     * Encode bytes of audio to file
+     * Encode bytes of audio to file. The bytes are copied, so the caller may
+     * reuse the buffer as soon as this returns.
      *
-     * @param bytes - PCM inbut buffer
+     * @param bytes - PCM input buffer
+     * @param size - Number of bytes to encode from the start of the buffer
      */
-    public void encode(byte[] bytes) {
+    public void encode(byte[] bytes, int size) {
         if (mFinished) {
             Log.w(TAG, "encode() called after stopped");
             return;
         }
-        Sample s = new Sample();
-        s.bytes = bytes;
-        mHandler.obtainMessage(MSG_ENCODE, s).sendToTarget();
+        mHandler.obtainMessage(MSG_ENCODE, mInput.copy(bytes, size)).sendToTarget();
     }
 
     /**
@@ -119,7 +117,6 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
 
     private void init() {
         Log.i(TAG, "Starting AudioRecorder with format=" + mInputFormat + ". Saving to: " + mFilePath);
-        calculateInputRate();
 
         mRequestedFormat = new MediaFormat();
         mRequestedFormat.setString(MediaFormat.KEY_MIME, "audio/mp4a-latm");
@@ -156,55 +153,14 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
             init();
         } else if (msg.what == MSG_STOP) {
             mFinalSem = (Semaphore) msg.obj;
-            if (mInputBufferIndex >= 0) {
-                processInputBuffer();
-            }
+            mInput.signalEndOfStream();
         } else if (msg.what == MSG_ENCODE) {
-            mQueue.addLast((Sample) msg.obj);
-            if (mInputBufferIndex >= 0) {
-                processInputBuffer();
-            }
+            mInput.queue((EncoderInputQueue.Sample) msg.obj);
+            FmTrace.counter(FmTrace.COUNTER_RECORDER_QUEUE, mInput.size());
         }
         return true;
     }
 
-    private void processInputBuffer() {
-        Sample s = mQueue.peekFirst();
-        if (s == null) { // input available?
-            if (mFinalSem != null) {
-                // input queue is exhausted and stopRecording() is waiting for
-                // encoding to finish. signal end-of-stream on the input.
-                Log.d(TAG, "Input EOS");
-                mCodec.queueInputBuffer(
-                        mInputBufferIndex, 0, 0,
-                        getPresentationTimestampUs(mInputBufferPosition),
-                        MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-            }
-            return;
-        }
-
-        ByteBuffer b = mCodec.getInputBuffer(mInputBufferIndex);
-        assert b != null;
-        int sz = Math.min(b.capacity(), s.bytes.length - s.offset);
-        long ts = getPresentationTimestampUs(mInputBufferPosition);
-        if (TRACE)
-            Log.v(TAG, String.format("processInputBuffer (len=%d) ts=%.3f", sz, ts * 1e-6));
-
-        b.put(s.bytes, s.offset, sz);
-        mCodec.queueInputBuffer(mInputBufferIndex, 0, sz, ts, 0);
-
-        mInputBufferPosition += sz;
-        s.offset += sz;
-
-        // done with this sample?
-        if (s.offset >= s.bytes.length) {
-            mQueue.pop();
-        }
-
-        // done with this buffer
-        mInputBufferIndex = -1;
-    }
-
     private void processOutputBuffer(int index, MediaCodec.BufferInfo info) {
         ByteBuffer outputBuffer = mCodec.getOutputBuffer(index);
         assert outputBuffer != null;
@@ -268,33 +224,31 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
         }
     }
 
-    private void calculateInputRate() {
-        int bits_per_sample;
-        switch (mInputFormat.getEncoding()) {
+    /**
+     * Compute the byte rate of a PCM stream
+     *
+     * @param encoding The AudioFormat PCM encoding
+     * @param sampleRate The sample rate in Hz
+     * @param channelCount The number of interleaved channels
+     *
+     * @return The number of bytes per second of audio
+     */
+    private static long calculateBytesPerSecond(int encoding, int sampleRate, int channelCount) {
+        int bytesPerSample;
+        switch (encoding) {
             case AudioFormat.ENCODING_PCM_8BIT:
-                bits_per_sample = 8;
+                bytesPerSample = 1;
                 break;
             case AudioFormat.ENCODING_PCM_16BIT:
-                bits_per_sample = 16;
+                bytesPerSample = 2;
                 break;
             case AudioFormat.ENCODING_PCM_FLOAT:
-                bits_per_sample = 32;
+                bytesPerSample = 4;
                 break;
             default:
-                throw new IllegalArgumentException("Unexpected encoding: " + mInputFormat.getEncoding());
+                throw new IllegalArgumentException("Unexpected encoding: " + encoding);
         }
-
-        mRate = bits_per_sample;
-        mRate *= mInputFormat.getSampleRate();
-        mRate *= mInputFormat.getChannelCount();
-        mRate *= 1e-6; // -> us
-        mRate /= 8; // -> bytes
-
-        Log.v(TAG, "Rate: " + mRate);
-    }
-
-    private long getPresentationTimestampUs(long position) {
-        return (long) (position / mRate);
+        return PcmTiming.getBytesPerSecond(bytesPerSample, sampleRate, channelCount);
     }
 
     public interface Callback {
@@ -305,13 +259,23 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
 
         @Override
         public void onInputBufferAvailable(MediaCodec codec, int index) {
-            mInputBufferIndex = index;
-            processInputBuffer();
+            FmTrace.begin(FmTrace.SECTION_ENCODER_INPUT);
+            try {
+                mInput.onInputBufferAvailable(index);
+                FmTrace.counter(FmTrace.COUNTER_RECORDER_QUEUE, mInput.size());
+            } finally {
+                FmTrace.end();
+            }
         }
 
         @Override
         public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
-            processOutputBuffer(index, info);
+            FmTrace.begin(FmTrace.SECTION_ENCODER_OUTPUT);
+            try {
+                processOutputBuffer(index, info);
+            } finally {
+                FmTrace.end();
+            }
         }
 
         @Override
@@ -324,8 +288,26 @@ class AudioRecorder extends HandlerThread implements Handler.Callback {
         }
     }
 
-    private class Sample {
-        byte bytes[];
-        int offset;
+    class CodecInput implements EncoderInputQueue.Encoder {
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            ByteBuffer b = mCodec.getInputBuffer(index);
+            assert b != null;
+            return b;
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int size, long presentationTimeUs,
+                boolean endOfStream) {
+            if (endOfStream) {
+                Log.d(TAG, "Input EOS");
+            } else if (TRACE) {
+                Log.v(TAG, String.format("processInputBuffer (len=%d) ts=%.3f", size,
+                        presentationTimeUs * 1e-6));
+            }
+            mCodec.queueInputBuffer(index, 0, size, presentationTimeUs,
+                    endOfStream ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+        }
     }
 }
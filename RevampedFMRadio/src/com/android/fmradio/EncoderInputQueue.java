@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Queue of the PCM blocks waiting to be fed to the input buffers of an
+ * encoder, kept free of Android dependencies so it can be tested on the host.
+ *
+ * copy() may be called from any thread, every other method must be called
+ * from the thread the encoder calls back on.
+ */
+final class EncoderInputQueue {
+    private final Encoder mEncoder;
+    private final long mBytesPerSecond;
+    private final ArrayDeque<Sample> mQueue = new ArrayDeque<>();
+    // Samples already encoded, reused so that copy() doesn't allocate once
+    // the pool covers the queue depth. Guarded by itself
+    private final ArrayDeque<Sample> mFreeSamples = new ArrayDeque<>();
+    private long mInputBufferPosition;
+    private int mInputBufferIndex = -1;
+    private boolean mEndOfStream;
+    // MediaCodec rejects any input queued after end-of-stream
+    private boolean mEndOfStreamQueued;
+
+    /**
+     * @param encoder The encoder to feed
+     * @param bytesPerSecond The byte rate of the PCM stream
+     */
+    EncoderInputQueue(Encoder encoder, long bytesPerSecond) {
+        mEncoder = encoder;
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Copy a block of PCM into a pooled sample, so the caller may reuse its
+     * buffer as soon as this returns
+     *
+     * @param bytes The PCM block
+     * @param size The number of bytes to copy from the start of the block
+     *
+     * @return The sample to pass to queue()
+     */
+    Sample copy(byte[] bytes, int size) {
+        Sample s;
+        synchronized (mFreeSamples) {
+            s = mFreeSamples.pollFirst();
+        }
+        if (s == null) {
+            s = new Sample();
+        }
+        if (s.bytes == null || s.bytes.length < size) {
+            s.bytes = new byte[size];
+        }
+        System.arraycopy(bytes, 0, s.bytes, 0, size);
+        s.length = size;
+        s.offset = 0;
+        return s;
+    }
+
+    /**
+     * Queue a sample returned by copy(), and feed it right away if the encoder
+     * is waiting for input
+     */
+    void queue(Sample s) {
+        mQueue.addLast(s);
+        if (mInputBufferIndex >= 0) {
+            processInputBuffer();
+        }
+    }
+
+    /**
+     * Feed an input buffer the encoder made available
+     *
+     * @param index The index of the input buffer
+     */
+    void onInputBufferAvailable(int index) {
+        mInputBufferIndex = index;
+        processInputBuffer();
+    }
+
+    /**
+     * Signal end-of-stream on the input once the queue is exhausted
+     */
+    void signalEndOfStream() {
+        mEndOfStream = true;
+        if (mInputBufferIndex >= 0) {
+            processInputBuffer();
+        }
+    }
+
+    /**
+     * @return The number of samples waiting to be encoded
+     */
+    int size() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return The number of bytes fed to the encoder so far
+     */
+    long getPosition() {
+        return mInputBufferPosition;
+    }
+
+    private void processInputBuffer() {
+        Sample s = mQueue.peekFirst();
+        if (s == null) { // input available?
+            if (mEndOfStream && !mEndOfStreamQueued) {
+                // input queue is exhausted and the recording is stopping.
+                // signal end-of-stream on the input.
+                mEncoder.queueInputBuffer(mInputBufferIndex, 0,
+                        PcmTiming.getPresentationTimestampUs(mInputBufferPosition,
+                                mBytesPerSecond), true);
+                mEndOfStreamQueued = true;
+                mInputBufferIndex = -1;
+            }
+            return;
+        }
+
+        ByteBuffer b = mEncoder.getInputBuffer(mInputBufferIndex);
+        int sz = Math.min(b.capacity(), s.length - s.offset);
+        long ts = PcmTiming.getPresentationTimestampUs(mInputBufferPosition, mBytesPerSecond);
+
+        b.put(s.bytes, s.offset, sz);
+        mEncoder.queueInputBuffer(mInputBufferIndex, sz, ts, false);
+
+        mInputBufferPosition += sz;
+        s.offset += sz;
+
+        // done with this sample?
+        if (s.offset >= s.length) {
+            mQueue.pop();
+            synchronized (mFreeSamples) {
+                mFreeSamples.addLast(s);
+            }
+        }
+
+        // done with this buffer
+        mInputBufferIndex = -1;
+    }
+
+    /**
+     * The input side of an encoder, as MediaCodec exposes it
+     */
+    interface Encoder {
+        ByteBuffer getInputBuffer(int index);
+
+        void queueInputBuffer(int index, int size, long presentationTimeUs,
+                boolean endOfStream);
+    }
+
+    static final class Sample {
+        private byte[] bytes;
+        private int length;
+        private int offset;
+    }
+}
@@ -49,6 +49,7 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
+import android.widget.SearchView;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -58,6 +59,8 @@ import com.android.fmradio.Utils;
 
 import android.support.v7.widget.CardView;
 
+import java.util.Arrays;
+
 /**
  * This class interact with user, provider edit station information, such as add
  * to favorite, edit favorite, delete from favorite
@@ -92,6 +95,10 @@ public class FmFavoriteActivity extends Activity {
 
     private boolean mIsActivityForeground = true;
 
+    private FmStationIndex mStationIndex;
+
+    private String mSearchQuery = "";
+
     /**
      * on create
      *
@@ -126,6 +133,14 @@ public class FmFavoriteActivity extends Activity {
         mGridView.setFocusable(false);
         mGridView.setFocusableInTouchMode(false);
 
+        mStationIndex = new FmStationIndex(mContext);
+        mStationIndex.start(new FmStationIndex.OnIndexChangedListener() {
+            @Override
+            public void onIndexChanged() {
+                applySearchFilter();
+            }
+        });
+
         mGridView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             /**
              * Click card item will finish activity and pass value to other activity
@@ -232,9 +247,33 @@ public class FmFavoriteActivity extends Activity {
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.fm_station_list_menu, menu);
         mMenuRefresh = menu.findItem(R.id.fm_station_list_refresh);
+        SearchView searchView = (SearchView) menu.findItem(R.id.fm_station_list_search)
+                .getActionView();
+        searchView.setQueryHint(getString(R.string.station_search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mSearchQuery = newText;
+                applySearchFilter();
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Filter the station list with the current search query through the
+     * in-memory station index
+     */
+    private void applySearchFilter() {
+        mMyAdapter.setFilter(mStationIndex.search(mSearchQuery));
+    }
+
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         if (null != mService) {
@@ -260,6 +299,12 @@ public class FmFavoriteActivity extends Activity {
 
     class MyFavoriteAdapter extends BaseAdapter {
         private Cursor mCursor;
+        // Station frequency at each cursor position
+        private int[] mFrequencies = new int[0];
+        // Cursor positions of the displayed stations, null if not filtered
+        private int[] mPositions = null;
+        // Sorted frequencies of the stations matching the search query
+        private int[] mMatches = null;
 
         private LayoutInflater mInflater;
         private Context mContext;
@@ -274,9 +319,47 @@ public class FmFavoriteActivity extends Activity {
                 mCursor.close();
             }
             mCursor = cursor;
+            mFrequencies = new int[cursor == null ? 0 : cursor.getCount()];
+            if (cursor != null) {
+                int column = cursor.getColumnIndex(FmStation.Station.FREQUENCY);
+                for (int i = 0; cursor.moveToPosition(i); i++) {
+                    mFrequencies[i] = cursor.getInt(column);
+                }
+            }
+            updatePositions();
+            notifyDataSetChanged();
+        }
+
+        /**
+         * Only show the given stations
+         *
+         * @param frequencies Sorted frequencies to show, null to show all
+         */
+        public void setFilter(int[] frequencies) {
+            mMatches = frequencies;
+            updatePositions();
             notifyDataSetChanged();
         }
 
+        private void updatePositions() {
+            if (mMatches == null) {
+                mPositions = null;
+                return;
+            }
+            int[] positions = new int[mFrequencies.length];
+            int count = 0;
+            for (int i = 0; i < mFrequencies.length; i++) {
+                if (Arrays.binarySearch(mMatches, mFrequencies[i]) >= 0) {
+                    positions[count++] = i;
+                }
+            }
+            mPositions = Arrays.copyOf(positions, count);
+        }
+
+        private int getCursorPosition(int position) {
+            return mPositions == null ? position : mPositions[position];
+        }
+
         public void updateRDSViews(final TextView freqView, final TextView nameView,
                 final TextView rtView, final String name, final String rt) {
 
@@ -342,7 +425,7 @@ public class FmFavoriteActivity extends Activity {
         @Override
         public int getCount() {
             if (null != mCursor) {
-                return mCursor.getCount();
+                return mPositions == null ? mCursor.getCount() : mPositions.length;
             }
             return 0;
         }
@@ -383,7 +466,7 @@ public class FmFavoriteActivity extends Activity {
             }
 
             if (mCursor != null && mCursor.moveToFirst()) {
-                mCursor.moveToPosition(position);
+                mCursor.moveToPosition(getCursorPosition(position));
                 final int stationFreq = mCursor.getInt(mCursor
                         .getColumnIndex(FmStation.Station.FREQUENCY));
                 String name = mCursor.getString(mCursor
@@ -432,7 +515,7 @@ public class FmFavoriteActivity extends Activity {
         }
 
         private int getStationFreq(int position) {
-            if (mCursor != null && mCursor.moveToPosition(position)) {
+            if (mCursor != null && mCursor.moveToPosition(getCursorPosition(position))) {
                 final int stationFreq = mCursor.getInt(mCursor
                         .getColumnIndex(FmStation.Station.FREQUENCY));
                 return stationFreq;
@@ -497,6 +580,7 @@ public class FmFavoriteActivity extends Activity {
     @Override
     protected void onDestroy() {
         mMyAdapter.swipResult(null);
+        mStationIndex.stop();
         FmService.unregisterExitListener(mExitListener);
         if (mService != null) {
             mService.unregisterFmRadioListener(mFmRadioListener);
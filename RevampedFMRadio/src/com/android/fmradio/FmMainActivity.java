@@ -33,6 +33,7 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.text.TextUtils;
+import android.text.format.DateFormat;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -51,17 +52,21 @@ import android.widget.Toast;
 import android.widget.Toolbar;
 
 import com.android.fmradio.FmStation.Station;
+import com.android.fmradio.dialogs.FmAudioEffectsDialog;
 import com.android.fmradio.dialogs.FmFavoriteEditDialog;
+import com.android.fmradio.dialogs.FmRadioTextHistoryDialog;
 import com.android.fmradio.views.FmScroller;
 import com.android.fmradio.views.FmSnackBar;
 import com.android.fmradio.views.FmScroller.EventListener;
 
 import java.lang.reflect.Field;
+import java.util.List;
 
 /**
  * This class interact with user, provide FM basic function.
  */
-public class FmMainActivity extends Activity implements FmFavoriteEditDialog.EditFavoriteListener {
+public class FmMainActivity extends Activity implements FmFavoriteEditDialog.EditFavoriteListener,
+        FmAudioEffectsDialog.AudioEffectsListener {
     // Logging
     private static final String TAG = "FmMainActivity";
 
@@ -73,6 +78,9 @@ public class FmMainActivity extends Activity implements FmFavoriteEditDialog.Edi
     // Extra for result of request REQUEST_CODE_RECORDING
     public static final String EXTRA_RESULT_STRING = "result_string";
 
+    // Maximum number of entries shown in the recently heard dialog
+    private static final int RADIO_TEXT_HISTORY_SIZE = 50;
+
     // FM
     private static final String FM = "FM";
 
@@ -557,6 +565,74 @@ public class FmMainActivity extends Activity implements FmFavoriteEditDialog.Edi
         }
     }
 
+    /**
+     * Display the RadioText recently heard on a station
+     *
+     * @param frequency The station frequency
+     */
+    private void showRadioTextHistoryDialog(final int frequency) {
+        final FmService service = mService;
+        if (service == null) {
+            return;
+        }
+        // The history may be read from its log, keep it off the UI thread
+        new Thread() {
+            @Override
+            public void run() {
+                final List<RadioTextHistory.Entry> history =
+                        service.getRadioTextHistory(frequency, RADIO_TEXT_HISTORY_SIZE);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        showRadioTextHistoryDialog(frequency, history);
+                    }
+                });
+            }
+        }.start();
+    }
+
+    private void showRadioTextHistoryDialog(int frequency,
+            List<RadioTextHistory.Entry> history) {
+        // The activity may have been paused while the history was loading
+        if (!mIsActivityForeground || mService == null) {
+            return;
+        }
+        java.text.DateFormat timeFormat = DateFormat.getTimeFormat(mContext);
+        String[] entries = new String[history.size()];
+        for (int i = 0; i < entries.length; i++) {
+            RadioTextHistory.Entry entry = history.get(i);
+            entries[i] = timeFormat.format(entry.timestamp) + "  " + entry.text;
+        }
+        FmRadioTextHistoryDialog newFragment = FmRadioTextHistoryDialog.newInstance(
+                FmUtils.formatStation(frequency), entries);
+        newFragment.show(mFragmentManager, "TAG_RADIO_TEXT_HISTORY");
+        mFragmentManager.executePendingTransactions();
+    }
+
+    /**
+     * Display the audio effects applied on the speaker and BT a2dp output
+     */
+    private void showAudioEffectsDialog() {
+        if (mService != null) {
+            FmAudioEffectsDialog newFragment =
+                    FmAudioEffectsDialog.newInstance(mService.getAudioEffects());
+            newFragment.show(mFragmentManager, "TAG_AUDIO_EFFECTS");
+            mFragmentManager.executePendingTransactions();
+        }
+    }
+
+    /**
+     * Apply the audio effects chosen in the audio effects dialog
+     *
+     * @param effects The AudioProcessor.EFFECT_* bit mask
+     */
+    @Override
+    public void setAudioEffects(int effects) {
+        if (mService != null) {
+            mService.setAudioEffects(effects);
+        }
+    }
+
     /**
      * Go to station list activity
      */
@@ -832,6 +908,14 @@ public class FmMainActivity extends Activity implements FmFavoriteEditDialog.Edi
                     }
                 }
                 break;
+
+            case R.id.fm_radio_text_history:
+                showRadioTextHistoryDialog(mCurrentStation);
+                break;
+
+            case R.id.fm_audio_effects:
+                showAudioEffectsDialog();
+                break;
             default:
                 Log.e(TAG, "onOptionsItemSelected, invalid options menu item.");
                 break;
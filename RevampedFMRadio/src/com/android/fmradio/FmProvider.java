@@ -123,6 +123,15 @@ public class FmProvider extends ContentProvider {
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        FmTrace.begin(FmTrace.SECTION_PROVIDER_WRITE);
+        try {
+            return deleteTraced(uri, selection, selectionArgs);
+        } finally {
+            FmTrace.end();
+        }
+    }
+
+    private int deleteTraced(Uri uri, String selection, String[] selectionArgs) {
         int rows = 0;
         mSqlDb = mDbHelper.getWritableDatabase();
         switch (URI_MATCHER.match(uri)) {
@@ -159,6 +168,15 @@ public class FmProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        FmTrace.begin(FmTrace.SECTION_PROVIDER_WRITE);
+        try {
+            return insertTraced(uri, values);
+        } finally {
+            FmTrace.end();
+        }
+    }
+
+    private Uri insertTraced(Uri uri, ContentValues values) {
         Uri rowUri = null;
         mSqlDb = mDbHelper.getWritableDatabase();
         ContentValues v = new ContentValues(values);
@@ -228,6 +246,16 @@ public class FmProvider extends ContentProvider {
      */
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        FmTrace.begin(FmTrace.SECTION_PROVIDER_WRITE);
+        try {
+            return updateTraced(uri, values, selection, selectionArgs);
+        } finally {
+            FmTrace.end();
+        }
+    }
+
+    private int updateTraced(Uri uri, ContentValues values, String selection,
+            String[] selectionArgs) {
         int rows = 0;
         mSqlDb = mDbHelper.getWritableDatabase();
         switch (URI_MATCHER.match(uri)) {
@@ -449,10 +449,10 @@ public class FmRecorder implements AudioRecorder.Callback {
         }
     }
 
-    public void encode(byte bytes[]) {
+    public void encode(byte bytes[], int size) {
         synchronized (mRecorderLock) {
             if (mRecorder != null) {
-                mRecorder.encode(bytes);
+                mRecorder.encode(bytes, size);
             }
         }
     }
@@ -72,6 +72,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Background service to control FM or do background tasks.
@@ -143,6 +144,8 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     private String mPsString = "";
     // RT String
     private String mRtTextString = "";
+    // RT history of every station
+    private RadioTextHistory mRadioTextHistory = null;
     // Notification target class name
     private String mTargetClassName = "com.android.fmradio.FmMainActivity";
     // RDS thread use to receive the information send by station
@@ -260,6 +263,15 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         @Override
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
+            if (AudioManager.VOLUME_CHANGED_ACTION.equals(action)) {
+                // Follow the volume with the loudness compensation, if enabled
+                if (intent.getIntExtra(AudioManager.EXTRA_VOLUME_STREAM_TYPE, -1)
+                        == AudioManager.STREAM_MUSIC && (FmUtils.getAudioEffects(mContext)
+                        & AudioProcessor.EFFECT_LOUDNESS) != 0) {
+                    mAudioProcessor.setLoudness(true, getLoudnessAttenuationDb());
+                }
+                return;
+            }
             String command = intent.getStringExtra("command");
             Log.d(TAG, "onReceive, action = " + action + " / command = " + command);
             // other app want FM stop, stop FM
@@ -458,7 +470,15 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
     private static final int RECORD_BUF_SIZE = AudioRecord.getMinBufferSize(SAMPLE_RATE,
             CHANNEL_CONFIG, AUDIO_FORMAT);
+    // Bytes of a stereo 16-bit PCM frame, as read from AudioRecord
+    private static final int RENDER_FRAME_SIZE = 2 * 2;
     private boolean mIsRender = false;
+    // DSP stage between AudioRecord and AudioTrack, bypassed when no effect is enabled
+    private final AudioProcessor mAudioProcessor = new AudioProcessor(SAMPLE_RATE, 2);
+    // Equalizer preset, a gentle lift of the lows and the highs
+    private static final float[] EQUALIZER_GAINS_DB = { 4.0f, 0.0f, 3.0f };
+    // Attenuation assumed at the lowest music stream volume, for loudness compensation
+    private static final float LOUDNESS_VOLUME_RANGE_DB = 30.0f;
 
     AudioDevicePort mAudioSource = null;
     AudioDevicePort mAudioSink = null;
@@ -504,7 +524,13 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                         if (mAudioTrack.getPlayState() == AudioTrack.PLAYSTATE_STOPPED) {
                             mAudioTrack.play();
                         }
-                        int size = mAudioRecord.read(buffer, 0, RECORD_BUF_SIZE);
+                        FmTrace.begin(FmTrace.SECTION_RENDER_READ);
+                        int size;
+                        try {
+                            size = mAudioRecord.read(buffer, 0, RECORD_BUF_SIZE);
+                        } finally {
+                            FmTrace.end();
+                        }
                         // check whether need to ignore first 3 frames audio data from AudioRecord
                         // to avoid pop noise.
                         if (isAudioFrameNeedIgnore()) {
@@ -516,20 +542,33 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                                     + "error size: " + size);
                             continue;
                         }
-                        byte[] tmpBuf = new byte[size];
-                        System.arraycopy(buffer, 0, tmpBuf, 0, size);
+                        FmTrace.counter(FmTrace.COUNTER_RENDER_FRAMES, size / RENDER_FRAME_SIZE);
+                        // The DSP stage works in place on the bytes read, so that both
+                        // AudioTrack and the recorder get the processed audio.
+                        if (mAudioProcessor.isEnabled()) {
+                            mAudioProcessor.process(buffer, 0, size);
+                        }
                         // Check again to avoid noises, because mIsRender may be changed
                         // while AudioRecord is reading.
                         if (isRender()) {
-                            mAudioTrack.write(tmpBuf, 0, tmpBuf.length);
+                            FmTrace.begin(FmTrace.SECTION_RENDER_WRITE);
+                            try {
+                                mAudioTrack.write(buffer, 0, size);
+                            } finally {
+                                FmTrace.end();
+                            }
                         }
 
+                        // The recorder copies the bytes into its own pooled buffers, so
+                        // the read buffer is reused for the next block
                         if (mFmRecorder != null) {
-                            mFmRecorder.encode(tmpBuf);
+                            mFmRecorder.encode(buffer, size);
                         }
                     } else {
                         // Earphone mode will come here and wait.
                         mCurrentFrame = 0;
+                        mAudioProcessor.reset();
+                        logAudioProcessorStats();
 
                         if (mAudioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
                             mAudioTrack.pause();
@@ -559,6 +598,78 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         }
     }
 
+    /**
+     * Get the RadioText recently heard on a station. May read the station
+     * history log, so call it off the UI thread.
+     *
+     * @param station The station frequency
+     * @param maxEntries The maximum number of entries to return
+     *
+     * @return The RadioText history, most recent first
+     */
+    public List<RadioTextHistory.Entry> getRadioTextHistory(int station, int maxEntries) {
+        return mRadioTextHistory.getHistory(station, maxEntries);
+    }
+
+    /**
+     * Get the audio effects applied while rendering through AudioTrack
+     *
+     * @return The AudioProcessor.EFFECT_* bit mask
+     */
+    public int getAudioEffects() {
+        return FmUtils.getAudioEffects(mContext);
+    }
+
+    /**
+     * Set the audio effects applied while rendering through AudioTrack,
+     * i.e. in speaker or BT a2dp mode, and remember them
+     *
+     * @param effects The AudioProcessor.EFFECT_* bit mask
+     */
+    public void setAudioEffects(int effects) {
+        FmUtils.setAudioEffects(mContext, effects);
+        applyAudioEffects();
+    }
+
+    /**
+     * Configure the DSP stage from the stored audio effects
+     */
+    private void applyAudioEffects() {
+        int effects = FmUtils.getAudioEffects(mContext);
+        mAudioProcessor.setEqualizer((effects & AudioProcessor.EFFECT_EQUALIZER) != 0,
+                EQUALIZER_GAINS_DB);
+        mAudioProcessor.setLoudness((effects & AudioProcessor.EFFECT_LOUDNESS) != 0,
+                getLoudnessAttenuationDb());
+        mAudioProcessor.setLimiter((effects & AudioProcessor.EFFECT_LIMITER) != 0,
+                AudioProcessor.LIMITER_DEFAULT_THRESHOLD_DB);
+    }
+
+    /**
+     * Estimate how far the playback level is below the full scale from the
+     * music stream volume, for loudness compensation
+     */
+    private float getLoudnessAttenuationDb() {
+        int max = mAudioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
+        if (max <= 0) {
+            return 0.0f;
+        }
+        int volume = mAudioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
+        return (1.0f - (float) volume / max) * LOUDNESS_VOLUME_RANGE_DB;
+    }
+
+    /**
+     * Log the DSP stage CPU usage of the last rendering session, only called
+     * when rendering stops
+     */
+    private void logAudioProcessorStats() {
+        if (mAudioProcessor.getBlockCount() > 0 && Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "AudioProcessor blocks: " + mAudioProcessor.getBlockCount()
+                    + ", max: " + (mAudioProcessor.getMaxBlockTimeNs() / 1000) + "us"
+                    + ", load: " + (mAudioProcessor.getCpuLoad() * 100.0f) + "%");
+        }
+        mAudioProcessor.resetStats();
+    }
+
     // A2dp or speaker mode should render
     private boolean isRender() {
         return (mIsRender && isPlaying() && mIsAudioFocusHeld);
@@ -764,12 +875,22 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
     }
 
     private boolean tuneStation(float frequency) {
+        FmTrace.begin(FmTrace.SECTION_TUNE);
+        try {
+            return tuneStationTraced(frequency);
+        } finally {
+            FmTrace.end();
+        }
+    }
+
+    private boolean tuneStationTraced(float frequency) {
         if (isPlaying()) {
             setRds(false);
             boolean bRet = FmNative.tune(frequency);
             if (bRet) {
                 setRds(true);
                 mCurrentStation = FmUtils.computeStation(frequency);
+                FmTrace.counter(FmTrace.COUNTER_FREQUENCY, mCurrentStation);
                 FmStation.setCurrentStation(mContext, mCurrentStation);
                 updatePlayingNotification();
             }
@@ -818,7 +939,13 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
 
         setRds(false);
         mIsNativeSeeking = true;
-        float fRet = FmNative.seek(frequency, isUp);
+        FmTrace.begin(FmTrace.SECTION_SEEK);
+        float fRet;
+        try {
+            fRet = FmNative.seek(frequency, isUp);
+        } finally {
+            FmTrace.end();
+        }
         mIsNativeSeeking = false;
         // make mIsStopScanCalled false, avoid stop scan make this true,
         // when start scan, it will return null.
@@ -842,7 +969,12 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         short[] stationsInShort = null;
         if (!mIsStopScanCalled) {
             mIsNativeScanning = true;
-            stationsInShort = FmNative.autoScan();
+            FmTrace.begin(FmTrace.SECTION_SCAN);
+            try {
+                stationsInShort = FmNative.autoScan();
+            } finally {
+                FmTrace.end();
+            }
             mIsNativeScanning = false;
         }
 
@@ -1299,6 +1431,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
         mWakeLock.setReferenceCounted(false);
         sRecordingSdcard = FmUtils.getDefaultStoragePath();
+        mRadioTextHistory = new RadioTextHistory(mContext);
 
         registerFmBroadcastReceiver();
         registerSdcardReceiver();
@@ -1315,6 +1448,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         setUpMediaSession();
 
         initAudioRecordSink();
+        applyAudioEffects();
         createRenderThread();
     }
 
@@ -1467,6 +1601,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         filter.addAction(Intent.ACTION_SCREEN_ON);
         filter.addAction(Intent.ACTION_SCREEN_OFF);
         filter.addAction(Intent.ACTION_HEADSET_PLUG);
+        filter.addAction(AudioManager.VOLUME_CHANGED_ACTION);
         mBroadcastReceiver = new FmServiceBroadcastReceiver();
         registerReceiver(mBroadcastReceiver, filter);
     }
@@ -1499,6 +1634,7 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
         exitRenderThread();
         releaseAudioPatch();
         unregisterAudioPortUpdateListener();
+        mRadioTextHistory.close();
         super.onDestroy();
     }
 
@@ -1574,13 +1710,25 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                         break;
                     }
 
-                    int iRdsEvents = FmNative.readRds();
+                    FmTrace.begin(FmTrace.SECTION_RDS_READ);
+                    int iRdsEvents;
+                    try {
+                        iRdsEvents = FmNative.readRds();
+                    } finally {
+                        FmTrace.end();
+                    }
                     if (iRdsEvents != 0) {
                         Log.d(TAG, "startRdsThread, is rds events: " + iRdsEvents);
                     }
 
                     if (RDS_EVENT_PROGRAMNAME == (RDS_EVENT_PROGRAMNAME & iRdsEvents)) {
-                        byte[] bytePS = FmNative.getPs();
+                        FmTrace.begin(FmTrace.SECTION_RDS_READ);
+                        byte[] bytePS;
+                        try {
+                            bytePS = FmNative.getPs();
+                        } finally {
+                            FmTrace.end();
+                        }
                         if (null != bytePS) {
                             String ps = new String(bytePS).trim();
                             if (!mPsString.equals(ps)) {
@@ -1604,12 +1752,19 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
                     }
 
                     if (RDS_EVENT_LAST_RADIOTEXT == (RDS_EVENT_LAST_RADIOTEXT & iRdsEvents)) {
-                        byte[] byteLRText = FmNative.getLrText();
+                        FmTrace.begin(FmTrace.SECTION_RDS_READ);
+                        byte[] byteLRText;
+                        try {
+                            byteLRText = FmNative.getLrText();
+                        } finally {
+                            FmTrace.end();
+                        }
                         if (null != byteLRText) {
                             String rds = new String(byteLRText).trim();
                             if (!mRtTextString.equals(rds)) {
                                 updatePlayingNotification();
                             }
+                            mRadioTextHistory.add(mCurrentStation, rds);
                             if (isActivityForeground()) {
                                 setLRText(rds);
                             }
@@ -2801,6 +2956,15 @@ public class FmService extends Service implements FmRecorder.OnRecorderStateChan
      * @param bundle power up frequency
      */
     private void handlePowerUp(Bundle bundle) {
+        FmTrace.begin(FmTrace.SECTION_POWER_UP);
+        try {
+            handlePowerUpTraced(bundle);
+        } finally {
+            FmTrace.end();
+        }
+    }
+
+    private void handlePowerUpTraced(Bundle bundle) {
         boolean isPowerUp = false;
         boolean isSwitch = true;
         float curFrequency = bundle.getFloat(FM_FREQUENCY);
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.android.fmradio.FmStation.Station;
+
+/**
+ * In-memory search index over the stations in {@link FmProvider}. Stations are
+ * matched on their name, PS, RadioText and formatted frequency through a
+ * trigram index, so that filtering on every keystroke never touches SQLite.
+ * The index follows provider changes on a background thread.
+ */
+public class FmStationIndex {
+    private static final String TAG = "FmStationIndex";
+
+    private static final String[] COLUMNS = new String[] {
+        Station._ID,
+        Station.FREQUENCY,
+        Station.STATION_NAME,
+        Station.PROGRAM_SERVICE,
+        Station.RADIO_TEXT,
+    };
+
+    /**
+     * Callback notified on the main thread after the index content changed
+     */
+    public interface OnIndexChangedListener {
+        void onIndexChanged();
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mMainHandler;
+    private HandlerThread mWorkerThread;
+    private Handler mWorkerHandler;
+    private ContentObserver mObserver;
+    private OnIndexChangedListener mListener;
+
+    // Guards mIndex, never held while reading the provider
+    private final Object mLock = new Object();
+    private StationSearchIndex mIndex = new StationSearchIndex();
+
+    public FmStationIndex(Context context) {
+        mResolver = context.getContentResolver();
+        mMainHandler = new Handler(context.getMainLooper());
+    }
+
+    /**
+     * Load the index and start following provider changes
+     *
+     * @param listener Notified on the main thread when the index changes
+     */
+    public void start(OnIndexChangedListener listener) {
+        if (mWorkerThread != null) {
+            return;
+        }
+        mListener = listener;
+        mWorkerThread = new HandlerThread(TAG);
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper());
+        mObserver = new ContentObserver(mWorkerHandler) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onProviderChanged(uri);
+            }
+        };
+        mResolver.registerContentObserver(Station.CONTENT_URI, true, mObserver);
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                reload();
+            }
+        });
+    }
+
+    /**
+     * Stop following provider changes and release the worker thread
+     */
+    public void stop() {
+        if (mWorkerThread == null) {
+            return;
+        }
+        mResolver.unregisterContentObserver(mObserver);
+        mWorkerThread.quitSafely();
+        mWorkerThread = null;
+        mWorkerHandler = null;
+        mObserver = null;
+        mListener = null;
+    }
+
+    /**
+     * Find the stations matching every whitespace separated term of the query
+     *
+     * @param query The user query
+     *
+     * @return The sorted frequencies of the matching stations, or null if the
+     *         query is empty and no filtering should be applied
+     */
+    public int[] search(String query) {
+        synchronized (mLock) {
+            return mIndex.search(query);
+        }
+    }
+
+    private void onProviderChanged(Uri uri) {
+        // Single row changes carry the row id, anything else reloads all rows
+        long id = -1;
+        if (uri != null && uri.getPathSegments().size() == 2) {
+            try {
+                id = ContentUris.parseId(uri);
+            } catch (NumberFormatException e) {
+                id = -1;
+            }
+        }
+        if (id > 0) {
+            reloadRow(id);
+        } else {
+            reload();
+        }
+    }
+
+    private void reload() {
+        // Read and index all rows without holding the lock, so that searches
+        // from the UI thread never wait for the provider
+        StationSearchIndex index = new StationSearchIndex();
+        Cursor cursor = mResolver.query(Station.CONTENT_URI, COLUMNS, null, null, null);
+        if (cursor == null) {
+            Log.e(TAG, "reload, query returned null");
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                index.put(cursor.getLong(cursor.getColumnIndex(Station._ID)),
+                        cursor.getInt(cursor.getColumnIndex(Station.FREQUENCY)),
+                        getSearchableText(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        synchronized (mLock) {
+            mIndex = index;
+        }
+        notifyIndexChanged();
+    }
+
+    private void reloadRow(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(Station.CONTENT_URI, id),
+                COLUMNS, null, null, null);
+        if (cursor == null) {
+            Log.e(TAG, "reloadRow, query returned null");
+            return;
+        }
+        boolean exists;
+        int frequency = 0;
+        String text = null;
+        try {
+            exists = cursor.moveToFirst();
+            if (exists) {
+                frequency = cursor.getInt(cursor.getColumnIndex(Station.FREQUENCY));
+                text = getSearchableText(cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+        // Only the in-memory update happens under the lock
+        synchronized (mLock) {
+            if (exists) {
+                mIndex.put(id, frequency, text);
+            } else {
+                mIndex.remove(id);
+            }
+        }
+        notifyIndexChanged();
+    }
+
+    private void notifyIndexChanged() {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mListener.onIndexChanged();
+                }
+            }
+        });
+    }
+
+    private static String getSearchableText(Cursor cursor) {
+        int frequency = cursor.getInt(cursor.getColumnIndex(Station.FREQUENCY));
+        return StationSearchIndex.normalize(FmUtils.formatStation(frequency)
+                + " " + getString(cursor, Station.STATION_NAME)
+                + " " + getString(cursor, Station.PROGRAM_SERVICE)
+                + " " + getString(cursor, Station.RADIO_TEXT));
+    }
+
+    private static String getString(Cursor cursor, String column) {
+        String value = cursor.getString(cursor.getColumnIndex(column));
+        return value == null ? "" : value;
+    }
+}
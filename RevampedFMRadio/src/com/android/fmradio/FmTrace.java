@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import android.os.Trace;
+
+/**
+ * Thin wrapper around {@link Trace} for the FM hot paths. Every call first
+ * checks whether app tracing is enabled, so it costs a single flag read when
+ * no trace is being captured.
+ */
+final class FmTrace {
+    // Section names
+    static final String SECTION_POWER_UP = "FM:powerUp";
+    static final String SECTION_TUNE = "FM:tune";
+    static final String SECTION_SEEK = "FM:seek";
+    static final String SECTION_SCAN = "FM:scan";
+    static final String SECTION_RDS_READ = "FM:rdsRead";
+    static final String SECTION_RENDER_READ = "FM:renderRead";
+    static final String SECTION_RENDER_WRITE = "FM:renderWrite";
+    static final String SECTION_ENCODER_INPUT = "FM:encoderInput";
+    static final String SECTION_ENCODER_OUTPUT = "FM:encoderOutput";
+    static final String SECTION_PROVIDER_WRITE = "FM:providerWrite";
+
+    // Counter names
+    static final String COUNTER_FREQUENCY = "FM:frequency";
+    // Audio frames (one sample per channel) of the last rendered block
+    static final String COUNTER_RENDER_FRAMES = "FM:renderFrames";
+    static final String COUNTER_RECORDER_QUEUE = "FM:recorderQueueDepth";
+
+    private FmTrace() {
+    }
+
+    /**
+     * Begin a synchronous section, must be paired with {@link #end()} on the
+     * same thread
+     */
+    static void begin(String sectionName) {
+        if (Trace.isEnabled()) {
+            Trace.beginSection(sectionName);
+        }
+    }
+
+    /**
+     * End the most recent section begun on this thread
+     */
+    static void end() {
+        if (Trace.isEnabled()) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Update the value of a counter track
+     */
+    static void counter(String counterName, long value) {
+        if (Trace.isEnabled()) {
+            Trace.setCounter(counterName, value);
+        }
+    }
+}
@@ -35,7 +35,6 @@ import android.view.View.MeasureSpec;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
 import java.util.Locale;
 
 import com.android.fmradio.R;
@@ -50,14 +49,6 @@ public class FmUtils {
     // FM station variables
     public static final int DEFAULT_STATION = 1000;
     public static final float DEFAULT_STATION_FLOAT = computeFrequency(DEFAULT_STATION);
-    // maximum station frequency
-    private static final int HIGHEST_STATION = 1080;
-    // minimum station frequency
-    private static final int LOWEST_STATION = 875;
-    // station step
-    private static final int STEP = 1;
-    // convert rate
-    private static final int CONVERT_RATE = 10;
 
     // minimum storage space for record (512KB).
     // Need to check before starting recording and during recording to avoid
@@ -71,6 +62,7 @@ public class FmUtils {
     private static final String FM_IS_FIRST_TIME_PLAY = "fm_is_first_time_play";
     private static final String FM_IS_SPEAKER_MODE = "fm_is_speaker_mode";
     private static final String FM_IS_FIRST_ENTER_STATION_LIST = "fm_is_first_enter_station_list";
+    private static final String FM_AUDIO_EFFECTS = "fm_audio_effects";
     // StorageManager For FM record
     private static StorageManager sStorageManager = null;
 
@@ -83,8 +75,7 @@ public class FmUtils {
      *         false
      */
     public static boolean isValidStation(int station) {
-        boolean isValid = (station >= LOWEST_STATION && station <= HIGHEST_STATION);
-        return isValid;
+        return StationMath.isValidStation(station);
     }
 
     /**
@@ -95,11 +86,7 @@ public class FmUtils {
      * @return station The frequency after increased
      */
     public static int computeIncreaseStation(int station) {
-        int result = station + STEP;
-        if (result > HIGHEST_STATION) {
-            result = LOWEST_STATION;
-        }
-        return result;
+        return StationMath.computeIncreaseStation(station);
     }
 
     /**
@@ -110,11 +97,7 @@ public class FmUtils {
      * @return station The frequency after decreased
      */
     public static int computeDecreaseStation(int station) {
-        int result = station - STEP;
-        if (result < LOWEST_STATION) {
-            result = HIGHEST_STATION;
-        }
-        return result;
+        return StationMath.computeDecreaseStation(station);
     }
 
     /**
@@ -125,7 +108,7 @@ public class FmUtils {
      * @return station The result value
      */
     public static int computeStation(float frequency) {
-        return (int) (frequency * CONVERT_RATE);
+        return StationMath.computeStation(frequency);
     }
 
     /**
@@ -136,7 +119,7 @@ public class FmUtils {
      * @return station The frequency
      */
     public static float computeFrequency(int station) {
-        return (float) station / CONVERT_RATE;
+        return StationMath.computeFrequency(station);
     }
 
     /**
@@ -147,9 +130,7 @@ public class FmUtils {
      * @return string like 87.5
      */
     public static String formatStation(int station) {
-        float frequency = (float) station / CONVERT_RATE;
-        DecimalFormat decimalFormat = new DecimalFormat("0.0");
-        return decimalFormat.format(frequency);
+        return StationMath.formatStation(station);
     }
 
     /**
@@ -260,6 +241,28 @@ public class FmUtils {
         editor.commit();
     }
 
+    /**
+     * Get the audio effects applied in speaker or BT a2dp mode
+     *
+     * @return The AudioProcessor.EFFECT_* bit mask
+     */
+    public static int getAudioEffects(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getInt(FM_AUDIO_EFFECTS, 0);
+    }
+
+    /**
+     * Set the audio effects applied in speaker or BT a2dp mode
+     *
+     * @param effects The AudioProcessor.EFFECT_* bit mask
+     */
+    public static void setAudioEffects(Context context, int effects) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putInt(FM_AUDIO_EFFECTS, effects);
+        editor.commit();
+    }
+
     /**
      * check it is the first time enter into station list page
      */
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+/**
+ * Byte rate and timestamp math of an interleaved PCM stream, kept free of
+ * Android dependencies so it can be tested on the host.
+ */
+final class PcmTiming {
+    private static final long US_PER_SECOND = 1000000L;
+
+    private PcmTiming() {
+    }
+
+    /**
+     * Compute the byte rate of a PCM stream
+     *
+     * @param bytesPerSample The size of a single sample of one channel
+     * @param sampleRate The sample rate in Hz
+     * @param channelCount The number of interleaved channels
+     *
+     * @return The number of bytes per second of audio
+     */
+    static long getBytesPerSecond(int bytesPerSample, int sampleRate, int channelCount) {
+        return (long) bytesPerSample * sampleRate * channelCount;
+    }
+
+    /**
+     * Compute the presentation timestamp of the byte at the given stream
+     * position. Uses integer math so that long recordings don't lose precision.
+     *
+     * @param position The byte offset in the PCM stream
+     * @param bytesPerSecond The byte rate of the PCM stream
+     *
+     * @return The presentation timestamp in us
+     */
+    static long getPresentationTimestampUs(long position, long bytesPerSecond) {
+        return position / bytesPerSecond * US_PER_SECOND
+                + position % bytesPerSecond * US_PER_SECOND / bytesPerSecond;
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-station history of the RadioText heard, kept in one append-only binary
+ * log per station. Each record is the receive time in ms (long), the UTF-8
+ * length (unsigned short) and the UTF-8 bytes.
+ *
+ * The newest entries of each station are kept in memory, loaded from its log
+ * once on first use, so texts are deduplicated and the history is read
+ * without touching the log. New texts are buffered and appended in batches
+ * from a background thread. Logs are compacted to the newest records when
+ * they grow past {@link #MAX_LOG_SIZE}.
+ */
+public class RadioTextHistory {
+    private static final String TAG = "RadioTextHistory";
+
+    private static final String DIR_NAME = "radiotext";
+    private static final String LOG_EXTENSION = ".log";
+    private static final String TMP_EXTENSION = ".tmp";
+    // Size of the record header: timestamp and text length
+    private static final int HEADER_SIZE = 8 + 2;
+    // Size above which a log is compacted to half of it
+    private static final int MAX_LOG_SIZE = 16 * 1024;
+    // How many entries per station are kept in memory and can be returned
+    private static final int MAX_RECENT_ENTRIES = 50;
+    // How many recent texts per station are considered for deduplication
+    private static final int DEDUP_WINDOW = 8;
+    // Delay before buffered texts are written, so a burst becomes one write
+    private static final long FLUSH_DELAY_MS = 10 * 1000;
+
+    /**
+     * A RadioText received at a given time
+     */
+    public static final class Entry {
+        public final long timestamp;
+        public final String text;
+
+        Entry(long timestamp, String text) {
+            this.timestamp = timestamp;
+            this.text = text;
+        }
+    }
+
+    private final File mDir;
+    private final HandlerThread mWriterThread;
+    private final Handler mWriterHandler;
+
+    // Newest entries per station, oldest first. Guarded by "this"
+    private final SparseArray<ArrayList<Entry>> mRecent = new SparseArray<ArrayList<Entry>>();
+    // Only accessed on the writer thread
+    private final SparseArray<ArrayList<Entry>> mPending = new SparseArray<ArrayList<Entry>>();
+    private boolean mFlushScheduled = false;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    RadioTextHistory(Context context) {
+        mDir = new File(context.getFilesDir(), DIR_NAME);
+        mWriterThread = new HandlerThread(TAG);
+        mWriterThread.start();
+        mWriterHandler = new Handler(mWriterThread.getLooper());
+    }
+
+    /**
+     * Record a RadioText heard on a station, called from the RDS thread. The
+     * text is handed to the writer thread, so no IO happens on the caller.
+     *
+     * @param station The station frequency
+     * @param text The RadioText
+     */
+    public void add(final int station, final String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        final long timestamp = System.currentTimeMillis();
+        mWriterHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                record(station, new Entry(timestamp, text));
+            }
+        });
+    }
+
+    /**
+     * Get the RadioText history of a station. May read the station log the
+     * first time the station is used, so do not call it on the UI thread.
+     *
+     * @param station The station frequency
+     * @param maxEntries The maximum number of entries to return
+     *
+     * @return The entries, most recent first
+     */
+    public List<Entry> getHistory(int station, int maxEntries) {
+        ArrayList<Entry> recent = getRecent(station);
+        synchronized (this) {
+            int count = Math.min(recent.size(), maxEntries);
+            ArrayList<Entry> result = new ArrayList<Entry>(count);
+            for (int i = recent.size() - 1; result.size() < count; i--) {
+                result.add(recent.get(i));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Write buffered texts and stop the writer thread
+     */
+    public void close() {
+        mWriterHandler.removeCallbacks(mFlushRunnable);
+        mWriterHandler.post(mFlushRunnable);
+        mWriterThread.quitSafely();
+    }
+
+    private void record(int station, Entry entry) {
+        ArrayList<Entry> recent = getRecent(station);
+        synchronized (this) {
+            for (int i = Math.max(0, recent.size() - DEDUP_WINDOW); i < recent.size(); i++) {
+                if (recent.get(i).text.equals(entry.text)) {
+                    return;
+                }
+            }
+            recent.add(entry);
+            if (recent.size() > MAX_RECENT_ENTRIES) {
+                recent.remove(0);
+            }
+        }
+
+        ArrayList<Entry> pending = mPending.get(station);
+        if (pending == null) {
+            pending = new ArrayList<Entry>();
+            mPending.put(station, pending);
+        }
+        pending.add(entry);
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mWriterHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Get the in-memory entries of a station, loading them from its log the
+     * first time. The returned list must only be accessed holding "this".
+     */
+    private ArrayList<Entry> getRecent(int station) {
+        synchronized (this) {
+            ArrayList<Entry> recent = mRecent.get(station);
+            if (recent != null) {
+                return recent;
+            }
+        }
+        // A station not loaded yet has nothing pending, so its log is not
+        // being written while it is read here
+        List<Entry> log = readLog(station);
+        ArrayList<Entry> loaded = new ArrayList<Entry>(
+                log.subList(Math.max(0, log.size() - MAX_RECENT_ENTRIES), log.size()));
+        synchronized (this) {
+            ArrayList<Entry> recent = mRecent.get(station);
+            if (recent == null) {
+                recent = loaded;
+                mRecent.put(station, recent);
+            }
+            return recent;
+        }
+    }
+
+    private void flush() {
+        mFlushScheduled = false;
+        if (mPending.size() == 0) {
+            return;
+        }
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.e(TAG, "flush, failed to create " + mDir);
+            return;
+        }
+        for (int i = 0; i < mPending.size(); i++) {
+            int station = mPending.keyAt(i);
+            File log = getLogFile(station);
+            try {
+                append(log, mPending.valueAt(i));
+                if (log.length() > MAX_LOG_SIZE) {
+                    compact(station, log);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "flush, failed to write " + log, e);
+            }
+        }
+        mPending.clear();
+    }
+
+    private static void append(File log, List<Entry> entries) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(log, true)));
+        try {
+            writeEntries(out, entries);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Rewrite the log keeping only the newest records that fit in half of the
+     * maximum size, through a temporary file so a crash never truncates it
+     */
+    private void compact(int station, File log) throws IOException {
+        List<Entry> entries = readLog(station);
+        int size = 0;
+        int first = entries.size();
+        while (first > 0) {
+            int recordSize = HEADER_SIZE
+                    + entries.get(first - 1).text.getBytes(StandardCharsets.UTF_8).length;
+            if (size + recordSize > MAX_LOG_SIZE / 2) {
+                break;
+            }
+            size += recordSize;
+            first--;
+        }
+        File tmp = new File(mDir, station + TMP_EXTENSION);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            writeEntries(out, entries.subList(first, entries.size()));
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(log)) {
+            Log.e(TAG, "compact, failed to replace " + log);
+            tmp.delete();
+        }
+    }
+
+    private static void writeEntries(DataOutputStream out, List<Entry> entries)
+            throws IOException {
+        for (Entry entry : entries) {
+            byte[] bytes = entry.text.getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(bytes.length, 0xFFFF);
+            out.writeLong(entry.timestamp);
+            out.writeShort(length);
+            out.write(bytes, 0, length);
+        }
+    }
+
+    /**
+     * Read all records of a station log through a read-only memory mapping.
+     * A record torn by a crash at the end of the log is ignored.
+     */
+    private List<Entry> readLog(int station) {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        File log = getLogFile(station);
+        if (!log.isFile()) {
+            return entries;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(log);
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            while (buffer.remaining() >= HEADER_SIZE) {
+                long timestamp = buffer.getLong();
+                int length = buffer.getShort() & 0xFFFF;
+                if (buffer.remaining() < length) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                entries.add(new Entry(timestamp, new String(bytes, StandardCharsets.UTF_8)));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "readLog, failed to read " + log, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "readLog, failed to close " + log, e);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private File getLogFile(int station) {
+        return new File(mDir, station + LOG_EXTENSION);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import java.text.DecimalFormat;
+
+/**
+ * Station and frequency arithmetic behind FmUtils, kept free of Android
+ * dependencies so it can be tested on the host. A station is the frequency in
+ * units of 100 kHz, e.g. 1041 for 104.1 MHz.
+ */
+final class StationMath {
+    // maximum station frequency
+    static final int HIGHEST_STATION = 1080;
+    // minimum station frequency
+    static final int LOWEST_STATION = 875;
+    // station step
+    private static final int STEP = 1;
+    // convert rate
+    private static final int CONVERT_RATE = 10;
+
+    private StationMath() {
+    }
+
+    /**
+     * Whether the frequency is valid.
+     *
+     * @param station The FM station
+     *
+     * @return true if the frequency is in the valid scale, otherwise return
+     *         false
+     */
+    static boolean isValidStation(int station) {
+        return station >= LOWEST_STATION && station <= HIGHEST_STATION;
+    }
+
+    /**
+     * Compute increase station frequency, wrapping around to the lowest one
+     *
+     * @param station The station frequency
+     *
+     * @return station The frequency after increased
+     */
+    static int computeIncreaseStation(int station) {
+        int result = station + STEP;
+        if (result > HIGHEST_STATION) {
+            result = LOWEST_STATION;
+        }
+        return result;
+    }
+
+    /**
+     * Compute decrease station frequency, wrapping around to the highest one
+     *
+     * @param station The station frequency
+     *
+     * @return station The frequency after decreased
+     */
+    static int computeDecreaseStation(int station) {
+        int result = station - STEP;
+        if (result < LOWEST_STATION) {
+            result = HIGHEST_STATION;
+        }
+        return result;
+    }
+
+    /**
+     * Compute station value with given frequency
+     *
+     * @param frequency The station frequency
+     *
+     * @return station The result value
+     */
+    static int computeStation(float frequency) {
+        return (int) (frequency * CONVERT_RATE);
+    }
+
+    /**
+     * Compute frequency value with given station
+     *
+     * @param station The station value
+     *
+     * @return station The frequency
+     */
+    static float computeFrequency(int station) {
+        return (float) station / CONVERT_RATE;
+    }
+
+    /**
+     * According station to get frequency string
+     *
+     * @param station for 100KZ, range 875-1080
+     *
+     * @return string like 87.5, with the decimal separator of the default
+     *         locale
+     */
+    static String formatStation(int station) {
+        float frequency = (float) station / CONVERT_RATE;
+        DecimalFormat decimalFormat = new DecimalFormat("0.0");
+        return decimalFormat.format(frequency);
+    }
+}
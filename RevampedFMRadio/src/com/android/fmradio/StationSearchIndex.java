@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Trigram index over the searchable text of stations. Stations are kept in
+ * slots, reused after a station is removed, and every trigram of the text
+ * maps to the set of slots containing it.
+ *
+ * This class is not thread-safe, {@link FmStationIndex} guards it.
+ */
+final class StationSearchIndex {
+    private static final int GRAM_LENGTH = 3;
+
+    private final HashMap<Long, Entry> mEntriesById = new HashMap<Long, Entry>();
+    private Entry[] mSlots = new Entry[16];
+    private final BitSet mFreeSlots = new BitSet();
+    private int mSlotCount = 0;
+    private final HashMap<String, BitSet> mPostings = new HashMap<String, BitSet>();
+
+    private static final class Entry {
+        int slot;
+        long id;
+        int frequency;
+        // Normalized, searchable text
+        String text;
+    }
+
+    /**
+     * Add a station, or replace it if already indexed
+     *
+     * @param id The provider row id
+     * @param frequency The station frequency
+     * @param text The text to match, normalized through {@link #normalize}
+     */
+    void put(long id, int frequency, String text) {
+        remove(id);
+
+        Entry entry = new Entry();
+        entry.id = id;
+        entry.frequency = frequency;
+        entry.text = text;
+        entry.slot = allocateSlot();
+        mSlots[entry.slot] = entry;
+        mEntriesById.put(id, entry);
+
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            String gram = text.substring(i, i + GRAM_LENGTH);
+            BitSet posting = mPostings.get(gram);
+            if (posting == null) {
+                posting = new BitSet();
+                mPostings.put(gram, posting);
+            }
+            posting.set(entry.slot);
+        }
+    }
+
+    /**
+     * Remove a station, if indexed
+     *
+     * @param id The provider row id
+     */
+    void remove(long id) {
+        Entry entry = mEntriesById.remove(id);
+        if (entry == null) {
+            return;
+        }
+        String text = entry.text;
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            String gram = text.substring(i, i + GRAM_LENGTH);
+            BitSet posting = mPostings.get(gram);
+            if (posting != null) {
+                posting.clear(entry.slot);
+                if (posting.isEmpty()) {
+                    mPostings.remove(gram);
+                }
+            }
+        }
+        mSlots[entry.slot] = null;
+        mFreeSlots.set(entry.slot);
+    }
+
+    /**
+     * Find the stations matching every whitespace separated term of the query
+     *
+     * @param query The user query
+     *
+     * @return The sorted frequencies of the matching stations, or null if the
+     *         query is empty and no filtering should be applied
+     */
+    int[] search(String query) {
+        String[] terms = normalize(query).split(" ");
+        BitSet candidates = null;
+        for (String term : terms) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            if (candidates == null) {
+                candidates = new BitSet(mSlotCount);
+                candidates.set(0, mSlotCount);
+                candidates.andNot(mFreeSlots);
+            }
+            // Terms shorter than a gram can only be checked on the candidates
+            for (int i = 0; i + GRAM_LENGTH <= term.length(); i++) {
+                BitSet posting = mPostings.get(term.substring(i, i + GRAM_LENGTH));
+                if (posting == null) {
+                    return new int[0];
+                }
+                candidates.and(posting);
+            }
+        }
+        if (candidates == null) {
+            return null;
+        }
+
+        int[] result = new int[candidates.cardinality()];
+        int count = 0;
+        for (int slot = candidates.nextSetBit(0); slot >= 0;
+                slot = candidates.nextSetBit(slot + 1)) {
+            Entry entry = mSlots[slot];
+            if (matchesAll(entry.text, terms)) {
+                result[count++] = entry.frequency;
+            }
+        }
+        result = Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Get the number of indexed stations
+     */
+    int size() {
+        return mEntriesById.size();
+    }
+
+    /**
+     * Lower case the text and collapse its whitespaces, as the index expects
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.toLowerCase(Locale.ROOT).replaceAll("\\s+", " ").trim();
+    }
+
+    private static boolean matchesAll(String text, String[] terms) {
+        for (String term : terms) {
+            if (!term.isEmpty() && !text.contains(term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int allocateSlot() {
+        int slot = mFreeSlots.nextSetBit(0);
+        if (slot >= 0) {
+            mFreeSlots.clear(slot);
+            return slot;
+        }
+        if (mSlotCount == mSlots.length) {
+            mSlots = Arrays.copyOf(mSlots, mSlots.length * 2);
+        }
+        return mSlotCount++;
+    }
+}
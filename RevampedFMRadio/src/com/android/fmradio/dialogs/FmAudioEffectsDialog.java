@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio.dialogs;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.app.DialogFragment;
+import android.content.DialogInterface;
+import android.os.Bundle;
+
+import com.android.fmradio.AudioProcessor;
+import com.android.fmradio.R;
+
+/**
+ * Let the user choose the audio effects applied while rendering, caller
+ * should implement audio effects listener
+ */
+public class FmAudioEffectsDialog extends DialogFragment {
+    private static final String EFFECTS = "effects";
+    // Effects in the order they are listed
+    private static final int[] EFFECT_FLAGS = {
+        AudioProcessor.EFFECT_EQUALIZER,
+        AudioProcessor.EFFECT_LOUDNESS,
+        AudioProcessor.EFFECT_LIMITER,
+    };
+    private AudioEffectsListener mListener = null;
+    private int mEffects = 0;
+
+    /**
+     * Create audio effects dialog instance
+     *
+     * @param effects The currently enabled AudioProcessor.EFFECT_* bit mask
+     * @return audio effects dialog
+     */
+    public static FmAudioEffectsDialog newInstance(int effects) {
+        FmAudioEffectsDialog fragment = new FmAudioEffectsDialog();
+        Bundle args = new Bundle(1);
+        args.putInt(EFFECTS, effects);
+        fragment.setArguments(args);
+        return fragment;
+    }
+
+    /**
+     * Audio effects listener
+     */
+    public interface AudioEffectsListener {
+        /**
+         * Apply the chosen AudioProcessor.EFFECT_* bit mask
+         */
+        void setAudioEffects(int effects);
+    }
+
+    @Override
+    public void onAttach(Activity activity) {
+        super.onAttach(activity);
+        try {
+            mListener = (AudioEffectsListener) activity;
+        } catch (ClassCastException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        mEffects = savedInstanceState != null ? savedInstanceState.getInt(EFFECTS)
+                : getArguments().getInt(EFFECTS);
+        String[] items = new String[] {
+            getString(R.string.audio_effect_equalizer),
+            getString(R.string.audio_effect_loudness),
+            getString(R.string.audio_effect_limiter),
+        };
+        boolean[] checked = new boolean[EFFECT_FLAGS.length];
+        for (int i = 0; i < EFFECT_FLAGS.length; i++) {
+            checked[i] = (mEffects & EFFECT_FLAGS[i]) != 0;
+        }
+        return new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.fm_over_audio_effects)
+                .setMultiChoiceItems(items, checked,
+                        new DialogInterface.OnMultiChoiceClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which,
+                                    boolean isChecked) {
+                                if (isChecked) {
+                                    mEffects |= EFFECT_FLAGS[which];
+                                } else {
+                                    mEffects &= ~EFFECT_FLAGS[which];
+                                }
+                                // Apply right away, so the user can hear the difference
+                                if (mListener != null) {
+                                    mListener.setAudioEffects(mEffects);
+                                }
+                            }
+                        })
+                .setPositiveButton(android.R.string.ok, null)
+                .create();
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(EFFECTS, mEffects);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio.dialogs;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.app.DialogFragment;
+import android.os.Bundle;
+
+import com.android.fmradio.R;
+
+/**
+ * Show the RadioText recently heard on a station
+ */
+public class FmRadioTextHistoryDialog extends DialogFragment {
+    private static final String TITLE = "title";
+    private static final String ENTRIES = "entries";
+
+    /**
+     * Create recently heard dialog instance
+     *
+     * @param title The dialog title
+     * @param entries The formatted history entries, most recent first
+     * @return recently heard dialog
+     */
+    public static FmRadioTextHistoryDialog newInstance(String title, String[] entries) {
+        FmRadioTextHistoryDialog fragment = new FmRadioTextHistoryDialog();
+        Bundle args = new Bundle(2);
+        args.putString(TITLE, title);
+        args.putStringArray(ENTRIES, entries);
+        fragment.setArguments(args);
+        return fragment;
+    }
+
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        String[] entries = getArguments().getStringArray(ENTRIES);
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity())
+                .setTitle(getArguments().getString(TITLE))
+                .setPositiveButton(android.R.string.ok, null);
+        if (entries == null || entries.length == 0) {
+            builder.setMessage(R.string.radio_text_history_empty);
+        } else {
+            builder.setItems(entries, null);
+        }
+        return builder.create();
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Host benchmark of the pure Java parts of the FM audio path and of the
+ * station search. Reports the throughput and the bytes allocated on the
+ * measuring thread, which must stay at zero for the render thread and
+ * recorder stages.
+ *
+ * Usage: RevampedFMRadioBenchmark [seconds of audio per run]
+ */
+public class AudioPathBenchmark {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int FRAME_SIZE = CHANNEL_COUNT * 2;
+    // About what AudioRecord.getMinBufferSize() returns for the FM tuner
+    private static final int BLOCK_SIZE = 3584;
+    // Input buffer size of the AAC encoders found on devices
+    private static final int ENCODER_INPUT_BUFFER_SIZE = 8192;
+    private static final int ENCODER_INPUT_BUFFER_COUNT = 4;
+    private static final int DEFAULT_AUDIO_SECONDS = 600;
+    private static final int WARMUP_RUNS = 3;
+    private static final int RUNS = 5;
+
+    private static final int STATION_COUNT = 200;
+    private static final int QUERY_COUNT = 200000;
+    private static final String[] QUERIES = {
+        "radio", "classic rock", "fm 9", "news", "jazz", "nothing matches this",
+    };
+
+    private static final ThreadMXBean sThreadBean = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int audioSeconds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_AUDIO_SECONDS;
+
+        benchmarkProcessor("bypass", 0, audioSeconds);
+        benchmarkProcessor("equalizer", AudioProcessor.EFFECT_EQUALIZER, audioSeconds);
+        benchmarkProcessor("limiter", AudioProcessor.EFFECT_LIMITER, audioSeconds);
+        benchmarkProcessor("all", AudioProcessor.EFFECT_EQUALIZER
+                | AudioProcessor.EFFECT_LOUDNESS | AudioProcessor.EFFECT_LIMITER, audioSeconds);
+        benchmarkEncode(audioSeconds);
+        benchmarkTimestamps(audioSeconds);
+        benchmarkSearch();
+    }
+
+    /**
+     * Run the DSP stage over blocks of noise, like the render thread does
+     */
+    private static void benchmarkProcessor(String name, int effects, int audioSeconds) {
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, CHANNEL_COUNT);
+        processor.setEqualizer((effects & AudioProcessor.EFFECT_EQUALIZER) != 0,
+                new float[] { 4.0f, 0.0f, 3.0f });
+        processor.setLoudness((effects & AudioProcessor.EFFECT_LOUDNESS) != 0, 15.0f);
+        processor.setLimiter((effects & AudioProcessor.EFFECT_LIMITER) != 0,
+                AudioProcessor.LIMITER_DEFAULT_THRESHOLD_DB);
+
+        byte[] block = new byte[BLOCK_SIZE];
+        new Random(0).nextBytes(block);
+        long blocks = (long) audioSeconds * SAMPLE_RATE * FRAME_SIZE / BLOCK_SIZE;
+
+        for (int run = 0; run < WARMUP_RUNS + RUNS; run++) {
+            long allocatedStart = getAllocatedBytes();
+            long start = System.nanoTime();
+            for (long i = 0; i < blocks; i++) {
+                if (processor.isEnabled()) {
+                    processor.process(block, 0, BLOCK_SIZE);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = getAllocatedBytes() - allocatedStart;
+            if (run >= WARMUP_RUNS) {
+                double audioBytes = (double) blocks * BLOCK_SIZE;
+                report("process/" + name, String.format(Locale.ROOT,
+                        "%.1f MB/s, %.0fx real time, %.1f B allocated/s of audio",
+                        audioBytes / elapsed * 1e9 / 1e6,
+                        audioBytes / (SAMPLE_RATE * FRAME_SIZE) / (elapsed / 1e9),
+                        allocated / (audioBytes / (SAMPLE_RATE * FRAME_SIZE))));
+            }
+        }
+    }
+
+    /**
+     * Push PCM through the recorder input path: the copy the render thread
+     * makes, then the queue feeding the encoder input buffers, with a
+     * pass-through encoder that hands out reused buffers like MediaCodec does
+     */
+    private static void benchmarkEncode(int audioSeconds) {
+        final ByteBuffer[] inputBuffers = new ByteBuffer[ENCODER_INPUT_BUFFER_COUNT];
+        for (int i = 0; i < inputBuffers.length; i++) {
+            inputBuffers[i] = ByteBuffer.allocateDirect(ENCODER_INPUT_BUFFER_SIZE);
+        }
+        final long[] sink = new long[1];
+        EncoderInputQueue queue = new EncoderInputQueue(new EncoderInputQueue.Encoder() {
+            @Override
+            public ByteBuffer getInputBuffer(int index) {
+                ByteBuffer b = inputBuffers[index];
+                b.clear();
+                return b;
+            }
+
+            @Override
+            public void queueInputBuffer(int index, int size, long presentationTimeUs,
+                    boolean endOfStream) {
+                sink[0] += size + presentationTimeUs;
+            }
+        }, PcmTiming.getBytesPerSecond(2, SAMPLE_RATE, CHANNEL_COUNT));
+
+        byte[] block = new byte[BLOCK_SIZE];
+        new Random(0).nextBytes(block);
+        long blocks = (long) audioSeconds * SAMPLE_RATE * FRAME_SIZE / BLOCK_SIZE;
+
+        int index = 0;
+        for (int run = 0; run < WARMUP_RUNS + RUNS; run++) {
+            long allocatedStart = getAllocatedBytes();
+            long start = System.nanoTime();
+            for (long i = 0; i < blocks; i++) {
+                queue.queue(queue.copy(block, BLOCK_SIZE));
+                while (queue.size() > 0) {
+                    queue.onInputBufferAvailable(index);
+                    index = (index + 1) % ENCODER_INPUT_BUFFER_COUNT;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = getAllocatedBytes() - allocatedStart;
+            if (run >= WARMUP_RUNS) {
+                double audioBytes = (double) blocks * BLOCK_SIZE;
+                report("encode/input", String.format(Locale.ROOT,
+                        "%.1f MB/s, %.0fx real time, %.1f B allocated/s of audio (%d)",
+                        audioBytes / elapsed * 1e9 / 1e6,
+                        audioBytes / (SAMPLE_RATE * FRAME_SIZE) / (elapsed / 1e9),
+                        allocated / (audioBytes / (SAMPLE_RATE * FRAME_SIZE)), sink[0] % 10));
+            }
+        }
+    }
+
+    /**
+     * Compute the recorder timestamps of every block
+     */
+    private static void benchmarkTimestamps(int audioSeconds) {
+        long bytesPerSecond = PcmTiming.getBytesPerSecond(2, SAMPLE_RATE, CHANNEL_COUNT);
+        long blocks = audioSeconds * bytesPerSecond / BLOCK_SIZE;
+
+        for (int run = 0; run < WARMUP_RUNS + RUNS; run++) {
+            long sink = 0;
+            long start = System.nanoTime();
+            for (long i = 0; i < blocks; i++) {
+                sink += PcmTiming.getPresentationTimestampUs(i * BLOCK_SIZE, bytesPerSecond);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (run >= WARMUP_RUNS) {
+                report("timestamp", String.format(Locale.ROOT, "%.1f ns/op (%d)",
+                        (double) elapsed / blocks, sink % 10));
+            }
+        }
+    }
+
+    /**
+     * Search a station list of a crowded dial
+     */
+    private static void benchmarkSearch() {
+        String[] words = { "radio", "classic", "rock", "jazz", "news", "fm", "hits", "talk" };
+        Random random = new Random(0);
+        StationSearchIndex index = new StationSearchIndex();
+        for (int i = 0; i < STATION_COUNT; i++) {
+            int frequency = 875 + i;
+            String text = words[random.nextInt(words.length)] + " "
+                    + words[random.nextInt(words.length)] + " " + formatStation(frequency);
+            index.put(i, frequency, StationSearchIndex.normalize(text));
+        }
+
+        for (int run = 0; run < WARMUP_RUNS + RUNS; run++) {
+            long matches = 0;
+            long allocatedStart = getAllocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < QUERY_COUNT; i++) {
+                int[] result = index.search(QUERIES[i % QUERIES.length]);
+                matches += result.length;
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = getAllocatedBytes() - allocatedStart;
+            if (run >= WARMUP_RUNS) {
+                report("search", String.format(Locale.ROOT,
+                        "%.0f ns/query, %.0f B allocated/query (%d matches)",
+                        (double) elapsed / QUERY_COUNT, (double) allocated / QUERY_COUNT,
+                        matches));
+            }
+        }
+    }
+
+    /**
+     * Get the bytes allocated so far by the current thread, or 0 if the JVM
+     * can't tell
+     */
+    private static long getAllocatedBytes() {
+        if (sThreadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) sThreadBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void report(String name, String result) {
+        System.out.println(String.format(Locale.ROOT, "%-20s %s", name, result));
+    }
+
+    /**
+     * Format a station like FmUtils.formatStation() does, e.g. 1041 as 104.1
+     */
+    private static String formatStation(int station) {
+        return String.format(Locale.ROOT, "%d.%d", station / 10, station % 10);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+@RunWith(JUnit4.class)
+public class AudioProcessorTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int FRAME_SIZE = CHANNEL_COUNT * 2;
+    // Look-ahead of the limiter at SAMPLE_RATE, in frames
+    private static final int LIMITER_LOOKAHEAD_FRAMES = SAMPLE_RATE * 5 / 1000;
+
+    @Test
+    public void testDisabledUntilAnEffectIsEnabled() {
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, CHANNEL_COUNT);
+        assertFalse(processor.isEnabled());
+
+        processor.setLimiter(true, AudioProcessor.LIMITER_DEFAULT_THRESHOLD_DB);
+        assertTrue(processor.isEnabled());
+
+        processor.setLimiter(false, AudioProcessor.LIMITER_DEFAULT_THRESHOLD_DB);
+        assertFalse(processor.isEnabled());
+    }
+
+    @Test
+    public void testFlatEqualizerIsTransparent() {
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, CHANNEL_COUNT);
+        processor.setEqualizer(true, new float[AudioProcessor.EQ_BAND_COUNT]);
+
+        byte[] expected = sine(1000, 0.5f, 4096);
+        byte[] buffer = expected.clone();
+        processor.process(buffer, 0, buffer.length);
+
+        assertArrayEquals(expected, buffer);
+    }
+
+    @Test
+    public void testLimiterDelaysByLookahead() {
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, CHANNEL_COUNT);
+        processor.setLimiter(true, AudioProcessor.LIMITER_DEFAULT_THRESHOLD_DB);
+
+        // A single sample well below the threshold
+        short[] samples = new short[(LIMITER_LOOKAHEAD_FRAMES + 16) * CHANNEL_COUNT];
+        samples[0] = 1000;
+        byte[] buffer = toBytes(samples);
+        processor.process(buffer, 0, buffer.length);
+
+        short[] output = toShorts(buffer);
+        for (int i = 0; i < output.length; i++) {
+            assertEquals("sample " + i, i == LIMITER_LOOKAHEAD_FRAMES * CHANNEL_COUNT ? 1000 : 0,
+                    output[i]);
+        }
+    }
+
+    @Test
+    public void testLimiterHoldsCeiling() {
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, CHANNEL_COUNT);
+        float thresholdDb = -6.0f;
+        processor.setLimiter(true, thresholdDb);
+
+        // Full scale square wave, processed in blocks like the render thread does
+        short[] samples = new short[SAMPLE_RATE / 10 * CHANNEL_COUNT];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (i / CHANNEL_COUNT / 50) % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+        }
+        byte[] buffer = toBytes(samples);
+        for (int offset = 0; offset < buffer.length; offset += 1024) {
+            processor.process(buffer, offset, Math.min(1024, buffer.length - offset));
+        }
+
+        int ceiling = (int) Math.ceil(Math.pow(10.0, thresholdDb / 20.0) * 32768.0);
+        for (short sample : toShorts(buffer)) {
+            assertTrue("sample " + sample + " above " + ceiling, Math.abs(sample) <= ceiling);
+        }
+    }
+
+    @Test
+    public void testLimiterHoldsGainUntilPeaksLeave() {
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, CHANNEL_COUNT);
+        float thresholdDb = -6.0f;
+        processor.setLimiter(true, thresholdDb);
+
+        // Two consecutive peaks, the second one needing less gain reduction
+        short[] samples = new short[(LIMITER_LOOKAHEAD_FRAMES + 16) * CHANNEL_COUNT];
+        short first = (short) (0.9 * 32768);
+        short second = (short) (0.89 * 32768);
+        for (int ch = 0; ch < CHANNEL_COUNT; ch++) {
+            samples[ch] = first;
+            samples[CHANNEL_COUNT + ch] = second;
+        }
+        byte[] buffer = toBytes(samples);
+        processor.process(buffer, 0, buffer.length);
+
+        // Both peaks are scaled by the gain of the first one, not clipped
+        double threshold = Math.pow(10.0, thresholdDb / 20.0);
+        double gain = threshold * 32768.0 / first;
+        short[] output = toShorts(buffer);
+        int firstOut = LIMITER_LOOKAHEAD_FRAMES * CHANNEL_COUNT;
+        assertEquals(first * gain, output[firstOut], 1.0);
+        assertEquals(second * gain, output[firstOut + CHANNEL_COUNT], 1.0);
+    }
+
+    @Test
+    public void testIncompleteFrameIsLeftUntouched() {
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, CHANNEL_COUNT);
+        processor.setEqualizer(true, new float[] { 6.0f, -6.0f, 6.0f });
+
+        byte[] original = sine(440, 0.5f, 64);
+        byte[] buffer = Arrays.copyOf(original, original.length + 3);
+        buffer[original.length] = 1;
+        buffer[original.length + 1] = 2;
+        buffer[original.length + 2] = 3;
+        processor.process(buffer, 0, buffer.length);
+
+        assertEquals(1, buffer[original.length]);
+        assertEquals(2, buffer[original.length + 1]);
+        assertEquals(3, buffer[original.length + 2]);
+    }
+
+    @Test
+    public void testProcessesOnlyTheGivenRange() {
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, CHANNEL_COUNT);
+        processor.setLimiter(true, AudioProcessor.LIMITER_DEFAULT_THRESHOLD_DB);
+
+        byte[] original = sine(440, 0.5f, 256);
+        byte[] buffer = original.clone();
+        int offset = 16 * FRAME_SIZE;
+        int size = 32 * FRAME_SIZE;
+        processor.process(buffer, offset, size);
+
+        assertArrayEquals(Arrays.copyOfRange(original, 0, offset),
+                Arrays.copyOfRange(buffer, 0, offset));
+        assertArrayEquals(Arrays.copyOfRange(original, offset + size, original.length),
+                Arrays.copyOfRange(buffer, offset + size, buffer.length));
+    }
+
+    @Test
+    public void testStatistics() {
+        AudioProcessor processor = new AudioProcessor(SAMPLE_RATE, CHANNEL_COUNT);
+        processor.setLimiter(true, AudioProcessor.LIMITER_DEFAULT_THRESHOLD_DB);
+
+        byte[] buffer = sine(440, 0.5f, 1024);
+        processor.process(buffer, 0, buffer.length);
+        processor.process(buffer, 0, buffer.length);
+        assertEquals(2, processor.getBlockCount());
+
+        processor.resetStats();
+        assertEquals(0, processor.getBlockCount());
+        assertEquals(0, processor.getMaxBlockTimeNs());
+        assertEquals(0.0f, processor.getCpuLoad(), 0.0f);
+    }
+
+    /**
+     * Build interleaved 16-bit little-endian PCM of a sine, same on every channel
+     */
+    private static byte[] sine(float frequency, float amplitude, int frames) {
+        short[] samples = new short[frames * CHANNEL_COUNT];
+        for (int i = 0; i < frames; i++) {
+            short sample = (short) (Math.sin(2.0 * Math.PI * frequency * i / SAMPLE_RATE)
+                    * amplitude * Short.MAX_VALUE);
+            for (int ch = 0; ch < CHANNEL_COUNT; ch++) {
+                samples[i * CHANNEL_COUNT + ch] = sample;
+            }
+        }
+        return toBytes(samples);
+    }
+
+    private static byte[] toBytes(short[] samples) {
+        byte[] bytes = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            bytes[i * 2] = (byte) samples[i];
+            bytes[i * 2 + 1] = (byte) (samples[i] >> 8);
+        }
+        return bytes;
+    }
+
+    private static short[] toShorts(byte[] bytes) {
+        short[] samples = new short[bytes.length / 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) ((bytes[i * 2] & 0xff) | (bytes[i * 2 + 1] << 8));
+        }
+        return samples;
+    }
+}
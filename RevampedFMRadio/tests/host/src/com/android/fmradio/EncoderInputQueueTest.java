@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class EncoderInputQueueTest {
+    // 16-bit stereo at 44.1 kHz, as recorded from the FM tuner
+    private static final long BYTES_PER_SECOND = 2 * 44100 * 2;
+    private static final int INPUT_BUFFER_CAPACITY = 1000;
+
+    private FakeEncoder mEncoder;
+    private EncoderInputQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mEncoder = new FakeEncoder(INPUT_BUFFER_CAPACITY);
+        mQueue = new EncoderInputQueue(mEncoder, BYTES_PER_SECOND);
+    }
+
+    @Test
+    public void testWaitsForAnInputBuffer() {
+        mQueue.queue(mQueue.copy(block(100, 1), 100));
+        assertEquals(1, mQueue.size());
+        assertEquals(0, mEncoder.mQueued.size());
+
+        mQueue.onInputBufferAvailable(3);
+        assertEquals(0, mQueue.size());
+        assertQueued(mEncoder.mQueued.get(0), 3, 100, 0, false);
+    }
+
+    @Test
+    public void testFeedsAWaitingInputBufferRightAway() {
+        mQueue.onInputBufferAvailable(5);
+        assertEquals(0, mEncoder.mQueued.size());
+
+        mQueue.queue(mQueue.copy(block(100, 1), 100));
+        assertEquals(1, mEncoder.mQueued.size());
+        assertQueued(mEncoder.mQueued.get(0), 5, 100, 0, false);
+
+        // The buffer is used up, the next sample waits for another one
+        mQueue.queue(mQueue.copy(block(100, 2), 100));
+        assertEquals(1, mEncoder.mQueued.size());
+        assertEquals(1, mQueue.size());
+    }
+
+    @Test
+    public void testSplitsSamplesAcrossInputBuffers() {
+        byte[] bytes = block(2500, 7);
+        mQueue.queue(mQueue.copy(bytes, bytes.length));
+        for (int index = 0; index < 3; index++) {
+            mQueue.onInputBufferAvailable(index);
+        }
+
+        assertEquals(3, mEncoder.mQueued.size());
+        assertQueued(mEncoder.mQueued.get(0), 0, 1000, timestampUs(0), false);
+        assertQueued(mEncoder.mQueued.get(1), 1, 1000, timestampUs(1000), false);
+        assertQueued(mEncoder.mQueued.get(2), 2, 500, timestampUs(2000), false);
+        assertEquals(2500, mQueue.getPosition());
+        assertEquals(0, mQueue.size());
+        assertArrayEquals(bytes, mEncoder.mEncoded.toByteArray());
+    }
+
+    @Test
+    public void testTimestampsFollowTheBytesFed() {
+        // Odd sizes, so the timestamps fall between whole microseconds
+        int[] sizes = { 3584, 17, 999, 3584, 1 };
+        long position = 0;
+        for (int size : sizes) {
+            mQueue.queue(mQueue.copy(block(size, size), size));
+        }
+        for (int index = 0; mQueue.size() > 0; index++) {
+            mQueue.onInputBufferAvailable(index);
+            Queued queued = mEncoder.mQueued.get(index);
+            assertEquals("buffer " + index, timestampUs(position), queued.mPresentationTimeUs);
+            position += queued.mSize;
+        }
+        assertEquals(3584 + 17 + 999 + 3584 + 1, position);
+    }
+
+    @Test
+    public void testEndOfStreamOnlyOnceTheQueueIsDrained() {
+        mQueue.queue(mQueue.copy(block(600, 1), 600));
+        mQueue.queue(mQueue.copy(block(600, 2), 600));
+        mQueue.signalEndOfStream();
+        assertEquals(0, mEncoder.mQueued.size());
+
+        mQueue.onInputBufferAvailable(0);
+        mQueue.onInputBufferAvailable(1);
+        assertFalse(mEncoder.mQueued.get(1).mEndOfStream);
+
+        mQueue.onInputBufferAvailable(2);
+        assertEquals(3, mEncoder.mQueued.size());
+        assertQueued(mEncoder.mQueued.get(2), 2, 0, timestampUs(1200), true);
+
+        // Nothing left to signal
+        mQueue.onInputBufferAvailable(3);
+        assertEquals(3, mEncoder.mQueued.size());
+    }
+
+    @Test
+    public void testEndOfStreamUsesAWaitingInputBuffer() {
+        mQueue.onInputBufferAvailable(4);
+        mQueue.signalEndOfStream();
+
+        assertEquals(1, mEncoder.mQueued.size());
+        assertQueued(mEncoder.mQueued.get(0), 4, 0, 0, true);
+    }
+
+    @Test
+    public void testCallerMayReuseItsBuffer() {
+        // Like the render loop, which reads every block into the same buffer
+        byte[] buffer = block(800, 1);
+        byte[] first = buffer.clone();
+        mQueue.queue(mQueue.copy(buffer, 800));
+        Arrays.fill(buffer, (byte) 0x55);
+        byte[] second = buffer.clone();
+        mQueue.queue(mQueue.copy(buffer, 300));
+        Arrays.fill(buffer, (byte) 0);
+
+        mQueue.onInputBufferAvailable(0);
+        mQueue.onInputBufferAvailable(1);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(first, 0, 800);
+        expected.write(second, 0, 300);
+        assertArrayEquals(expected.toByteArray(), mEncoder.mEncoded.toByteArray());
+    }
+
+    @Test
+    public void testEncodedSamplesAreReused() {
+        EncoderInputQueue.Sample sample = mQueue.copy(block(800, 1), 800);
+        mQueue.queue(sample);
+
+        // Still queued, so a new one is needed
+        EncoderInputQueue.Sample pending = mQueue.copy(block(800, 2), 800);
+        assertNotSame(sample, pending);
+        mQueue.queue(pending);
+
+        mQueue.onInputBufferAvailable(0);
+        EncoderInputQueue.Sample reused = mQueue.copy(block(400, 3), 400);
+        assertSame(sample, reused);
+        mQueue.queue(reused);
+
+        mQueue.onInputBufferAvailable(1);
+        mQueue.onInputBufferAvailable(2);
+        assertEquals(3, mEncoder.mQueued.size());
+        assertEquals(400, mEncoder.mQueued.get(2).mSize);
+        assertArrayEquals(block(400, 3),
+                Arrays.copyOfRange(mEncoder.mEncoded.toByteArray(), 1600, 2000));
+    }
+
+    @Test
+    public void testReusedSampleGrowsForLargerBlocks() {
+        mQueue.queue(mQueue.copy(block(100, 1), 100));
+        mQueue.onInputBufferAvailable(0);
+
+        byte[] bytes = block(900, 2);
+        mQueue.queue(mQueue.copy(bytes, bytes.length));
+        mQueue.onInputBufferAvailable(1);
+
+        assertEquals(900, mEncoder.mQueued.get(1).mSize);
+        assertArrayEquals(bytes,
+                Arrays.copyOfRange(mEncoder.mEncoded.toByteArray(), 100, 1000));
+    }
+
+    private static void assertQueued(Queued queued, int index, int size,
+            long presentationTimeUs, boolean endOfStream) {
+        assertEquals(index, queued.mIndex);
+        assertEquals(size, queued.mSize);
+        assertEquals(presentationTimeUs, queued.mPresentationTimeUs);
+        assertEquals(endOfStream, queued.mEndOfStream);
+    }
+
+    private static long timestampUs(long position) {
+        return position * 1000000 / BYTES_PER_SECOND;
+    }
+
+    /**
+     * Build a block of bytes that differs for every seed
+     */
+    private static byte[] block(int size, int seed) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+    /**
+     * Stands in for MediaCodec, records what is queued on its input
+     */
+    private static class FakeEncoder implements EncoderInputQueue.Encoder {
+        private final int mCapacity;
+        private final List<ByteBuffer> mBuffers = new ArrayList<>();
+        final List<Queued> mQueued = new ArrayList<>();
+        final ByteArrayOutputStream mEncoded = new ByteArrayOutputStream();
+
+        FakeEncoder(int capacity) {
+            mCapacity = capacity;
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            while (mBuffers.size() <= index) {
+                mBuffers.add(null);
+            }
+            ByteBuffer b = ByteBuffer.allocate(mCapacity);
+            mBuffers.set(index, b);
+            return b;
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int size, long presentationTimeUs,
+                boolean endOfStream) {
+            mQueued.add(new Queued(index, size, presentationTimeUs, endOfStream));
+            if (size > 0) {
+                mEncoded.write(mBuffers.get(index).array(), 0, size);
+            }
+        }
+    }
+
+    private static class Queued {
+        final int mIndex;
+        final int mSize;
+        final long mPresentationTimeUs;
+        final boolean mEndOfStream;
+
+        Queued(int index, int size, long presentationTimeUs, boolean endOfStream) {
+            mIndex = index;
+            mSize = size;
+            mPresentationTimeUs = presentationTimeUs;
+            mEndOfStream = endOfStream;
+        }
+    }
+}
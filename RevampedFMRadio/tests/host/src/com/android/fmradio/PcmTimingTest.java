@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.math.BigInteger;
+
+@RunWith(JUnit4.class)
+public class PcmTimingTest {
+    // 16-bit stereo at 44.1 kHz, as recorded from the FM tuner
+    private static final long BYTES_PER_SECOND = 2 * 44100 * 2;
+
+    @Test
+    public void testBytesPerSecond() {
+        assertEquals(BYTES_PER_SECOND, PcmTiming.getBytesPerSecond(2, 44100, 2));
+        assertEquals(48000, PcmTiming.getBytesPerSecond(1, 48000, 1));
+        assertEquals(384000, PcmTiming.getBytesPerSecond(4, 48000, 2));
+    }
+
+    @Test
+    public void testTimestampOfWholeSeconds() {
+        assertEquals(0, PcmTiming.getPresentationTimestampUs(0, BYTES_PER_SECOND));
+        assertEquals(1000000, PcmTiming.getPresentationTimestampUs(BYTES_PER_SECOND,
+                BYTES_PER_SECOND));
+        assertEquals(500000, PcmTiming.getPresentationTimestampUs(BYTES_PER_SECOND / 2,
+                BYTES_PER_SECOND));
+    }
+
+    @Test
+    public void testTimestampIsExactForLongRecordings() {
+        // Up to a day of audio, well past where float math lost precision
+        long day = BYTES_PER_SECOND * 24 * 3600;
+        for (long position = 0; position < day; position += day / 1000 + 7) {
+            assertEquals("position " + position, expectedTimestampUs(position),
+                    PcmTiming.getPresentationTimestampUs(position, BYTES_PER_SECOND));
+        }
+    }
+
+    @Test
+    public void testTimestampNeverGoesBackwards() {
+        long start = BYTES_PER_SECOND * 3600;
+        long previous = PcmTiming.getPresentationTimestampUs(start, BYTES_PER_SECOND);
+        for (long position = start + 1; position < start + BYTES_PER_SECOND; position++) {
+            long timestamp = PcmTiming.getPresentationTimestampUs(position, BYTES_PER_SECOND);
+            assertTrue("position " + position, timestamp >= previous);
+            previous = timestamp;
+        }
+    }
+
+    private static long expectedTimestampUs(long position) {
+        return BigInteger.valueOf(position).multiply(BigInteger.valueOf(1000000))
+                .divide(BigInteger.valueOf(BYTES_PER_SECOND)).longValue();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.text.DecimalFormatSymbols;
+
+@RunWith(JUnit4.class)
+public class StationMathTest {
+
+    @Test
+    public void testValidStations() {
+        assertTrue(StationMath.isValidStation(StationMath.LOWEST_STATION));
+        assertTrue(StationMath.isValidStation(1000));
+        assertTrue(StationMath.isValidStation(StationMath.HIGHEST_STATION));
+        assertFalse(StationMath.isValidStation(StationMath.LOWEST_STATION - 1));
+        assertFalse(StationMath.isValidStation(StationMath.HIGHEST_STATION + 1));
+        assertFalse(StationMath.isValidStation(0));
+    }
+
+    @Test
+    public void testIncreaseWrapsAroundToTheLowestStation() {
+        assertEquals(1001, StationMath.computeIncreaseStation(1000));
+        assertEquals(StationMath.HIGHEST_STATION,
+                StationMath.computeIncreaseStation(StationMath.HIGHEST_STATION - 1));
+        assertEquals(StationMath.LOWEST_STATION,
+                StationMath.computeIncreaseStation(StationMath.HIGHEST_STATION));
+    }
+
+    @Test
+    public void testDecreaseWrapsAroundToTheHighestStation() {
+        assertEquals(999, StationMath.computeDecreaseStation(1000));
+        assertEquals(StationMath.LOWEST_STATION,
+                StationMath.computeDecreaseStation(StationMath.LOWEST_STATION + 1));
+        assertEquals(StationMath.HIGHEST_STATION,
+                StationMath.computeDecreaseStation(StationMath.LOWEST_STATION));
+    }
+
+    @Test
+    public void testStepsVisitEveryStationOnce() {
+        int count = StationMath.HIGHEST_STATION - StationMath.LOWEST_STATION + 1;
+        int station = StationMath.LOWEST_STATION;
+        for (int i = 0; i < count; i++) {
+            assertTrue("station " + station, StationMath.isValidStation(station));
+            station = StationMath.computeIncreaseStation(station);
+        }
+        assertEquals(StationMath.LOWEST_STATION, station);
+
+        for (int i = 0; i < count; i++) {
+            station = StationMath.computeDecreaseStation(station);
+        }
+        assertEquals(StationMath.LOWEST_STATION, station);
+    }
+
+    @Test
+    public void testFrequencyRoundTripsForEveryStation() {
+        // The frequencies are not exact in float, e.g. 104.1 is stored as
+        // 104.0999985, the conversion must still land on the same station
+        for (int station = StationMath.LOWEST_STATION;
+                station <= StationMath.HIGHEST_STATION; station++) {
+            float frequency = StationMath.computeFrequency(station);
+            assertEquals(station / 10.0f, frequency, 0.0001f);
+            assertEquals("station " + station, station, StationMath.computeStation(frequency));
+        }
+    }
+
+    @Test
+    public void testFormatStation() {
+        char separator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+        assertEquals("87" + separator + "5", StationMath.formatStation(875));
+        assertEquals("104" + separator + "1", StationMath.formatStation(1041));
+        assertEquals("108" + separator + "0", StationMath.formatStation(1080));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.fmradio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class StationSearchIndexTest {
+    private StationSearchIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = new StationSearchIndex();
+        put(1, 1041, "Radio Classic  1041 Opera tonight");
+        put(2, 887, "Jazz FM 887");
+        put(3, 953, "Classic Rock 953");
+    }
+
+    @Test
+    public void testEmptyQueryIsNotFiltered() {
+        assertNull(mIndex.search(""));
+        assertNull(mIndex.search("   "));
+        assertNull(mIndex.search(null));
+    }
+
+    @Test
+    public void testMatchesIgnoringCase() {
+        assertArrayEquals(new int[] { 953, 1041 }, mIndex.search("CLASSIC"));
+        assertArrayEquals(new int[] { 887 }, mIndex.search("jazz"));
+    }
+
+    @Test
+    public void testMatchesEveryTerm() {
+        assertArrayEquals(new int[] { 953 }, mIndex.search("rock classic"));
+        assertArrayEquals(new int[] { 1041 }, mIndex.search("  classic\topera "));
+        assertArrayEquals(new int[0], mIndex.search("jazz rock"));
+    }
+
+    @Test
+    public void testMatchesTermsShorterThanAGram() {
+        assertArrayEquals(new int[] { 887 }, mIndex.search("fm"));
+        assertArrayEquals(new int[] { 953 }, mIndex.search("classic 9"));
+    }
+
+    @Test
+    public void testNoMatch() {
+        assertArrayEquals(new int[0], mIndex.search("pop"));
+        assertArrayEquals(new int[0], mIndex.search("classical"));
+    }
+
+    @Test
+    public void testPutReplacesStation() {
+        put(2, 887, "Blues FM 887");
+
+        assertEquals(3, mIndex.size());
+        assertArrayEquals(new int[0], mIndex.search("jazz"));
+        assertArrayEquals(new int[] { 887 }, mIndex.search("blues"));
+    }
+
+    @Test
+    public void testRemovedStationIsNotFoundAndSlotIsReused() {
+        mIndex.remove(1);
+        assertEquals(2, mIndex.size());
+        assertArrayEquals(new int[] { 953 }, mIndex.search("classic"));
+
+        put(4, 1000, "Classic Hits");
+        assertEquals(3, mIndex.size());
+        assertArrayEquals(new int[] { 953, 1000 }, mIndex.search("classic"));
+        assertArrayEquals(new int[0], mIndex.search("opera"));
+
+        // Removing an unknown station is a no-op
+        mIndex.remove(42);
+        assertEquals(3, mIndex.size());
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("", StationSearchIndex.normalize(null));
+        assertEquals("radio one", StationSearchIndex.normalize("  Radio\n\tONE "));
+    }
+
+    private void put(long id, int frequency, String text) {
+        mIndex.put(id, frequency, StationSearchIndex.normalize(text));
+    }
+}